@@ -0,0 +1,77 @@
+package com.tamaspinter.apigateway;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.filter.ReactiveLoadBalancerClientFilter;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.Ordered;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the {@code fromAccountId} of single payments ({@code POST /api/payments}) so that
+ * {@link AccountPartitionLoadBalancer} can send the payment to the replica owning the source account.
+ * The body is cached, so it is still forwarded to the replica.
+ */
+@Component
+public class AccountPartitionFilter implements GlobalFilter, Ordered {
+
+    public static final String ACCOUNT_ID_ATTR = AccountPartitionFilter.class.getName() + ".accountId";
+
+    private static final String PAYMENTS_PATH = "/api/payments";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        String path = request.getPath().value();
+        if (!HttpMethod.POST.equals(request.getMethod())
+                || !(path.equals(PAYMENTS_PATH) || path.equals(PAYMENTS_PATH + "/"))) {
+            return chain.filter(exchange);
+        }
+        return ServerWebExchangeUtils.cacheRequestBodyAndRequest(exchange, cachedRequest -> {
+            DataBuffer body = exchange.getAttribute(ServerWebExchangeUtils.CACHED_REQUEST_BODY_ATTR);
+            Long accountId = body == null ? null : fromAccountId(body);
+            if (accountId != null) {
+                exchange.getAttributes().put(ACCOUNT_ID_ATTR, accountId);
+            }
+            return chain.filter(exchange.mutate().request(cachedRequest).build());
+        });
+    }
+
+    @Override
+    public int getOrder() {
+        // The account ID must be known when the load balancer picks the instance
+        return ReactiveLoadBalancerClientFilter.LOAD_BALANCER_CLIENT_FILTER_ORDER - 1;
+    }
+
+    /**
+     * Returns the source account of the payment, or {@code null} if the body does not have a valid one.
+     * Invalid payments are still forwarded, the payment API rejects them.
+     */
+    private Long fromAccountId(DataBuffer body) {
+        try {
+            JsonNode node = objectMapper.readTree(body.toString(body.readPosition(), body.readableByteCount(),
+                    StandardCharsets.UTF_8)).path("fromAccountId");
+            if (node.canConvertToExactIntegral() && node.canConvertToLong()) {
+                return node.longValue();
+            }
+            if (node.isTextual()) {
+                return Long.parseLong(node.textValue());
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Fall through
+        }
+        return null;
+    }
+}
@@ -0,0 +1,108 @@
+package com.tamaspinter.apigateway;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.EmptyResponse;
+import org.springframework.cloud.client.loadbalancer.Request;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.loadbalancer.core.NoopServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.RoundRobinLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Sends payments to the payment API replica owning their source account, so that the replicas do not
+ * compete for the same account rows.
+ * <p>
+ * Accounts are assigned to the registered instances by rendezvous hashing: every instance scores the account
+ * and the highest score wins. When an instance joins or leaves, only the accounts it gains or loses move, and
+ * the gateway follows as soon as it sees the new instance list. Instances are identified by their
+ * {@value #PARTITION_METADATA_KEY} Eureka metadata, so a restarted replica takes over the accounts of its
+ * predecessor, falling back to the instance ID.
+ * <p>
+ * Ownership only steers the traffic: during a rebalance two replicas may briefly serve the same account,
+ * which the database locks keep correct. Requests without a source account are balanced round-robin.
+ */
+public class AccountPartitionLoadBalancer implements ReactorServiceInstanceLoadBalancer {
+
+    public static final String PARTITION_METADATA_KEY = "account-partition";
+
+    private final ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSupplierProvider;
+    private final ReactorServiceInstanceLoadBalancer fallback;
+
+    public AccountPartitionLoadBalancer(ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSupplierProvider,
+                                        String serviceId) {
+        this.serviceInstanceListSupplierProvider = serviceInstanceListSupplierProvider;
+        this.fallback = new RoundRobinLoadBalancer(serviceInstanceListSupplierProvider, serviceId);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public Mono<Response<ServiceInstance>> choose(Request request) {
+        Long accountId = accountIdOf(request);
+        if (accountId == null) {
+            return fallback.choose(request);
+        }
+        ServiceInstanceListSupplier supplier = serviceInstanceListSupplierProvider
+                .getIfAvailable(NoopServiceInstanceListSupplier::new);
+        return supplier.get(request).next().map(instances -> {
+            ServiceInstance owner = ownerOf(accountId, instances);
+            return owner == null ? new EmptyResponse() : new DefaultResponse(owner);
+        });
+    }
+
+    /**
+     * Returns the instance owning the account, or {@code null} if there are no instances.
+     */
+    static ServiceInstance ownerOf(long accountId, List<ServiceInstance> instances) {
+        ServiceInstance owner = null;
+        long highestScore = 0;
+        for (ServiceInstance instance : instances) {
+            long score = score(accountId, partitionOf(instance));
+            if (owner == null || Long.compareUnsigned(score, highestScore) > 0) {
+                owner = instance;
+                highestScore = score;
+            }
+        }
+        return owner;
+    }
+
+    static String partitionOf(ServiceInstance instance) {
+        String partition = instance.getMetadata().get(PARTITION_METADATA_KEY);
+        return partition == null || partition.isBlank() ? instance.getInstanceId() : partition;
+    }
+
+    private static Long accountIdOf(Request<?> request) {
+        if (request.getContext() instanceof RequestDataContext context && context.getClientRequest() != null
+                && context.getClientRequest().getAttributes().get(AccountPartitionFilter.ACCOUNT_ID_ATTR) instanceof Long accountId) {
+            return accountId;
+        }
+        return null;
+    }
+
+    private static long score(long accountId, String partition) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : partition.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ b) * 0x100000001b3L;
+        }
+        return mix(hash ^ mix(accountId));
+    }
+
+    /**
+     * The finalizer of MurmurHash3, so that sequential account IDs spread evenly.
+     */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,23 @@
+package com.tamaspinter.apigateway;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ReactorLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+
+/**
+ * Load balancer of the payment API, registered in {@link ApiGatewayApplication}. Not a {@code @Configuration},
+ * so it only applies to the payment API and not to every load-balanced service.
+ */
+public class AccountPartitionLoadBalancerConfiguration {
+
+    @Bean
+    public ReactorLoadBalancer<ServiceInstance> accountPartitionLoadBalancer(Environment environment,
+                                                                             LoadBalancerClientFactory factory) {
+        String serviceId = environment.getProperty(LoadBalancerClientFactory.PROPERTY_NAME);
+        return new AccountPartitionLoadBalancer(factory.getLazyProvider(serviceId, ServiceInstanceListSupplier.class),
+                serviceId);
+    }
+}
@@ -3,9 +3,11 @@ package com.tamaspinter.apigateway;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
+import org.springframework.cloud.loadbalancer.annotation.LoadBalancerClient;
 
 @SpringBootApplication
 @EnableDiscoveryClient
+@LoadBalancerClient(name = "instant-payment-api", configuration = AccountPartitionLoadBalancerConfiguration.class)
 public class ApiGatewayApplication {
     public static void main(String[] args) {
         SpringApplication.run(ApiGatewayApplication.class, args);
@@ -0,0 +1,121 @@
+package com.tamaspinter.apigateway;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.DefaultRequest;
+import org.springframework.cloud.client.loadbalancer.RequestData;
+import org.springframework.cloud.client.loadbalancer.RequestDataContext;
+import org.springframework.cloud.client.loadbalancer.Response;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.support.SimpleObjectProvider;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import reactor.core.publisher.Flux;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AccountPartitionLoadBalancerTest {
+
+    private static final String SERVICE_ID = "instant-payment-api";
+
+    private final List<ServiceInstance> instances = new ArrayList<>(List.of(
+            instance("a", "partition-1"), instance("b", "partition-2"), instance("c", null)));
+
+    private final AccountPartitionLoadBalancer loadBalancer = new AccountPartitionLoadBalancer(
+            new SimpleObjectProvider<>(supplier()), SERVICE_ID);
+
+    @Test
+    void testPaymentsOfAnAccountGoToTheSameInstance() {
+        for (long accountId = 1; accountId <= 100; accountId++) {
+            ServiceInstance owner = choose(accountId);
+            assertSame(AccountPartitionLoadBalancer.ownerOf(accountId, instances), owner);
+            assertSame(owner, choose(accountId));
+        }
+    }
+
+    /**
+     * Every instance owns a share of the accounts, and an instance leaving only moves its own accounts.
+     */
+    @Test
+    void testInstanceLeavingOnlyMovesItsAccounts() {
+        Map<Long, ServiceInstance> owners = new HashMap<>();
+        Map<String, Integer> accountsPerInstance = new HashMap<>();
+        for (long accountId = 1; accountId <= 3000; accountId++) {
+            ServiceInstance owner = AccountPartitionLoadBalancer.ownerOf(accountId, instances);
+            owners.put(accountId, owner);
+            accountsPerInstance.merge(owner.getInstanceId(), 1, Integer::sum);
+        }
+        accountsPerInstance.values().forEach(count -> assertTrue(count > 800, "Uneven partitions: " + accountsPerInstance));
+
+        ServiceInstance leaving = instances.remove(1);
+
+        owners.forEach((accountId, owner) -> {
+            if (owner != leaving) {
+                assertSame(owner, AccountPartitionLoadBalancer.ownerOf(accountId, instances));
+            }
+        });
+    }
+
+    /**
+     * A replica restarted with the same partition metadata takes over the accounts of its predecessor.
+     */
+    @Test
+    void testOwnershipFollowsPartitionMetadata() {
+        ServiceInstance owner = AccountPartitionLoadBalancer.ownerOf(42L, instances);
+        String partition = AccountPartitionLoadBalancer.partitionOf(owner);
+
+        instances.remove(owner);
+        ServiceInstance restarted = instance("restarted", partition);
+        instances.add(restarted);
+
+        assertSame(restarted, AccountPartitionLoadBalancer.ownerOf(42L, instances));
+    }
+
+    @Test
+    void testRequestsWithoutAccountAreBalancedRoundRobin() {
+        RequestData data = new RequestData(HttpMethod.GET, URI.create("/api/accounts/1"), new HttpHeaders(), null, Map.of());
+        DefaultRequest<RequestDataContext> request = new DefaultRequest<>(new RequestDataContext(data));
+
+        List<ServiceInstance> chosen = new ArrayList<>();
+        for (int i = 0; i < instances.size(); i++) {
+            chosen.add(loadBalancer.choose(request).block().getServer());
+        }
+
+        assertTrue(chosen.containsAll(instances));
+    }
+
+    private ServiceInstance choose(long accountId) {
+        Map<String, Object> attributes = Map.of(AccountPartitionFilter.ACCOUNT_ID_ATTR, accountId);
+        RequestData data = new RequestData(HttpMethod.POST, URI.create("/api/payments"), new HttpHeaders(), null, attributes);
+        Response<ServiceInstance> response = loadBalancer.choose(new DefaultRequest<>(new RequestDataContext(data))).block();
+        assertNotNull(response);
+        return response.getServer();
+    }
+
+    private ServiceInstanceListSupplier supplier() {
+        return new ServiceInstanceListSupplier() {
+            @Override
+            public String getServiceId() {
+                return SERVICE_ID;
+            }
+
+            @Override
+            public Flux<List<ServiceInstance>> get() {
+                return Flux.defer(() -> Flux.just(List.copyOf(instances)));
+            }
+        };
+    }
+
+    private static ServiceInstance instance(String id, String partition) {
+        Map<String, String> metadata = partition == null ? Map.of()
+                : Map.of(AccountPartitionLoadBalancer.PARTITION_METADATA_KEY, partition);
+        return new DefaultServiceInstance(id, SERVICE_ID, id + ".local", 8080, false, metadata);
+    }
+}
@@ -7,4 +7,6 @@ TOPIC_NAME=${TOPIC_TRANSACTION_NOTIFICATION}
 ./opt/kafka/bin/kafka-console-consumer.sh \
   --bootstrap-server "$BOOTSTRAP_SERVER" \
   --topic "$TOPIC_NAME" \
+  --property print.key=true \
+  --property print.value=false \
   --from-beginning
@@ -1,11 +1,17 @@
 package com.tamaspinter.instantpaymentapi.config;
 
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionEvent;
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionEventSerializer;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.MicrometerProducerListener;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 
 import java.util.HashMap;
@@ -14,20 +20,98 @@ import java.util.Map;
 @Configuration
 public class KafkaProducerConfig {
 
+    /**
+     * Kafka client defaults.
+     */
+    public static final String PROFILE_DEFAULT = "default";
+
+    /**
+     * Idempotent producer that compresses and batches records, trading a few milliseconds of linger for throughput.
+     */
+    public static final String PROFILE_HIGH_THROUGHPUT = "high-throughput";
+
     @Value("${spring.kafka.bootstrap-servers}")
     private String bootstrapServers;
 
+    @Value("${payment.kafka.producer.profile:" + PROFILE_DEFAULT + "}")
+    private String profile;
+
+    @Value("${payment.kafka.producer.compression-type:zstd}")
+    private String compressionType;
+
+    @Value("${payment.kafka.producer.linger-ms:20}")
+    private int lingerMs;
+
+    @Value("${payment.kafka.producer.batch-size:131072}")
+    private int batchSize;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Bean
     public Map<String, Object> producerConfigs() {
         Map<String, Object> props = new HashMap<>();
         props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
         props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.putAll(profileConfigs(profile, compressionType, lingerMs, batchSize));
         return props;
     }
 
     @Bean
     public KafkaTemplate<String, String> kafkaTemplate() {
-        return new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(producerConfigs()));
+        return new KafkaTemplate<>(withMetrics(new DefaultKafkaProducerFactory<>(producerConfigs())));
+    }
+
+    /**
+     * Sends transaction notifications in their binary layout.
+     */
+    @Bean
+    public KafkaTemplate<String, TransactionEvent> transactionEventKafkaTemplate() {
+        return new KafkaTemplate<>(withMetrics(new DefaultKafkaProducerFactory<>(
+                producerConfigs(), new StringSerializer(), new TransactionEventSerializer())));
+    }
+
+    /**
+     * Sends outbox events, whose payload is already serialized.
+     */
+    @Bean
+    public KafkaTemplate<String, byte[]> outboxKafkaTemplate() {
+        return new KafkaTemplate<>(withMetrics(new DefaultKafkaProducerFactory<>(
+                producerConfigs(), new StringSerializer(), new ByteArraySerializer())));
+    }
+
+    /**
+     * Exports the client metrics of the producers as {@code kafka.producer.*} meters, among them the free buffer
+     * memory, the time records wait in the accumulator and the threads blocked on a full buffer.
+     */
+    private <V> DefaultKafkaProducerFactory<String, V> withMetrics(DefaultKafkaProducerFactory<String, V> factory) {
+        factory.addListener(new MicrometerProducerListener<>(meterRegistry));
+        return factory;
+    }
+
+    /**
+     * Returns the producer settings of a named profile.
+     *
+     * @throws IllegalArgumentException if the profile is unknown.
+     */
+    public static Map<String, Object> profileConfigs(String profile, String compressionType, int lingerMs, int batchSize) {
+        Map<String, Object> props = new HashMap<>();
+        switch (profile) {
+            case PROFILE_DEFAULT -> {
+            }
+            case PROFILE_HIGH_THROUGHPUT -> {
+                // Idempotence needs acks=all and at most 5 in-flight requests to keep per-partition ordering;
+                // with any other acks the client refuses to start, so it is not configurable
+                props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+                props.put(ProducerConfig.ACKS_CONFIG, "all");
+                props.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, 5);
+                props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType);
+                props.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+                props.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+            }
+            default -> throw new IllegalArgumentException("Unknown Kafka producer profile: " + profile);
+        }
+        return props;
     }
 }
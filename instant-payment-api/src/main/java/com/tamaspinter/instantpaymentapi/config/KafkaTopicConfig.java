@@ -0,0 +1,39 @@
+package com.tamaspinter.instantpaymentapi.config;
+
+import com.tamaspinter.instantpaymentapi.service.cache.AccountCache;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
+import org.springframework.kafka.core.KafkaAdmin;
+
+import java.util.stream.IntStream;
+
+@Configuration
+public class KafkaTopicConfig {
+
+    public static final String ACCOUNT_INVALIDATION_PARTITIONS = "accountInvalidationPartitions";
+
+    /**
+     * Created with the broker's default partitions and replication if it does not exist yet.
+     */
+    @Bean
+    public NewTopic accountInvalidationTopic() {
+        return TopicBuilder.name(AccountCache.TOPIC_ACCOUNT_INVALIDATION).build();
+    }
+
+    /**
+     * The partitions of the invalidation topic, which every replica's account cache assigns to itself. The topic is
+     * created here rather than when the application has started, as the listener needs its partitions to start.
+     * Partitions added later are read after a restart.
+     *
+     * @throws org.springframework.kafka.KafkaException if the broker cannot be reached.
+     */
+    @Bean(ACCOUNT_INVALIDATION_PARTITIONS)
+    public String[] accountInvalidationPartitions(KafkaAdmin kafkaAdmin, NewTopic accountInvalidationTopic) {
+        kafkaAdmin.createOrModifyTopics(accountInvalidationTopic);
+        int partitions = kafkaAdmin.describeTopics(accountInvalidationTopic.name())
+                .get(accountInvalidationTopic.name()).partitions().size();
+        return IntStream.range(0, partitions).mapToObj(Integer::toString).toArray(String[]::new);
+    }
+}
@@ -0,0 +1,28 @@
+package com.tamaspinter.instantpaymentapi.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * The threads that parse streamed batches. A parser holds its thread for the whole upload, so the streams get a pool
+ * of their own: at most {@code payment.stream.max-streams} run at once and further ones are refused rather than
+ * queued, and {@code @Async} work or the scheduled jobs on the application task executor are never starved by them.
+ */
+@Configuration
+public class PaymentStreamConfig {
+
+    public static final String STREAM_EXECUTOR = "paymentStreamExecutor";
+
+    @Bean(STREAM_EXECUTOR)
+    public ThreadPoolTaskExecutor paymentStreamExecutor(@Value("${payment.stream.max-streams:16}") int maxStreams) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(maxStreams);
+        executor.setMaxPoolSize(maxStreams);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("payment-stream-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        return executor;
+    }
+}
@@ -0,0 +1,77 @@
+package com.tamaspinter.instantpaymentapi.config;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Refuses to start with virtual threads ({@code spring.threads.virtual.enabled}, see the {@code virtual-threads}
+ * profile) on a runtime or a connection pool that does not fit them.
+ * <p>
+ * Spring Boot silently keeps platform threads below Java 21. With virtual threads the number of concurrent requests
+ * is no longer bounded by a thread pool, so the HikariCP pool must be fixed-size, at most
+ * {@code payment.virtual-threads.max-pool-size} connections, and must not let requests wait longer than
+ * {@code payment.virtual-threads.max-connection-wait-ms} for a connection.
+ */
+@Component
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadsValidator {
+
+    private final DataSource dataSource;
+    private final int maxPoolSize;
+    private final long maxConnectionWaitMs;
+
+    public VirtualThreadsValidator(DataSource dataSource,
+                                   @Value("${payment.virtual-threads.max-pool-size:45}") int maxPoolSize,
+                                   @Value("${payment.virtual-threads.max-connection-wait-ms:2000}") long maxConnectionWaitMs) {
+        this.dataSource = dataSource;
+        this.maxPoolSize = maxPoolSize;
+        this.maxConnectionWaitMs = maxConnectionWaitMs;
+    }
+
+    @PostConstruct
+    public void validate() {
+        HikariConfig pool = dataSource instanceof HikariDataSource hikari ? hikari : null;
+        List<String> problems = problems(Runtime.version().feature(), pool);
+        if (!problems.isEmpty()) {
+            throw new IllegalStateException("Virtual threads are misconfigured: " + String.join("; ", problems));
+        }
+    }
+
+    /**
+     * Lists what does not fit virtual threads.
+     *
+     * @param javaVersion The feature version of the Java runtime.
+     * @param pool        The connection pool, {@code null} if it is not HikariCP.
+     * @return The problems, empty if there are none.
+     */
+    public List<String> problems(int javaVersion, HikariConfig pool) {
+        List<String> problems = new ArrayList<>();
+        if (javaVersion < 21) {
+            problems.add("they need Java 21 or later, running on Java " + javaVersion);
+        }
+        if (pool == null) {
+            return problems;
+        }
+        if (pool.getMaximumPoolSize() > maxPoolSize) {
+            problems.add("spring.datasource.hikari.maximum-pool-size is " + pool.getMaximumPoolSize()
+                    + ", more than payment.virtual-threads.max-pool-size (" + maxPoolSize + ")");
+        }
+        if (pool.getMinimumIdle() != pool.getMaximumPoolSize()) {
+            problems.add("spring.datasource.hikari.minimum-idle must equal maximum-pool-size ("
+                    + pool.getMaximumPoolSize() + "), so bursts do not open connections");
+        }
+        if (pool.getConnectionTimeout() > maxConnectionWaitMs) {
+            problems.add("spring.datasource.hikari.connection-timeout is " + pool.getConnectionTimeout()
+                    + " ms, more than payment.virtual-threads.max-connection-wait-ms (" + maxConnectionWaitMs + ")");
+        }
+        return problems;
+    }
+}
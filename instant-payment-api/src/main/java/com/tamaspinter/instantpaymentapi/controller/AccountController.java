@@ -1,9 +1,12 @@
 package com.tamaspinter.instantpaymentapi.controller;
 
 import com.tamaspinter.instantpaymentapi.dto.AccountRequest;
+import com.tamaspinter.instantpaymentapi.dto.BalanceSlotsRequest;
 import com.tamaspinter.instantpaymentapi.dto.DepositRequest;
+import com.tamaspinter.instantpaymentapi.dto.TransactionHistoryPage;
 import com.tamaspinter.instantpaymentapi.entity.Account;
 import com.tamaspinter.instantpaymentapi.service.AccountService;
+import com.tamaspinter.instantpaymentapi.service.TransactionHistoryService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.ExampleObject;
@@ -11,6 +14,7 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.apache.kafka.common.errors.InvalidRequestException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -26,6 +30,9 @@ public class AccountController {
     @Autowired
     private AccountService accountService;
 
+    @Autowired
+    private TransactionHistoryService transactionHistoryService;
+
     /**
      * Creates a new account.
      *
@@ -45,11 +52,12 @@ public class AccountController {
                             value = "{\n" +
                                     "    \"id\": 5,\n" +
                                     "    \"balance\": 0,\n" +
+                                    "    \"currency\": \"EUR\",\n" +
                                     "    \"accountName\": \"Savings account\",\n" +
                                     "    \"ownerName\": \"Tamas Pinter\",\n" +
                                     "    \"version\": 0\n" +
                                     "}"))),
-            @ApiResponse(responseCode = "400", description = "Invalid input",
+            @ApiResponse(responseCode = "400", description = "Invalid input or unsupported currency",
                     content = @Content(mediaType = "application/json", examples = @ExampleObject(
                             name = "Invalid Input Example",
                             value = "{\n" +
@@ -62,9 +70,13 @@ public class AccountController {
                     responseCode = "500", description = "Internal server error")
     })
     @PostMapping
-    public ResponseEntity<Account> createAccount(@RequestBody AccountRequest request) {
-        Account account = accountService.createAccount(request);
-        return ResponseEntity.ok(account);
+    public ResponseEntity<?> createAccount(@RequestBody AccountRequest request) {
+        try {
+            Account account = accountService.createAccount(request);
+            return ResponseEntity.ok(account);
+        } catch (InvalidRequestException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
     }
 
     /**
@@ -85,6 +97,7 @@ public class AccountController {
                             value = "{\n" +
                                     "    \"id\": 1,\n" +
                                     "    \"balance\": 162.00,\n" +
+                                    "    \"currency\": \"EUR\",\n" +
                                     "    \"accountName\": \"Savings\",\n" +
                                     "    \"ownerName\": \"Tamas Pinter\",\n" +
                                     "    \"version\": 11\n" +
@@ -122,7 +135,7 @@ public class AccountController {
             @ApiResponse(responseCode = "200", description = "Deposit successful",
                     content = @Content(mediaType = "application/json", schema = @Schema(implementation = Account.class))),
             @ApiResponse(responseCode = "404", description = "Account with ID <accountId> not found"),
-            @ApiResponse(responseCode = "400", description = "Invalid deposit amount"),
+            @ApiResponse(responseCode = "400", description = "Invalid deposit amount, or not in the currency of the account"),
             @ApiResponse(responseCode = "500", description = "Internal server error")
     })
     @PostMapping("/deposit")
@@ -134,6 +147,89 @@ public class AccountController {
             return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Account with ID " + depositRequest.accountId() + " not found");
         } catch (IllegalArgumentException e) {
             return ResponseEntity.badRequest().body("Invalid deposit amount");
+        } catch (InvalidRequestException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (RuntimeException e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Spreads the incoming payments of a hot account across balance slots.
+     *
+     * @param accountId The ID of the account.
+     * @param request   The number of balance slots, 0 to turn sharding off.
+     * @return The updated account.
+     */
+    @Operation(
+            summary = "Set the balance slots of an account",
+            description = "Spreads the incoming payments of a frequently credited account, such as a merchant's, "
+                    + "across the given number of balance slots so they do not all update the same row. "
+                    + "The returned balance is the sum of the account and its slots. 0 slots turns sharding off.",
+            operationId = "setAccountBalanceSlots"
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Balance slots updated",
+                    content = @Content(mediaType = "application/json", schema = @Schema(implementation = Account.class))),
+            @ApiResponse(responseCode = "400", description = "Invalid number of balance slots"),
+            @ApiResponse(responseCode = "404", description = "Account with ID <accountId> not found"),
+            @ApiResponse(responseCode = "500", description = "Internal server error")
+    })
+    @PutMapping("/{accountId}/balance-slots")
+    public ResponseEntity<?> setBalanceSlots(@PathVariable("accountId") Long accountId,
+                                             @RequestBody BalanceSlotsRequest request) {
+        if (request.slots() == null) {
+            return ResponseEntity.badRequest().body("Number of balance slots is required");
+        }
+        try {
+            return ResponseEntity.ok(accountService.setBalanceSlots(accountId, request.slots()));
+        } catch (AccountNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Account with ID " + accountId + " not found");
+        } catch (InvalidRequestException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (RuntimeException e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Returns the transactions of an account, newest first, one page at a time.
+     *
+     * @param accountId The ID of the account.
+     * @param cursor    The cursor of the page, as returned with the previous page.
+     * @param size      The maximum number of transactions on the page.
+     * @return The page of transactions and the cursor of the next page.
+     */
+    @Operation(
+            summary = "Get the transactions of an account",
+            description = "Returns the sent and received transactions of an account, newest first. "
+                    + "Pass the returned nextCursor to get the next page; it is null on the last page.",
+            operationId = "getAccountTransactions"
+    )
+    @ApiResponses({
+            @ApiResponse(responseCode = "200", description = "Page of transactions retrieved successfully",
+                    content = @Content(mediaType = "application/json", schema = @Schema(implementation = TransactionHistoryPage.class), examples = @ExampleObject(
+                            name = "Transactions Example",
+                            value = "{\n" +
+                                    "    \"transactions\": [\n" +
+                                    "        { \"id\": 42, \"fromAccountId\": 1, \"toAccountId\": 2, \"amount\": 10.50, \"createdAt\": \"2025-03-07T17:56:56.828359\" }\n" +
+                                    "    ],\n" +
+                                    "    \"nextCursor\": \"MjAyNS0wMy0wN1QxNzo1Njo1Ni44MjgzNTlfNDI\"\n" +
+                                    "}"))),
+            @ApiResponse(responseCode = "400", description = "Invalid cursor or page size"),
+            @ApiResponse(responseCode = "404", description = "Account with ID <accountId> not found"),
+            @ApiResponse(responseCode = "500", description = "Internal server error")
+    })
+    @GetMapping("/{accountId}/transactions")
+    public ResponseEntity<?> getTransactions(@PathVariable("accountId") Long accountId,
+                                             @RequestParam(value = "cursor", required = false) String cursor,
+                                             @RequestParam(value = "size", defaultValue = "50") int size) {
+        try {
+            return ResponseEntity.ok(transactionHistoryService.getHistory(accountId, cursor, size));
+        } catch (AccountNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Account with ID " + accountId + " not found");
+        } catch (InvalidRequestException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
         } catch (RuntimeException e) {
             return ResponseEntity.internalServerError().build();
         }
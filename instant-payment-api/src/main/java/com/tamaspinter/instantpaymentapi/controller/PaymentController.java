@@ -1,9 +1,16 @@
 package com.tamaspinter.instantpaymentapi.controller;
 
+import com.tamaspinter.instantpaymentapi.dto.PaymentBatchItemResult;
 import com.tamaspinter.instantpaymentapi.dto.PaymentRequest;
 import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.service.IdempotencyStore;
+import com.tamaspinter.instantpaymentapi.service.PaymentMetrics;
+import com.tamaspinter.instantpaymentapi.service.PaymentMetrics.Outcome;
+import com.tamaspinter.instantpaymentapi.service.PaymentRetryExecutor;
 import com.tamaspinter.instantpaymentapi.service.PaymentService;
+import com.tamaspinter.instantpaymentapi.service.PaymentStreamProcessor;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.ExampleObject;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -11,12 +18,21 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.persistence.EntityNotFoundException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.apache.kafka.common.errors.InvalidRequestException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.util.List;
+
 @Tag(name = "Payments API", description = "Endpoints for managing payments")
 @RestController
 @RequestMapping("/api/payments")
@@ -25,15 +41,31 @@ public class PaymentController {
     @Autowired
     private PaymentService paymentService;
 
+    @Autowired
+    private PaymentRetryExecutor paymentRetryExecutor;
+
+    @Autowired
+    private PaymentStreamProcessor paymentStreamProcessor;
+
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+
+    @Autowired
+    private PaymentMetrics paymentMetrics;
+
     /**
      * Processes a payment transaction between two accounts.
+     * A repeated idempotency key returns the transaction of the first request instead of paying again.
      *
-     * @param request The payment request details.
+     * @param idempotencyKey Optional key identifying the payment across client retries.
+     * @param request        The payment request details.
      * @return Payment transaction details if successful.
      */
     @Operation(
             summary = "Send a payment",
-            description = "Processes a payment between two accounts and returns transaction details.",
+            description = "Processes a payment between two accounts and returns transaction details. "
+                    + "Requests repeated with the same Idempotency-Key header return the original transaction "
+                    + "without moving money again.",
             operationId = "sendPayment"
     )
     @ApiResponses({
@@ -44,7 +76,7 @@ public class PaymentController {
                             value = "{ \"id\": \"1\", \"fromAccountId\": \"1\", \"toAccountId\": \"2\", \"amount\": 10.50, \"createdAt\": \"2025-03-07T17:56:56.828359453\" }"))
             ),
             @ApiResponse(
-                    responseCode = "400", description = "Invalid request",
+                    responseCode = "400", description = "Invalid request, or an idempotency key reused for a different payment",
                     content = @Content(mediaType = "application/json", examples = @ExampleObject(
                             name = "Invalid Request Example",
                             value = "{ \"error\": \"Amount must be positive\" }"))),
@@ -53,6 +85,11 @@ public class PaymentController {
                     content = @Content(mediaType = "application/json", examples = @ExampleObject(
                             name = "Account Not Found Example",
                             value = "{ \"error\": \"Account 1 not found\" }"))),
+            @ApiResponse(
+                    responseCode = "409", description = "Concurrent updates of the same account, retries exhausted",
+                    content = @Content(mediaType = "application/json", examples = @ExampleObject(
+                            name = "Conflict Example",
+                            value = "{ \"error\": \"Concurrent update of the account, please retry\" }"))),
             @ApiResponse(
                     responseCode = "500", description = "Database error or internal server error",
                     content = @Content(mediaType = "application/json", examples = @ExampleObject(
@@ -60,7 +97,11 @@ public class PaymentController {
                             value = "{ \"error\": \"Database error\" }")))
     })
     @PostMapping
-    public ResponseEntity<?> sendPayment(@RequestBody
+    public ResponseEntity<?> sendPayment(@RequestHeader(value = "Idempotency-Key", required = false)
+                                         @io.swagger.v3.oas.annotations.Parameter(
+                                                 description = "Client-generated key, e.g. a UUID, that makes retries of the same payment safe")
+                                         String idempotencyKey,
+                                         @RequestBody
                                          @io.swagger.v3.oas.annotations.parameters.RequestBody(
                                                  description = "Payment request details",
                                                  required = true,
@@ -69,16 +110,99 @@ public class PaymentController {
                                                                  value = "{ \"fromAccount\": \"1\", \"toAccount\": \"2\", \"amount\": 10.50 }")))
                                          PaymentRequest request) {
         try {
-            PaymentTransaction tx = paymentService.processPayment(request);
+            PaymentTransaction tx = idempotencyKey == null
+                    ? paymentRetryExecutor.execute(() -> paymentService.processPayment(request))
+                    : idempotencyStore.execute(idempotencyKey, request,
+                    () -> paymentRetryExecutor.execute(() -> paymentService.processPayment(request, idempotencyKey)));
+            paymentMetrics.count(Outcome.SUCCEEDED);
             return ResponseEntity.ok(tx);
         } catch (InvalidRequestException e) {
+            paymentMetrics.count(Outcome.REJECTED);
             return ResponseEntity.badRequest().body(e.getMessage());
         } catch (EntityNotFoundException e) {
+            paymentMetrics.count(Outcome.NOT_FOUND);
             return ResponseEntity.notFound().build();
+        } catch (OptimisticLockingFailureException e) {
+            paymentMetrics.count(Outcome.CONFLICT);
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Concurrent update of the account, please retry");
         } catch (DataAccessResourceFailureException e) {
+            paymentMetrics.count(Outcome.DATABASE_ERROR);
             return ResponseEntity.internalServerError().body("Database error");
+        } catch (RuntimeException e) {
+            paymentMetrics.count(Outcome.FAILED);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Processes a batch of payments, committing them in chunks.
+     *
+     * @param requests The payments to process, in order.
+     * @return The result of each payment, in the order of the requests.
+     */
+    @Operation(
+            summary = "Send a batch of payments",
+            description = "Validates all payments up front, then processes them in order, committing them in chunks. "
+                    + "Returns one result per payment; a rejected payment does not affect the others.",
+            operationId = "sendPaymentBatch"
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200", description = "Batch processed, see the per-payment results",
+                    content = @Content(mediaType = "application/json",
+                            array = @ArraySchema(schema = @Schema(implementation = PaymentBatchItemResult.class)),
+                            examples = @ExampleObject(
+                                    name = "Success Example",
+                                    value = "[ { \"index\": 0, \"status\": \"SUCCEEDED\", \"transactionId\": 41, \"error\": null }, "
+                                            + "{ \"index\": 1, \"status\": \"REJECTED\", \"transactionId\": null, \"error\": \"Insufficient balance\" } ]"))
+            ),
+            @ApiResponse(
+                    responseCode = "400", description = "Empty or too large batch",
+                    content = @Content(mediaType = "application/json", examples = @ExampleObject(
+                            name = "Invalid Batch Example",
+                            value = "{ \"error\": \"Payment batch cannot be empty\" }"))),
+            @ApiResponse(responseCode = "500", description = "Internal server error")
+    })
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> sendPaymentBatch(@RequestBody List<PaymentRequest> requests) {
+        try {
+            return ResponseEntity.ok(paymentService.processBatch(requests));
+        } catch (InvalidRequestException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
         } catch (RuntimeException e) {
             return ResponseEntity.internalServerError().build();
         }
     }
+
+    /**
+     * Processes a stream of payments, one JSON payment request per line, writing one result per line
+     * as the payments are committed. Memory use does not depend on the size of the stream.
+     *
+     * @param request  The request with the newline-delimited JSON body.
+     * @param response The response the results are streamed to.
+     */
+    @Operation(
+            summary = "Stream a batch of payments",
+            description = "Accepts newline-delimited JSON payment requests of any number, processes them in order in "
+                    + "committed chunks and streams back one newline-delimited JSON result per payment.",
+            operationId = "streamPaymentBatch"
+    )
+    @ApiResponses({
+            @ApiResponse(
+                    responseCode = "200", description = "Results streamed, one per line",
+                    content = @Content(mediaType = MediaType.APPLICATION_NDJSON_VALUE, examples = @ExampleObject(
+                            name = "Streamed Results Example",
+                            value = "{ \"index\": 0, \"status\": \"SUCCEEDED\", \"transactionId\": 41, \"error\": null }\n"
+                                    + "{ \"index\": 1, \"status\": \"REJECTED\", \"transactionId\": null, \"error\": \"Malformed payment request\" }"))),
+            @ApiResponse(responseCode = "503", description = "Too many streams are being processed, try again later")
+    })
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void streamPaymentBatch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        try {
+            paymentStreamProcessor.process(request.getInputStream(), response.getOutputStream());
+        } catch (TaskRejectedException e) {
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Too many payment streams");
+        }
+    }
 }
@@ -1,6 +1,14 @@
 package com.tamaspinter.instantpaymentapi.dto;
 
+import com.tamaspinter.instantpaymentapi.entity.Money;
+
+import java.util.Currency;
+
+/**
+ * @param currency The currency of the account, the {@link Money#DEFAULT_CURRENCY} if omitted.
+ */
 public record AccountRequest(
         String accountName,
-        String ownerName) {
+        String ownerName,
+        Currency currency) {
 }
@@ -0,0 +1,5 @@
+package com.tamaspinter.instantpaymentapi.dto;
+
+public record BalanceSlotsRequest(
+        Integer slots) {
+}
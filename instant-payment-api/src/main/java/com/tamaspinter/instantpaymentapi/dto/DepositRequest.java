@@ -1,8 +1,29 @@
 package com.tamaspinter.instantpaymentapi.dto;
 
-import java.math.BigDecimal;
+import com.tamaspinter.instantpaymentapi.entity.Money;
 
+import java.util.Currency;
+
+/**
+ * @param currency The currency of the amount, which must be the account's; the {@link Money#DEFAULT_CURRENCY}
+ *                 if omitted.
+ */
 public record DepositRequest(
         Long accountId,
-        BigDecimal amount) {
+        Money amount,
+        Currency currency) {
+
+    public DepositRequest {
+        if (amount != null) {
+            if (currency == null) {
+                currency = amount.currency();
+            } else {
+                amount = amount.withCurrency(currency);
+            }
+        }
+    }
+
+    public DepositRequest(Long accountId, Money amount) {
+        this(accountId, amount, null);
+    }
 }
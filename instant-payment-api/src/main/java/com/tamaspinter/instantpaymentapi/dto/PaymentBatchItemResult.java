@@ -0,0 +1,31 @@
+package com.tamaspinter.instantpaymentapi.dto;
+
+/**
+ * Outcome of one payment of a batch, in the order of the submitted requests.
+ *
+ * @param index         Position of the payment in the submitted batch.
+ * @param status        What happened to the payment.
+ * @param transactionId ID of the created transaction, only set on success.
+ * @param error         Reason of the failure, only set when the payment was not processed.
+ */
+public record PaymentBatchItemResult(
+        int index,
+        Status status,
+        Long transactionId,
+        String error) {
+
+    public enum Status {
+        SUCCEEDED,
+        REJECTED,
+        NOT_FOUND,
+        FAILED
+    }
+
+    public static PaymentBatchItemResult succeeded(int index, Long transactionId) {
+        return new PaymentBatchItemResult(index, Status.SUCCEEDED, transactionId, null);
+    }
+
+    public static PaymentBatchItemResult failed(int index, Status status, String error) {
+        return new PaymentBatchItemResult(index, status, null, error);
+    }
+}
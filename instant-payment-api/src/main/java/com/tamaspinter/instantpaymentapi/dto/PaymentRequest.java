@@ -1,9 +1,31 @@
 package com.tamaspinter.instantpaymentapi.dto;
 
-import java.math.BigDecimal;
+import com.tamaspinter.instantpaymentapi.entity.Money;
 
+import java.util.Currency;
+
+/**
+ * @param amount   The amount to debit from the source account.
+ * @param currency The currency of the amount, which must be the source account's; the {@link Money#DEFAULT_CURRENCY}
+ *                 if omitted. The target account is credited in its own currency.
+ */
 public record PaymentRequest(
         Long fromAccountId,
         Long toAccountId,
-        BigDecimal amount) {
+        Money amount,
+        Currency currency) {
+
+    public PaymentRequest {
+        if (amount != null) {
+            if (currency == null) {
+                currency = amount.currency();
+            } else {
+                amount = amount.withCurrency(currency);
+            }
+        }
+    }
+
+    public PaymentRequest(Long fromAccountId, Long toAccountId, Money amount) {
+        this(fromAccountId, toAccountId, amount, null);
+    }
 }
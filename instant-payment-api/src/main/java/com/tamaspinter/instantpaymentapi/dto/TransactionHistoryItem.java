@@ -0,0 +1,33 @@
+package com.tamaspinter.instantpaymentapi.dto;
+
+import com.tamaspinter.instantpaymentapi.entity.Money;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Currency;
+
+/**
+ * One transaction of an account's history, read without loading the entity. The credit fields are only set for
+ * cross-currency payments, see {@link com.tamaspinter.instantpaymentapi.entity.PaymentTransaction}.
+ */
+public record TransactionHistoryItem(
+        Long id,
+        Long fromAccountId,
+        Long toAccountId,
+        Money amount,
+        Currency currency,
+        Money creditAmount,
+        Currency creditCurrency,
+        BigDecimal fxRate,
+        LocalDateTime createdAt) {
+
+    /**
+     * Tags the amounts with their currencies, as the query reads them from their columns without one.
+     */
+    public TransactionHistoryItem {
+        amount = amount.withCurrency(currency);
+        if (creditAmount != null) {
+            creditAmount = creditAmount.withCurrency(creditCurrency);
+        }
+    }
+}
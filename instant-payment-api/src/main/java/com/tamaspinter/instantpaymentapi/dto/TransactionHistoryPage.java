@@ -0,0 +1,14 @@
+package com.tamaspinter.instantpaymentapi.dto;
+
+import java.util.List;
+
+/**
+ * A page of an account's transactions, newest first.
+ *
+ * @param transactions The transactions of the page.
+ * @param nextCursor   Cursor of the next, older page, or {@code null} on the last page.
+ */
+public record TransactionHistoryPage(
+        List<TransactionHistoryItem> transactions,
+        String nextCursor) {
+}
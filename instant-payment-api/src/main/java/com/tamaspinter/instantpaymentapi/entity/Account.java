@@ -1,10 +1,12 @@
 package com.tamaspinter.instantpaymentapi.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnDefault;
 
-import java.math.BigDecimal;
+import java.util.Currency;
 
 @Data
 @Entity
@@ -13,11 +15,22 @@ import java.math.BigDecimal;
 public class Account {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "account_seq")
+    @SequenceGenerator(name = "account_seq", sequenceName = "account_seq", allocationSize = IdAllocation.BLOCK_SIZE)
     private Long id;
 
+    /**
+     * The balance, in the account's {@link #currency}.
+     */
     @Column(nullable = false)
-    private BigDecimal balance;
+    private Money balance;
+
+    /**
+     * The currency of the account's balance and of every payment it sends. Fixed when the account is opened.
+     */
+    @ColumnDefault("'EUR'")
+    @Column(nullable = false, length = 3)
+    private Currency currency = Money.DEFAULT_CURRENCY;
 
     @Column
     private String accountName;
@@ -25,10 +38,42 @@ public class Account {
     @Column(nullable = false)
     private String ownerName;
 
+    /**
+     * The number of {@link AccountBalanceSlot}s the account's credits are spread across, {@code 0} if it is not
+     * sharded.
+     */
+    @ColumnDefault("0")
+    @Column(name = "balance_slots", nullable = false)
+    private int balanceSlots;
+
     @Version
     private Long version;
 
-    public Account(BigDecimal balance) {
+    public Account(Money balance) {
         this.balance = balance;
+        this.currency = balance.currency();
+    }
+
+    @PostLoad
+    private void tagBalance() {
+        balance = balance.withCurrency(currency);
+    }
+
+    @JsonIgnore
+    public boolean isSharded() {
+        return balanceSlots > 0;
+    }
+
+    /**
+     * Returns a detached copy of the account with the given balance.
+     */
+    public Account withBalance(Money balance) {
+        Account copy = new Account(balance);
+        copy.setId(id);
+        copy.setAccountName(accountName);
+        copy.setOwnerName(ownerName);
+        copy.setBalanceSlots(balanceSlots);
+        copy.setVersion(version);
+        return copy;
     }
 }
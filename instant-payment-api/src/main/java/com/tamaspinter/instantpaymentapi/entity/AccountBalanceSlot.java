@@ -0,0 +1,36 @@
+package com.tamaspinter.instantpaymentapi.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One part of the balance of a sharded account. The balance of such an account is its own
+ * {@code balance} plus the balances of all of its slots.
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "account_balance_slot", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_account_balance_slot_account_id_slot", columnNames = {"account_id", "slot"})
+})
+public class AccountBalanceSlot {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "account_id", nullable = false)
+    private Long accountId;
+
+    @Column(nullable = false)
+    private int slot;
+
+    @Column(nullable = false)
+    private Money balance = Money.ZERO;
+
+    public AccountBalanceSlot(Long accountId, int slot) {
+        this.accountId = accountId;
+        this.slot = slot;
+    }
+}
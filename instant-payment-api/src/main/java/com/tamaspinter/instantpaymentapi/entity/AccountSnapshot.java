@@ -0,0 +1,42 @@
+package com.tamaspinter.instantpaymentapi.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * The balance of an account including all of its ledger entries up to {@code lastEntryId}.
+ * Snapshots are only ever added; the one with the highest {@code lastEntryId} is the current one.
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "account_snapshot", indexes = {
+        @Index(name = "uk_account_snapshot_account_id_last_entry_id", columnList = "account_id, last_entry_id", unique = true)
+})
+public class AccountSnapshot {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "account_id", nullable = false)
+    private Long accountId;
+
+    @Column(nullable = false)
+    private Money balance;
+
+    @Column(name = "last_entry_id", nullable = false)
+    private Long lastEntryId;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    public AccountSnapshot(Long accountId, Money balance, Long lastEntryId) {
+        this.accountId = accountId;
+        this.balance = balance;
+        this.lastEntryId = lastEntryId;
+    }
+}
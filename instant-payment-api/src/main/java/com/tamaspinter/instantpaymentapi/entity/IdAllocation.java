@@ -0,0 +1,20 @@
+package com.tamaspinter.instantpaymentapi.entity;
+
+/**
+ * Ids of the tables written on the payment path come from database sequences in blocks: one {@code nextval} reserves
+ * {@link #BLOCK_SIZE} ids, which Hibernate hands out from memory (the pooled-lo optimizer, see
+ * {@code hibernate.id.optimizer.pooled.preferred}). Hibernate then knows the id before the insert, so it can send
+ * the inserts in JDBC batches. The sequences increment by the block size, so an insert that leaves the id to the
+ * column default would take a whole block for one row: the payment transactions written without Hibernate take their
+ * ids from {@code PaymentTransactionIds}, which reserves blocks the same way.
+ * <p>
+ * Ids from blocks are unique but not ordered by time across replicas: a replica still handing out an old block inserts
+ * smaller ids than another replica's earlier inserts. {@link LedgerEntry} therefore takes its ids one at a time.
+ */
+public final class IdAllocation {
+
+    public static final int BLOCK_SIZE = 50;
+
+    private IdAllocation() {
+    }
+}
@@ -0,0 +1,24 @@
+package com.tamaspinter.instantpaymentapi.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The index of the last journal record of the in-memory engine that has been written to the database.
+ * The table holds a single row.
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "journal_checkpoint")
+public class JournalCheckpoint {
+
+    public static final int ID = 1;
+
+    @Id
+    private Integer id;
+
+    @Column(name = "last_index", nullable = false)
+    private long lastIndex;
+}
@@ -0,0 +1,48 @@
+package com.tamaspinter.instantpaymentapi.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * An append-only change of an account's balance in the ledger mode: negative for a debit, positive for a credit.
+ * <p>
+ * Unlike the other entities, entries take their ids from the sequence one at a time: snapshots cover entries up to
+ * an id, which needs ids in the order the entries were created across all replicas, see {@link IdAllocation}.
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "ledger_entry", indexes = {
+        @Index(name = "idx_ledger_entry_account_id_id", columnList = "account_id, id")
+})
+public class LedgerEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "ledger_entry_seq")
+    @SequenceGenerator(name = "ledger_entry_seq", sequenceName = "ledger_entry_seq", allocationSize = 1)
+    private Long id;
+
+    @Column(name = "account_id", nullable = false)
+    private Long accountId;
+
+    /**
+     * The payment the entry belongs to, {@code null} for deposits.
+     */
+    @Column(name = "transaction_id")
+    private Long transactionId;
+
+    @Column(nullable = false)
+    private Money amount;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    public LedgerEntry(Long accountId, Long transactionId, Money amount) {
+        this.accountId = accountId;
+        this.transactionId = transactionId;
+        this.amount = amount;
+    }
+}
@@ -0,0 +1,218 @@
+package com.tamaspinter.instantpaymentapi.entity;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Currency;
+
+/**
+ * An amount of money as a {@code long} count of the minor units of its currency, such as cents, so the payment path
+ * compares and adds plain numbers instead of {@link BigDecimal}s. All arithmetic is exact: a result that does not
+ * fit a {@code long} throws an {@link ArithmeticException} instead of wrapping around.
+ * <p>
+ * Stored in the {@code NUMERIC(38, 2)} columns by {@link MoneyConverter} and written to JSON as a plain decimal
+ * number, such as {@code 10.50}; the currency travels next to it. Amounts are in the {@link #DEFAULT_CURRENCY}
+ * unless they are created in, or tagged with, another one.
+ */
+@JsonSerialize(using = Money.Serializer.class)
+@JsonDeserialize(using = Money.Deserializer.class)
+public final class Money implements Comparable<Money> {
+
+    public static final Currency DEFAULT_CURRENCY = Currency.getInstance("EUR");
+
+    public static final Money ZERO = new Money(0, DEFAULT_CURRENCY);
+
+    private final long minorUnits;
+    private final Currency currency;
+
+    private Money(long minorUnits, Currency currency) {
+        this.minorUnits = minorUnits;
+        this.currency = currency;
+    }
+
+    public static Money ofMinor(long minorUnits) {
+        return ofMinor(minorUnits, DEFAULT_CURRENCY);
+    }
+
+    public static Money ofMinor(long minorUnits, Currency currency) {
+        return new Money(minorUnits, currency);
+    }
+
+    public static Money of(String amount) {
+        return of(new BigDecimal(amount));
+    }
+
+    public static Money of(BigDecimal amount) {
+        return of(amount, DEFAULT_CURRENCY);
+    }
+
+    /**
+     * Converts a decimal amount without rounding.
+     *
+     * @throws ArithmeticException if the amount has more decimal places than the currency has minor units,
+     *                             or does not fit a {@code long} of minor units.
+     */
+    public static Money of(BigDecimal amount, Currency currency) {
+        int scale = currency.getDefaultFractionDigits();
+        BigDecimal scaled;
+        try {
+            scaled = amount.setScale(scale);
+        } catch (ArithmeticException e) {
+            throw new ArithmeticException("Amount " + amount + " has more than " + scale + " decimal places");
+        }
+        try {
+            return new Money(scaled.unscaledValue().longValueExact(), currency);
+        } catch (ArithmeticException e) {
+            throw new ArithmeticException("Amount " + amount + " is out of range");
+        }
+    }
+
+    /**
+     * Whether accounts can hold the currency: the amount columns have two decimal places, so currencies with more
+     * minor units, and those without any such as gold, cannot be stored.
+     */
+    public static boolean isSupported(Currency currency) {
+        int digits = currency.getDefaultFractionDigits();
+        return digits >= 0 && digits <= 2;
+    }
+
+    public long minorUnits() {
+        return minorUnits;
+    }
+
+    public Currency currency() {
+        return currency;
+    }
+
+    /**
+     * The number of decimal places of the amount, that of the minor units of its currency.
+     */
+    public int scale() {
+        return currency.getDefaultFractionDigits();
+    }
+
+    /**
+     * The same amount in another currency, for amounts read without their currency, such as a column value.
+     * Not an exchange: {@code 10.50 EUR} becomes {@code 10.50 HUF}.
+     *
+     * @throws ArithmeticException if the amount has more decimal places than the currency has minor units.
+     */
+    public Money withCurrency(Currency currency) {
+        if (currency == this.currency) {
+            return this;
+        }
+        if (currency.getDefaultFractionDigits() == scale()) {
+            return new Money(minorUnits, currency);
+        }
+        return of(toBigDecimal(), currency);
+    }
+
+    public Money plus(Money other) {
+        checkCurrency(other);
+        return other.minorUnits == 0 ? this : new Money(Math.addExact(minorUnits, other.minorUnits), currency);
+    }
+
+    public Money minus(Money other) {
+        checkCurrency(other);
+        return other.minorUnits == 0 ? this : new Money(Math.subtractExact(minorUnits, other.minorUnits), currency);
+    }
+
+    public Money negate() {
+        return new Money(Math.negateExact(minorUnits), currency);
+    }
+
+    public int signum() {
+        return Long.signum(minorUnits);
+    }
+
+    public boolean isPositive() {
+        return minorUnits > 0;
+    }
+
+    public boolean isZero() {
+        return minorUnits == 0;
+    }
+
+    public boolean isLessThan(Money other) {
+        checkCurrency(other);
+        return minorUnits < other.minorUnits;
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        checkCurrency(other);
+        return Long.compare(minorUnits, other.minorUnits);
+    }
+
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(minorUnits, scale());
+    }
+
+    /**
+     * {@link Currency} has one instance per currency, so they are compared by identity on the payment path.
+     */
+    private void checkCurrency(Money other) {
+        if (currency != other.currency) {
+            throw new IllegalArgumentException("Cannot combine " + currency + " and " + other.currency + " amounts");
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Money other && minorUnits == other.minorUnits && currency == other.currency;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(minorUnits) + currency.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString() + " " + currency.getCurrencyCode();
+    }
+
+    static class Serializer extends JsonSerializer<Money> {
+
+        @Override
+        public void serialize(Money value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            gen.writeNumber(value.toBigDecimal());
+        }
+    }
+
+    /**
+     * Reads a JSON number, or a string holding one, rejecting amounts that would have to be rounded.
+     */
+    static class Deserializer extends JsonDeserializer<Money> {
+
+        @Override
+        public Money deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            BigDecimal amount;
+            if (parser.hasToken(JsonToken.VALUE_NUMBER_INT) || parser.hasToken(JsonToken.VALUE_NUMBER_FLOAT)) {
+                amount = parser.getDecimalValue();
+            } else if (parser.hasToken(JsonToken.VALUE_STRING)) {
+                try {
+                    amount = new BigDecimal(parser.getText().trim());
+                } catch (NumberFormatException e) {
+                    throw context.weirdStringException(parser.getText(), Money.class, "not a decimal number");
+                }
+            } else {
+                return (Money) context.handleUnexpectedToken(Money.class, parser);
+            }
+            try {
+                return Money.of(amount);
+            } catch (ArithmeticException e) {
+                throw context.weirdNumberException(amount, Money.class, e.getMessage());
+            }
+        }
+    }
+}
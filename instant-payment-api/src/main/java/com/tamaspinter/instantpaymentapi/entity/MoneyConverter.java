@@ -0,0 +1,31 @@
+package com.tamaspinter.instantpaymentapi.entity;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+import org.hibernate.annotations.Immutable;
+
+import java.math.BigDecimal;
+
+/**
+ * Maps every {@link Money} attribute to its {@code NUMERIC} column, which the native queries, the JDBC batches and
+ * the reactive API keep reading and writing as decimals. {@link Money} is immutable, so Hibernate compares the loaded
+ * and current values for dirty checking without copying them.
+ * <p>
+ * The columns hold the amount without its currency, so values are read in the {@link Money#DEFAULT_CURRENCY}.
+ * Entities that know the currency of their row tag their amounts with it when they are loaded, and
+ * {@link MoneyJavaType} keeps that from counting as a change.
+ */
+@Immutable
+@Converter(autoApply = true)
+public class MoneyConverter implements AttributeConverter<Money, BigDecimal> {
+
+    @Override
+    public BigDecimal convertToDatabaseColumn(Money money) {
+        return money == null ? null : money.toBigDecimal();
+    }
+
+    @Override
+    public Money convertToEntityAttribute(BigDecimal amount) {
+        return amount == null ? null : Money.of(amount);
+    }
+}
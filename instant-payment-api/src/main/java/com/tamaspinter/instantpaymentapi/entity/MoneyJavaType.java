@@ -0,0 +1,68 @@
+package com.tamaspinter.instantpaymentapi.entity;
+
+import org.hibernate.type.descriptor.WrapperOptions;
+import org.hibernate.type.descriptor.java.AbstractClassJavaType;
+import org.hibernate.type.descriptor.java.ImmutableMutabilityPlan;
+
+import java.math.BigDecimal;
+
+/**
+ * How Hibernate compares {@link Money} attributes, registered for the entity package in {@code package-info}.
+ * <p>
+ * Two amounts are equal if they write the same column value, whatever their currency: an amount read by
+ * {@link MoneyConverter} and then tagged with the currency of its row is not a change to flush.
+ */
+public class MoneyJavaType extends AbstractClassJavaType<Money> {
+
+    public MoneyJavaType() {
+        super(Money.class, ImmutableMutabilityPlan.instance());
+    }
+
+    @Override
+    public boolean areEqual(Money one, Money another) {
+        if (one == another) {
+            return true;
+        }
+        if (one == null || another == null) {
+            return false;
+        }
+        if (one.scale() == another.scale()) {
+            return one.minorUnits() == another.minorUnits();
+        }
+        return one.toBigDecimal().compareTo(another.toBigDecimal()) == 0;
+    }
+
+    @Override
+    public int extractHashCode(Money value) {
+        return value.toBigDecimal().stripTrailingZeros().hashCode();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <X> X unwrap(Money value, Class<X> type, WrapperOptions options) {
+        if (value == null) {
+            return null;
+        }
+        if (Money.class.isAssignableFrom(type)) {
+            return (X) value;
+        }
+        if (BigDecimal.class.isAssignableFrom(type)) {
+            return (X) value.toBigDecimal();
+        }
+        throw unknownUnwrap(type);
+    }
+
+    @Override
+    public <X> Money wrap(X value, WrapperOptions options) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Money money) {
+            return money;
+        }
+        if (value instanceof BigDecimal amount) {
+            return Money.of(amount);
+        }
+        throw unknownWrap(value.getClass());
+    }
+}
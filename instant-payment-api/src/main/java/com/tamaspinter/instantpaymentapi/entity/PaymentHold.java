@@ -0,0 +1,65 @@
+package com.tamaspinter.instantpaymentapi.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * An amount taken from the source account of a payment in the reservation mode, before the target account is
+ * credited. A hold is settled together with the credit, or released back to the source account.
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "payment_hold", indexes = {
+        @Index(name = "idx_payment_hold_status_expires_at", columnList = "status, expires_at")
+})
+public class PaymentHold {
+
+    public enum Status {
+        HELD,
+        SETTLED,
+        RELEASED
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "from_account_id", nullable = false)
+    private Long fromAccountId;
+
+    @Column(name = "to_account_id", nullable = false)
+    private Long toAccountId;
+
+    @Column(nullable = false)
+    private Money amount;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Status status = Status.HELD;
+
+    /**
+     * The payment the hold was settled with, {@code null} until then.
+     */
+    @Column(name = "transaction_id")
+    private Long transactionId;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    /**
+     * After this time the sweeper releases the hold if it is still held.
+     */
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+
+    public PaymentHold(Long fromAccountId, Long toAccountId, Money amount, LocalDateTime expiresAt) {
+        this.fromAccountId = fromAccountId;
+        this.toAccountId = toAccountId;
+        this.amount = amount;
+        this.expiresAt = expiresAt;
+    }
+}
@@ -1,20 +1,28 @@
 package com.tamaspinter.instantpaymentapi.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnDefault;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Currency;
 
 @Data
 @NoArgsConstructor
 @Entity
-@Table(name = "payment_transaction")
+@Table(name = "payment_transaction", indexes = {
+        @Index(name = "idx_payment_transaction_from_account_created_at_id", columnList = "from_account_id, created_at, id"),
+        @Index(name = "idx_payment_transaction_to_account_created_at_id", columnList = "to_account_id, created_at, id"),
+        @Index(name = "uk_payment_transaction_idempotency_key", columnList = "idempotency_key", unique = true)
+})
 public class PaymentTransaction {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "payment_transaction_seq")
+    @SequenceGenerator(name = "payment_transaction_seq", sequenceName = "payment_transaction_seq", allocationSize = IdAllocation.BLOCK_SIZE)
     private Long id;
 
     @Column(name = "from_account_id", nullable = false)
@@ -23,15 +31,75 @@ public class PaymentTransaction {
     @Column(name = "to_account_id", nullable = false)
     private Long toAccountId;
 
+    /**
+     * The amount debited from the source account, in its currency.
+     */
     @Column(nullable = false)
-    private BigDecimal amount;
+    private Money amount;
+
+    @ColumnDefault("'EUR'")
+    @Column(nullable = false, length = 3)
+    private Currency currency = Money.DEFAULT_CURRENCY;
+
+    /**
+     * The amount credited to the target account, in its currency, if that differs from the source account's.
+     */
+    @Column(name = "credit_amount")
+    private Money creditAmount;
+
+    @Column(name = "credit_currency", length = 3)
+    private Currency creditCurrency;
+
+    /**
+     * Units of the credit currency per unit of the payment's currency, as applied to the amount.
+     */
+    @Column(name = "fx_rate", precision = 19, scale = 8)
+    private BigDecimal fxRate;
 
     @Column(name = "created_at", nullable = false)
     private LocalDateTime createdAt = LocalDateTime.now();
 
-    public PaymentTransaction(Long fromAccountId, Long toAccountId, BigDecimal amount) {
+    /**
+     * The {@code Idempotency-Key} the client sent the payment with, if any.
+     */
+    @JsonIgnore
+    @Column(name = "idempotency_key", length = 255)
+    private String idempotencyKey;
+
+    public PaymentTransaction(Long fromAccountId, Long toAccountId, Money amount) {
         this.fromAccountId = fromAccountId;
         this.toAccountId = toAccountId;
         this.amount = amount;
+        this.currency = amount.currency();
+    }
+
+    public void setAmount(Money amount) {
+        this.amount = amount;
+        this.currency = amount.currency();
+    }
+
+    /**
+     * Records that the target account is credited with another currency, converted at the given rate.
+     */
+    public void setConversion(Money creditAmount, BigDecimal fxRate) {
+        this.creditAmount = creditAmount;
+        this.creditCurrency = creditAmount.currency();
+        this.fxRate = fxRate;
+    }
+
+    /**
+     * The amount credited to the target account: the converted amount of a cross-currency payment, otherwise the
+     * amount.
+     */
+    public Money creditedAmount() {
+        return creditAmount == null ? amount : creditAmount;
+    }
+
+    @PostLoad
+    private void tagAmounts() {
+        amount = amount.withCurrency(currency);
+        if (creditAmount != null) {
+            creditAmount = creditAmount.withCurrency(creditCurrency);
+        }
     }
 }
@@ -0,0 +1,46 @@
+package com.tamaspinter.instantpaymentapi.repository;
+
+import com.tamaspinter.instantpaymentapi.entity.AccountBalanceSlot;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+@Repository
+public interface AccountBalanceSlotRepository extends JpaRepository<AccountBalanceSlot, Long> {
+
+    /**
+     * Adds the amount to one slot of an account, locking only that slot's row.
+     *
+     * @return The number of updated slots, {@code 0} if the slot does not exist.
+     */
+    @Modifying
+    @Query("UPDATE AccountBalanceSlot s SET s.balance = s.balance + :amount WHERE s.accountId = :accountId AND s.slot = :slot")
+    int credit(@Param("accountId") Long accountId, @Param("slot") int slot, @Param("amount") Money amount);
+
+    /**
+     * Loads all slots of an account in slot order with {@code SELECT ... FOR UPDATE}, holding the row locks until
+     * the transaction ends.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM AccountBalanceSlot s WHERE s.accountId = :accountId ORDER BY s.slot")
+    List<AccountBalanceSlot> findAllForUpdate(@Param("accountId") Long accountId);
+
+    @Modifying
+    @Query("UPDATE AccountBalanceSlot s SET s.balance = 0 WHERE s.accountId = :accountId")
+    int clearAll(@Param("accountId") Long accountId);
+
+    @Modifying
+    @Query("DELETE FROM AccountBalanceSlot s WHERE s.accountId = :accountId")
+    int deleteAllOf(@Param("accountId") Long accountId);
+
+    @Query("SELECT COALESCE(SUM(s.balance), 0) FROM AccountBalanceSlot s WHERE s.accountId = :accountId")
+    BigDecimal sumBalance(@Param("accountId") Long accountId);
+}
@@ -1,9 +1,60 @@
 package com.tamaspinter.instantpaymentapi.repository;
 
 import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Currency;
+import java.util.Optional;
+
 @Repository
 public interface AccountRepository extends JpaRepository<Account, Long> {
+
+    /**
+     * Loads an account with {@code SELECT ... FOR UPDATE}, holding the row lock until the transaction ends.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT a FROM Account a WHERE a.id = :id")
+    Optional<Account> findByIdForUpdate(@Param("id") Long id);
+
+    @Query("SELECT a.balanceSlots FROM Account a WHERE a.id = :id")
+    Optional<Integer> findBalanceSlotsById(@Param("id") Long id);
+
+    @Query("SELECT a.currency FROM Account a WHERE a.id = :id")
+    Optional<Currency> findCurrencyById(@Param("id") Long id);
+
+    /**
+     * Adds the amount to the balance of an account in place, without loading it.
+     */
+    @Modifying
+    @Query("UPDATE Account a SET a.balance = a.balance + :amount, a.version = a.version + 1 WHERE a.id = :id")
+    int addToBalance(@Param("id") Long id, @Param("amount") Money amount);
+
+    /**
+     * Subtracts the amount from the balance of an account in place if the balance covers it and the account is in the
+     * given currency, without loading it.
+     *
+     * @return {@code 1} if the account was debited, {@code 0} if it does not exist, is in another currency or its
+     * balance is too low.
+     */
+    @Modifying
+    @Query("""
+            UPDATE Account a SET a.balance = a.balance - :amount, a.version = a.version + 1
+            WHERE a.id = :id AND a.currency = :currency AND a.balance >= :amount
+            """)
+    int debitIfCovered(@Param("id") Long id, @Param("amount") Money amount, @Param("currency") Currency currency);
+
+    /**
+     * Bounds how long the statements of the current transaction wait for row locks (PostgreSQL {@code lock_timeout}).
+     *
+     * @param timeout A PostgreSQL interval such as {@code 2000ms}.
+     */
+    @Query(value = "SELECT set_config('lock_timeout', :timeout, true)", nativeQuery = true)
+    String setLocalLockTimeout(@Param("timeout") String timeout);
 }
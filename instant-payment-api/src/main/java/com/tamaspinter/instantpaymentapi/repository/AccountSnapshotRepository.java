@@ -0,0 +1,24 @@
+package com.tamaspinter.instantpaymentapi.repository;
+
+import com.tamaspinter.instantpaymentapi.entity.AccountSnapshot;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface AccountSnapshotRepository extends JpaRepository<AccountSnapshot, Long> {
+
+    Optional<AccountSnapshot> findFirstByAccountIdOrderByLastEntryIdDesc(Long accountId);
+
+    /**
+     * Returns the current snapshot of every account.
+     */
+    @Query("""
+            SELECT s FROM AccountSnapshot s
+            WHERE s.lastEntryId = (SELECT MAX(s2.lastEntryId) FROM AccountSnapshot s2 WHERE s2.accountId = s.accountId)
+            """)
+    List<AccountSnapshot> findCurrentSnapshots();
+}
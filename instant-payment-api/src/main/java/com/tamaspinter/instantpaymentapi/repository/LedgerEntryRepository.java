@@ -0,0 +1,51 @@
+package com.tamaspinter.instantpaymentapi.repository;
+
+import com.tamaspinter.instantpaymentapi.entity.LedgerEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface LedgerEntryRepository extends JpaRepository<LedgerEntry, Long> {
+
+    /**
+     * Sums the entries of an account with an ID in {@code (afterEntryId, upToEntryId]}.
+     */
+    @Query("""
+            SELECT COALESCE(SUM(e.amount), 0) FROM LedgerEntry e
+            WHERE e.accountId = :accountId AND e.id > :afterEntryId AND e.id <= :upToEntryId
+            """)
+    BigDecimal sumBetween(@Param("accountId") Long accountId,
+                          @Param("afterEntryId") Long afterEntryId,
+                          @Param("upToEntryId") Long upToEntryId);
+
+    /**
+     * Returns the ID of the newest entry of an account that is after {@code afterEntryId} and was created before
+     * {@code settledBefore}, or {@code null} if there is none.
+     */
+    @Query("""
+            SELECT MAX(e.id) FROM LedgerEntry e
+            WHERE e.accountId = :accountId AND e.id > :afterEntryId AND e.createdAt < :settledBefore
+            """)
+    Long findLastSettledId(@Param("accountId") Long accountId,
+                           @Param("afterEntryId") Long afterEntryId,
+                           @Param("settledBefore") LocalDateTime settledBefore);
+
+    /**
+     * Returns the accounts with at least {@code minEntries} settled entries after their current snapshot.
+     */
+    @Query("""
+            SELECT e.accountId FROM LedgerEntry e
+            WHERE e.createdAt < :settledBefore
+              AND e.id > COALESCE((SELECT MAX(s.lastEntryId) FROM AccountSnapshot s WHERE s.accountId = e.accountId), 0)
+            GROUP BY e.accountId
+            HAVING COUNT(e) >= :minEntries
+            """)
+    List<Long> findAccountsToCompact(@Param("settledBefore") LocalDateTime settledBefore,
+                                     @Param("minEntries") long minEntries);
+}
@@ -0,0 +1,56 @@
+package com.tamaspinter.instantpaymentapi.repository;
+
+import com.tamaspinter.instantpaymentapi.entity.PaymentHold;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface PaymentHoldRepository extends JpaRepository<PaymentHold, Long> {
+
+    /**
+     * Marks a hold settled by the given payment, if it is still held.
+     *
+     * @return {@code 1} if the hold was settled, {@code 0} if it had already been released.
+     */
+    @Modifying
+    @Query("UPDATE PaymentHold h SET h.status = com.tamaspinter.instantpaymentapi.entity.PaymentHold.Status.SETTLED, "
+            + "h.transactionId = :transactionId "
+            + "WHERE h.id = :id AND h.status = com.tamaspinter.instantpaymentapi.entity.PaymentHold.Status.HELD")
+    int settle(@Param("id") Long id, @Param("transactionId") Long transactionId);
+
+    /**
+     * Marks a hold released, if it is still held.
+     *
+     * @return {@code 1} if the hold was released, {@code 0} if it had already been settled or released.
+     */
+    @Modifying
+    @Query("UPDATE PaymentHold h SET h.status = com.tamaspinter.instantpaymentapi.entity.PaymentHold.Status.RELEASED "
+            + "WHERE h.id = :id AND h.status = com.tamaspinter.instantpaymentapi.entity.PaymentHold.Status.HELD")
+    int release(@Param("id") Long id);
+
+    @Query("SELECT h FROM PaymentHold h "
+            + "WHERE h.status = com.tamaspinter.instantpaymentapi.entity.PaymentHold.Status.HELD AND h.expiresAt < :now "
+            + "ORDER BY h.expiresAt")
+    List<PaymentHold> findExpired(@Param("now") LocalDateTime now, Limit limit);
+
+    /**
+     * Deletes up to {@code limit} settled or released holds that expired before the given time.
+     *
+     * @return The number of holds deleted.
+     */
+    @Modifying
+    @Query(value = """
+            DELETE FROM payment_hold WHERE id IN (
+                SELECT id FROM payment_hold
+                WHERE status IN ('SETTLED', 'RELEASED') AND expires_at < :before
+                LIMIT :limit)
+            """, nativeQuery = true)
+    int deleteFinishedBefore(@Param("before") LocalDateTime before, @Param("limit") int limit);
+}
@@ -0,0 +1,17 @@
+package com.tamaspinter.instantpaymentapi.repository;
+
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+
+import java.util.List;
+
+/**
+ * Bulk operations on payment transactions that bypass the entity manager.
+ */
+public interface PaymentTransactionBatchRepository {
+
+    /**
+     * Sets the IDs of the transactions from {@link PaymentTransactionIds} and inserts them with a single JDBC batch.
+     * Runs in the current transaction.
+     */
+    void insertAll(List<PaymentTransaction> transactions);
+}
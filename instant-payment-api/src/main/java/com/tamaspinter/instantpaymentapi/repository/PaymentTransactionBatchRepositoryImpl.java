@@ -0,0 +1,63 @@
+package com.tamaspinter.instantpaymentapi.repository;
+
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+
+public class PaymentTransactionBatchRepositoryImpl implements PaymentTransactionBatchRepository {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO payment_transaction (id, from_account_id, to_account_id, amount, currency, credit_amount, "
+                    + "credit_currency, fx_rate, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PaymentTransactionIds paymentTransactionIds;
+
+    public PaymentTransactionBatchRepositoryImpl(JdbcTemplate jdbcTemplate, PaymentTransactionIds paymentTransactionIds) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.paymentTransactionIds = paymentTransactionIds;
+    }
+
+    @Override
+    public void insertAll(List<PaymentTransaction> transactions) {
+        if (transactions.isEmpty()) {
+            return;
+        }
+        for (PaymentTransaction transaction : transactions) {
+            transaction.setId(paymentTransactionIds.next());
+        }
+        jdbcTemplate.batchUpdate(INSERT_SQL,
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        PaymentTransaction transaction = transactions.get(i);
+                        ps.setLong(1, transaction.getId());
+                        ps.setLong(2, transaction.getFromAccountId());
+                        ps.setLong(3, transaction.getToAccountId());
+                        ps.setBigDecimal(4, transaction.getAmount().toBigDecimal());
+                        ps.setString(5, transaction.getCurrency().getCurrencyCode());
+                        if (transaction.getCreditAmount() != null) {
+                            ps.setBigDecimal(6, transaction.getCreditAmount().toBigDecimal());
+                            ps.setString(7, transaction.getCreditCurrency().getCurrencyCode());
+                            ps.setBigDecimal(8, transaction.getFxRate());
+                        } else {
+                            ps.setNull(6, Types.NUMERIC);
+                            ps.setNull(7, Types.VARCHAR);
+                            ps.setNull(8, Types.NUMERIC);
+                        }
+                        ps.setTimestamp(9, Timestamp.valueOf(transaction.getCreatedAt()));
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return transactions.size();
+                    }
+                });
+    }
+}
@@ -0,0 +1,33 @@
+package com.tamaspinter.instantpaymentapi.repository;
+
+import com.tamaspinter.instantpaymentapi.entity.IdAllocation;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Hands out payment transaction ids to the inserts written without Hibernate. Like Hibernate's pooled-lo optimizer,
+ * it takes one {@code nextval('payment_transaction_seq')} per {@link IdAllocation#BLOCK_SIZE} ids: the value
+ * returned by the sequence is the first id of a block that no other allocator can get.
+ */
+@Component
+public class PaymentTransactionIds {
+
+    private static final String NEXT_BLOCK_SQL = "SELECT nextval('payment_transaction_seq')";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private long next;
+    private long blockEnd;
+
+    public PaymentTransactionIds(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public synchronized long next() {
+        if (next == blockEnd) {
+            next = jdbcTemplate.queryForObject(NEXT_BLOCK_SQL, Long.class);
+            blockEnd = next + IdAllocation.BLOCK_SIZE;
+        }
+        return next++;
+    }
+}
@@ -1,9 +1,93 @@
 package com.tamaspinter.instantpaymentapi.repository;
 
+import com.tamaspinter.instantpaymentapi.dto.TransactionHistoryItem;
 import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
 @Repository
-public interface PaymentTransactionRepository extends JpaRepository<PaymentTransaction, Long> {
+public interface PaymentTransactionRepository extends JpaRepository<PaymentTransaction, Long>, PaymentTransactionBatchRepository {
+
+    /**
+     * Debits the source account if it has enough balance, credits the target account and inserts the transaction row
+     * with the given ID in one PostgreSQL statement. Both accounts must be in the given currency. The debit only
+     * happens if the target account exists in that currency, so a rejected payment never leaves a debit behind.
+     *
+     * @return The ID of the inserted transaction, or empty if an account is missing or in another currency,
+     * or the balance is insufficient.
+     */
+    @Query(value = """
+            WITH debit AS (
+                UPDATE account SET balance = balance - :amount, version = version + 1
+                WHERE id = :fromAccountId AND currency = :currency AND balance >= :amount
+                  AND EXISTS (SELECT 1 FROM account WHERE id = :toAccountId AND currency = :currency)
+                RETURNING id
+            ), credit AS (
+                UPDATE account SET balance = balance + :amount, version = version + 1
+                WHERE id = :toAccountId AND currency = :currency AND EXISTS (SELECT 1 FROM debit)
+                RETURNING id
+            )
+            INSERT INTO payment_transaction (id, from_account_id, to_account_id, amount, currency, created_at, idempotency_key)
+            SELECT :id, debit.id, credit.id, :amount, :currency, :createdAt, :idempotencyKey FROM debit, credit
+            RETURNING id
+            """, nativeQuery = true)
+    Optional<Long> transferAtomically(@Param("id") Long id,
+                                      @Param("fromAccountId") Long fromAccountId,
+                                      @Param("toAccountId") Long toAccountId,
+                                      @Param("amount") BigDecimal amount,
+                                      @Param("currency") String currency,
+                                      @Param("createdAt") LocalDateTime createdAt,
+                                      @Param("idempotencyKey") String idempotencyKey);
+
+    Optional<PaymentTransaction> findByIdempotencyKey(String idempotencyKey);
+
+    /**
+     * Returns the newest transactions sent from the account that are older than the given position, newest first.
+     * Served by a range scan of {@code idx_payment_transaction_from_account_created_at_id}. The redundant
+     * {@code createdAt <= :beforeCreatedAt} gives the scan its start key, which the planner cannot derive from the
+     * {@code OR} alone. Ordering by all the index columns lets H2 read the index backwards from that key instead of
+     * sorting every older transaction of the account; PostgreSQL reads it backwards either way.
+     */
+    @Query("""
+            SELECT new com.tamaspinter.instantpaymentapi.dto.TransactionHistoryItem(
+                t.id, t.fromAccountId, t.toAccountId, t.amount, t.currency, t.creditAmount, t.creditCurrency, t.fxRate,
+                t.createdAt)
+            FROM PaymentTransaction t
+            WHERE t.fromAccountId = :accountId
+              AND t.createdAt <= :beforeCreatedAt
+              AND (t.createdAt < :beforeCreatedAt OR (t.createdAt = :beforeCreatedAt AND t.id < :beforeId))
+            ORDER BY t.fromAccountId DESC, t.createdAt DESC, t.id DESC
+            """)
+    List<TransactionHistoryItem> findSentBefore(@Param("accountId") Long accountId,
+                                                @Param("beforeCreatedAt") LocalDateTime beforeCreatedAt,
+                                                @Param("beforeId") Long beforeId,
+                                                Limit limit);
+
+    /**
+     * Returns the newest transactions received by the account that are older than the given position, newest first.
+     * Served by a range scan of {@code idx_payment_transaction_to_account_created_at_id}, bounded and ordered like
+     * {@link #findSentBefore}.
+     */
+    @Query("""
+            SELECT new com.tamaspinter.instantpaymentapi.dto.TransactionHistoryItem(
+                t.id, t.fromAccountId, t.toAccountId, t.amount, t.currency, t.creditAmount, t.creditCurrency, t.fxRate,
+                t.createdAt)
+            FROM PaymentTransaction t
+            WHERE t.toAccountId = :accountId
+              AND t.createdAt <= :beforeCreatedAt
+              AND (t.createdAt < :beforeCreatedAt OR (t.createdAt = :beforeCreatedAt AND t.id < :beforeId))
+            ORDER BY t.toAccountId DESC, t.createdAt DESC, t.id DESC
+            """)
+    List<TransactionHistoryItem> findReceivedBefore(@Param("accountId") Long accountId,
+                                                    @Param("beforeCreatedAt") LocalDateTime beforeCreatedAt,
+                                                    @Param("beforeId") Long beforeId,
+                                                    Limit limit);
 }
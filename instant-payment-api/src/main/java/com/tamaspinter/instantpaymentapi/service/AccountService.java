@@ -3,12 +3,20 @@ package com.tamaspinter.instantpaymentapi.service;
 import com.tamaspinter.instantpaymentapi.dto.AccountRequest;
 import com.tamaspinter.instantpaymentapi.dto.DepositRequest;
 import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.entity.Money;
 import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
+import com.tamaspinter.instantpaymentapi.service.cache.AccountCache;
+import com.tamaspinter.instantpaymentapi.service.ledger.AccountLedger;
+import com.tamaspinter.instantpaymentapi.service.memory.AccountBook;
 import jakarta.ws.rs.NotFoundException;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.security.auth.login.AccountNotFoundException;
-import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.List;
 import java.util.Optional;
 
 @Service
@@ -17,13 +25,42 @@ public class AccountService {
     private static final String DEFAULT_ACCOUNT_NAME = "Default Account";
 
     private final AccountRepository accountRepository;
+    private final AccountCache accountCache;
+    private final ShardedBalances shardedBalances;
 
-    public AccountService(AccountRepository accountRepository) {
+    /**
+     * Only present in the ledger mode, where {@code account.balance} is the opening balance.
+     */
+    private final AccountLedger accountLedger;
+
+    /**
+     * Only present with the memory engine, where {@code account.balance} trails the balance held in memory.
+     */
+    private final AccountBook accountBook;
+
+    public AccountService(AccountRepository accountRepository, AccountCache accountCache,
+                          ShardedBalances shardedBalances, ObjectProvider<AccountLedger> accountLedger,
+                          ObjectProvider<AccountBook> accountBook) {
         this.accountRepository = accountRepository;
+        this.accountCache = accountCache;
+        this.shardedBalances = shardedBalances;
+        this.accountLedger = accountLedger.getIfAvailable();
+        this.accountBook = accountBook.getIfAvailable();
     }
 
+    /**
+     * @throws InvalidRequestException if the currency is not supported, see {@link Money#isSupported}, or the memory
+     *                                 engine is enabled and it is not the {@link Money#DEFAULT_CURRENCY}.
+     */
     public Account createAccount(AccountRequest request) {
-        Account newAccount = new Account(BigDecimal.ZERO);
+        Currency currency = request.currency() == null ? Money.DEFAULT_CURRENCY : request.currency();
+        if (!Money.isSupported(currency)) {
+            throw new InvalidRequestException("Currency " + currency + " is not supported");
+        }
+        if (accountBook != null && currency != Money.DEFAULT_CURRENCY) {
+            throw new InvalidRequestException("The memory engine only supports " + Money.DEFAULT_CURRENCY + " accounts");
+        }
+        Account newAccount = new Account(Money.ZERO.withCurrency(currency));
         String accountName = request.accountName();
         String ownerName = request.ownerName();
         if (accountName == null) {
@@ -32,11 +69,19 @@ public class AccountService {
             newAccount.setAccountName(request.accountName());
         }
         newAccount.setOwnerName(ownerName);
-        return accountRepository.save(newAccount);
+        Account saved = accountRepository.save(newAccount);
+        if (accountBook != null) {
+            accountBook.open(saved.getId());
+        }
+        return saved;
     }
 
+    /**
+     * Returns the account from the {@link AccountCache}, which may lag behind the database by up to
+     * {@code payment.account-cache.ttl-ms}. The returned account must not be modified.
+     */
     public Account getAccountById(Long id) throws AccountNotFoundException {
-        Optional<Account> account = accountRepository.findById(id);
+        Optional<Account> account = accountCache.get(id, key -> accountRepository.findById(key).map(this::withCurrentBalance));
         if (account.isPresent()) {
             return account.get();
         } else {
@@ -45,12 +90,58 @@ public class AccountService {
     }
 
     public Account deposit(DepositRequest request) throws AccountNotFoundException {
-        Account account = getAccountById(request.accountId());
-        if (request.amount().intValue() <= 0) {
+        Account account = accountRepository.findById(request.accountId())
+                .orElseThrow(() -> new AccountNotFoundException("Account not found"));
+        Money amount = request.amount();
+        if (amount == null || !amount.isPositive()) {
             throw new IllegalArgumentException("Amount must be positive");
         }
-        BigDecimal amount = request.amount();
-        account.setBalance(account.getBalance().add(amount));
-        return accountRepository.save(account);
+        if (amount.currency() != account.getCurrency()) {
+            throw new InvalidRequestException("Amount must be in the currency of the account, " + account.getCurrency());
+        }
+        if (accountBook != null) {
+            Money balance = accountBook.deposit(account.getId(), amount);
+            accountCache.evictAfterCommit(List.of(account.getId()));
+            return account.withBalance(balance);
+        }
+        if (accountLedger != null) {
+            accountLedger.deposit(account.getId(), amount);
+            accountCache.evictAfterCommit(List.of(account.getId()));
+            return accountLedger.withBalance(account);
+        }
+        account.setBalance(account.getBalance().plus(amount));
+        Account saved = accountRepository.save(account);
+        accountCache.evictAfterCommit(List.of(saved.getId()));
+        return withCurrentBalance(saved);
+    }
+
+    /**
+     * Spreads the credits of an account across the given number of balance slots, see {@link ShardedBalances}.
+     * The current balance is kept; {@code 0} slots turns sharding off.
+     */
+    @Transactional
+    public Account setBalanceSlots(Long accountId, int slots) throws AccountNotFoundException {
+        if (accountLedger != null) {
+            throw new InvalidRequestException("Balance slots are not supported by the ledger engine");
+        }
+        if (accountBook != null) {
+            throw new InvalidRequestException("Balance slots are not supported by the memory engine");
+        }
+        Account account = accountRepository.findByIdForUpdate(accountId)
+                .orElseThrow(() -> new AccountNotFoundException("Account not found"));
+        shardedBalances.reshard(account, slots);
+        Account saved = accountRepository.save(account);
+        accountCache.evictAfterCommit(List.of(saved.getId()));
+        return withCurrentBalance(saved);
+    }
+
+    private Account withCurrentBalance(Account account) {
+        if (accountLedger != null) {
+            return accountLedger.withBalance(account);
+        }
+        if (accountBook != null) {
+            return account.withBalance(accountBook.balanceOf(account.getId()).orElse(account.getBalance()));
+        }
+        return account.isSharded() ? account.withBalance(shardedBalances.balanceOf(account)) : account;
     }
 }
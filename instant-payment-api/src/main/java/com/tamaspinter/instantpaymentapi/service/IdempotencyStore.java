@@ -0,0 +1,129 @@
+package com.tamaspinter.instantpaymentapi.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.tamaspinter.instantpaymentapi.dto.PaymentRequest;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.repository.PaymentTransactionRepository;
+import com.tamaspinter.instantpaymentapi.service.transfer.DuplicateIdempotencyKeyException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Makes {@code POST /api/payments} idempotent per {@code Idempotency-Key}.
+ * <p>
+ * The key is stored on the {@link PaymentTransaction} row, in the payment's own transaction, behind a unique index.
+ * A repeated key returns the stored transaction without running the payment again. Recently seen keys are kept in
+ * a bounded in-memory cache of {@code payment.idempotency.cache-size} entries, so a retry storm is answered from
+ * memory; older keys are looked up by the unique index. Two concurrent requests with a new key both run the payment,
+ * the later insert fails on the index, its transaction rolls back and it returns the first one's transaction.
+ * Engines that see the duplicate earlier report it with a {@link DuplicateIdempotencyKeyException} instead.
+ * <p>
+ * Lookups are counted in the {@code payment.idempotency.lookup} metric, tagged
+ * {@code result=memory_hit|database_hit|concurrent_duplicate|miss}.
+ */
+@Component
+public class IdempotencyStore {
+
+    public static final int MAX_KEY_LENGTH = 255;
+
+    private static final String METRIC_LOOKUP = "payment.idempotency.lookup";
+
+    private final PaymentTransactionRepository paymentTransactionRepository;
+    private final Cache<String, PaymentTransaction> recentKeys;
+
+    private final Counter memoryHit;
+    private final Counter databaseHit;
+    private final Counter concurrentDuplicate;
+    private final Counter miss;
+
+    public IdempotencyStore(PaymentTransactionRepository paymentTransactionRepository,
+                            MeterRegistry meterRegistry,
+                            @Value("${payment.idempotency.cache-size:100000}") long cacheSize,
+                            @Value("${payment.idempotency.cache-ttl-ms:3600000}") long cacheTtlMs) {
+        this.paymentTransactionRepository = paymentTransactionRepository;
+        this.recentKeys = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfterWrite(Duration.ofMillis(cacheTtlMs))
+                .build();
+        this.memoryHit = meterRegistry.counter(METRIC_LOOKUP, "result", "memory_hit");
+        this.databaseHit = meterRegistry.counter(METRIC_LOOKUP, "result", "database_hit");
+        this.concurrentDuplicate = meterRegistry.counter(METRIC_LOOKUP, "result", "concurrent_duplicate");
+        this.miss = meterRegistry.counter(METRIC_LOOKUP, "result", "miss");
+    }
+
+    /**
+     * Returns the transaction stored for the key, or runs the payment if the key is new.
+     *
+     * @param idempotencyKey The client's key.
+     * @param request        The payment request, which must match the one the key was first used with.
+     * @param payment        Runs the payment, storing the key with its transaction.
+     * @throws InvalidRequestException if the key is invalid or was used for a different payment.
+     */
+    public PaymentTransaction execute(String idempotencyKey, PaymentRequest request, Supplier<PaymentTransaction> payment) {
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new InvalidRequestException("Idempotency key must be 1 to " + MAX_KEY_LENGTH + " characters");
+        }
+
+        PaymentTransaction stored = recentKeys.getIfPresent(idempotencyKey);
+        if (stored != null) {
+            memoryHit.increment();
+            return replay(stored, request);
+        }
+        Optional<PaymentTransaction> persisted = paymentTransactionRepository.findByIdempotencyKey(idempotencyKey);
+        if (persisted.isPresent()) {
+            databaseHit.increment();
+            recentKeys.put(idempotencyKey, persisted.get());
+            return replay(persisted.get(), request);
+        }
+
+        PaymentTransaction transaction;
+        try {
+            transaction = payment.get();
+        } catch (RuntimeException e) {
+            if (!isUniqueViolation(e)) {
+                throw e;
+            }
+            PaymentTransaction winner = e instanceof DuplicateIdempotencyKeyException duplicate
+                    ? duplicate.getTransaction()
+                    : paymentTransactionRepository.findByIdempotencyKey(idempotencyKey).orElseThrow(() -> e);
+            concurrentDuplicate.increment();
+            recentKeys.put(idempotencyKey, winner);
+            return replay(winner, request);
+        }
+        miss.increment();
+        recentKeys.put(idempotencyKey, transaction);
+        return transaction;
+    }
+
+    private static PaymentTransaction replay(PaymentTransaction stored, PaymentRequest request) {
+        boolean samePayment = stored.getFromAccountId().equals(request.fromAccountId())
+                && stored.getToAccountId().equals(request.toAccountId())
+                && request.amount() != null
+                && stored.getAmount().equals(request.amount());
+        if (!samePayment) {
+            throw new InvalidRequestException("Idempotency key was already used for a different payment");
+        }
+        return stored;
+    }
+
+    /**
+     * The transfer engines wrap the failed insert, so the whole cause chain is checked.
+     */
+    private static boolean isUniqueViolation(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DataIntegrityViolationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,130 @@
+package com.tamaspinter.instantpaymentapi.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long each phase of a payment takes in the {@code payment.phase} timer, tagged with the
+ * {@code phase}, with a histogram for percentiles.
+ * <p>
+ * Account load, balance update and ledger insert are recorded by the engines that have those steps
+ * ({@code jpa} and {@code pessimistic}). With JPA the account rows are only written when the transaction is flushed,
+ * so their {@code UPDATE}s fall in the {@code commit} phase.
+ * <p>
+ * The answers of {@code POST /api/payments} are counted in {@code payment.requests}, tagged with the {@code outcome}
+ * and HTTP {@code status}.
+ */
+@Component
+public class PaymentMetrics {
+
+    private static final String METRIC_PHASE = "payment.phase";
+    private static final String METRIC_REQUESTS = "payment.requests";
+
+    public enum Phase {
+        VALIDATION("validation"),
+        ACCOUNT_LOAD("account_load"),
+        BALANCE_UPDATE("balance_update"),
+        LEDGER_INSERT("ledger_insert"),
+        /**
+         * Handing the transaction to the {@code TransactionNotifier}: the outbox insert, or registering the Kafka
+         * send that follows the commit. The send itself is timed in {@code payment.notification.send}.
+         */
+        NOTIFICATION("notification"),
+        /**
+         * From the end of the payment's work until its transaction has committed.
+         */
+        COMMIT("commit");
+
+        private final String tag;
+
+        Phase(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    public enum Outcome {
+        SUCCEEDED("succeeded", 200),
+        REJECTED("rejected", 400),
+        NOT_FOUND("not_found", 404),
+        CONFLICT("conflict", 409),
+        DATABASE_ERROR("database_error", 500),
+        FAILED("failed", 500);
+
+        private final String tag;
+        private final int status;
+
+        Outcome(String tag, int status) {
+            this.tag = tag;
+            this.status = status;
+        }
+    }
+
+    private final Map<Phase, Timer> timers = new EnumMap<>(Phase.class);
+    private final Map<Outcome, Counter> outcomes = new EnumMap<>(Outcome.class);
+
+    public PaymentMetrics(MeterRegistry meterRegistry) {
+        for (Phase phase : Phase.values()) {
+            timers.put(phase, Timer.builder(METRIC_PHASE)
+                    .tag("phase", phase.tag)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+        for (Outcome outcome : Outcome.values()) {
+            outcomes.put(outcome, Counter.builder(METRIC_REQUESTS)
+                    .tag("outcome", outcome.tag)
+                    .tag("status", String.valueOf(outcome.status))
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Records a phase that started at {@code startNanos}, a {@link System#nanoTime()}, and ends now.
+     */
+    public void record(Phase phase, long startNanos) {
+        timers.get(phase).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts a payment request answered with the given outcome.
+     */
+    public void count(Outcome outcome) {
+        outcomes.get(outcome).increment();
+    }
+
+    /**
+     * Records the commit of the surrounding transaction, if there is one. Runs before the other synchronizations,
+     * so that their after-commit work is not counted.
+     */
+    public void recordCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            private long start;
+
+            @Override
+            public int getOrder() {
+                return Ordered.HIGHEST_PRECEDENCE;
+            }
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                start = System.nanoTime();
+            }
+
+            @Override
+            public void afterCommit() {
+                record(Phase.COMMIT, start);
+            }
+        });
+    }
+}
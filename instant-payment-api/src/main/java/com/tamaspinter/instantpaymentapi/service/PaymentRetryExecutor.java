@@ -0,0 +1,122 @@
+package com.tamaspinter.instantpaymentapi.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.OptimisticLockException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Re-runs a whole transactional payment operation when it fails on an optimistic lock conflict
+ * (a concurrent update of the same {@code Account} {@code @Version}).
+ * <p>
+ * The operation must be a call through the transactional proxy, so that every attempt starts a new
+ * transaction. Between attempts it waits a random time between zero and an exponentially growing cap
+ * (full jitter), so the competing requests do not collide again on the next attempt.
+ * <p>
+ * Outcomes are counted in the {@code payment.retry.outcome} metric, and every conflict, including the ones
+ * that are retried, in {@code payment.retry.conflicts}.
+ */
+@Component
+public class PaymentRetryExecutor {
+
+    private static final String METRIC_OUTCOME = "payment.retry.outcome";
+
+    private final int maxAttempts;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+
+    private final Counter firstTrySuccess;
+    private final Counter retriedSuccess;
+    private final Counter exhausted;
+    private final Counter retries;
+    private final Counter conflicts;
+
+    public PaymentRetryExecutor(MeterRegistry meterRegistry,
+                                @Value("${payment.retry.max-attempts:3}") int maxAttempts,
+                                @Value("${payment.retry.initial-backoff-ms:10}") long initialBackoffMs,
+                                @Value("${payment.retry.max-backoff-ms:200}") long maxBackoffMs) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("payment.retry.max-attempts must be at least 1");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.firstTrySuccess = meterRegistry.counter(METRIC_OUTCOME, "outcome", "first_try_success");
+        this.retriedSuccess = meterRegistry.counter(METRIC_OUTCOME, "outcome", "retried_success");
+        this.exhausted = meterRegistry.counter(METRIC_OUTCOME, "outcome", "exhausted");
+        this.retries = meterRegistry.counter("payment.retry.attempts");
+        this.conflicts = meterRegistry.counter("payment.retry.conflicts");
+    }
+
+    /**
+     * Runs the operation, retrying it on optimistic lock conflicts.
+     *
+     * @param operation The transactional operation to run.
+     * @return The result of the first successful attempt.
+     * @throws OptimisticLockingFailureException The last conflict, unwrapped, once the attempts are exhausted.
+     * @throws RuntimeException Any other failure immediately.
+     */
+    public <T> T execute(Supplier<T> operation) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                T result = operation.get();
+                if (attempt == 1) {
+                    firstTrySuccess.increment();
+                } else {
+                    retriedSuccess.increment();
+                }
+                return result;
+            } catch (RuntimeException e) {
+                OptimisticLockingFailureException conflict = optimisticLockConflict(e);
+                if (conflict == null) {
+                    throw e;
+                }
+                conflicts.increment();
+                if (attempt >= maxAttempts) {
+                    exhausted.increment();
+                    throw conflict;
+                }
+                retries.increment();
+                backOff(attempt, conflict);
+            }
+        }
+    }
+
+    private void backOff(int attempt, OptimisticLockingFailureException conflict) {
+        long cap = Math.min(maxBackoffMs, initialBackoffMs << Math.min(attempt - 1, 20));
+        if (cap <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exhausted.increment();
+            throw conflict;
+        }
+    }
+
+    /**
+     * Conflicts may be thrown directly at commit, or wrapped when the flush happens inside the operation.
+     * The conflict itself is returned, so the caller maps an exhausted retry to a conflict and not to
+     * the wrapping failure.
+     *
+     * @return The conflict in the cause chain, or {@code null} if the failure is not a conflict.
+     */
+    private static OptimisticLockingFailureException optimisticLockConflict(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof OptimisticLockingFailureException conflict) {
+                return conflict;
+            }
+            if (cause instanceof OptimisticLockException) {
+                return new OptimisticLockingFailureException(cause.getMessage(), cause);
+            }
+        }
+        return null;
+    }
+}
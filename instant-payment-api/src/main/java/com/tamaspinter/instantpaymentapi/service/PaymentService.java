@@ -1,78 +1,410 @@
 package com.tamaspinter.instantpaymentapi.service;
 
+import com.tamaspinter.instantpaymentapi.dto.PaymentBatchItemResult;
+import com.tamaspinter.instantpaymentapi.dto.PaymentBatchItemResult.Status;
 import com.tamaspinter.instantpaymentapi.dto.PaymentRequest;
 import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentHold;
 import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
 import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
 import com.tamaspinter.instantpaymentapi.repository.PaymentTransactionRepository;
+import com.tamaspinter.instantpaymentapi.service.cache.AccountCache;
+import com.tamaspinter.instantpaymentapi.service.fx.FxRates;
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionNotifier;
+import com.tamaspinter.instantpaymentapi.service.transfer.ReservingTransferEngine;
+import com.tamaspinter.instantpaymentapi.service.transfer.TransferEngine;
 import jakarta.persistence.EntityNotFoundException;
 import org.apache.kafka.common.errors.InvalidRequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataAccessResourceFailureException;
-import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionOperations;
 
-import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Service
 public class PaymentService {
 
-    private static final String TOPIC_TRANSACTION_NOTIFICATION = "transaction_notifications";
+    private static final Logger log = LoggerFactory.getLogger(PaymentService.class);
 
+    public final TransferEngine transferEngine;
     public final AccountRepository accountRepository;
     public final PaymentTransactionRepository paymentTransactionRepository;
-    public final KafkaTemplate<String, String> kafkaTemplate;
+    public final TransactionNotifier transactionNotifier;
 
-    public PaymentService(AccountRepository accountRepository, PaymentTransactionRepository paymentTransactionRepository, KafkaTemplate<String, String> kafkaTemplate) {
+    private final ReservingTransferEngine reservingTransferEngine;
+    private final AccountCache accountCache;
+    private final ShardedBalances shardedBalances;
+    private final FxRates fxRates;
+    private final TransactionOperations transactionOperations;
+    private final PaymentRetryExecutor paymentRetryExecutor;
+    private final PaymentMetrics paymentMetrics;
+    private final int batchChunkSize;
+    private final int batchMaxItems;
+
+    public PaymentService(TransferEngine transferEngine,
+                          AccountRepository accountRepository,
+                          PaymentTransactionRepository paymentTransactionRepository,
+                          TransactionNotifier transactionNotifier,
+                          AccountCache accountCache,
+                          ShardedBalances shardedBalances,
+                          FxRates fxRates,
+                          TransactionOperations transactionOperations,
+                          PaymentRetryExecutor paymentRetryExecutor,
+                          PaymentMetrics paymentMetrics,
+                          @Value("${payment.batch.chunk-size:500}") int batchChunkSize,
+                          @Value("${payment.batch.max-items:50000}") int batchMaxItems) {
+        this.transferEngine = transferEngine;
+        this.reservingTransferEngine = transferEngine instanceof ReservingTransferEngine reserving ? reserving : null;
         this.accountRepository = accountRepository;
         this.paymentTransactionRepository = paymentTransactionRepository;
-        this.kafkaTemplate = kafkaTemplate;
+        this.transactionNotifier = transactionNotifier;
+        this.accountCache = accountCache;
+        this.shardedBalances = shardedBalances;
+        this.fxRates = fxRates;
+        this.transactionOperations = transactionOperations;
+        this.paymentRetryExecutor = paymentRetryExecutor;
+        this.paymentMetrics = paymentMetrics;
+        this.batchChunkSize = batchChunkSize;
+        this.batchMaxItems = batchMaxItems;
     }
 
-    @Transactional
     public PaymentTransaction processPayment(PaymentRequest request) throws DataAccessResourceFailureException {
-        if (request == null) {
-            throw new IllegalArgumentException("Payment request cannot be null");
+        return processPayment(request, null);
+    }
+
+    /**
+     * Processes a payment in one transaction, storing the client's idempotency key with its transaction.
+     * See {@link IdempotencyStore} for how repeated keys are answered.
+     * <p>
+     * With a {@link ReservingTransferEngine} the hold is committed first and settled in the payment's transaction; when
+     * that transaction fails, the hold is released again. With an engine that
+     * {@linkplain TransferEngine#commitsOnReturn() commits on return}, the payment has succeeded once it is
+     * transferred, and its notification is stored afterwards, see {@link #publishCommitted}.
+     * <p>
+     * The duration of each phase is recorded in {@link PaymentMetrics}.
+     */
+    public PaymentTransaction processPayment(PaymentRequest request, String idempotencyKey) throws DataAccessResourceFailureException {
+        long validationStart = System.nanoTime();
+        validate(request);
+        paymentMetrics.record(PaymentMetrics.Phase.VALIDATION, validationStart);
+
+        if (transferEngine.commitsOnReturn()) {
+            PaymentTransaction transaction = transferEngine.transfer(
+                    request.fromAccountId(), request.toAccountId(), request.amount(), idempotencyKey);
+            publishCommitted(List.of(transaction));
+            return transaction;
         }
-        if (request.fromAccountId().equals(request.toAccountId())) {
-            throw new InvalidRequestException("Cannot transfer to the same account");
+        PaymentHold hold = reservingTransferEngine == null ? null
+                : reservingTransferEngine.reserve(request.fromAccountId(), request.toAccountId(), request.amount());
+        try {
+            return transactionOperations.execute(status -> {
+                paymentMetrics.recordCommit();
+                PaymentTransaction transaction = hold == null
+                        ? transferEngine.transfer(request.fromAccountId(), request.toAccountId(), request.amount(), idempotencyKey)
+                        : reservingTransferEngine.settle(hold, idempotencyKey);
+
+                long notificationStart = System.nanoTime();
+                transactionNotifier.publish(transaction);
+                paymentMetrics.record(PaymentMetrics.Phase.NOTIFICATION, notificationStart);
+                accountCache.evictAfterCommit(List.of(transaction.getFromAccountId(), transaction.getToAccountId()));
+
+                return transaction;
+            });
+        } catch (RuntimeException e) {
+            if (hold != null) {
+                try {
+                    reservingTransferEngine.release(hold);
+                } catch (RuntimeException releaseFailure) {
+                    // The sweeper releases the hold once it expires
+                    e.addSuppressed(releaseFailure);
+                }
+            }
+            throw e;
         }
-        if (request.amount().compareTo(BigDecimal.ZERO) <= 0) {
-            throw new InvalidRequestException("Amount must be positive");
+    }
+
+    /**
+     * Processes a batch of payments in order. Every payment is validated up front, then the valid ones are
+     * applied in chunks of {@code payment.batch.chunk-size}, each chunk in its own transaction. A payment that is
+     * invalid, refers to a missing account or exceeds the balance is skipped without affecting the rest of its chunk.
+     * <p>
+     * Engines that {@linkplain TransferEngine#appliesChunksToEntities() apply chunks to entities} update the chunk's
+     * accounts once and insert its transactions in a single JDBC batch; the others transfer every payment through the
+     * engine. With a {@link ReservingTransferEngine} every payment is processed on its own, like a single payment, and
+     * with an engine that {@linkplain TransferEngine#commitsOnReturn() commits on return} every payment succeeds or
+     * fails on its own, see {@link #transferEach}.
+     *
+     * @param requests The payments to process.
+     * @return One result per request, in the order of the requests.
+     */
+    public List<PaymentBatchItemResult> processBatch(List<PaymentRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
+            throw new InvalidRequestException("Payment batch cannot be empty");
         }
-        Account fromAccount = accountRepository.findById(request.fromAccountId())
-                .orElseThrow(() -> new EntityNotFoundException("From Account not found"));
-        Account toAccount = accountRepository.findById(request.toAccountId())
-                .orElseThrow(() -> new EntityNotFoundException("To Account not found"));
+        if (requests.size() > batchMaxItems) {
+            throw new InvalidRequestException("Payment batch cannot contain more than " + batchMaxItems + " payments");
+        }
+        return processBatch(requests, 0);
+    }
 
-        BigDecimal amount = request.amount();
-        if (fromAccount.getBalance().compareTo(amount) < 0) {
-            throw new InvalidRequestException("Insufficient balance");
+    /**
+     * Processes one part of a larger, streamed batch. Works like {@link #processBatch(List)}, but numbers the
+     * results from {@code firstIndex} and does not limit the number of payments.
+     *
+     * @param requests   The payments to process, {@code null} elements are rejected.
+     * @param firstIndex Position of the first payment in the whole batch.
+     * @return One result per request, in the order of the requests.
+     */
+    public List<PaymentBatchItemResult> processBatch(List<PaymentRequest> requests, int firstIndex) {
+        PaymentBatchItemResult[] results = new PaymentBatchItemResult[requests.size()];
+        List<Integer> validIndexes = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            try {
+                validate(requests.get(i));
+                validIndexes.add(i);
+            } catch (IllegalArgumentException | InvalidRequestException e) {
+                results[i] = PaymentBatchItemResult.failed(firstIndex + i, Status.REJECTED, e.getMessage());
+            }
         }
 
-        fromAccount.setBalance(fromAccount.getBalance().subtract(amount));
-        toAccount.setBalance(toAccount.getBalance().add(amount));
+        for (int start = 0; start < validIndexes.size(); start += batchChunkSize) {
+            List<Integer> chunk = validIndexes.subList(start, Math.min(start + batchChunkSize, validIndexes.size()));
+            processChunk(requests, chunk, firstIndex, results);
+        }
+
+        return Arrays.asList(results);
+    }
 
-        PaymentTransaction transaction;
+    private void processChunk(List<PaymentRequest> requests, List<Integer> chunk, int firstIndex, PaymentBatchItemResult[] results) {
+        if (reservingTransferEngine != null) {
+            processEach(requests, chunk, firstIndex, results);
+            return;
+        }
+        if (transferEngine.commitsOnReturn()) {
+            transferEach(requests, chunk, firstIndex, results);
+            return;
+        }
         try {
-            accountRepository.save(fromAccount);
-            accountRepository.save(toAccount);
+            paymentRetryExecutor.execute(() ->
+                    transactionOperations.execute(status -> applyChunk(requests, chunk, firstIndex, results, status)));
+        } catch (OptimisticLockingFailureException e) {
+            failChunk(chunk, firstIndex, results, "Concurrent update of the account, please retry");
+        } catch (RuntimeException e) {
+            failChunk(chunk, firstIndex, results, "Database error");
+        }
+    }
 
-            transaction = new PaymentTransaction(
-                    fromAccount.getId(), toAccount.getId(), amount
-            );
-            transaction = paymentTransactionRepository.save(transaction);
-        } catch (Exception e) {
-            throw new DataAccessResourceFailureException("Failed to process payment", e);
+    /**
+     * Applies the payments of one chunk against the accounts loaded once for the whole chunk.
+     * The account updates are flushed on commit. Credits to sharded accounts go to their rows here, as the
+     * chunk's transaction updates them only once anyway. Payments to accounts in another currency are converted
+     * at the current rates, see {@link FxRates}.
+     */
+    private List<PaymentTransaction> applyChunk(List<PaymentRequest> requests, List<Integer> chunk, int firstIndex,
+                                                PaymentBatchItemResult[] results, TransactionStatus status) {
+        if (!transferEngine.appliesChunksToEntities()) {
+            return transferChunk(requests, chunk, firstIndex, results, status);
         }
 
+        Set<Long> accountIds = new HashSet<>();
+        for (int i : chunk) {
+            accountIds.add(requests.get(i).fromAccountId());
+            accountIds.add(requests.get(i).toAccountId());
+        }
+        Map<Long, Account> accounts = new HashMap<>();
+        for (Account account : accountRepository.findAllById(accountIds)) {
+            accounts.put(account.getId(), account);
+        }
+
+        List<PaymentTransaction> transactions = new ArrayList<>(chunk.size());
+        List<Integer> transactionIndexes = new ArrayList<>(chunk.size());
+        for (int i : chunk) {
+            PaymentRequest request = requests.get(i);
+            Account fromAccount = accounts.get(request.fromAccountId());
+            Account toAccount = accounts.get(request.toAccountId());
+            if (fromAccount == null) {
+                results[i] = PaymentBatchItemResult.failed(firstIndex + i, Status.NOT_FOUND, "From Account not found");
+                continue;
+            }
+            if (toAccount == null) {
+                results[i] = PaymentBatchItemResult.failed(firstIndex + i, Status.NOT_FOUND, "To Account not found");
+                continue;
+            }
+            if (request.amount().currency() != fromAccount.getCurrency()) {
+                results[i] = PaymentBatchItemResult.failed(firstIndex + i, Status.REJECTED,
+                        "Amount must be in the currency of the source account, " + fromAccount.getCurrency());
+                continue;
+            }
+            if (fromAccount.getBalance().isLessThan(request.amount()) && fromAccount.isSharded()) {
+                shardedBalances.drainInto(fromAccount);
+            }
+            if (fromAccount.getBalance().isLessThan(request.amount())) {
+                results[i] = PaymentBatchItemResult.failed(firstIndex + i, Status.REJECTED, "Insufficient balance");
+                continue;
+            }
+            PaymentTransaction transaction = new PaymentTransaction(fromAccount.getId(), toAccount.getId(), request.amount());
+            Money credit;
+            try {
+                credit = fxRates.credit(transaction, toAccount.getCurrency());
+            } catch (InvalidRequestException e) {
+                results[i] = PaymentBatchItemResult.failed(firstIndex + i, Status.REJECTED, e.getMessage());
+                continue;
+            }
+
+            fromAccount.setBalance(fromAccount.getBalance().minus(request.amount()));
+            toAccount.setBalance(toAccount.getBalance().plus(credit));
+            transactions.add(transaction);
+            transactionIndexes.add(i);
+        }
 
-        String message = String.format(
-                "Payment of %s from account %d to account %d succeeded.",
-                amount, fromAccount.getId(), toAccount.getId()
-        );
-        kafkaTemplate.send(TOPIC_TRANSACTION_NOTIFICATION, message);
+        paymentTransactionRepository.insertAll(transactions);
+        completeChunk(transactions, transactionIndexes, firstIndex, results);
+        return transactions;
+    }
+
+    /**
+     * Applies the payments of one chunk one by one through the transfer engine, in the chunk's transaction. Each
+     * payment runs under a savepoint, so whatever an engine wrote before rejecting a payment is rolled back with it
+     * instead of being committed with the rest of the chunk.
+     */
+    private List<PaymentTransaction> transferChunk(List<PaymentRequest> requests, List<Integer> chunk, int firstIndex,
+                                                   PaymentBatchItemResult[] results, TransactionStatus status) {
+        List<PaymentTransaction> transactions = new ArrayList<>(chunk.size());
+        List<Integer> transactionIndexes = new ArrayList<>(chunk.size());
+        for (int i : chunk) {
+            PaymentRequest request = requests.get(i);
+            Object savepoint = status.createSavepoint();
+            try {
+                transactions.add(transferEngine.transfer(request.fromAccountId(), request.toAccountId(), request.amount()));
+                transactionIndexes.add(i);
+                status.releaseSavepoint(savepoint);
+            } catch (EntityNotFoundException e) {
+                status.rollbackToSavepoint(savepoint);
+                results[i] = PaymentBatchItemResult.failed(firstIndex + i, Status.NOT_FOUND, e.getMessage());
+            } catch (InvalidRequestException e) {
+                status.rollbackToSavepoint(savepoint);
+                results[i] = PaymentBatchItemResult.failed(firstIndex + i, Status.REJECTED, e.getMessage());
+            }
+        }
 
-        return transaction;
+        completeChunk(transactions, transactionIndexes, firstIndex, results);
+        return transactions;
+    }
+
+    /**
+     * Processes the chunk's payments one by one like single payments: each places its hold in a transaction of its own
+     * and settles it in another, so a batch never holds the row locks of more than one payment at a time.
+     */
+    private void processEach(List<PaymentRequest> requests, List<Integer> chunk, int firstIndex, PaymentBatchItemResult[] results) {
+        for (int i : chunk) {
+            try {
+                PaymentTransaction transaction = processPayment(requests.get(i), null);
+                results[i] = PaymentBatchItemResult.succeeded(firstIndex + i, transaction.getId());
+            } catch (EntityNotFoundException e) {
+                results[i] = PaymentBatchItemResult.failed(firstIndex + i, Status.NOT_FOUND, e.getMessage());
+            } catch (InvalidRequestException e) {
+                results[i] = PaymentBatchItemResult.failed(firstIndex + i, Status.REJECTED, e.getMessage());
+            } catch (RuntimeException e) {
+                results[i] = PaymentBatchItemResult.failed(firstIndex + i, Status.FAILED, "Database error");
+            }
+        }
+    }
+
+    /**
+     * Transfers the chunk's payments one by one through an engine that commits each of them on return, outside of any
+     * transaction, then stores their notifications together. A payment that fails only fails itself.
+     */
+    private void transferEach(List<PaymentRequest> requests, List<Integer> chunk, int firstIndex, PaymentBatchItemResult[] results) {
+        List<PaymentTransaction> transactions = new ArrayList<>(chunk.size());
+        for (int i : chunk) {
+            PaymentRequest request = requests.get(i);
+            try {
+                PaymentTransaction transaction = transferEngine.transfer(request.fromAccountId(), request.toAccountId(), request.amount());
+                transactions.add(transaction);
+                results[i] = PaymentBatchItemResult.succeeded(firstIndex + i, transaction.getId());
+            } catch (EntityNotFoundException e) {
+                results[i] = PaymentBatchItemResult.failed(firstIndex + i, Status.NOT_FOUND, e.getMessage());
+            } catch (InvalidRequestException e) {
+                results[i] = PaymentBatchItemResult.failed(firstIndex + i, Status.REJECTED, e.getMessage());
+            } catch (RuntimeException e) {
+                results[i] = PaymentBatchItemResult.failed(firstIndex + i, Status.FAILED, "Database error");
+            }
+        }
+        publishCommitted(transactions);
+    }
+
+    /**
+     * Stores the notifications of payments that are already committed, in a transaction of their own. The payments
+     * stay successful if that fails: the failure is logged with their IDs instead.
+     */
+    private void publishCommitted(List<PaymentTransaction> transactions) {
+        if (transactions.isEmpty()) {
+            return;
+        }
+        long notificationStart = System.nanoTime();
+        try {
+            transactionOperations.executeWithoutResult(status -> {
+                transactionNotifier.publishAll(transactions);
+                Set<Long> changedAccountIds = new HashSet<>();
+                for (PaymentTransaction transaction : transactions) {
+                    changedAccountIds.add(transaction.getFromAccountId());
+                    changedAccountIds.add(transaction.getToAccountId());
+                }
+                accountCache.evictAfterCommit(changedAccountIds);
+            });
+        } catch (RuntimeException e) {
+            log.error("Storing the notifications of committed payments {} failed",
+                    transactions.stream().map(PaymentTransaction::getId).toList(), e);
+        }
+        paymentMetrics.record(PaymentMetrics.Phase.NOTIFICATION, notificationStart);
+    }
+
+    private void completeChunk(List<PaymentTransaction> transactions, List<Integer> transactionIndexes, int firstIndex,
+                               PaymentBatchItemResult[] results) {
+        transactionNotifier.publishAll(transactions);
+        Set<Long> changedAccountIds = new HashSet<>();
+        for (PaymentTransaction transaction : transactions) {
+            changedAccountIds.add(transaction.getFromAccountId());
+            changedAccountIds.add(transaction.getToAccountId());
+        }
+        accountCache.evictAfterCommit(changedAccountIds);
+
+        for (int t = 0; t < transactions.size(); t++) {
+            int i = transactionIndexes.get(t);
+            results[i] = PaymentBatchItemResult.succeeded(firstIndex + i, transactions.get(t).getId());
+        }
+    }
+
+    private static void failChunk(List<Integer> chunk, int firstIndex, PaymentBatchItemResult[] results, String error) {
+        for (int i : chunk) {
+            results[i] = PaymentBatchItemResult.failed(firstIndex + i, Status.FAILED, error);
+        }
+    }
+
+    private static void validate(PaymentRequest request) {
+        if (request == null) {
+            throw new IllegalArgumentException("Payment request cannot be null");
+        }
+        if (request.fromAccountId() == null || request.toAccountId() == null || request.amount() == null) {
+            throw new InvalidRequestException("Account IDs and amount are required");
+        }
+        if (request.fromAccountId().equals(request.toAccountId())) {
+            throw new InvalidRequestException("Cannot transfer to the same account");
+        }
+        if (!request.amount().isPositive()) {
+            throw new InvalidRequestException("Amount must be positive");
+        }
     }
 }
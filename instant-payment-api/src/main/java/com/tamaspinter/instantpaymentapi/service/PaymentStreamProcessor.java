@@ -0,0 +1,249 @@
+package com.tamaspinter.instantpaymentapi.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.tamaspinter.instantpaymentapi.dto.PaymentBatchItemResult;
+import com.tamaspinter.instantpaymentapi.dto.PaymentBatchItemResult.Status;
+import com.tamaspinter.instantpaymentapi.config.PaymentStreamConfig;
+import com.tamaspinter.instantpaymentapi.dto.PaymentRequest;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+
+/**
+ * Processes a newline-delimited JSON stream of {@link PaymentRequest}s of any size with a fixed amount of memory.
+ * <p>
+ * A parser thread reads the body line by line and groups the payments into chunks of
+ * {@code payment.stream.chunk-size}. The chunks pass through a queue of {@code payment.stream.queue-capacity}
+ * chunks to the calling thread, which commits them with {@link PaymentService#processBatch(List, int)} and writes
+ * one result line per payment as soon as its chunk is done. When the queue is full the parser stops reading,
+ * so a fast client is slowed down by TCP flow control instead of filling the heap. A line is kept up to
+ * {@code payment.stream.max-line-length} characters; a longer one is read to its end and rejected as malformed.
+ * <p>
+ * The parsers run on their own bounded pool (see {@link PaymentStreamConfig}). When the calling thread stops, because
+ * the stream is done or a commit or a write failed, it closes the body, so a parser blocked reading a slow upload
+ * returns its thread instead of waiting for the client. Whatever stops the parser, it queues the failure, so the
+ * calling thread never waits for a chunk that is not coming.
+ */
+@Component
+public class PaymentStreamProcessor {
+
+    private static final byte NEWLINE = '\n';
+
+    private final PaymentService paymentService;
+    private final ObjectReader requestReader;
+    private final ObjectWriter resultWriter;
+    private final AsyncTaskExecutor taskExecutor;
+    private final int chunkSize;
+    private final int queueCapacity;
+    private final int maxLineLength;
+
+    public PaymentStreamProcessor(PaymentService paymentService,
+                                  ObjectMapper objectMapper,
+                                  @Qualifier(PaymentStreamConfig.STREAM_EXECUTOR) AsyncTaskExecutor taskExecutor,
+                                  @Value("${payment.stream.chunk-size:500}") int chunkSize,
+                                  @Value("${payment.stream.queue-capacity:4}") int queueCapacity,
+                                  @Value("${payment.stream.max-line-length:4096}") int maxLineLength) {
+        this.paymentService = paymentService;
+        this.requestReader = objectMapper.readerFor(PaymentRequest.class);
+        this.resultWriter = objectMapper.writerFor(PaymentBatchItemResult.class);
+        this.taskExecutor = taskExecutor;
+        this.chunkSize = chunkSize;
+        this.queueCapacity = queueCapacity;
+        this.maxLineLength = maxLineLength;
+    }
+
+    /**
+     * Reads payments from the body and writes their results, one JSON object per line, in the order of the payments.
+     *
+     * @return The number of payments processed.
+     * @throws IOException           if the body cannot be read or the results cannot be written.
+     * @throws TaskRejectedException if {@code payment.stream.max-streams} streams are already being processed.
+     */
+    public long process(InputStream body, OutputStream out) throws IOException {
+        BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(queueCapacity);
+        Future<?> parser = taskExecutor.submit(() -> parse(body, queue));
+
+        long processed = 0;
+        try {
+            while (true) {
+                Chunk chunk = queue.take();
+                if (chunk.failure() instanceof IOException e) {
+                    throw e;
+                }
+                if (chunk.failure() != null) {
+                    throw new IllegalStateException("Failed to parse the payment stream", chunk.failure());
+                }
+                if (chunk.requests().isEmpty()) {
+                    return processed;
+                }
+
+                List<PaymentBatchItemResult> results = paymentService.processBatch(chunk.requests(), chunk.firstIndex());
+                for (int i = 0; i < results.size(); i++) {
+                    PaymentBatchItemResult result = chunk.malformed().get(i)
+                            ? PaymentBatchItemResult.failed(chunk.firstIndex() + i, Status.REJECTED, "Malformed payment request")
+                            : results.get(i);
+                    out.write(resultWriter.writeValueAsBytes(result));
+                    out.write(NEWLINE);
+                }
+                out.flush();
+                processed += results.size();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while processing the payment stream", e);
+        } finally {
+            parser.cancel(true);
+            closeQuietly(body);
+        }
+    }
+
+    /**
+     * Closes the body, waking up a parser blocked reading it, which the interrupt of {@link Future#cancel} does not.
+     */
+    private static void closeQuietly(InputStream body) {
+        try {
+            body.close();
+        } catch (IOException e) {
+            // The parser only needs the read to end; an error closing the connection changes nothing for it
+        }
+    }
+
+    private void parse(InputStream body, BlockingQueue<Chunk> queue) {
+        try {
+            int firstIndex = 0;
+            try {
+                LineReader reader = new LineReader(new InputStreamReader(body, StandardCharsets.UTF_8), maxLineLength);
+                List<PaymentRequest> requests = new ArrayList<>(chunkSize);
+                BitSet malformed = new BitSet();
+
+                String line;
+                while ((line = reader.next()) != null) {
+                    if (!reader.tooLong && line.isBlank()) {
+                        continue;
+                    }
+                    try {
+                        if (reader.tooLong) {
+                            throw new IllegalArgumentException("Line longer than " + maxLineLength + " characters");
+                        }
+                        requests.add(requestReader.readValue(line));
+                    } catch (JsonProcessingException | RuntimeException e) {
+                        malformed.set(requests.size());
+                        requests.add(null);
+                    }
+                    if (requests.size() == chunkSize) {
+                        queue.put(new Chunk(firstIndex, requests, malformed, null));
+                        firstIndex += requests.size();
+                        requests = new ArrayList<>(chunkSize);
+                        malformed = new BitSet();
+                    }
+                }
+                if (!requests.isEmpty()) {
+                    queue.put(new Chunk(firstIndex, requests, malformed, null));
+                    firstIndex += requests.size();
+                }
+                queue.put(new Chunk(firstIndex, List.of(), new BitSet(), null));
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Throwable e) {
+                queue.put(new Chunk(firstIndex, List.of(), new BitSet(), e));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A group of consecutive payments of the stream. An empty chunk marks the end of the stream.
+     */
+    private record Chunk(int firstIndex, List<PaymentRequest> requests, BitSet malformed, Throwable failure) {
+    }
+
+    /**
+     * Splits the body into lines like {@link java.io.BufferedReader#readLine()} does for {@code \n} and
+     * {@code \r\n}, but keeps at most {@code maxLength} characters of a line, so one endless line cannot fill the heap.
+     */
+    private static final class LineReader {
+
+        private final Reader reader;
+        private final int maxLength;
+        private final char[] buffer = new char[8192];
+        private final StringBuilder line = new StringBuilder();
+        private int position;
+        private int limit;
+
+        /**
+         * Whether the line last returned was longer than {@code maxLength} and was cut.
+         */
+        private boolean tooLong;
+
+        private LineReader(Reader reader, int maxLength) {
+            this.reader = reader;
+            this.maxLength = maxLength;
+        }
+
+        /**
+         * @return The next line without its terminator, or {@code null} at the end of the body.
+         */
+        private String next() throws IOException {
+            line.setLength(0);
+            tooLong = false;
+            boolean read = false;
+            while (true) {
+                if (position == limit) {
+                    int n = reader.read(buffer);
+                    if (n < 0) {
+                        return read ? finish() : null;
+                    }
+                    position = 0;
+                    limit = n;
+                }
+                read = true;
+                int start = position;
+                while (position < limit && buffer[position] != '\n') {
+                    position++;
+                }
+                append(start, position);
+                if (position < limit) {
+                    position++;
+                    return finish();
+                }
+            }
+        }
+
+        private void append(int start, int end) {
+            int room = maxLength - line.length();
+            if (end - start > room) {
+                tooLong = true;
+                line.append(buffer, start, Math.max(room, 0));
+            } else {
+                line.append(buffer, start, end - start);
+            }
+        }
+
+        private String finish() {
+            int length = line.length();
+            if (length > 0 && line.charAt(length - 1) == '\r') {
+                line.setLength(length - 1);
+            }
+            return line.toString();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.tamaspinter.instantpaymentapi.service;
+
+import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.entity.AccountBalanceSlot;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.repository.AccountBalanceSlotRepository;
+import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Spreads the credits of hot accounts, such as merchants receiving thousands of payments a second, across
+ * {@link AccountBalanceSlot}s, so concurrent payments to the same account update different rows.
+ * <p>
+ * The balance of a sharded account is its {@code balance} plus the balances of its slots. Credits go to a
+ * random slot. Debits are taken from the account's own balance, and only when that is not enough are all
+ * slots locked and drained into it, so the insufficient balance check always sees the whole balance.
+ * <p>
+ * The number of slots is read without locking the account, so a credit may race with {@link #reshard}; when its
+ * slot is gone, the account's own balance is credited instead.
+ */
+@Component
+public class ShardedBalances {
+
+    private final AccountRepository accountRepository;
+    private final AccountBalanceSlotRepository slotRepository;
+    private final int maxSlots;
+
+    public ShardedBalances(AccountRepository accountRepository,
+                           AccountBalanceSlotRepository slotRepository,
+                           @Value("${payment.account-shard.max-slots:64}") int maxSlots) {
+        this.accountRepository = accountRepository;
+        this.slotRepository = slotRepository;
+        this.maxSlots = maxSlots;
+    }
+
+    /**
+     * Adds the amount to a random slot of a sharded account, holding the lock of that slot until the transaction ends.
+     * If the account was resharded since it was loaded and the slot no longer exists, the amount is added to the
+     * account's own balance, which the reshard moved the old slots into.
+     */
+    public void credit(Account account, Money amount) {
+        int slot = ThreadLocalRandom.current().nextInt(account.getBalanceSlots());
+        if (slotRepository.credit(account.getId(), slot, amount) == 0
+                && accountRepository.addToBalance(account.getId(), amount) == 0) {
+            throw new IllegalStateException("Account " + account.getId() + " is missing");
+        }
+    }
+
+    /**
+     * Locks all slots of an account and sets them to zero. The caller must add the returned amount to the
+     * account's own balance in the same transaction.
+     *
+     * @return The sum of the drained slots, read without the account's currency, see {@link #drainInto}.
+     */
+    public Money drain(Long accountId) {
+        Money total = Money.ZERO;
+        for (AccountBalanceSlot slot : slotRepository.findAllForUpdate(accountId)) {
+            total = total.plus(slot.getBalance());
+        }
+        if (!total.isZero()) {
+            slotRepository.clearAll(accountId);
+        }
+        return total;
+    }
+
+    /**
+     * Drains the slots of an account loaded for update into its own balance.
+     */
+    public void drainInto(Account account) {
+        account.setBalance(account.getBalance().plus(drain(account.getId()).withCurrency(account.getCurrency())));
+    }
+
+    /**
+     * Returns the whole balance of an account: its own balance plus, if it is sharded, the balances of its slots.
+     */
+    public Money balanceOf(Account account) {
+        if (!account.isSharded()) {
+            return account.getBalance();
+        }
+        return account.getBalance().plus(Money.of(slotRepository.sumBalance(account.getId()), account.getCurrency()));
+    }
+
+    /**
+     * Changes the number of slots of an account loaded for update. The balances of the old slots are moved to the
+     * account's own balance, then the new, empty slots are created; {@code 0} slots turns sharding off.
+     */
+    public void reshard(Account account, int slots) {
+        if (slots < 0 || slots > maxSlots) {
+            throw new InvalidRequestException("Number of balance slots must be between 0 and " + maxSlots);
+        }
+        if (account.isSharded()) {
+            drainInto(account);
+            slotRepository.deleteAllOf(account.getId());
+        }
+
+        List<AccountBalanceSlot> newSlots = new ArrayList<>(slots);
+        for (int slot = 0; slot < slots; slot++) {
+            newSlots.add(new AccountBalanceSlot(account.getId(), slot));
+        }
+        slotRepository.saveAll(newSlots);
+        account.setBalanceSlots(slots);
+    }
+}
@@ -0,0 +1,106 @@
+package com.tamaspinter.instantpaymentapi.service;
+
+import com.tamaspinter.instantpaymentapi.dto.TransactionHistoryItem;
+import com.tamaspinter.instantpaymentapi.dto.TransactionHistoryPage;
+import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
+import com.tamaspinter.instantpaymentapi.repository.PaymentTransactionRepository;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import javax.security.auth.login.AccountNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reads the transactions of an account, newest first, with keyset pagination on {@code (created_at, id)}.
+ * <p>
+ * Each page seeks straight to the position of the cursor in the account's sent and received indexes and reads
+ * at most one page from each, so a page costs the same no matter how deep into the history it is.
+ */
+@Service
+public class TransactionHistoryService {
+
+    private static final Comparator<TransactionHistoryItem> NEWEST_FIRST = Comparator
+            .comparing(TransactionHistoryItem::createdAt)
+            .thenComparing(TransactionHistoryItem::id)
+            .reversed();
+
+    private static final String CURSOR_SEPARATOR = "_";
+
+    private final AccountRepository accountRepository;
+    private final PaymentTransactionRepository paymentTransactionRepository;
+    private final int maxPageSize;
+
+    public TransactionHistoryService(AccountRepository accountRepository,
+                                     PaymentTransactionRepository paymentTransactionRepository,
+                                     @Value("${payment.history.max-page-size:200}") int maxPageSize) {
+        this.accountRepository = accountRepository;
+        this.paymentTransactionRepository = paymentTransactionRepository;
+        this.maxPageSize = maxPageSize;
+    }
+
+    /**
+     * Returns one page of the account's sent and received transactions.
+     *
+     * @param accountId The ID of the account.
+     * @param cursor    The {@link TransactionHistoryPage#nextCursor()} of the previous page, or {@code null} for the
+     *                  first page.
+     * @param size      The maximum number of transactions on the page.
+     * @throws AccountNotFoundException if the account does not exist.
+     * @throws InvalidRequestException  if the cursor or the size is invalid.
+     */
+    public TransactionHistoryPage getHistory(Long accountId, String cursor, int size) throws AccountNotFoundException {
+        if (size < 1 || size > maxPageSize) {
+            throw new InvalidRequestException("Page size must be between 1 and " + maxPageSize);
+        }
+        Position before = cursor == null ? Position.START : decodeCursor(cursor);
+        if (!accountRepository.existsById(accountId)) {
+            throw new AccountNotFoundException("Account not found");
+        }
+
+        // One extra row tells whether there is a next page
+        Limit limit = Limit.of(size + 1);
+        List<TransactionHistoryItem> transactions = new ArrayList<>(2 * (size + 1));
+        transactions.addAll(paymentTransactionRepository.findSentBefore(accountId, before.createdAt(), before.id(), limit));
+        transactions.addAll(paymentTransactionRepository.findReceivedBefore(accountId, before.createdAt(), before.id(), limit));
+        transactions.sort(NEWEST_FIRST);
+
+        if (transactions.size() <= size) {
+            return new TransactionHistoryPage(transactions, null);
+        }
+        List<TransactionHistoryItem> page = List.copyOf(transactions.subList(0, size));
+        return new TransactionHistoryPage(page, encodeCursor(page.get(size - 1)));
+    }
+
+    private static String encodeCursor(TransactionHistoryItem last) {
+        String position = last.createdAt() + CURSOR_SEPARATOR + last.id();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Position decodeCursor(String cursor) {
+        try {
+            String position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = position.indexOf(CURSOR_SEPARATOR);
+            return new Position(
+                    LocalDateTime.parse(position.substring(0, separator)),
+                    Long.valueOf(position.substring(separator + 1))
+            );
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new InvalidRequestException("Invalid cursor");
+        }
+    }
+
+    /**
+     * The key of the last transaction already returned; the next page starts right after it.
+     */
+    private record Position(LocalDateTime createdAt, Long id) {
+        static final Position START = new Position(LocalDateTime.of(9999, 12, 31, 23, 59), Long.MAX_VALUE);
+    }
+}
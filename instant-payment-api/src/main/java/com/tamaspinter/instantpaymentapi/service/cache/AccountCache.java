@@ -0,0 +1,137 @@
+package com.tamaspinter.instantpaymentapi.service.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.tamaspinter.instantpaymentapi.config.KafkaTopicConfig;
+import com.tamaspinter.instantpaymentapi.entity.Account;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.annotation.PartitionOffset;
+import org.springframework.kafka.annotation.TopicPartition;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Bounded in-process read-through cache of accounts, shared by all reads of {@code GET /api/accounts/{id}}.
+ * <p>
+ * Entries expire {@code payment.account-cache.ttl-ms} after they were loaded, which bounds how stale a read can be even
+ * if an invalidation is lost. Every committed change of an account evicts it locally and is announced on the
+ * {@value #TOPIC_ACCOUNT_INVALIDATION} topic, which every replica reads in full to evict its copy as well. A change
+ * committed while the account is being loaded discards the load without waiting for it, so its result is never cached,
+ * and a committing payment, still holding its connection, never waits for a read that is itself waiting for a
+ * connection.
+ * <p>
+ * Cached accounts are shared between requests and must not be modified. Hit rate, size and evictions are
+ * published as the {@code cache.*} metrics tagged {@code cache=accounts}.
+ */
+@Component
+public class AccountCache {
+
+    public static final String TOPIC_ACCOUNT_INVALIDATION = "account_invalidations";
+
+    private static final Logger log = LoggerFactory.getLogger(AccountCache.class);
+
+    private final AsyncCache<Long, Account> cache;
+    private final KafkaTemplate<String, String> kafkaTemplate;
+
+    @Autowired
+    public AccountCache(KafkaTemplate<String, String> kafkaTemplate,
+                        MeterRegistry meterRegistry,
+                        @Value("${payment.account-cache.max-size:10000}") long maxSize,
+                        @Value("${payment.account-cache.ttl-ms:1000}") long ttlMs) {
+        this(kafkaTemplate, meterRegistry, maxSize, ttlMs, Ticker.systemTicker());
+    }
+
+    public AccountCache(KafkaTemplate<String, String> kafkaTemplate, MeterRegistry meterRegistry,
+                        long maxSize, long ttlMs, Ticker ticker) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofMillis(ttlMs))
+                .ticker(ticker)
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "accounts");
+    }
+
+    /**
+     * Returns the cached account, loading it on a miss. Missing accounts are not cached.
+     */
+    public Optional<Account> get(Long id, Function<Long, Optional<Account>> loader) {
+        // The entry is only a placeholder while the calling thread loads the account, concurrent reads wait for it
+        CompletableFuture<Account> load = new CompletableFuture<>();
+        CompletableFuture<Account> account = cache.get(id, (key, executor) -> load);
+        if (account == load) {
+            try {
+                load.complete(loader.apply(id).orElse(null));
+            } catch (RuntimeException e) {
+                load.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return Optional.ofNullable(account.join());
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    /**
+     * Evicts the accounts on every replica once the surrounding transaction commits, or immediately without one.
+     */
+    public void evictAfterCommit(Collection<Long> ids) {
+        List<Long> accountIds = List.copyOf(ids);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(accountIds);
+                }
+            });
+        } else {
+            evict(accountIds);
+        }
+    }
+
+    private void evict(List<Long> ids) {
+        cache.synchronous().invalidateAll(ids);
+        for (Long id : ids) {
+            kafkaTemplate.send(TOPIC_ACCOUNT_INVALIDATION, id.toString(), id.toString())
+                    .whenComplete((result, e) -> {
+                        if (e != null) {
+                            log.warn("Sending invalidation of account {} failed, other replicas expire it after the TTL", id, e);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Evicts an account changed by any replica. Every instance assigns itself all partitions of the topic, starting
+     * at their end, instead of joining a consumer group: every replica receives every invalidation, and restarts
+     * leave no abandoned groups behind on the broker. No offsets are committed, as a restarted instance starts
+     * with an empty cache.
+     */
+    @KafkaListener(topicPartitions = @TopicPartition(topic = TOPIC_ACCOUNT_INVALIDATION,
+            partitions = "#{@" + KafkaTopicConfig.ACCOUNT_INVALIDATION_PARTITIONS + "}",
+            partitionOffsets = @PartitionOffset(partition = "*", initialOffset = "0", seekPosition = "END")),
+            properties = "enable.auto.commit=false")
+    public void onInvalidation(String accountId) {
+        cache.synchronous().invalidate(Long.valueOf(accountId));
+    }
+}
@@ -0,0 +1,163 @@
+package com.tamaspinter.instantpaymentapi.service.fx;
+
+import com.tamaspinter.instantpaymentapi.entity.Money;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+
+/**
+ * An immutable table of exchange rates, loaded as a whole by {@link FxRates}.
+ * <p>
+ * Rates are fixed-point {@code long}s with {@value #RATE_SCALE} decimal places, kept in a matrix indexed by the
+ * position of each currency, so a lookup is a scan of a few references and an array read, and a conversion is
+ * {@code long} arithmetic. Only the pairs that were loaded have a rate; none is derived by inverting or chaining.
+ */
+public final class FxRateSnapshot {
+
+    public static final int RATE_SCALE = 8;
+
+    /**
+     * The rate of a pair that was not loaded.
+     */
+    public static final long NO_RATE = 0;
+
+    static final FxRateSnapshot EMPTY = new FxRateSnapshot(new Currency[0], new long[0], 0, true);
+
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L,
+            10_000_000_000L, 100_000_000_000L, 1_000_000_000_000L
+    };
+
+    private final Currency[] currencies;
+    private final long[] rates;
+    private final long loadedAtMillis;
+    private final boolean expired;
+
+    private FxRateSnapshot(Currency[] currencies, long[] rates, long loadedAtMillis, boolean expired) {
+        this.currencies = currencies;
+        this.rates = rates;
+        this.loadedAtMillis = loadedAtMillis;
+        this.expired = expired;
+    }
+
+    /**
+     * Units of the quote currency per unit of the base currency.
+     */
+    public record Rate(Currency base, Currency quote, BigDecimal rate) {
+    }
+
+    /**
+     * Builds a snapshot of the given rates.
+     *
+     * @throws IllegalArgumentException if a rate is not positive, has more than {@value #RATE_SCALE} decimal places,
+     *                                  or is listed twice, or if a currency is not {@link Money#isSupported}.
+     */
+    public static FxRateSnapshot of(List<Rate> rates, long loadedAtMillis) {
+        List<Currency> currencies = new ArrayList<>();
+        for (Rate rate : rates) {
+            for (Currency currency : List.of(rate.base(), rate.quote())) {
+                if (!Money.isSupported(currency)) {
+                    throw new IllegalArgumentException("Currency " + currency.getCurrencyCode() + " is not supported");
+                }
+                if (!currencies.contains(currency)) {
+                    currencies.add(currency);
+                }
+            }
+        }
+
+        int size = currencies.size();
+        long[] matrix = new long[size * size];
+        for (Rate rate : rates) {
+            String pair = rate.base().getCurrencyCode() + "/" + rate.quote().getCurrencyCode();
+            if (rate.base() == rate.quote() || rate.rate().signum() <= 0) {
+                throw new IllegalArgumentException("Invalid exchange rate " + pair + " " + rate.rate());
+            }
+            long fixedPoint;
+            try {
+                fixedPoint = rate.rate().setScale(RATE_SCALE).unscaledValue().longValueExact();
+            } catch (ArithmeticException e) {
+                throw new IllegalArgumentException("Exchange rate " + pair + " " + rate.rate()
+                        + " has more than " + RATE_SCALE + " decimal places or is too large");
+            }
+            int index = currencies.indexOf(rate.base()) * size + currencies.indexOf(rate.quote());
+            if (matrix[index] != NO_RATE) {
+                throw new IllegalArgumentException("Exchange rate " + pair + " is listed twice");
+            }
+            matrix[index] = fixedPoint;
+        }
+        return new FxRateSnapshot(currencies.toArray(new Currency[0]), matrix, loadedAtMillis, false);
+    }
+
+    /**
+     * Returns the rate from one currency to another, scaled by {@code 10^}{@value #RATE_SCALE}, or {@link #NO_RATE}.
+     */
+    public long rate(Currency from, Currency to) {
+        int fromIndex = indexOf(from);
+        int toIndex = indexOf(to);
+        if (fromIndex < 0 || toIndex < 0) {
+            return NO_RATE;
+        }
+        return rates[fromIndex * currencies.length + toIndex];
+    }
+
+    /**
+     * When the snapshot was loaded, in {@link System#currentTimeMillis()}.
+     */
+    public long loadedAtMillis() {
+        return loadedAtMillis;
+    }
+
+    /**
+     * Whether the rates are too old to be used, see {@link #expire()}.
+     */
+    public boolean isExpired() {
+        return expired;
+    }
+
+    /**
+     * The same rates, marked as too old to be used.
+     */
+    public FxRateSnapshot expire() {
+        return expired ? this : new FxRateSnapshot(currencies, rates, loadedAtMillis, true);
+    }
+
+    public int size() {
+        return currencies.length;
+    }
+
+    /**
+     * Converts an amount at a rate returned by {@link #rate}, rounding half to even to the minor units of the target
+     * currency. The result only depends on the amount and the rate: it is the exact product, rounded once.
+     *
+     * @throws ArithmeticException if the result does not fit a {@code long} of minor units.
+     */
+    public static Money convert(Money amount, long rate, Currency to) {
+        int shift = RATE_SCALE + amount.scale() - to.getDefaultFractionDigits();
+        long divisor = POWERS_OF_TEN[shift];
+        long product;
+        try {
+            product = Math.multiplyExact(amount.minorUnits(), rate);
+        } catch (ArithmeticException e) {
+            BigDecimal exact = BigDecimal.valueOf(amount.minorUnits()).multiply(BigDecimal.valueOf(rate));
+            return Money.ofMinor(exact.divide(BigDecimal.valueOf(divisor), 0, RoundingMode.HALF_EVEN).longValueExact(), to);
+        }
+        long quotient = product / divisor;
+        long twiceRemainder = Math.abs(product % divisor) * 2;
+        if (twiceRemainder > divisor || (twiceRemainder == divisor && (quotient & 1) != 0)) {
+            quotient += Long.signum(product);
+        }
+        return Money.ofMinor(quotient, to);
+    }
+
+    private int indexOf(Currency currency) {
+        for (int i = 0; i < currencies.length; i++) {
+            if (currencies[i] == currency) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
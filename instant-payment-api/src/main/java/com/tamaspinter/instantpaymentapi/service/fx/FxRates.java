@@ -0,0 +1,159 @@
+package com.tamaspinter.instantpaymentapi.service.fx;
+
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.service.fx.FxRateSnapshot.Rate;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The exchange rates of cross-currency payments, held in memory so that a payment never reads them from the database.
+ * <p>
+ * The rates are loaded into an immutable {@link FxRateSnapshot} on startup and every
+ * {@code payment.fx.refresh-interval-ms}, from the {@code fx_rate} table, or from {@code payment.fx.rates-file} if it
+ * is set: a properties file of {@code BASE/QUOTE=rate} lines, such as {@code EUR/HUF=395.12}. Each load replaces the
+ * whole snapshot with one volatile write, so payments read a consistent set of rates without locking. A load that
+ * fails keeps the previous snapshot; once that is older than {@code payment.fx.max-age-ms}, cross-currency payments
+ * are refused until a load succeeds. The age is checked on each load rather than on each payment, which then reads
+ * nothing but the snapshot. The age of the snapshot is the {@code payment.fx.rates.age} gauge.
+ */
+@Component
+public class FxRates {
+
+    private static final Logger log = LoggerFactory.getLogger(FxRates.class);
+
+    private static final String SELECT_RATES_SQL = "SELECT base_currency, quote_currency, rate FROM fx_rate";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Path ratesFile;
+    private final long maxAgeMs;
+    private final Clock clock;
+
+    private volatile FxRateSnapshot snapshot = FxRateSnapshot.EMPTY;
+
+    @Autowired
+    public FxRates(JdbcTemplate jdbcTemplate,
+                   MeterRegistry meterRegistry,
+                   @Value("${payment.fx.rates-file:}") String ratesFile,
+                   @Value("${payment.fx.max-age-ms:600000}") long maxAgeMs) {
+        this(jdbcTemplate, meterRegistry, ratesFile.isBlank() ? null : Path.of(ratesFile), maxAgeMs, Clock.systemUTC());
+    }
+
+    public FxRates(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry, Path ratesFile, long maxAgeMs, Clock clock) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.ratesFile = ratesFile;
+        this.maxAgeMs = maxAgeMs;
+        this.clock = clock;
+        Gauge.builder("payment.fx.rates.age", this, rates -> (clock.millis() - rates.snapshot.loadedAtMillis()) / 1000.0)
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Converts the amount of a payment into the currency of its target account and records the conversion on the
+     * transaction. The amount of a payment within one currency is returned as it is.
+     *
+     * @return The amount to credit to the target account.
+     * @throws InvalidRequestException if there is no rate for the pair, or the converted amount does not fit a
+     *                                 {@code long} of minor units of the target currency.
+     * @throws IllegalStateException   if the rates have expired.
+     */
+    public Money credit(PaymentTransaction transaction, Currency targetCurrency) {
+        Money amount = transaction.getAmount();
+        if (amount.currency() == targetCurrency) {
+            return amount;
+        }
+        long rate = rate(amount.currency(), targetCurrency);
+        Money credit;
+        try {
+            credit = FxRateSnapshot.convert(amount, rate, targetCurrency);
+        } catch (ArithmeticException e) {
+            throw new InvalidRequestException("Amount " + amount + " is out of range in " + targetCurrency);
+        }
+        transaction.setConversion(credit, BigDecimal.valueOf(rate, FxRateSnapshot.RATE_SCALE));
+        return credit;
+    }
+
+    /**
+     * Returns the current rate from one currency to another, scaled by {@code 10^}{@value FxRateSnapshot#RATE_SCALE}.
+     *
+     * @throws InvalidRequestException if there is no rate for the pair.
+     * @throws IllegalStateException   if the rates have expired, or have not been loaded yet.
+     */
+    public long rate(Currency from, Currency to) {
+        FxRateSnapshot current = snapshot;
+        if (current.isExpired()) {
+            throw new IllegalStateException("Exchange rates are out of date");
+        }
+        long rate = current.rate(from, to);
+        if (rate == FxRateSnapshot.NO_RATE) {
+            throw new InvalidRequestException("No exchange rate from " + from + " to " + to);
+        }
+        return rate;
+    }
+
+    /**
+     * Loads the rates and swaps them in. On failure the previous rates stay in use until they are older than
+     * {@code payment.fx.max-age-ms}.
+     */
+    @PostConstruct
+    @Scheduled(fixedDelayString = "${payment.fx.refresh-interval-ms:60000}",
+            initialDelayString = "${payment.fx.refresh-interval-ms:60000}")
+    public void refresh() {
+        long loadedAt = clock.millis();
+        try {
+            snapshot = FxRateSnapshot.of(ratesFile == null ? readTable() : readFile(), loadedAt);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to load the exchange rates, keeping the {} currencies loaded before", snapshot.size(), e);
+            FxRateSnapshot previous = snapshot;
+            if (!previous.isExpired() && loadedAt - previous.loadedAtMillis() > maxAgeMs) {
+                log.error("The exchange rates are older than {} ms, refusing cross-currency payments", maxAgeMs);
+                snapshot = previous.expire();
+            }
+        }
+    }
+
+    private List<Rate> readTable() {
+        return jdbcTemplate.query(SELECT_RATES_SQL, (rs, rowNum) -> new Rate(
+                Currency.getInstance(rs.getString("base_currency")),
+                Currency.getInstance(rs.getString("quote_currency")),
+                rs.getBigDecimal("rate")));
+    }
+
+    private List<Rate> readFile() throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(ratesFile)) {
+            properties.load(reader);
+        }
+        List<Rate> rates = new ArrayList<>(properties.size());
+        for (String pair : properties.stringPropertyNames()) {
+            String[] currencies = pair.split("/");
+            if (currencies.length != 2) {
+                throw new IllegalArgumentException("Invalid currency pair " + pair + " in " + ratesFile);
+            }
+            rates.add(new Rate(Currency.getInstance(currencies[0].trim()), Currency.getInstance(currencies[1].trim()),
+                    new BigDecimal(properties.getProperty(pair).trim())));
+        }
+        return rates;
+    }
+}
@@ -0,0 +1,103 @@
+package com.tamaspinter.instantpaymentapi.service.ledger;
+
+import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.entity.AccountSnapshot;
+import com.tamaspinter.instantpaymentapi.entity.LedgerEntry;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.repository.AccountSnapshotRepository;
+import com.tamaspinter.instantpaymentapi.repository.LedgerEntryRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionTimedOutException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.Currency;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Balances of the ledger mode ({@code payment.transfer.engine=ledger}).
+ * <p>
+ * Payments and deposits append {@link LedgerEntry} rows instead of updating {@code account.balance}, which keeps
+ * the balance the account had when the ledger mode was enabled (its opening balance). The current balance is the
+ * current {@link AccountSnapshot}, or the opening balance before the first snapshot, plus the entries after it.
+ * {@link LedgerCompactor} adds snapshots in the background, so a balance never sums more than a few entries.
+ * Entries and snapshots are in the currency of their account; the target of a cross-currency payment is credited
+ * with the converted amount.
+ * <p>
+ * A snapshot only includes entries older than {@code payment.ledger.settle-delay-ms}, assuming that every older
+ * entry has committed. To hold to that, a transaction that appended entries is rolled back before its commit once
+ * half of the delay has passed since the entries were created; the other half covers the commit itself and the
+ * clock difference between replicas.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.transfer.engine", havingValue = "ledger")
+public class AccountLedger {
+
+    private static final long NO_ENTRY = 0L;
+
+    private final LedgerEntryRepository ledgerEntryRepository;
+    private final AccountSnapshotRepository accountSnapshotRepository;
+    private final long commitTimeoutMs;
+
+    public AccountLedger(LedgerEntryRepository ledgerEntryRepository,
+                         AccountSnapshotRepository accountSnapshotRepository,
+                         @Value("${payment.ledger.settle-delay-ms:5000}") long settleDelayMs) {
+        this.ledgerEntryRepository = ledgerEntryRepository;
+        this.accountSnapshotRepository = accountSnapshotRepository;
+        this.commitTimeoutMs = settleDelayMs / 2;
+    }
+
+    public Money balanceOf(Account account) {
+        Optional<AccountSnapshot> snapshot = accountSnapshotRepository.findFirstByAccountIdOrderByLastEntryIdDesc(account.getId());
+        Currency currency = account.getCurrency();
+        Money base = snapshot.map(s -> s.getBalance().withCurrency(currency)).orElse(account.getBalance());
+        long afterEntryId = snapshot.map(AccountSnapshot::getLastEntryId).orElse(NO_ENTRY);
+        return base.plus(Money.of(ledgerEntryRepository.sumBetween(account.getId(), afterEntryId, Long.MAX_VALUE), currency));
+    }
+
+    /**
+     * Appends the debit and the credit of a stored payment.
+     */
+    public void record(PaymentTransaction transaction) {
+        LedgerEntry debit = new LedgerEntry(transaction.getFromAccountId(), transaction.getId(), transaction.getAmount().negate());
+        LedgerEntry credit = new LedgerEntry(transaction.getToAccountId(), transaction.getId(), transaction.creditedAmount());
+        ledgerEntryRepository.saveAll(List.of(debit, credit));
+        commitBy(debit.getCreatedAt().plusNanos(commitTimeoutMs * 1_000_000));
+    }
+
+    public void deposit(Long accountId, Money amount) {
+        LedgerEntry entry = ledgerEntryRepository.save(new LedgerEntry(accountId, null, amount));
+        commitBy(entry.getCreatedAt().plusNanos(commitTimeoutMs * 1_000_000));
+    }
+
+    /**
+     * Rolls the current transaction back if it is about to commit after the deadline. Without a transaction the
+     * entries are already committed.
+     */
+    private void commitBy(LocalDateTime deadline) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                if (LocalDateTime.now().isAfter(deadline)) {
+                    throw new TransactionTimedOutException("Ledger entries not committed by " + deadline
+                            + ", a snapshot may already have been written without them");
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a detached copy of the account carrying its current ledger balance, for reads.
+     */
+    public Account withBalance(Account account) {
+        return account.withBalance(balanceOf(account));
+    }
+}
@@ -0,0 +1,167 @@
+package com.tamaspinter.instantpaymentapi.service.ledger;
+
+import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.entity.AccountSnapshot;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
+import com.tamaspinter.instantpaymentapi.repository.AccountSnapshotRepository;
+import com.tamaspinter.instantpaymentapi.repository.LedgerEntryRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Background jobs of the ledger mode.
+ * <p>
+ * The compactor adds a new {@link AccountSnapshot} for every account with at least
+ * {@code payment.ledger.snapshot-min-entries} entries after its current snapshot. Only entries older than
+ * {@code payment.ledger.settle-delay-ms} are included, so that an entry whose transaction has not committed
+ * yet is not skipped; {@link AccountLedger} rolls back transactions that would commit their entries later.
+ * <p>
+ * The reconciliation checks the current snapshot of each account, in a transaction per account, and reports any
+ * difference in the {@code payment.ledger.reconciliation} metric, tagged {@code result=match|mismatch}. A snapshot
+ * is compared with the last snapshot of the account found correct plus the entries in between, so every entry is
+ * summed once per replica; after a restart, each account is replayed once from its opening balance.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.transfer.engine", havingValue = "ledger")
+public class LedgerCompactor {
+
+    private static final Logger log = LoggerFactory.getLogger(LedgerCompactor.class);
+
+    private static final String METRIC_RECONCILIATION = "payment.ledger.reconciliation";
+
+    private final AccountRepository accountRepository;
+    private final LedgerEntryRepository ledgerEntryRepository;
+    private final AccountSnapshotRepository accountSnapshotRepository;
+    private final TransactionOperations transactionOperations;
+    private final long snapshotMinEntries;
+    private final long settleDelayMs;
+
+    private final Counter match;
+    private final Counter mismatch;
+
+    /**
+     * The last snapshot of each account that matched its entries.
+     */
+    private final Map<Long, AccountSnapshot> reconciled = new ConcurrentHashMap<>();
+
+    public LedgerCompactor(AccountRepository accountRepository,
+                           LedgerEntryRepository ledgerEntryRepository,
+                           AccountSnapshotRepository accountSnapshotRepository,
+                           TransactionOperations transactionOperations,
+                           MeterRegistry meterRegistry,
+                           @Value("${payment.ledger.snapshot-min-entries:100}") long snapshotMinEntries,
+                           @Value("${payment.ledger.settle-delay-ms:5000}") long settleDelayMs) {
+        this.accountRepository = accountRepository;
+        this.ledgerEntryRepository = ledgerEntryRepository;
+        this.accountSnapshotRepository = accountSnapshotRepository;
+        this.transactionOperations = transactionOperations;
+        this.snapshotMinEntries = snapshotMinEntries;
+        this.settleDelayMs = settleDelayMs;
+        this.match = meterRegistry.counter(METRIC_RECONCILIATION, "result", "match");
+        this.mismatch = meterRegistry.counter(METRIC_RECONCILIATION, "result", "mismatch");
+    }
+
+    @Scheduled(fixedDelayString = "${payment.ledger.compaction-interval-ms:10000}")
+    public void compact() {
+        LocalDateTime settledBefore = LocalDateTime.now().minusNanos(settleDelayMs * 1_000_000);
+        try {
+            for (Long accountId : ledgerEntryRepository.findAccountsToCompact(settledBefore, snapshotMinEntries)) {
+                transactionOperations.executeWithoutResult(status -> compact(accountId, settledBefore));
+            }
+        } catch (RuntimeException e) {
+            // Another replica may have written the same snapshot; the next run starts from the current one
+            log.warn("Compacting the ledger failed, retrying on the next run", e);
+        }
+    }
+
+    /**
+     * Writes a snapshot covering the settled entries of the account after its current snapshot.
+     */
+    public void compact(Long accountId, LocalDateTime settledBefore) {
+        Optional<AccountSnapshot> current = accountSnapshotRepository.findFirstByAccountIdOrderByLastEntryIdDesc(accountId);
+        long afterEntryId = current.map(AccountSnapshot::getLastEntryId).orElse(0L);
+        Long lastEntryId = ledgerEntryRepository.findLastSettledId(accountId, afterEntryId, settledBefore);
+        if (lastEntryId == null) {
+            return;
+        }
+
+        Money base = current.isPresent() ? current.get().getBalance() : openingBalance(accountId);
+        Money balance = base.plus(Money.of(ledgerEntryRepository.sumBetween(accountId, afterEntryId, lastEntryId)));
+        accountSnapshotRepository.save(new AccountSnapshot(accountId, balance, lastEntryId));
+    }
+
+    @Scheduled(fixedDelayString = "${payment.ledger.reconciliation-interval-ms:300000}")
+    public void reconcile() {
+        try {
+            int mismatches = reconcileSnapshots();
+            if (mismatches > 0) {
+                log.error("Ledger reconciliation found {} account snapshots that do not match their entries", mismatches);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Reconciling the ledger failed, retrying on the next run", e);
+        }
+    }
+
+    /**
+     * Checks that each current snapshot equals the opening balance plus all entries it covers.
+     *
+     * @return The number of snapshots that do not match.
+     */
+    public int reconcileSnapshots() {
+        int mismatches = 0;
+        for (AccountSnapshot snapshot : accountSnapshotRepository.findCurrentSnapshots()) {
+            if (!Boolean.TRUE.equals(transactionOperations.execute(status -> reconcile(snapshot)))) {
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+
+    /**
+     * Checks a snapshot against the last correct snapshot of its account, or against the opening balance.
+     *
+     * @return Whether the snapshot matches its entries.
+     */
+    private boolean reconcile(AccountSnapshot snapshot) {
+        AccountSnapshot previous = reconciled.get(snapshot.getAccountId());
+        if (previous != null && previous.getLastEntryId() >= snapshot.getLastEntryId()) {
+            return true;
+        }
+        Money base = previous != null ? previous.getBalance() : openingBalance(snapshot.getAccountId());
+        long afterEntryId = previous != null ? previous.getLastEntryId() : 0L;
+        Money replayed = base.plus(Money.of(ledgerEntryRepository.sumBetween(
+                snapshot.getAccountId(), afterEntryId, snapshot.getLastEntryId())));
+        if (replayed.equals(snapshot.getBalance())) {
+            match.increment();
+            reconciled.put(snapshot.getAccountId(), snapshot);
+            return true;
+        }
+        mismatch.increment();
+        log.error("Snapshot {} of account {} has balance {}, its entries add up to {}",
+                snapshot.getId(), snapshot.getAccountId(), snapshot.getBalance(), replayed);
+        return false;
+    }
+
+    /**
+     * The opening balance as a column value: snapshots and entry sums are read in the default currency, see
+     * {@code MoneyConverter}, and are only added up and compared here.
+     */
+    private Money openingBalance(Long accountId) {
+        return accountRepository.findById(accountId)
+                .map(account -> account.getBalance().withCurrency(Money.DEFAULT_CURRENCY))
+                .orElse(Money.ZERO);
+    }
+}
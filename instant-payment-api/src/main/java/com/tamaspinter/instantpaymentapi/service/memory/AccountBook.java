@@ -0,0 +1,537 @@
+package com.tamaspinter.instantpaymentapi.service.memory;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.BusySpinWaitStrategy;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import com.lmax.disruptor.util.DaemonThreadFactory;
+import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
+import com.tamaspinter.instantpaymentapi.service.transfer.DuplicateIdempotencyKeyException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityNotFoundException;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.stereotype.Component;
+
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the balance of every account in memory, as {@code long} minor units, for the {@code memory} engine.
+ * <p>
+ * Callers publish commands to a Disruptor ring buffer and wait for their result. A single writer thread applies
+ * them in order, so the balances need no locks, and appends every change to the {@link PaymentJournal} before the
+ * result is returned; with {@code payment.memory.journal.force} the journal is also flushed to disk once per batch
+ * of commands. A second thread follows the writer on the same ring and writes the changes to PostgreSQL through
+ * the {@link JournalPersister}, so the database trails the memory by at most a few batches.
+ * <p>
+ * On startup the balances are loaded from the account table, which is the snapshot up to the persisted checkpoint,
+ * and the journal records after the checkpoint are replayed and persisted before the first command is accepted.
+ * The book owns the accounts: only one instance may run against a database.
+ * <p>
+ * A caller that stops waiting before the writer has taken its command withdraws it, so a timed out command is
+ * never applied. If flushing the journal fails, the writer halts: the batch may or may not be on disk, so its
+ * callers get an error, nothing more is applied or written to the database, and the next start replays whatever
+ * reached the journal. Clients retry with their idempotency keys to learn the outcome.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.transfer.engine", havingValue = "memory")
+public class AccountBook {
+
+    private static final Logger log = LoggerFactory.getLogger(AccountBook.class);
+
+    private static final long MISSING = Long.MIN_VALUE;
+    private static final long PERSIST_RETRY_MS = 1000;
+
+    private final AccountRepository accountRepository;
+    private final JournalPersister journalPersister;
+    private final PaymentJournal journal;
+    private final boolean forceJournal;
+    private final int ringSize;
+    private final boolean busySpin;
+    private final long timeoutMs;
+    private final int persistBatchSize;
+
+    // Owned by the writer thread after startup
+    private LongLongHashMap balances;
+    private final Map<String, PaymentTransaction> recentKeys;
+    private final List<Command> pending = new ArrayList<>();
+    private long lastIndex;
+    private long lastTransactionId;
+
+    private volatile long persistedIndex;
+    private volatile boolean halted;
+    private Disruptor<Command> disruptor;
+    private RingBuffer<Command> ringBuffer;
+
+    public AccountBook(AccountRepository accountRepository,
+                       JournalPersister journalPersister,
+                       @Value("${payment.memory.journal.dir:journal}") Path journalDir,
+                       @Value("${payment.memory.journal.segment-size-mb:64}") int segmentSizeMb,
+                       @Value("${payment.memory.journal.force:true}") boolean forceJournal,
+                       @Value("${payment.memory.ring-size:65536}") int ringSize,
+                       @Value("${payment.memory.busy-spin:false}") boolean busySpin,
+                       @Value("${payment.memory.timeout-ms:5000}") long timeoutMs,
+                       @Value("${payment.memory.persist-batch-size:1000}") int persistBatchSize,
+                       @Value("${payment.memory.idempotency-keys:100000}") int idempotencyKeys) {
+        this.accountRepository = accountRepository;
+        this.journalPersister = journalPersister;
+        this.journal = new PaymentJournal(journalDir, segmentSizeMb * 1024 * 1024);
+        this.forceJournal = forceJournal;
+        this.ringSize = ringSize;
+        this.busySpin = busySpin;
+        this.timeoutMs = timeoutMs;
+        this.persistBatchSize = persistBatchSize;
+        this.recentKeys = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PaymentTransaction> eldest) {
+                return size() > idempotencyKeys;
+            }
+        };
+    }
+
+    /**
+     * Rebuilds the balances from the database and the journal, then starts the writer.
+     */
+    @PostConstruct
+    public void start() {
+        long checkpoint = journalPersister.checkpoint();
+        List<Account> accounts = accountRepository.findAll();
+        balances = new LongLongHashMap(accounts.size() * 2);
+        for (Account account : accounts) {
+            if (account.isSharded()) {
+                throw new IllegalStateException("Account " + account.getId()
+                        + " has balance slots, turn them off before enabling the memory engine");
+            }
+            if (account.getCurrency() != Money.DEFAULT_CURRENCY) {
+                throw new IllegalStateException("Account " + account.getId() + " is in " + account.getCurrency()
+                        + ", the memory engine only supports " + Money.DEFAULT_CURRENCY + " accounts");
+            }
+            balances.put(account.getId(), account.getBalance().minorUnits());
+        }
+        lastTransactionId = journalPersister.lastTransactionId();
+
+        List<JournalRecord> replayed = new ArrayList<>();
+        Map<Long, Long> touched = new HashMap<>();
+        long lastJournalIndex = journal.open(record -> {
+            if (record.index() > checkpoint) {
+                replay(record, touched);
+                replayed.add(record);
+            }
+        });
+        journalPersister.persist(replayed, touched);
+        lastIndex = Math.max(lastJournalIndex, checkpoint);
+        persistedIndex = lastIndex;
+        journal.deleteSegmentsUpTo(persistedIndex);
+        log.info("Loaded {} accounts, replayed {} journal records after checkpoint {}", balances.size(), replayed.size(), checkpoint);
+
+        disruptor = new Disruptor<>(Command::new, ringSize, DaemonThreadFactory.INSTANCE, ProducerType.MULTI,
+                busySpin ? new BusySpinWaitStrategy() : new BlockingWaitStrategy());
+        disruptor.handleEventsWith(this::write).then(new Persister());
+        ringBuffer = disruptor.start();
+    }
+
+    /**
+     * Stops accepting commands once the ring is drained and the database has caught up with the journal.
+     */
+    @PreDestroy
+    public void stop() {
+        try {
+            disruptor.shutdown(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (com.lmax.disruptor.TimeoutException e) {
+            log.warn("Journal records after {} were not persisted, they are replayed on the next start", persistedIndex);
+            disruptor.halt();
+        }
+        journal.close();
+    }
+
+    /**
+     * Moves the amount between two accounts.
+     *
+     * @return The transaction, which is written to the database shortly after it is returned.
+     * @throws DuplicateIdempotencyKeyException if a recent payment used the same idempotency key.
+     */
+    public PaymentTransaction transfer(long fromAccountId, long toAccountId, Money amount, String idempotencyKey) {
+        return (PaymentTransaction) submit(Command.Type.TRANSFER, fromAccountId, toAccountId, amount.minorUnits(), idempotencyKey);
+    }
+
+    /**
+     * Adds the amount to the balance of an account.
+     *
+     * @return The new balance.
+     */
+    public Money deposit(long accountId, Money amount) {
+        return Money.ofMinor((Long) submit(Command.Type.DEPOSIT, 0, accountId, amount.minorUnits(), null));
+    }
+
+    /**
+     * Adds a newly created account with zero balance.
+     */
+    public void open(long accountId) {
+        submit(Command.Type.OPEN, 0, accountId, 0, null);
+    }
+
+    public Optional<Money> balanceOf(long accountId) {
+        Long balance = (Long) submit(Command.Type.BALANCE, 0, accountId, 0, null);
+        return Optional.ofNullable(balance).map(Money::ofMinor);
+    }
+
+    private Object submit(Command.Type type, long fromAccountId, long toAccountId, long amount, String idempotencyKey) {
+        if (halted) {
+            throw new DataAccessResourceFailureException("The payment engine halted after a journal failure");
+        }
+        Reply result = new Reply();
+        boolean published = ringBuffer.tryPublishEvent((command, sequence) ->
+                command.reset(type, fromAccountId, toAccountId, amount, idempotencyKey, result));
+        if (!published) {
+            throw new DataAccessResourceFailureException("The payment engine is overloaded");
+        }
+        try {
+            return result.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            if (result.withdraw()) {
+                throw new DataAccessResourceFailureException("Timed out waiting for the payment engine", e);
+            }
+            // The writer took the command and answers it once the journal is flushed
+            return awaitTaken(result);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (result.withdraw()) {
+                throw new DataAccessResourceFailureException("Interrupted while waiting for the payment engine", e);
+            }
+            return awaitTaken(result);
+        }
+    }
+
+    private Object awaitTaken(Reply result) {
+        try {
+            return result.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw new DataAccessResourceFailureException("The payment engine did not flush its journal in time,"
+                    + " the command may have been applied", e);
+        }
+    }
+
+    /**
+     * Writer thread: applies a command and, at the end of a batch, flushes the journal and answers the callers.
+     */
+    private void write(Command command, long sequence, boolean endOfBatch) {
+        if (!command.result.take()) {
+            // The caller timed out and withdrew the command
+            command.error = new DataAccessResourceFailureException("Withdrawn by the caller");
+        } else if (halted) {
+            command.error = new DataAccessResourceFailureException("The payment engine halted after a journal failure");
+        } else {
+            try {
+                apply(command);
+            } catch (RuntimeException e) {
+                command.error = e;
+            }
+        }
+        pending.add(command);
+        if (!endOfBatch) {
+            return;
+        }
+
+        if (forceJournal && !halted) {
+            try {
+                journal.force();
+            } catch (UncheckedIOException e) {
+                halt(new DataAccessResourceFailureException("Failed to flush the payment journal", e));
+            }
+        }
+        for (Command done : pending) {
+            if (done.error != null) {
+                done.result.completeExceptionally(done.error);
+            } else {
+                done.result.complete(done.value);
+            }
+        }
+        pending.clear();
+        journal.deleteSegmentsUpTo(persistedIndex);
+    }
+
+    /**
+     * Stops applying commands after a journal flush failed. The balances of the batch are not known to be durable,
+     * so its commands fail and are not written to the database; the next start replays what reached the journal.
+     */
+    private void halt(RuntimeException failure) {
+        halted = true;
+        log.error("Halting the payment engine, restart it to recover from the journal", failure);
+        for (Command done : pending) {
+            if (done.record != null && done.error == null) {
+                done.error = failure;
+            }
+        }
+    }
+
+    private void apply(Command command) {
+        switch (command.type) {
+            case OPEN -> {
+                if (!balances.containsKey(command.toAccountId)) {
+                    balances.put(command.toAccountId, 0);
+                }
+            }
+            case BALANCE -> {
+                long balance = balances.get(command.toAccountId, MISSING);
+                command.value = balance == MISSING ? null : balance;
+            }
+            case DEPOSIT -> {
+                long balance = balances.get(command.toAccountId, MISSING);
+                if (balance == MISSING) {
+                    throw new EntityNotFoundException("Account not found");
+                }
+                long newBalance = Math.addExact(balance, command.amount);
+                JournalRecord record = JournalRecord.deposit(lastIndex + 1, command.toAccountId, command.amount, now());
+                append(record);
+                balances.put(command.toAccountId, newBalance);
+                command.record = record;
+                command.toBalance = newBalance;
+                command.value = newBalance;
+            }
+            case TRANSFER -> applyTransfer(command);
+        }
+    }
+
+    private void applyTransfer(Command command) {
+        if (command.idempotencyKey != null && recentKeys.containsKey(command.idempotencyKey)) {
+            throw new DuplicateIdempotencyKeyException(recentKeys.get(command.idempotencyKey));
+        }
+        long fromBalance = balances.get(command.fromAccountId, MISSING);
+        if (fromBalance == MISSING) {
+            throw new EntityNotFoundException("From Account not found");
+        }
+        long toBalance = balances.get(command.toAccountId, MISSING);
+        if (toBalance == MISSING) {
+            throw new EntityNotFoundException("To Account not found");
+        }
+        if (fromBalance < command.amount) {
+            throw new InvalidRequestException("Insufficient balance");
+        }
+
+        long newToBalance = Math.addExact(toBalance, command.amount);
+        JournalRecord record = JournalRecord.transfer(lastIndex + 1, lastTransactionId + 1,
+                command.fromAccountId, command.toAccountId, command.amount, now(), command.idempotencyKey);
+        append(record);
+        lastTransactionId = record.transactionId();
+        balances.put(command.fromAccountId, fromBalance - command.amount);
+        balances.put(command.toAccountId, newToBalance);
+
+        PaymentTransaction transaction = transactionOf(record);
+        if (command.idempotencyKey != null) {
+            recentKeys.put(command.idempotencyKey, transaction);
+        }
+        command.record = record;
+        command.fromBalance = fromBalance - command.amount;
+        command.toBalance = newToBalance;
+        command.value = transaction;
+    }
+
+    private void append(JournalRecord record) {
+        try {
+            journal.append(record);
+        } catch (UncheckedIOException e) {
+            throw new DataAccessResourceFailureException("Failed to write the payment journal", e);
+        }
+        lastIndex = record.index();
+    }
+
+    private void replay(JournalRecord record, Map<Long, Long> touched) {
+        if (!balances.containsKey(record.toAccountId())
+                || (record.type() == JournalRecord.Type.TRANSFER && !balances.containsKey(record.fromAccountId()))) {
+            log.warn("Skipping journal record {}, its account no longer exists", record.index());
+            return;
+        }
+        if (record.type() == JournalRecord.Type.TRANSFER) {
+            long fromBalance = balances.get(record.fromAccountId(), MISSING) - record.amount();
+            balances.put(record.fromAccountId(), fromBalance);
+            touched.put(record.fromAccountId(), fromBalance);
+            lastTransactionId = Math.max(lastTransactionId, record.transactionId());
+            if (record.idempotencyKey() != null) {
+                recentKeys.put(record.idempotencyKey(), transactionOf(record));
+            }
+        }
+        long toBalance = balances.get(record.toAccountId(), MISSING) + record.amount();
+        balances.put(record.toAccountId(), toBalance);
+        touched.put(record.toAccountId(), toBalance);
+    }
+
+    private static PaymentTransaction transactionOf(JournalRecord record) {
+        PaymentTransaction transaction = new PaymentTransaction(
+                record.fromAccountId(), record.toAccountId(), Money.ofMinor(record.amount()));
+        transaction.setId(record.transactionId());
+        transaction.setCreatedAt(record.createdAt());
+        transaction.setIdempotencyKey(record.idempotencyKey());
+        return transaction;
+    }
+
+    /**
+     * The database keeps microseconds, so the journal does too.
+     */
+    private static LocalDateTime now() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+    }
+
+    /**
+     * Persister thread: writes the journaled changes to the database in batches of up to
+     * {@code payment.memory.persist-batch-size} records. While the database is unavailable it keeps retrying,
+     * and once the ring is full new commands are rejected. A batch the database refuses for good, e.g. a payment
+     * whose idempotency key an older payment already holds, is stored again record by record, setting aside the
+     * records that fail, see {@link JournalPersister#persistSettingAside}.
+     */
+    private class Persister implements EventHandler<Command> {
+
+        private List<JournalRecord> records = new ArrayList<>();
+        private Map<Long, Long> touched = new HashMap<>();
+
+        @Override
+        public void onEvent(Command command, long sequence, boolean endOfBatch) {
+            if (command.record != null && command.error == null) {
+                records.add(command.record);
+                if (command.record.type() == JournalRecord.Type.TRANSFER) {
+                    touched.put(command.fromAccountId, command.fromBalance);
+                }
+                touched.put(command.toAccountId, command.toBalance);
+            }
+            if (records.isEmpty() || (!endOfBatch && records.size() < persistBatchSize)) {
+                return;
+            }
+
+            boolean settingAside = false;
+            while (true) {
+                try {
+                    if (settingAside) {
+                        journalPersister.persistSettingAside(records, touched);
+                    } else {
+                        journalPersister.persist(records, touched);
+                    }
+                    break;
+                } catch (NonTransientDataAccessException e) {
+                    if (!settingAside) {
+                        log.warn("The database refused journal records {} to {}, storing them one by one",
+                                records.get(0).index(), records.get(records.size() - 1).index(), e);
+                        settingAside = true;
+                        continue;
+                    }
+                    if (!retryLater(e)) {
+                        return;
+                    }
+                } catch (RuntimeException e) {
+                    if (!retryLater(e)) {
+                        return;
+                    }
+                }
+            }
+            persistedIndex = records.get(records.size() - 1).index();
+            records = new ArrayList<>();
+            touched = new HashMap<>();
+        }
+
+        /**
+         * @return {@code false} if the thread was interrupted while waiting.
+         */
+        private boolean retryLater(RuntimeException failure) {
+            log.warn("Persisting journal records {} to {} failed, retrying",
+                    records.get(0).index(), records.get(records.size() - 1).index(), failure);
+            try {
+                Thread.sleep(PERSIST_RETRY_MS);
+                return true;
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * An entry of the ring buffer. The caller fills in the request, the writer the outcome.
+     */
+    private static class Command {
+
+        enum Type {
+            OPEN,
+            BALANCE,
+            DEPOSIT,
+            TRANSFER
+        }
+
+        private Type type;
+        private long fromAccountId;
+        private long toAccountId;
+        private long amount;
+        private String idempotencyKey;
+        private Reply result;
+
+        private Object value;
+        private RuntimeException error;
+        private JournalRecord record;
+        private long fromBalance;
+        private long toBalance;
+
+        private void reset(Type type, long fromAccountId, long toAccountId, long amount, String idempotencyKey,
+                           Reply result) {
+            this.type = type;
+            this.fromAccountId = fromAccountId;
+            this.toAccountId = toAccountId;
+            this.amount = amount;
+            this.idempotencyKey = idempotencyKey;
+            this.result = result;
+            this.value = null;
+            this.error = null;
+            this.record = null;
+        }
+    }
+
+    /**
+     * The answer to a command. Either the writer takes the command or the caller withdraws it, whichever comes first.
+     */
+    private static class Reply extends CompletableFuture<Object> {
+
+        private final AtomicBoolean decided = new AtomicBoolean();
+
+        private boolean take() {
+            return decided.compareAndSet(false, true);
+        }
+
+        private boolean withdraw() {
+            return decided.compareAndSet(false, true);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.tamaspinter.instantpaymentapi.service.memory;
+
+import com.tamaspinter.instantpaymentapi.entity.JournalCheckpoint;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the journal of {@link AccountBook} to PostgreSQL, so the database trails the in-memory state.
+ * <p>
+ * Every call stores the transactions of the records, the latest balance of every account they touched and the
+ * index of the last record in {@link JournalCheckpoint} in one transaction. The account table together with the
+ * checkpoint is the snapshot the journal is replayed on at startup.
+ * <p>
+ * Transactions the database refuses for good are set aside in {@code journal_rejected_record}, logged as errors and
+ * counted in the {@code payment.memory.journal.rejected} metric; their balance changes are kept.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.transfer.engine", havingValue = "memory")
+public class JournalPersister {
+
+    private static final Logger log = LoggerFactory.getLogger(JournalPersister.class);
+
+    private static final String METRIC_REJECTED = "payment.memory.journal.rejected";
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    // Inserts skip existing rows with NOT EXISTS rather than ON CONFLICT DO NOTHING, which H2 does not parse
+    private static final String INSERT_TRANSACTION_SQL = """
+            INSERT INTO payment_transaction (id, from_account_id, to_account_id, amount, created_at, idempotency_key)
+            SELECT ?, ?, ?, ?, CAST(? AS TIMESTAMP(6)), ?
+            WHERE NOT EXISTS (SELECT 1 FROM payment_transaction WHERE id = ?)
+            """;
+    private static final String UPDATE_BALANCE_SQL =
+            "UPDATE account SET balance = ?, version = version + 1 WHERE id = ?";
+    // Only the persister thread writes the checkpoint, so an update falling back to an insert cannot race
+    private static final String UPDATE_CHECKPOINT_SQL = "UPDATE journal_checkpoint SET last_index = ? WHERE id = ?";
+    private static final String INSERT_CHECKPOINT_SQL = "INSERT INTO journal_checkpoint (id, last_index) VALUES (?, ?)";
+    private static final String INSERT_REJECTED_SQL = """
+            INSERT INTO journal_rejected_record (journal_index, transaction_id, from_account_id, to_account_id, amount,
+                                                 created_at, idempotency_key, error)
+            SELECT ?, ?, ?, ?, ?, CAST(? AS TIMESTAMP(6)), ?, ?
+            WHERE NOT EXISTS (SELECT 1 FROM journal_rejected_record WHERE journal_index = ?)
+            """;
+    // The transactions are inserted with the IDs of the journal; keep the sequence ahead of them unless
+    // payment.memory.advance-transaction-sequence is off
+    private static final String ADVANCE_TRANSACTION_ID_SQL = "SELECT setval('payment_transaction_seq', ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionOperations transactionOperations;
+    private final Counter rejected;
+    private final boolean advanceTransactionSequence;
+
+    public JournalPersister(JdbcTemplate jdbcTemplate, TransactionOperations transactionOperations, MeterRegistry meterRegistry,
+                            @Value("${payment.memory.advance-transaction-sequence:true}") boolean advanceTransactionSequence) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionOperations = transactionOperations;
+        this.rejected = meterRegistry.counter(METRIC_REJECTED);
+        this.advanceTransactionSequence = advanceTransactionSequence;
+    }
+
+    /**
+     * Returns the index of the last journal record in the database, {@code 0} if there is none.
+     */
+    public long checkpoint() {
+        List<Long> lastIndex = jdbcTemplate.queryForList(
+                "SELECT last_index FROM journal_checkpoint WHERE id = ?", Long.class, JournalCheckpoint.ID);
+        return lastIndex.isEmpty() ? 0 : lastIndex.get(0);
+    }
+
+    public long lastTransactionId() {
+        Long lastId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM payment_transaction", Long.class);
+        return lastId == null ? 0 : lastId;
+    }
+
+    /**
+     * Stores the records and the balances they resulted in.
+     *
+     * @param records  Consecutive journal records.
+     * @param balances The balance of every account the records touched after the last record, in minor units.
+     */
+    public void persist(List<JournalRecord> records, Map<Long, Long> balances) {
+        if (records.isEmpty()) {
+            return;
+        }
+        List<Object[]> transactions = new ArrayList<>(records.size());
+        for (JournalRecord record : records) {
+            if (record.type() == JournalRecord.Type.TRANSFER) {
+                transactions.add(transactionRow(record));
+            }
+        }
+
+        transactionOperations.executeWithoutResult(status -> {
+            if (!transactions.isEmpty()) {
+                jdbcTemplate.batchUpdate(INSERT_TRANSACTION_SQL, transactions);
+            }
+            finish(records, balances);
+        });
+    }
+
+    /**
+     * Stores the records like {@link #persist}, but inserts the transactions one at a time and sets aside those the
+     * database refuses for good. Meant for a batch that {@link #persist} failed on with a
+     * {@link NonTransientDataAccessException}.
+     *
+     * @return The records set aside.
+     */
+    public List<JournalRecord> persistSettingAside(List<JournalRecord> records, Map<Long, Long> balances) {
+        if (records.isEmpty()) {
+            return List.of();
+        }
+        List<JournalRecord> setAside = transactionOperations.execute(status -> {
+            List<JournalRecord> refused = new ArrayList<>();
+            for (JournalRecord record : records) {
+                if (record.type() != JournalRecord.Type.TRANSFER) {
+                    continue;
+                }
+                Object savepoint = status.createSavepoint();
+                try {
+                    jdbcTemplate.update(INSERT_TRANSACTION_SQL, transactionRow(record));
+                    status.releaseSavepoint(savepoint);
+                } catch (NonTransientDataAccessException e) {
+                    status.rollbackToSavepoint(savepoint);
+                    jdbcTemplate.update(INSERT_REJECTED_SQL, record.index(), record.transactionId(),
+                            record.fromAccountId(), record.toAccountId(), Money.ofMinor(record.amount()).toBigDecimal(),
+                            Timestamp.valueOf(record.createdAt()), record.idempotencyKey(), errorOf(e),
+                            record.index());
+                    log.error("Set aside journal record {}, transaction {} of {} from account {} to {}: {}",
+                            record.index(), record.transactionId(), Money.ofMinor(record.amount()),
+                            record.fromAccountId(), record.toAccountId(), e.getMessage());
+                    refused.add(record);
+                }
+            }
+            finish(records, balances);
+            return refused;
+        });
+        rejected.increment(setAside.size());
+        return setAside;
+    }
+
+    /**
+     * Advances the transaction ID sequence past the records, updates the balances and moves the checkpoint.
+     */
+    private void finish(List<JournalRecord> records, Map<Long, Long> balances) {
+        long lastTransactionId = records.stream().mapToLong(JournalRecord::transactionId).max().orElse(0);
+        if (advanceTransactionSequence && lastTransactionId > 0) {
+            jdbcTemplate.queryForObject(ADVANCE_TRANSACTION_ID_SQL, Long.class, lastTransactionId);
+        }
+        List<Object[]> balanceUpdates = new ArrayList<>(balances.size());
+        balances.forEach((accountId, balance) ->
+                balanceUpdates.add(new Object[]{Money.ofMinor(balance).toBigDecimal(), accountId}));
+        jdbcTemplate.batchUpdate(UPDATE_BALANCE_SQL, balanceUpdates);
+
+        long lastIndex = records.get(records.size() - 1).index();
+        if (jdbcTemplate.update(UPDATE_CHECKPOINT_SQL, lastIndex, JournalCheckpoint.ID) == 0) {
+            jdbcTemplate.update(INSERT_CHECKPOINT_SQL, JournalCheckpoint.ID, lastIndex);
+        }
+    }
+
+    private static Object[] transactionRow(JournalRecord record) {
+        return new Object[]{
+                record.transactionId(), record.fromAccountId(), record.toAccountId(),
+                Money.ofMinor(record.amount()).toBigDecimal(), Timestamp.valueOf(record.createdAt()),
+                record.idempotencyKey(), record.transactionId()
+        };
+    }
+
+    private static String errorOf(NonTransientDataAccessException e) {
+        String message = String.valueOf(e.getMostSpecificCause().getMessage());
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+    }
+}
@@ -0,0 +1,41 @@
+package com.tamaspinter.instantpaymentapi.service.memory;
+
+import com.tamaspinter.instantpaymentapi.entity.Money;
+
+import java.time.LocalDateTime;
+
+/**
+ * A change of the balances in {@link AccountBook}, as written to the {@link PaymentJournal}.
+ * Amounts are in minor units, see {@link Money}.
+ *
+ * @param index          Position of the record in the journal, increasing by one per record.
+ * @param transactionId  The ID of the payment transaction, {@code 0} for deposits.
+ * @param fromAccountId  The debited account, {@code 0} for deposits.
+ * @param toAccountId    The credited account.
+ * @param idempotencyKey The client's idempotency key of the payment, or {@code null}.
+ */
+public record JournalRecord(
+        long index,
+        Type type,
+        long transactionId,
+        long fromAccountId,
+        long toAccountId,
+        long amount,
+        LocalDateTime createdAt,
+        String idempotencyKey) {
+
+    public enum Type {
+        TRANSFER,
+        DEPOSIT
+    }
+
+    public static JournalRecord transfer(long index, long transactionId, long fromAccountId, long toAccountId,
+                                         long amount, LocalDateTime createdAt, String idempotencyKey) {
+        return new JournalRecord(index, Type.TRANSFER, transactionId, fromAccountId, toAccountId, amount, createdAt,
+                idempotencyKey);
+    }
+
+    public static JournalRecord deposit(long index, long accountId, long amount, LocalDateTime createdAt) {
+        return new JournalRecord(index, Type.DEPOSIT, 0, 0, accountId, amount, createdAt, null);
+    }
+}
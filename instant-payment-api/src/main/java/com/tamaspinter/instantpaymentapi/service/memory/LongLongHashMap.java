@@ -0,0 +1,87 @@
+package com.tamaspinter.instantpaymentapi.service.memory;
+
+/**
+ * Open-addressing hash map from positive {@code long} keys to {@code long} values, without boxing.
+ * Not thread-safe: it is only used by the writer thread of {@link AccountBook}.
+ */
+public class LongLongHashMap {
+
+    private static final long EMPTY = 0;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private long[] values;
+    private int size;
+    private int resizeAt;
+
+    public LongLongHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        keys = new long[capacity];
+        values = new long[capacity];
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    public boolean containsKey(long key) {
+        return keys[indexOf(key)] != EMPTY;
+    }
+
+    /**
+     * Returns the value of the key, or {@code missingValue} if the key is not present.
+     */
+    public long get(long key, long missingValue) {
+        int index = indexOf(key);
+        return keys[index] == EMPTY ? missingValue : values[index];
+    }
+
+    public void put(long key, long value) {
+        int index = indexOf(key);
+        values[index] = value;
+        if (keys[index] == EMPTY) {
+            keys[index] = key;
+            if (++size > resizeAt) {
+                resize();
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int indexOf(long key) {
+        if (key <= 0) {
+            throw new IllegalArgumentException("Keys must be positive: " + key);
+        }
+        int mask = keys.length - 1;
+        int index = (int) mix(key) & mask;
+        while (keys[index] != EMPTY && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new long[oldValues.length * 2];
+        resizeAt = (int) (keys.length * LOAD_FACTOR);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Spreads sequential account IDs over the table (the finalizer of MurmurHash3).
+     */
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+}
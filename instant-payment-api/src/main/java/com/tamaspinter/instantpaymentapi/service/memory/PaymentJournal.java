@@ -0,0 +1,226 @@
+package com.tamaspinter.instantpaymentapi.service.memory;
+
+import com.tamaspinter.instantpaymentapi.service.IdempotencyStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of {@link AccountBook}, written through memory-mapped segment files.
+ * <p>
+ * A segment is named after the index of its first record and holds records of the following big-endian layout:
+ * <pre>
+ * size  field
+ *    4  body length
+ *    8  index
+ *    1  type (0 transfer, 1 deposit)
+ *    8  transaction ID
+ *    8  source account ID
+ *    8  target account ID
+ *    8  amount in minor units
+ *    8  created at, microseconds since the epoch of the local date and time
+ *    2  idempotency key length in bytes, -1 if there is none
+ *    n  idempotency key, UTF-8
+ *    4  CRC32 of the body
+ * </pre>
+ * A zero body length marks the end of a segment. Records are visible to other processes reading the file as soon as
+ * they are appended, so they survive a crash of the JVM; {@link #force()} also makes them survive a crash of the
+ * operating system. A torn record at the end of the last segment is ignored on replay.
+ */
+public class PaymentJournal implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentJournal.class);
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int FIXED_BODY_SIZE = 51;
+    private static final int MAX_RECORD_SIZE = 4 + FIXED_BODY_SIZE + IdempotencyStore.MAX_KEY_LENGTH * 3 + 4;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final List<Segment> segments = new ArrayList<>();
+    private final CRC32 crc = new CRC32();
+
+    private MappedByteBuffer buffer;
+
+    public PaymentJournal(Path directory, int segmentSize) {
+        if (segmentSize < MAX_RECORD_SIZE * 2) {
+            throw new IllegalArgumentException("Journal segments must be at least " + MAX_RECORD_SIZE * 2 + " bytes");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Reads every record of the journal in order, then positions the journal after the last one.
+     *
+     * @param replay Receives the records.
+     * @return The index of the last record, {@code 0} if the journal is empty.
+     */
+    public long open(Consumer<JournalRecord> replay) {
+        long lastIndex = 0;
+        try {
+            Files.createDirectories(directory);
+            List<Path> paths;
+            try (Stream<Path> files = Files.list(directory)) {
+                paths = files.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX)).sorted().toList();
+            }
+            for (int i = 0; i < paths.size(); i++) {
+                Path path = paths.get(i);
+                String name = path.getFileName().toString();
+                long firstIndex = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                segments.add(new Segment(firstIndex, path));
+                buffer = map(path);
+
+                JournalRecord record;
+                while ((record = read()) != null) {
+                    if (record.index() <= lastIndex) {
+                        throw new IllegalStateException("Journal record " + record.index() + " in " + path + " is out of order");
+                    }
+                    lastIndex = record.index();
+                    replay.accept(record);
+                }
+                if (i < paths.size() - 1 && buffer.remaining() >= 4 && buffer.getInt(buffer.position()) != 0) {
+                    throw new IllegalStateException("Journal segment " + path + " is corrupt at position " + buffer.position());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open the journal in " + directory, e);
+        }
+        return lastIndex;
+    }
+
+    /**
+     * Appends a record, starting a new segment if the current one is full.
+     */
+    public void append(JournalRecord record) {
+        byte[] key = record.idempotencyKey() == null ? null : record.idempotencyKey().getBytes(StandardCharsets.UTF_8);
+        int bodyLength = FIXED_BODY_SIZE + (key == null ? 0 : key.length);
+        if (buffer == null || buffer.remaining() < 4 + bodyLength + 4 + 4) {
+            startSegment(record.index());
+        }
+
+        int start = buffer.position();
+        buffer.putInt(bodyLength);
+        buffer.putLong(record.index());
+        buffer.put((byte) record.type().ordinal());
+        buffer.putLong(record.transactionId());
+        buffer.putLong(record.fromAccountId());
+        buffer.putLong(record.toAccountId());
+        buffer.putLong(record.amount());
+        buffer.putLong(ChronoUnit.MICROS.between(Instant.EPOCH, record.createdAt().toInstant(ZoneOffset.UTC)));
+        buffer.putShort((short) (key == null ? -1 : key.length));
+        if (key != null) {
+            buffer.put(key);
+        }
+        buffer.putInt(checksum(start + 4, bodyLength));
+        // Leftovers of a torn record must not be read as the next one
+        buffer.putInt(buffer.position(), 0);
+    }
+
+    /**
+     * Flushes the appended records to the storage device.
+     */
+    public void force() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Deletes the segments that only hold records up to the given index.
+     */
+    public void deleteSegmentsUpTo(long index) {
+        while (segments.size() > 1 && segments.get(1).firstIndex() - 1 <= index) {
+            Segment segment = segments.remove(0);
+            try {
+                Files.deleteIfExists(segment.path());
+            } catch (IOException e) {
+                log.warn("Failed to delete journal segment {}", segment.path(), e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        force();
+        buffer = null;
+    }
+
+    private JournalRecord read() {
+        int start = buffer.position();
+        if (buffer.remaining() < 4) {
+            return null;
+        }
+        int bodyLength = buffer.getInt(start);
+        if (bodyLength < FIXED_BODY_SIZE || bodyLength > buffer.remaining() - 8 || bodyLength > MAX_RECORD_SIZE) {
+            return null;
+        }
+        if (buffer.getInt(start + 4 + bodyLength) != checksum(start + 4, bodyLength)) {
+            return null;
+        }
+
+        buffer.position(start + 4);
+        long index = buffer.getLong();
+        JournalRecord.Type type = JournalRecord.Type.values()[buffer.get()];
+        long transactionId = buffer.getLong();
+        long fromAccountId = buffer.getLong();
+        long toAccountId = buffer.getLong();
+        long amount = buffer.getLong();
+        LocalDateTime createdAt = LocalDateTime.ofInstant(Instant.EPOCH.plus(buffer.getLong(), ChronoUnit.MICROS), ZoneOffset.UTC);
+        short keyLength = buffer.getShort();
+        String idempotencyKey = null;
+        if (keyLength >= 0) {
+            byte[] key = new byte[keyLength];
+            buffer.get(key);
+            idempotencyKey = new String(key, StandardCharsets.UTF_8);
+        }
+        buffer.position(start + 4 + bodyLength + 4);
+        return new JournalRecord(index, type, transactionId, fromAccountId, toAccountId, amount, createdAt, idempotencyKey);
+    }
+
+    private int checksum(int offset, int length) {
+        crc.reset();
+        crc.update(buffer.slice(offset, length));
+        return (int) crc.getValue();
+    }
+
+    private void startSegment(long firstIndex) {
+        force();
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstIndex, SEGMENT_SUFFIX));
+        try {
+            buffer = map(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create journal segment " + path, e);
+        }
+        segments.add(new Segment(firstIndex, path));
+    }
+
+    private MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private record Segment(long firstIndex, Path path) {
+    }
+}
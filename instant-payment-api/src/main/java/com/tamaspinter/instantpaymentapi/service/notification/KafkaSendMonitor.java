@@ -0,0 +1,64 @@
+package com.tamaspinter.instantpaymentapi.service.notification;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Records the latency and outcome of asynchronous Kafka sends in the {@code payment.notification.send} timer
+ * (tagged {@code outcome=success|failure}) and logs failed sends, instead of dropping the returned future.
+ * The number of sends still waiting for the broker is the {@code payment.notification.send.pending} gauge.
+ */
+@Component
+public class KafkaSendMonitor {
+
+    private static final Logger log = LoggerFactory.getLogger(KafkaSendMonitor.class);
+
+    private static final String METRIC_SEND = "payment.notification.send";
+
+    private final Timer success;
+    private final Timer failure;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public KafkaSendMonitor(MeterRegistry meterRegistry) {
+        this.success = Timer.builder(METRIC_SEND).tag("outcome", "success").register(meterRegistry);
+        this.failure = Timer.builder(METRIC_SEND).tag("outcome", "failure").register(meterRegistry);
+        Gauge.builder(METRIC_SEND + ".pending", pending, AtomicInteger::get).register(meterRegistry);
+    }
+
+    /**
+     * Starts the send and records it once the broker acknowledges or rejects it. A send that fails before it
+     * reaches the producer's buffer, such as a serialization error or a full buffer past {@code max.block.ms},
+     * is recorded the same way and returned as a failed future, so callers handle every failure in one place.
+     *
+     * @return The future of the send, completing after the outcome was recorded.
+     */
+    public <T> CompletableFuture<T> track(Supplier<CompletableFuture<T>> send) {
+        long start = System.nanoTime();
+        pending.incrementAndGet();
+        CompletableFuture<T> future;
+        try {
+            future = send.get();
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        return future.whenComplete((result, e) -> {
+            pending.decrementAndGet();
+            long elapsed = System.nanoTime() - start;
+            if (e == null) {
+                success.record(elapsed, TimeUnit.NANOSECONDS);
+            } else {
+                failure.record(elapsed, TimeUnit.NANOSECONDS);
+                log.warn("Sending Kafka notification failed", e);
+            }
+        });
+    }
+}
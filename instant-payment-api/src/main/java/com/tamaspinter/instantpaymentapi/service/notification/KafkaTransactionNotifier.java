@@ -0,0 +1,44 @@
+package com.tamaspinter.instantpaymentapi.service.notification;
+
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Sends the notification straight to Kafka once the surrounding transaction has committed.
+ * A message is lost if the application stops between the commit and the send.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.notification.delivery", havingValue = "direct")
+public class KafkaTransactionNotifier implements TransactionNotifier {
+
+    private final KafkaTemplate<String, TransactionEvent> kafkaTemplate;
+    private final KafkaSendMonitor kafkaSendMonitor;
+
+    public KafkaTransactionNotifier(KafkaTemplate<String, TransactionEvent> kafkaTemplate, KafkaSendMonitor kafkaSendMonitor) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.kafkaSendMonitor = kafkaSendMonitor;
+    }
+
+    @Override
+    public void publish(PaymentTransaction transaction) {
+        TransactionEvent event = TransactionEvent.of(transaction);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    send(event);
+                }
+            });
+        } else {
+            send(event);
+        }
+    }
+
+    private void send(TransactionEvent event) {
+        kafkaSendMonitor.track(() -> kafkaTemplate.send(TOPIC_TRANSACTION_NOTIFICATION, event.key(), event));
+    }
+}
@@ -0,0 +1,168 @@
+package com.tamaspinter.instantpaymentapi.service.notification;
+
+import com.tamaspinter.instantpaymentapi.entity.OutboxEvent;
+import com.tamaspinter.instantpaymentapi.repository.OutboxEventRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Limit;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Publishes the outbox table to Kafka in the background.
+ * <p>
+ * Every {@code payment.outbox.linger-ms} it claims up to {@code payment.outbox.batch-size} unpublished events in a
+ * short transaction, sends them with no transaction open, waits for the broker to acknowledge all of them and marks
+ * them as published in a second short transaction. No row lock is held while waiting for Kafka. A claim lasts twice
+ * {@code payment.outbox.send-timeout-ms}, so other replicas skip the batch while it is in flight and pick it up if
+ * this one stops. Full batches are drained back to back. If a send fails, the claim is given up and the whole batch
+ * is sent again on the next run, so delivery is at-least-once; consumers deduplicate on the transaction.
+ * <p>
+ * Published events are kept for {@code payment.outbox.retention-ms}, then deleted in batches every
+ * {@code payment.outbox.prune-interval-ms}.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.notification.delivery", havingValue = "outbox", matchIfMissing = true)
+public class OutboxRelay {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboxRelay.class);
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
+    private final KafkaSendMonitor kafkaSendMonitor;
+    private final TransactionOperations transactionOperations;
+    private final int batchSize;
+    private final long sendTimeoutMs;
+    private final long retentionMs;
+
+    public OutboxRelay(OutboxEventRepository outboxEventRepository,
+                       KafkaTemplate<String, byte[]> kafkaTemplate,
+                       KafkaSendMonitor kafkaSendMonitor,
+                       TransactionOperations transactionOperations,
+                       @Value("${payment.outbox.batch-size:500}") int batchSize,
+                       @Value("${payment.outbox.send-timeout-ms:10000}") long sendTimeoutMs,
+                       @Value("${payment.outbox.retention-ms:86400000}") long retentionMs) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.kafkaTemplate = kafkaTemplate;
+        this.kafkaSendMonitor = kafkaSendMonitor;
+        this.transactionOperations = transactionOperations;
+        this.batchSize = batchSize;
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.retentionMs = retentionMs;
+    }
+
+    @Scheduled(fixedDelayString = "${payment.outbox.linger-ms:50}")
+    public void relay() {
+        try {
+            int published;
+            do {
+                published = relayBatch();
+            } while (published == batchSize);
+        } catch (RuntimeException e) {
+            log.warn("Publishing outbox events failed, retrying on the next run", e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${payment.outbox.prune-interval-ms:60000}")
+    public void prune() {
+        try {
+            int deleted;
+            do {
+                deleted = pruneBatch();
+            } while (deleted == batchSize);
+        } catch (RuntimeException e) {
+            log.warn("Deleting published outbox events failed, retrying on the next run", e);
+        }
+    }
+
+    /**
+     * Publishes one batch of events.
+     *
+     * @return The number of events published.
+     */
+    public int relayBatch() {
+        List<OutboxEvent> events = claimBatch();
+        if (events.isEmpty()) {
+            return 0;
+        }
+
+        List<Long> ids = ids(events);
+        List<CompletableFuture<?>> sends = new ArrayList<>(events.size());
+        try {
+            for (OutboxEvent event : events) {
+                sends.add(kafkaSendMonitor.track(() ->
+                        kafkaTemplate.send(event.getTopic(), event.getMessageKey(), event.getPayload())));
+            }
+            kafkaTemplate.flush();
+            awaitAcknowledgements(sends);
+        } catch (RuntimeException e) {
+            releaseClaims(ids);
+            throw e;
+        }
+
+        transactionOperations.executeWithoutResult(status -> outboxEventRepository.markPublished(ids, LocalDateTime.now()));
+        return events.size();
+    }
+
+    /**
+     * Deletes one batch of events published before the retention period.
+     *
+     * @return The number of events deleted.
+     */
+    public int pruneBatch() {
+        LocalDateTime before = LocalDateTime.now().minusNanos(retentionMs * 1_000_000);
+        Integer deleted = transactionOperations.execute(status -> outboxEventRepository.deletePublishedBefore(before, batchSize));
+        return deleted == null ? 0 : deleted;
+    }
+
+    private List<OutboxEvent> claimBatch() {
+        LocalDateTime now = LocalDateTime.now();
+        List<OutboxEvent> events = transactionOperations.execute(status -> {
+            List<OutboxEvent> claimable = outboxEventRepository.lockClaimable(now, Limit.of(batchSize));
+            if (!claimable.isEmpty()) {
+                outboxEventRepository.claim(ids(claimable), now.plusNanos(2 * sendTimeoutMs * 1_000_000));
+            }
+            return claimable;
+        });
+        return events == null ? List.of() : events;
+    }
+
+    /**
+     * Gives up the claim after a failed send. If that fails too, the claim expires on its own.
+     */
+    private void releaseClaims(List<Long> ids) {
+        try {
+            transactionOperations.executeWithoutResult(status -> outboxEventRepository.releaseClaims(ids));
+        } catch (RuntimeException e) {
+            log.warn("Releasing the claim on {} outbox events failed, they are sent again once it expires", ids.size(), e);
+        }
+    }
+
+    private static List<Long> ids(List<OutboxEvent> events) {
+        return events.stream().map(OutboxEvent::getId).toList();
+    }
+
+    private void awaitAcknowledgements(List<CompletableFuture<?>> sends) {
+        try {
+            CompletableFuture.allOf(sends.toArray(new CompletableFuture<?>[0])).get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KafkaException("Interrupted while publishing outbox events", e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new KafkaException("Failed to publish outbox events", e);
+        }
+    }
+}
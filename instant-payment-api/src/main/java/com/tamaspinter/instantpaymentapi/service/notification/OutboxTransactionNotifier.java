@@ -0,0 +1,46 @@
+package com.tamaspinter.instantpaymentapi.service.notification;
+
+import com.tamaspinter.instantpaymentapi.entity.OutboxEvent;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.repository.OutboxEventRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the notification to the outbox table in the payment's own transaction, so it is stored
+ * if and only if the payment commits. {@link OutboxRelay} publishes it to Kafka afterwards.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.notification.delivery", havingValue = "outbox", matchIfMissing = true)
+public class OutboxTransactionNotifier implements TransactionNotifier {
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final TransactionEventSerializer serializer = new TransactionEventSerializer();
+
+    public OutboxTransactionNotifier(OutboxEventRepository outboxEventRepository) {
+        this.outboxEventRepository = outboxEventRepository;
+    }
+
+    @Override
+    public void publish(PaymentTransaction transaction) {
+        outboxEventRepository.save(toEvent(transaction));
+    }
+
+    @Override
+    public void publishAll(List<PaymentTransaction> transactions) {
+        List<OutboxEvent> events = new ArrayList<>(transactions.size());
+        for (PaymentTransaction transaction : transactions) {
+            events.add(toEvent(transaction));
+        }
+        outboxEventRepository.saveAll(events);
+    }
+
+    private OutboxEvent toEvent(PaymentTransaction transaction) {
+        TransactionEvent event = TransactionEvent.of(transaction);
+        return new OutboxEvent(TOPIC_TRANSACTION_NOTIFICATION, event.key(),
+                serializer.serialize(TOPIC_TRANSACTION_NOTIFICATION, event));
+    }
+}
@@ -0,0 +1,59 @@
+package com.tamaspinter.instantpaymentapi.service.notification;
+
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+
+import java.time.Instant;
+import java.time.ZoneId;
+
+/**
+ * The notification of a completed payment, as published on the
+ * {@value TransactionNotifier#TOPIC_TRANSACTION_NOTIFICATION} topic. It is keyed by the source account, so all payments
+ * from one account land on the same partition in order.
+ * <p>
+ * Encoded by {@link TransactionEventSerializer} into a fixed, big-endian layout of {@value #SIZE} bytes:
+ * <pre>
+ * offset  size  field
+ *      0     1  layout version ({@value #VERSION})
+ *      1     8  transaction ID
+ *      9     8  source account ID
+ *     17     8  target account ID
+ *     25     8  amount, minor units
+ *     33     1  amount, scale (decimal places of the minor units)
+ *     34     8  created at, microseconds since the epoch (UTC)
+ *     42     3  amount, ISO 4217 currency code (ASCII)
+ * </pre>
+ * Version 1 events end before the currency code, their amounts are in the {@link Money#DEFAULT_CURRENCY}.
+ */
+public record TransactionEvent(
+        long transactionId,
+        long fromAccountId,
+        long toAccountId,
+        Money amount,
+        Instant createdAt) {
+
+    public static final byte VERSION = 2;
+
+    public static final int SIZE = 45;
+
+    static final byte VERSION_1 = 1;
+
+    static final int VERSION_1_SIZE = 42;
+
+    public static TransactionEvent of(PaymentTransaction transaction) {
+        return new TransactionEvent(
+                transaction.getId(),
+                transaction.getFromAccountId(),
+                transaction.getToAccountId(),
+                transaction.getAmount(),
+                transaction.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant()
+        );
+    }
+
+    /**
+     * The record key: the source account ID.
+     */
+    public String key() {
+        return Long.toString(fromAccountId);
+    }
+}
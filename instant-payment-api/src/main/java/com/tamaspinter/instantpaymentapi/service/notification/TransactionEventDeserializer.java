@@ -0,0 +1,55 @@
+package com.tamaspinter.instantpaymentapi.service.notification;
+
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Currency;
+
+/**
+ * Reads a {@link TransactionEvent} written by {@link TransactionEventSerializer}, for consumers of the topic.
+ * Events of layout version 1, written before accounts had currencies, are read in the {@link Money#DEFAULT_CURRENCY}.
+ */
+public class TransactionEventDeserializer implements Deserializer<TransactionEvent> {
+
+    @Override
+    public TransactionEvent deserialize(String topic, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        boolean version1 = data.length == TransactionEvent.VERSION_1_SIZE && data[0] == TransactionEvent.VERSION_1;
+        if (!version1 && (data.length != TransactionEvent.SIZE || data[0] != TransactionEvent.VERSION)) {
+            throw new SerializationException("Unsupported transaction event of " + data.length + " bytes, version " + data[0]);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 1, data.length - 1);
+        long transactionId = buffer.getLong();
+        long fromAccountId = buffer.getLong();
+        long toAccountId = buffer.getLong();
+        BigDecimal decimalAmount = BigDecimal.valueOf(buffer.getLong(), buffer.get());
+        Instant createdAt = Instant.EPOCH.plus(buffer.getLong(), ChronoUnit.MICROS);
+        Currency currency = version1 ? Money.DEFAULT_CURRENCY : currency(buffer);
+        Money amount;
+        try {
+            amount = Money.of(decimalAmount, currency);
+        } catch (ArithmeticException e) {
+            throw new SerializationException("Unsupported amount " + decimalAmount + " in transaction event", e);
+        }
+        return new TransactionEvent(transactionId, fromAccountId, toAccountId, amount, createdAt);
+    }
+
+    private static Currency currency(ByteBuffer buffer) {
+        byte[] code = new byte[3];
+        buffer.get(code);
+        String currencyCode = new String(code, StandardCharsets.US_ASCII);
+        try {
+            return Currency.getInstance(currencyCode);
+        } catch (IllegalArgumentException e) {
+            throw new SerializationException("Unsupported currency " + currencyCode + " in transaction event", e);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.tamaspinter.instantpaymentapi.service.notification;
+
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Writes a {@link TransactionEvent} in its fixed binary layout.
+ */
+public class TransactionEventSerializer implements Serializer<TransactionEvent> {
+
+    @Override
+    public byte[] serialize(String topic, TransactionEvent event) {
+        if (event == null) {
+            return null;
+        }
+        String currency = event.amount().currency().getCurrencyCode();
+        return ByteBuffer.allocate(TransactionEvent.SIZE)
+                .put(TransactionEvent.VERSION)
+                .putLong(event.transactionId())
+                .putLong(event.fromAccountId())
+                .putLong(event.toAccountId())
+                .putLong(event.amount().minorUnits())
+                .put((byte) event.amount().scale())
+                .putLong(ChronoUnit.MICROS.between(Instant.EPOCH, event.createdAt()))
+                .put(currency.getBytes(StandardCharsets.US_ASCII))
+                .array();
+    }
+}
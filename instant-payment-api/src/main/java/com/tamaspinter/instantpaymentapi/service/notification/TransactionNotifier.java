@@ -0,0 +1,24 @@
+package com.tamaspinter.instantpaymentapi.service.notification;
+
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+
+import java.util.List;
+
+/**
+ * Announces completed payment transactions on the {@value #TOPIC_TRANSACTION_NOTIFICATION} Kafka topic
+ * as {@link TransactionEvent}s.
+ * Called inside the transaction that created the payment; the active implementation is selected with
+ * the {@code payment.notification.delivery} property.
+ */
+public interface TransactionNotifier {
+
+    String TOPIC_TRANSACTION_NOTIFICATION = "transaction_notifications";
+
+    void publish(PaymentTransaction transaction);
+
+    default void publishAll(List<PaymentTransaction> transactions) {
+        for (PaymentTransaction transaction : transactions) {
+            publish(transaction);
+        }
+    }
+}
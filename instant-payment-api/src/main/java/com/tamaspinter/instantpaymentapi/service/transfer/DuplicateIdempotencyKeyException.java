@@ -0,0 +1,20 @@
+package com.tamaspinter.instantpaymentapi.service.transfer;
+
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import lombok.Getter;
+import org.springframework.dao.DataIntegrityViolationException;
+
+/**
+ * Thrown by engines that detect a repeated idempotency key before it reaches the unique index,
+ * carrying the transaction the key was first used for.
+ */
+@Getter
+public class DuplicateIdempotencyKeyException extends DataIntegrityViolationException {
+
+    private final transient PaymentTransaction transaction;
+
+    public DuplicateIdempotencyKeyException(PaymentTransaction transaction) {
+        super("Idempotency key " + transaction.getIdempotencyKey() + " was already used");
+        this.transaction = transaction;
+    }
+}
@@ -0,0 +1,118 @@
+package com.tamaspinter.instantpaymentapi.service.transfer;
+
+import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
+import com.tamaspinter.instantpaymentapi.repository.PaymentTransactionRepository;
+import com.tamaspinter.instantpaymentapi.service.PaymentMetrics;
+import com.tamaspinter.instantpaymentapi.service.PaymentMetrics.Phase;
+import com.tamaspinter.instantpaymentapi.service.ShardedBalances;
+import com.tamaspinter.instantpaymentapi.service.fx.FxRates;
+import jakarta.persistence.EntityNotFoundException;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.stereotype.Component;
+
+/**
+ * Default engine: loads both accounts as entities, updates them in memory and relies on
+ * the {@code @Version} field of {@link Account} to detect concurrent modifications.
+ * <p>
+ * Payments to a sharded account credit one of its balance slots instead of the account row, see
+ * {@link ShardedBalances}. A payment to an account in another currency credits the amount converted by {@link FxRates}.
+ * The account load, balance update and ledger insert are timed in {@link PaymentMetrics}.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.transfer.engine", havingValue = "jpa", matchIfMissing = true)
+public class JpaTransferEngine implements TransferEngine {
+
+    protected final AccountRepository accountRepository;
+    private final PaymentTransactionRepository paymentTransactionRepository;
+    private final ShardedBalances shardedBalances;
+    private final FxRates fxRates;
+    private final PaymentMetrics paymentMetrics;
+
+    public JpaTransferEngine(AccountRepository accountRepository, PaymentTransactionRepository paymentTransactionRepository,
+                             ShardedBalances shardedBalances, FxRates fxRates, PaymentMetrics paymentMetrics) {
+        this.accountRepository = accountRepository;
+        this.paymentTransactionRepository = paymentTransactionRepository;
+        this.shardedBalances = shardedBalances;
+        this.fxRates = fxRates;
+        this.paymentMetrics = paymentMetrics;
+    }
+
+    @Override
+    public PaymentTransaction transfer(Long fromAccountId, Long toAccountId, Money amount, String idempotencyKey) {
+        long loadStart = System.nanoTime();
+        Accounts accounts = loadAccounts(fromAccountId, toAccountId);
+        paymentMetrics.record(Phase.ACCOUNT_LOAD, loadStart);
+        Account fromAccount = accounts.from();
+        Account toAccount = accounts.to();
+        checkCurrency(fromAccount, amount);
+
+        long updateStart = System.nanoTime();
+        if (fromAccount.getBalance().isLessThan(amount) && fromAccount.isSharded()) {
+            shardedBalances.drainInto(fromAccount);
+        }
+        if (fromAccount.getBalance().isLessThan(amount)) {
+            throw new InvalidRequestException("Insufficient balance");
+        }
+        PaymentTransaction transaction = new PaymentTransaction(fromAccount.getId(), toAccount.getId(), amount);
+        transaction.setIdempotencyKey(idempotencyKey);
+        Money credit = fxRates.credit(transaction, toAccount.getCurrency());
+
+        fromAccount.setBalance(fromAccount.getBalance().minus(amount));
+
+        try {
+            accountRepository.save(fromAccount);
+            if (toAccount.isSharded()) {
+                shardedBalances.credit(toAccount, credit);
+            } else {
+                toAccount.setBalance(toAccount.getBalance().plus(credit));
+                accountRepository.save(toAccount);
+            }
+            paymentMetrics.record(Phase.BALANCE_UPDATE, updateStart);
+
+            long insertStart = System.nanoTime();
+            PaymentTransaction saved = paymentTransactionRepository.save(transaction);
+            paymentMetrics.record(Phase.LEDGER_INSERT, insertStart);
+            return saved;
+        } catch (Exception e) {
+            throw new DataAccessResourceFailureException("Failed to process payment", e);
+        }
+    }
+
+    @Override
+    public boolean appliesChunksToEntities() {
+        return true;
+    }
+
+    /**
+     * A payment is made in the currency of its source account.
+     *
+     * @throws InvalidRequestException if the amount is in another currency.
+     */
+    private static void checkCurrency(Account fromAccount, Money amount) {
+        if (amount.currency() != fromAccount.getCurrency()) {
+            throw new InvalidRequestException("Amount must be in the currency of the source account, "
+                    + fromAccount.getCurrency());
+        }
+    }
+
+    /**
+     * Loads the accounts taking part in the transfer.
+     *
+     * @throws EntityNotFoundException if either account does not exist.
+     */
+    protected Accounts loadAccounts(Long fromAccountId, Long toAccountId) {
+        Account fromAccount = accountRepository.findById(fromAccountId)
+                .orElseThrow(() -> new EntityNotFoundException("From Account not found"));
+        Account toAccount = accountRepository.findById(toAccountId)
+                .orElseThrow(() -> new EntityNotFoundException("To Account not found"));
+        return new Accounts(fromAccount, toAccount);
+    }
+
+    protected record Accounts(Account from, Account to) {
+    }
+}
@@ -0,0 +1,78 @@
+package com.tamaspinter.instantpaymentapi.service.transfer;
+
+import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
+import com.tamaspinter.instantpaymentapi.repository.PaymentTransactionRepository;
+import com.tamaspinter.instantpaymentapi.service.fx.FxRates;
+import com.tamaspinter.instantpaymentapi.service.ledger.AccountLedger;
+import jakarta.persistence.EntityNotFoundException;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.stereotype.Component;
+
+import java.util.Currency;
+
+/**
+ * Event-sourced engine: a payment inserts the transaction and two {@link AccountLedger} entries and updates no rows.
+ * <p>
+ * Credits take no lock at all, so any number of payments into a hot account run in parallel. Debits of the same
+ * account still queue on a {@code SELECT ... FOR UPDATE} of the source account, because the balance check needs
+ * to see every earlier debit; the row is only locked, never rewritten. The wait is bounded by
+ * {@code payment.transfer.lock-timeout-ms}. A payment to an account in another currency credits the amount
+ * converted by {@link FxRates}.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.transfer.engine", havingValue = "ledger")
+public class LedgerTransferEngine implements TransferEngine {
+
+    private final AccountRepository accountRepository;
+    private final PaymentTransactionRepository paymentTransactionRepository;
+    private final AccountLedger accountLedger;
+    private final FxRates fxRates;
+    private final long lockTimeoutMs;
+
+    public LedgerTransferEngine(AccountRepository accountRepository,
+                                PaymentTransactionRepository paymentTransactionRepository,
+                                AccountLedger accountLedger,
+                                FxRates fxRates,
+                                @Value("${payment.transfer.lock-timeout-ms:2000}") long lockTimeoutMs) {
+        this.accountRepository = accountRepository;
+        this.paymentTransactionRepository = paymentTransactionRepository;
+        this.accountLedger = accountLedger;
+        this.fxRates = fxRates;
+        this.lockTimeoutMs = lockTimeoutMs;
+    }
+
+    @Override
+    public PaymentTransaction transfer(Long fromAccountId, Long toAccountId, Money amount, String idempotencyKey) {
+        if (lockTimeoutMs > 0) {
+            accountRepository.setLocalLockTimeout(lockTimeoutMs + "ms");
+        }
+        Account fromAccount = accountRepository.findByIdForUpdate(fromAccountId)
+                .orElseThrow(() -> new EntityNotFoundException("From Account not found"));
+        Currency toCurrency = accountRepository.findCurrencyById(toAccountId)
+                .orElseThrow(() -> new EntityNotFoundException("To Account not found"));
+        if (amount.currency() != fromAccount.getCurrency()) {
+            throw new InvalidRequestException("Amount must be in the currency of the source account, " + fromAccount.getCurrency());
+        }
+
+        if (accountLedger.balanceOf(fromAccount).isLessThan(amount)) {
+            throw new InvalidRequestException("Insufficient balance");
+        }
+
+        PaymentTransaction transaction = new PaymentTransaction(fromAccountId, toAccountId, amount);
+        transaction.setIdempotencyKey(idempotencyKey);
+        fxRates.credit(transaction, toCurrency);
+        try {
+            PaymentTransaction saved = paymentTransactionRepository.save(transaction);
+            accountLedger.record(saved);
+            return saved;
+        } catch (Exception e) {
+            throw new DataAccessResourceFailureException("Failed to process payment", e);
+        }
+    }
+}
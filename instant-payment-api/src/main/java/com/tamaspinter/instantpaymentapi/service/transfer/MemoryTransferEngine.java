@@ -0,0 +1,40 @@
+package com.tamaspinter.instantpaymentapi.service.transfer;
+
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.service.memory.AccountBook;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory engine: payments are applied to the balances held by the {@link AccountBook} and journaled to disk,
+ * and reach the database asynchronously.
+ * <p>
+ * The caller's database transaction does not cover the payment: it is durable once this method returns,
+ * even if the transaction rolls back. The balances are plain minor units, so all accounts are in the
+ * {@link Money#DEFAULT_CURRENCY}.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.transfer.engine", havingValue = "memory")
+public class MemoryTransferEngine implements TransferEngine {
+
+    private final AccountBook accountBook;
+
+    public MemoryTransferEngine(AccountBook accountBook) {
+        this.accountBook = accountBook;
+    }
+
+    @Override
+    public PaymentTransaction transfer(Long fromAccountId, Long toAccountId, Money amount, String idempotencyKey) {
+        if (amount.currency() != Money.DEFAULT_CURRENCY) {
+            throw new InvalidRequestException("The memory engine only supports " + Money.DEFAULT_CURRENCY + " payments");
+        }
+        return accountBook.transfer(fromAccountId, toAccountId, amount, idempotencyKey);
+    }
+
+    @Override
+    public boolean commitsOnReturn() {
+        return true;
+    }
+}
@@ -0,0 +1,92 @@
+package com.tamaspinter.instantpaymentapi.service.transfer;
+
+import com.tamaspinter.instantpaymentapi.entity.PaymentHold;
+import com.tamaspinter.instantpaymentapi.repository.PaymentHoldRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Releases the holds of the reservation mode that were neither settled nor released before they expired, which
+ * happens when a replica stops between the two phases of a payment. Every
+ * {@code payment.reservation.sweep-interval-ms} it releases up to {@code payment.reservation.sweep-batch-size}
+ * expired holds per batch, each in its own transaction, so replicas sweeping at the same time release a hold once.
+ * <p>
+ * Settled and released holds are kept for {@code payment.reservation.retention-ms} after they expire, then deleted
+ * in batches of the same size.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.transfer.engine", havingValue = "reservation")
+public class PaymentHoldSweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentHoldSweeper.class);
+
+    private final PaymentHoldRepository paymentHoldRepository;
+    private final ReservationTransferEngine reservationTransferEngine;
+    private final TransactionOperations transactionOperations;
+    private final int batchSize;
+    private final long retentionMs;
+
+    public PaymentHoldSweeper(PaymentHoldRepository paymentHoldRepository,
+                              ReservationTransferEngine reservationTransferEngine,
+                              TransactionOperations transactionOperations,
+                              @Value("${payment.reservation.sweep-batch-size:500}") int batchSize,
+                              @Value("${payment.reservation.retention-ms:86400000}") long retentionMs) {
+        this.paymentHoldRepository = paymentHoldRepository;
+        this.reservationTransferEngine = reservationTransferEngine;
+        this.transactionOperations = transactionOperations;
+        this.batchSize = batchSize;
+        this.retentionMs = retentionMs;
+    }
+
+    @Scheduled(fixedDelayString = "${payment.reservation.sweep-interval-ms:10000}")
+    public void sweep() {
+        try {
+            int released;
+            do {
+                released = sweepBatch();
+            } while (released == batchSize);
+            int deleted;
+            do {
+                deleted = pruneBatch();
+            } while (deleted == batchSize);
+        } catch (RuntimeException e) {
+            log.warn("Releasing expired payment holds failed, retrying on the next run", e);
+        }
+    }
+
+    /**
+     * Releases one batch of expired holds.
+     *
+     * @return The number of expired holds found.
+     */
+    public int sweepBatch() {
+        List<PaymentHold> expired = paymentHoldRepository.findExpired(LocalDateTime.now(), Limit.of(batchSize));
+        for (PaymentHold hold : expired) {
+            reservationTransferEngine.release(hold);
+        }
+        if (!expired.isEmpty()) {
+            log.warn("Released {} expired payment holds", expired.size());
+        }
+        return expired.size();
+    }
+
+    /**
+     * Deletes one batch of settled and released holds past their retention.
+     *
+     * @return The number of holds deleted.
+     */
+    public int pruneBatch() {
+        LocalDateTime before = LocalDateTime.now().minusNanos(retentionMs * 1_000_000);
+        Integer deleted = transactionOperations.execute(status -> paymentHoldRepository.deleteFinishedBefore(before, batchSize));
+        return deleted == null ? 0 : deleted;
+    }
+}
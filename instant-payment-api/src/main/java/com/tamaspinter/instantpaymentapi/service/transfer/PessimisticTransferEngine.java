@@ -0,0 +1,71 @@
+package com.tamaspinter.instantpaymentapi.service.transfer;
+
+import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
+import com.tamaspinter.instantpaymentapi.repository.PaymentTransactionRepository;
+import com.tamaspinter.instantpaymentapi.service.PaymentMetrics;
+import com.tamaspinter.instantpaymentapi.service.ShardedBalances;
+import com.tamaspinter.instantpaymentapi.service.fx.FxRates;
+import jakarta.persistence.EntityNotFoundException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+
+/**
+ * Pessimistic engine for hot accounts: both rows are locked with {@code SELECT ... FOR UPDATE} before
+ * the balances are checked, so concurrent payments queue up instead of failing on the {@code @Version} check.
+ * <p>
+ * Locks are always taken in ascending account ID order, so two opposite transfers between the same
+ * accounts cannot deadlock, and the wait for each lock is bounded by {@code payment.transfer.lock-timeout-ms}.
+ * The row of a sharded target account is not locked at all, as its credit only locks one balance slot.
+ * Batches lock the accounts of each payment in turn too, so a chunk waits for its rows instead of failing on a
+ * concurrent update.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.transfer.engine", havingValue = "pessimistic")
+public class PessimisticTransferEngine extends JpaTransferEngine {
+
+    private final long lockTimeoutMs;
+
+    public PessimisticTransferEngine(AccountRepository accountRepository,
+                                     PaymentTransactionRepository paymentTransactionRepository,
+                                     ShardedBalances shardedBalances,
+                                     FxRates fxRates,
+                                     PaymentMetrics paymentMetrics,
+                                     @Value("${payment.transfer.lock-timeout-ms:2000}") long lockTimeoutMs) {
+        super(accountRepository, paymentTransactionRepository, shardedBalances, fxRates, paymentMetrics);
+        this.lockTimeoutMs = lockTimeoutMs;
+    }
+
+    @Override
+    public boolean appliesChunksToEntities() {
+        return false;
+    }
+
+    @Override
+    protected Accounts loadAccounts(Long fromAccountId, Long toAccountId) {
+        if (lockTimeoutMs > 0) {
+            accountRepository.setLocalLockTimeout(lockTimeoutMs + "ms");
+        }
+
+        if (accountRepository.findBalanceSlotsById(toAccountId).orElse(0) > 0) {
+            Account fromAccount = accountRepository.findByIdForUpdate(fromAccountId)
+                    .orElseThrow(() -> new EntityNotFoundException("From Account not found"));
+            Account toAccount = accountRepository.findById(toAccountId)
+                    .orElseThrow(() -> new EntityNotFoundException("To Account not found"));
+            return new Accounts(fromAccount, toAccount);
+        }
+
+        boolean fromLocksFirst = fromAccountId < toAccountId;
+        Optional<Account> first = accountRepository.findByIdForUpdate(fromLocksFirst ? fromAccountId : toAccountId);
+        Optional<Account> second = accountRepository.findByIdForUpdate(fromLocksFirst ? toAccountId : fromAccountId);
+
+        Account fromAccount = (fromLocksFirst ? first : second)
+                .orElseThrow(() -> new EntityNotFoundException("From Account not found"));
+        Account toAccount = (fromLocksFirst ? second : first)
+                .orElseThrow(() -> new EntityNotFoundException("To Account not found"));
+        return new Accounts(fromAccount, toAccount);
+    }
+}
@@ -0,0 +1,131 @@
+package com.tamaspinter.instantpaymentapi.service.transfer;
+
+import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentHold;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
+import com.tamaspinter.instantpaymentapi.repository.PaymentHoldRepository;
+import com.tamaspinter.instantpaymentapi.repository.PaymentTransactionRepository;
+import com.tamaspinter.instantpaymentapi.service.ShardedBalances;
+import jakarta.persistence.EntityNotFoundException;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.time.LocalDateTime;
+import java.util.Currency;
+
+/**
+ * Two-phase engine: no transaction ever locks both accounts of a payment.
+ * <p>
+ * {@link #reserve} debits the source account with a balance-checked {@code UPDATE} and records a
+ * {@link PaymentHold}, committing right away, so the source row is locked only for that short transaction.
+ * {@link #settle} then credits the target account, marks the hold settled and inserts the transaction in the
+ * payment's transaction. If that transaction fails, {@link #release} returns the amount to the source account.
+ * A hold left behind by a crash between the phases is released by the {@code PaymentHoldSweeper} once it is
+ * older than {@code payment.reservation.hold-timeout-ms}; whichever of settling and releasing flips the hold's
+ * status first wins, so the amount is never both credited and returned.
+ * <p>
+ * While a payment is between its phases the amount is missing from both accounts. Batches of payments go through
+ * both phases payment by payment too. The hold does not convert currencies, so both accounts must be in the currency
+ * of the amount.
+ */
+@Component
+@ConditionalOnProperty(name = "payment.transfer.engine", havingValue = "reservation")
+public class ReservationTransferEngine implements ReservingTransferEngine {
+
+    private final AccountRepository accountRepository;
+    private final PaymentTransactionRepository paymentTransactionRepository;
+    private final PaymentHoldRepository paymentHoldRepository;
+    private final ShardedBalances shardedBalances;
+    private final TransactionOperations transactionOperations;
+    private final long holdTimeoutMs;
+
+    public ReservationTransferEngine(AccountRepository accountRepository,
+                                     PaymentTransactionRepository paymentTransactionRepository,
+                                     PaymentHoldRepository paymentHoldRepository,
+                                     ShardedBalances shardedBalances,
+                                     TransactionOperations transactionOperations,
+                                     @Value("${payment.reservation.hold-timeout-ms:30000}") long holdTimeoutMs) {
+        this.accountRepository = accountRepository;
+        this.paymentTransactionRepository = paymentTransactionRepository;
+        this.paymentHoldRepository = paymentHoldRepository;
+        this.shardedBalances = shardedBalances;
+        this.transactionOperations = transactionOperations;
+        this.holdTimeoutMs = holdTimeoutMs;
+    }
+
+    /**
+     * Places the hold and settles it in the caller's transaction, which then locks both accounts one after the other.
+     * {@code PaymentService} uses {@link #reserve} and {@link #settle} instead.
+     */
+    @Override
+    public PaymentTransaction transfer(Long fromAccountId, Long toAccountId, Money amount, String idempotencyKey) {
+        return settle(hold(fromAccountId, toAccountId, amount), idempotencyKey);
+    }
+
+    @Override
+    public PaymentHold reserve(Long fromAccountId, Long toAccountId, Money amount) {
+        return transactionOperations.execute(status -> hold(fromAccountId, toAccountId, amount));
+    }
+
+    @Override
+    public PaymentTransaction settle(PaymentHold hold, String idempotencyKey) {
+        PaymentTransaction transaction = new PaymentTransaction(hold.getFromAccountId(), hold.getToAccountId(), hold.getAmount());
+        transaction.setIdempotencyKey(idempotencyKey);
+        try {
+            paymentTransactionRepository.save(transaction);
+        } catch (Exception e) {
+            throw new DataAccessResourceFailureException("Failed to process payment", e);
+        }
+
+        if (paymentHoldRepository.settle(hold.getId(), transaction.getId()) == 0) {
+            throw new DataAccessResourceFailureException("Payment hold " + hold.getId() + " was released before it was settled");
+        }
+        Account toAccount = accountRepository.findById(hold.getToAccountId())
+                .orElseThrow(() -> new EntityNotFoundException("To Account not found"));
+        if (toAccount.isSharded()) {
+            shardedBalances.credit(toAccount, hold.getAmount());
+        } else {
+            accountRepository.addToBalance(toAccount.getId(), hold.getAmount());
+        }
+        return transaction;
+    }
+
+    @Override
+    public void release(PaymentHold hold) {
+        transactionOperations.executeWithoutResult(status -> {
+            if (paymentHoldRepository.release(hold.getId()) > 0) {
+                accountRepository.addToBalance(hold.getFromAccountId(), hold.getAmount());
+            }
+        });
+    }
+
+    private PaymentHold hold(Long fromAccountId, Long toAccountId, Money amount) {
+        Currency toCurrency = accountRepository.findCurrencyById(toAccountId)
+                .orElseThrow(() -> new EntityNotFoundException("To Account not found"));
+        if (toCurrency != amount.currency()) {
+            throw new InvalidRequestException("The reservation transfer engine does not convert " + amount.currency() + " to " + toCurrency);
+        }
+        if (accountRepository.debitIfCovered(fromAccountId, amount, amount.currency()) == 0) {
+            Currency fromCurrency = accountRepository.findCurrencyById(fromAccountId)
+                    .orElseThrow(() -> new EntityNotFoundException("From Account not found"));
+            if (fromCurrency != amount.currency()) {
+                throw new InvalidRequestException("Amount must be in the currency of the source account, " + fromCurrency);
+            }
+            if (accountRepository.findBalanceSlotsById(fromAccountId).orElse(0) == 0) {
+                throw new InvalidRequestException("Insufficient balance");
+            }
+            accountRepository.addToBalance(fromAccountId, shardedBalances.drain(fromAccountId));
+            if (accountRepository.debitIfCovered(fromAccountId, amount, amount.currency()) == 0) {
+                throw new InvalidRequestException("Insufficient balance");
+            }
+        }
+        LocalDateTime expiresAt = LocalDateTime.now().plusNanos(holdTimeoutMs * 1_000_000);
+        return paymentHoldRepository.save(new PaymentHold(fromAccountId, toAccountId, amount, expiresAt));
+    }
+}
@@ -0,0 +1,35 @@
+package com.tamaspinter.instantpaymentapi.service.transfer;
+
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentHold;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+
+/**
+ * An engine that never locks both accounts of a payment in one transaction. {@code PaymentService} moves the money
+ * in two phases with such an engine: {@link #reserve} takes the amount from the source account into a
+ * {@link PaymentHold} and commits on its own, then the payment's transaction completes it with {@link #settle},
+ * or {@link #release} returns it if that transaction fails.
+ * <p>
+ * {@link #transfer} still works in one transaction, placing the hold and settling it right away.
+ */
+public interface ReservingTransferEngine extends TransferEngine {
+
+    /**
+     * Debits the source account into a hold, in a transaction of its own, so it must be called without a transaction.
+     *
+     * @return The committed hold.
+     */
+    PaymentHold reserve(Long fromAccountId, Long toAccountId, Money amount);
+
+    /**
+     * Credits the target account of a hold, settles the hold and stores the transaction, in the caller's transaction.
+     * Fails if the hold was released in the meantime.
+     */
+    PaymentTransaction settle(PaymentHold hold, String idempotencyKey);
+
+    /**
+     * Returns the amount of a hold that was not settled to its source account, in a transaction of its own.
+     * Does nothing if the hold was already settled or released.
+     */
+    void release(PaymentHold hold);
+}
@@ -0,0 +1,53 @@
+package com.tamaspinter.instantpaymentapi.service.transfer;
+
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+
+/**
+ * Moves money between two accounts and records the ledger entry.
+ * Implementations run inside the caller's transaction, unless they {@linkplain #commitsOnReturn() commit on return},
+ * and expect an already validated request.
+ * The active engine is selected with the {@code payment.transfer.engine} property.
+ *
+ * @see ReservingTransferEngine
+ */
+public interface TransferEngine {
+
+    /**
+     * Debits the source account, credits the target account and stores the transaction.
+     *
+     * @param fromAccountId The ID of the account to debit.
+     * @param toAccountId   The ID of the account to credit.
+     * @param amount        The positive amount to transfer.
+     * @return The persisted payment transaction.
+     */
+    default PaymentTransaction transfer(Long fromAccountId, Long toAccountId, Money amount) {
+        return transfer(fromAccountId, toAccountId, amount, null);
+    }
+
+    /**
+     * Like {@link #transfer(Long, Long, Money)}, storing the client's idempotency key with the transaction.
+     * A key that is already stored fails the insert on its unique index.
+     *
+     * @param idempotencyKey The client's idempotency key, or {@code null}.
+     */
+    PaymentTransaction transfer(Long fromAccountId, Long toAccountId, Money amount, String idempotencyKey);
+
+    /**
+     * Whether a chunk of a batch may be applied by loading its accounts once and updating their balances as entities,
+     * checked by their {@code @Version}, which must be how the engine itself moves money. For the other engines every
+     * payment of a batch goes through {@link #transfer}, so batches lock and fail the same way as single payments.
+     */
+    default boolean appliesChunksToEntities() {
+        return false;
+    }
+
+    /**
+     * Whether a transfer is committed once {@link #transfer} returns, whatever happens to the caller's transaction.
+     * The payment then succeeded even if its notification cannot be stored, and a failed payment of a batch does
+     * not undo the ones transferred before it.
+     */
+    default boolean commitsOnReturn() {
+        return false;
+    }
+}
@@ -0,0 +1,39 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Moves the ids of the tables written on the payment path from identity columns to sequences that Hibernate
+ * allocates from in blocks of 50. Each sequence starts after the largest existing id and becomes the column default,
+ * so inserts without an id keep working.
+ * <p>
+ * A Java migration, because there is no SQL common to PostgreSQL and H2 that starts a sequence from the data.
+ */
+public class V2__Pooled_id_sequences extends BaseJavaMigration {
+
+    private static final int BLOCK_SIZE = 50;
+    private static final List<String> TABLES = List.of("account", "payment_transaction", "ledger_entry", "outbox_event");
+
+    @Override
+    public void migrate(Context context) throws SQLException {
+        try (Statement statement = context.getConnection().createStatement()) {
+            for (String table : TABLES) {
+                long start;
+                try (ResultSet maxId = statement.executeQuery("SELECT COALESCE(MAX(id), 0) + 1 FROM " + table)) {
+                    maxId.next();
+                    start = maxId.getLong(1);
+                }
+                String sequence = table + "_seq";
+                statement.execute("CREATE SEQUENCE " + sequence + " START WITH " + start + " INCREMENT BY " + BLOCK_SIZE);
+                statement.execute("ALTER TABLE " + table + " ALTER COLUMN id DROP IDENTITY");
+                statement.execute("ALTER TABLE " + table + " ALTER COLUMN id SET DEFAULT nextval('" + sequence + "')");
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+-- The schema as Hibernate created it with ddl-auto=update; existing databases are baselined at this version
+CREATE TABLE account (
+    id            BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    balance       NUMERIC(38, 2) NOT NULL,
+    account_name  VARCHAR(255),
+    owner_name    VARCHAR(255)   NOT NULL,
+    balance_slots INTEGER        NOT NULL DEFAULT 0,
+    version       BIGINT
+);
+
+CREATE TABLE account_balance_slot (
+    id         BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    account_id BIGINT         NOT NULL,
+    slot       INTEGER        NOT NULL,
+    balance    NUMERIC(38, 2) NOT NULL,
+    CONSTRAINT uk_account_balance_slot_account_id_slot UNIQUE (account_id, slot)
+);
+
+CREATE TABLE payment_transaction (
+    id              BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    from_account_id BIGINT         NOT NULL,
+    to_account_id   BIGINT         NOT NULL,
+    amount          NUMERIC(38, 2) NOT NULL,
+    created_at      TIMESTAMP(6)   NOT NULL,
+    idempotency_key VARCHAR(255)
+);
+
+CREATE INDEX idx_payment_transaction_from_account_created_at_id
+    ON payment_transaction (from_account_id, created_at, id);
+CREATE INDEX idx_payment_transaction_to_account_created_at_id
+    ON payment_transaction (to_account_id, created_at, id);
+CREATE UNIQUE INDEX uk_payment_transaction_idempotency_key
+    ON payment_transaction (idempotency_key);
+
+CREATE TABLE payment_hold (
+    id              BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    from_account_id BIGINT         NOT NULL,
+    to_account_id   BIGINT         NOT NULL,
+    amount          NUMERIC(38, 2) NOT NULL,
+    status          VARCHAR(16)    NOT NULL CHECK (status IN ('HELD', 'SETTLED', 'RELEASED')),
+    transaction_id  BIGINT,
+    created_at      TIMESTAMP(6)   NOT NULL,
+    expires_at      TIMESTAMP(6)   NOT NULL
+);
+
+CREATE INDEX idx_payment_hold_status_expires_at
+    ON payment_hold (status, expires_at);
+
+CREATE TABLE ledger_entry (
+    id             BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    account_id     BIGINT         NOT NULL,
+    transaction_id BIGINT,
+    amount         NUMERIC(38, 2) NOT NULL,
+    created_at     TIMESTAMP(6)   NOT NULL
+);
+
+CREATE INDEX idx_ledger_entry_account_id_id
+    ON ledger_entry (account_id, id);
+
+CREATE TABLE account_snapshot (
+    id            BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    account_id    BIGINT         NOT NULL,
+    balance       NUMERIC(38, 2) NOT NULL,
+    last_entry_id BIGINT         NOT NULL,
+    created_at    TIMESTAMP(6)   NOT NULL
+);
+
+CREATE UNIQUE INDEX uk_account_snapshot_account_id_last_entry_id
+    ON account_snapshot (account_id, last_entry_id);
+
+CREATE TABLE journal_checkpoint (
+    id         INTEGER PRIMARY KEY,
+    last_index BIGINT NOT NULL
+);
+
+CREATE TABLE outbox_event (
+    id           BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    topic        VARCHAR(255) NOT NULL,
+    message_key  VARCHAR(255),
+    payload      BYTEA        NOT NULL,
+    created_at   TIMESTAMP(6) NOT NULL,
+    published_at TIMESTAMP(6)
+);
+
+CREATE INDEX idx_outbox_event_published_at_id
+    ON outbox_event (published_at, id);
@@ -0,0 +1,16 @@
+-- Every existing account and payment is in EUR. The amounts of a row are in the currency of its account.
+ALTER TABLE account ADD COLUMN currency VARCHAR(3) DEFAULT 'EUR' NOT NULL;
+
+-- A cross-currency payment records the amount credited to the target account and the rate it was converted at
+ALTER TABLE payment_transaction ADD COLUMN currency VARCHAR(3) DEFAULT 'EUR' NOT NULL;
+ALTER TABLE payment_transaction ADD COLUMN credit_amount NUMERIC(38, 2);
+ALTER TABLE payment_transaction ADD COLUMN credit_currency VARCHAR(3);
+ALTER TABLE payment_transaction ADD COLUMN fx_rate NUMERIC(19, 8);
+
+-- Units of the quote currency per unit of the base currency, read into memory by FxRates
+CREATE TABLE fx_rate (
+    base_currency  VARCHAR(3)     NOT NULL,
+    quote_currency VARCHAR(3)     NOT NULL,
+    rate           NUMERIC(19, 8) NOT NULL CHECK (rate > 0),
+    PRIMARY KEY (base_currency, quote_currency)
+);
@@ -0,0 +1,3 @@
+-- The relay claims a batch of events in a short transaction and sends it without holding row locks.
+-- Until claimed_until, no other replica sends them; a claim left by a stopped replica simply expires.
+ALTER TABLE outbox_event ADD COLUMN claimed_until TIMESTAMP(6);
@@ -0,0 +1,3 @@
+-- A ledger snapshot covers the entries of an account up to an id, so ids must follow the order in which the entries
+-- were created on all replicas. Blocks handed out by each replica are not ordered that way; entries take one id at a time.
+ALTER SEQUENCE ledger_entry_seq INCREMENT BY 1;
@@ -0,0 +1,12 @@
+-- Journal records of the memory engine whose transaction the database refused for good, e.g. because an older
+-- payment already holds the idempotency key. Their balance changes were stored; the transactions need a look.
+CREATE TABLE journal_rejected_record (
+    journal_index   BIGINT PRIMARY KEY,
+    transaction_id  BIGINT         NOT NULL,
+    from_account_id BIGINT         NOT NULL,
+    to_account_id   BIGINT         NOT NULL,
+    amount          NUMERIC(38, 2) NOT NULL,
+    created_at      TIMESTAMP(6)   NOT NULL,
+    idempotency_key VARCHAR(255),
+    error           VARCHAR(1000)  NOT NULL
+);
@@ -0,0 +1,193 @@
+package com.tamaspinter.instantpaymentapi;
+
+import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
+import com.tamaspinter.instantpaymentapi.service.memory.AccountBook;
+import com.tamaspinter.instantpaymentapi.service.memory.JournalPersister;
+import com.tamaspinter.instantpaymentapi.service.memory.JournalRecord;
+import com.tamaspinter.instantpaymentapi.service.transfer.DuplicateIdempotencyKeyException;
+import jakarta.persistence.EntityNotFoundException;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class AccountBookTest {
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Mock
+    private JournalPersister journalPersister;
+
+    @TempDir
+    private Path journalDir;
+
+    private AccountBook accountBook;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+        Account account1 = new Account(Money.of("100.00"));
+        account1.setId(1L);
+        Account account2 = new Account(Money.of("50.00"));
+        account2.setId(2L);
+        when(accountRepository.findAll()).thenReturn(List.of(account1, account2));
+        when(journalPersister.lastTransactionId()).thenReturn(41L);
+
+        accountBook = startBook();
+    }
+
+    @AfterEach
+    void tearDown() {
+        accountBook.stop();
+    }
+
+    /**
+     * A payment is applied in memory, answered with the next transaction ID and then written to the database.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void testTransferIsAppliedAndPersisted() {
+        PaymentTransaction transaction = accountBook.transfer(1L, 2L, Money.of("25.50"), null);
+
+        assertEquals(42L, transaction.getId());
+        assertEquals(Money.of("25.50"), transaction.getAmount());
+        assertEquals(Optional.of(Money.of("74.50")), accountBook.balanceOf(1L));
+        assertEquals(Optional.of(Money.of("75.50")), accountBook.balanceOf(2L));
+
+        ArgumentCaptor<List<JournalRecord>> records = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<Map<Long, Long>> balances = ArgumentCaptor.forClass(Map.class);
+        verify(journalPersister, timeout(1000).times(2)).persist(records.capture(), balances.capture());
+        JournalRecord record = records.getValue().get(0);
+        assertEquals(42L, record.transactionId());
+        assertEquals(2550L, record.amount());
+        assertEquals(Map.of(1L, 7450L, 2L, 7550L), balances.getValue());
+    }
+
+    @Test
+    void testRejectedTransfersLeaveBalancesUnchanged() {
+        Exception insufficient = assertThrows(InvalidRequestException.class, () ->
+                accountBook.transfer(2L, 1L, Money.of("50.01"), null));
+        assertEquals("Insufficient balance", insufficient.getMessage());
+
+        Exception notFound = assertThrows(EntityNotFoundException.class, () ->
+                accountBook.transfer(1L, 3L, Money.of("1.00"), null));
+        assertEquals("To Account not found", notFound.getMessage());
+
+        assertEquals(Optional.of(Money.of("100.00")), accountBook.balanceOf(1L));
+        assertEquals(Optional.of(Money.of("50.00")), accountBook.balanceOf(2L));
+    }
+
+    @Test
+    void testRepeatedIdempotencyKeyReturnsFirstTransaction() {
+        PaymentTransaction first = accountBook.transfer(1L, 2L, Money.of("10.00"), "key-1");
+
+        DuplicateIdempotencyKeyException ex = assertThrows(DuplicateIdempotencyKeyException.class, () ->
+                accountBook.transfer(1L, 2L, Money.of("10.00"), "key-1"));
+
+        assertSame(first, ex.getTransaction());
+        assertEquals(Optional.of(Money.of("90.00")), accountBook.balanceOf(1L));
+    }
+
+    /**
+     * A batch the database refuses for good is stored once more with the refused records set aside, and is not
+     * retried.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRefusedBatchIsSetAside() {
+        doThrow(new DataIntegrityViolationException("duplicate key value violates unique constraint"))
+                .when(journalPersister).persist(anyList(), anyMap());
+
+        accountBook.transfer(1L, 2L, Money.of("10.00"), "key-1");
+
+        ArgumentCaptor<List<JournalRecord>> records = ArgumentCaptor.forClass(List.class);
+        verify(journalPersister, timeout(1000)).persistSettingAside(records.capture(), eq(Map.of(1L, 9000L, 2L, 6000L)));
+        assertEquals("key-1", records.getValue().get(0).idempotencyKey());
+        // The startup persist and the refused batch, without a retry after the retry delay
+        verify(journalPersister, after(1500).times(2)).persist(anyList(), anyMap());
+        verify(journalPersister, times(1)).persistSettingAside(anyList(), anyMap());
+    }
+
+    /**
+     * After a restart the journal records the database has not seen are replayed on top of the account table.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRestartReplaysJournalAfterCheckpoint() {
+        accountBook.transfer(1L, 2L, Money.of("10.00"), null);
+        accountBook.deposit(1L, Money.of("5.00"));
+        accountBook.transfer(2L, 1L, Money.of("30.00"), "key-1");
+        accountBook.stop();
+        // The database only has the first record
+        Account account1 = new Account(Money.of("90.00"));
+        account1.setId(1L);
+        Account account2 = new Account(Money.of("60.00"));
+        account2.setId(2L);
+        when(accountRepository.findAll()).thenReturn(List.of(account1, account2));
+        when(journalPersister.checkpoint()).thenReturn(1L);
+        when(journalPersister.lastTransactionId()).thenReturn(42L);
+        clearInvocations(journalPersister);
+
+        accountBook = startBook();
+
+        ArgumentCaptor<List<JournalRecord>> records = ArgumentCaptor.forClass(List.class);
+        verify(journalPersister).persist(records.capture(), eq(Map.of(1L, 12500L, 2L, 3000L)));
+        assertEquals(List.of(2L, 3L), records.getValue().stream().map(JournalRecord::index).toList());
+        assertEquals(Optional.of(Money.of("125.00")), accountBook.balanceOf(1L));
+        assertEquals(44L, accountBook.transfer(1L, 2L, Money.of("1.00"), null).getId());
+        assertThrows(DuplicateIdempotencyKeyException.class, () ->
+                accountBook.transfer(2L, 1L, Money.of("30.00"), "key-1"));
+    }
+
+    /**
+     * A record torn by a crash in the middle of an append is ignored, and new records overwrite it.
+     */
+    @Test
+    void testTornRecordIsIgnored() throws IOException {
+        accountBook.transfer(1L, 2L, Money.of("10.00"), null);
+        accountBook.transfer(1L, 2L, Money.of("20.00"), null);
+        accountBook.stop();
+        try (Stream<Path> segments = Files.list(journalDir);
+             RandomAccessFile segment = new RandomAccessFile(segments.findFirst().orElseThrow().toFile(), "rw")) {
+            // Corrupt the amount of the second record
+            segment.seek(4 + 51 + 4 + 4 + 8 + 1 + 8 + 8 + 8);
+            segment.writeLong(1);
+        }
+
+        accountBook = startBook();
+
+        assertEquals(Optional.of(Money.of("90.00")), accountBook.balanceOf(1L));
+        accountBook.transfer(1L, 2L, Money.of("5.00"), null);
+        accountBook.stop();
+        accountBook = startBook();
+        assertEquals(Optional.of(Money.of("85.00")), accountBook.balanceOf(1L));
+    }
+
+    private AccountBook startBook() {
+        AccountBook book = new AccountBook(accountRepository, journalPersister, journalDir, 1, false, 1024, false, 5000, 1000, 100);
+        book.start();
+        return book;
+    }
+}
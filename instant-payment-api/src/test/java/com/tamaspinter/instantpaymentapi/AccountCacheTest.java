@@ -0,0 +1,159 @@
+package com.tamaspinter.instantpaymentapi;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
+import com.tamaspinter.instantpaymentapi.service.cache.AccountCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class AccountCacheTest {
+
+    private static final long TTL_MS = 1000;
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Mock
+    private KafkaTemplate<String, String> kafkaTemplate;
+
+    private final AtomicLong nanos = new AtomicLong();
+    private SimpleMeterRegistry meterRegistry;
+    private AccountCache accountCache;
+
+    /**
+     * The balance in the database, changed by the tests without going through the cache.
+     */
+    private Money balance;
+    private long loadedAt;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        Ticker ticker = nanos::get;
+        accountCache = new AccountCache(kafkaTemplate, meterRegistry, 100, TTL_MS, ticker);
+
+        balance = Money.of("100.00");
+        when(accountRepository.findById(1L)).thenAnswer(i -> {
+            loadedAt = nanos.get();
+            Account account = new Account(balance);
+            account.setId(1L);
+            return Optional.of(account);
+        });
+        when(kafkaTemplate.send(anyString(), anyString(), anyString())).thenReturn(new CompletableFuture<>());
+    }
+
+    @Test
+    void testReadThrough() {
+        assertEquals(Money.of("100.00"), read());
+        assertEquals(Money.of("100.00"), read());
+        assertTrue(accountCache.get(2L, accountRepository::findById).isEmpty());
+
+        verify(accountRepository, times(1)).findById(1L);
+        assertEquals(1, meterRegistry.get("cache.gets").tags("cache", "accounts", "result", "hit").functionCounter().count());
+        assertEquals(2, meterRegistry.get("cache.gets").tags("cache", "accounts", "result", "miss").functionCounter().count());
+    }
+
+    /**
+     * A committed change is visible to the next read and announced to the other replicas.
+     */
+    @Test
+    void testEvictedOnCommit() {
+        read();
+        balance = Money.of("50.00");
+
+        accountCache.evictAfterCommit(List.of(1L));
+
+        assertEquals(Money.of("50.00"), read());
+        verify(kafkaTemplate).send(AccountCache.TOPIC_ACCOUNT_INVALIDATION, "1", "1");
+    }
+
+    /**
+     * Invalidations published by another replica evict the local copy.
+     */
+    @Test
+    void testEvictedByOtherReplica() {
+        read();
+        balance = Money.of("50.00");
+
+        accountCache.onInvalidation("1");
+
+        assertEquals(Money.of("50.00"), read());
+    }
+
+    /**
+     * A change committed while the account is being loaded does not wait for the load, and the loaded
+     * balance, which may predate the change, is not cached.
+     */
+    @Test
+    void testEvictionDuringLoadDoesNotWait() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch committed = new CountDownLatch(1);
+        when(accountRepository.findById(1L)).thenAnswer(i -> {
+            Account account = new Account(balance);
+            account.setId(1L);
+            loading.countDown();
+            committed.await();
+            return Optional.of(account);
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Money> read = executor.submit(this::read);
+            loading.await();
+            balance = Money.of("50.00");
+
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> accountCache.evictAfterCommit(List.of(1L)));
+            committed.countDown();
+
+            assertEquals(Money.of("100.00"), read.get());
+            assertEquals(Money.of("50.00"), read());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Even if every invalidation is lost, a read only returns an outdated balance while it was loaded
+     * less than the TTL ago.
+     */
+    @Test
+    void testStalenessIsBoundedByTtl() {
+        long ttlNanos = TimeUnit.MILLISECONDS.toNanos(TTL_MS);
+        int staleReads = 0;
+        for (int step = 1; step <= 100; step++) {
+            balance = Money.ofMinor(step * 100L);
+            nanos.addAndGet(ttlNanos / 3);
+
+            if (!read().equals(balance)) {
+                staleReads++;
+                assertTrue(nanos.get() - loadedAt < ttlNanos);
+            }
+        }
+        assertTrue(staleReads > 0);
+    }
+
+    private Money read() {
+        return accountCache.get(1L, accountRepository::findById).orElseThrow().getBalance();
+    }
+}
@@ -0,0 +1,253 @@
+package com.tamaspinter.instantpaymentapi;
+
+import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.entity.AccountSnapshot;
+import com.tamaspinter.instantpaymentapi.entity.LedgerEntry;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
+import com.tamaspinter.instantpaymentapi.repository.AccountSnapshotRepository;
+import com.tamaspinter.instantpaymentapi.repository.LedgerEntryRepository;
+import com.tamaspinter.instantpaymentapi.repository.PaymentTransactionRepository;
+import com.tamaspinter.instantpaymentapi.service.fx.FxRates;
+import com.tamaspinter.instantpaymentapi.service.ledger.AccountLedger;
+import com.tamaspinter.instantpaymentapi.service.ledger.LedgerCompactor;
+import com.tamaspinter.instantpaymentapi.service.transfer.LedgerTransferEngine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityNotFoundException;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionTimedOutException;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Runs the ledger engine, the compactor and the reconciliation against in-memory entry and snapshot tables.
+ */
+public class AccountLedgerTest {
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Mock
+    private PaymentTransactionRepository paymentTransactionRepository;
+
+    @Mock
+    private LedgerEntryRepository ledgerEntryRepository;
+
+    @Mock
+    private AccountSnapshotRepository accountSnapshotRepository;
+
+    private final List<LedgerEntry> entries = new ArrayList<>();
+    private final List<AccountSnapshot> snapshots = new ArrayList<>();
+
+    private SimpleMeterRegistry meterRegistry;
+    private AccountLedger accountLedger;
+    private LedgerTransferEngine transferEngine;
+    private LedgerCompactor compactor;
+
+    private Account account1;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        accountLedger = new AccountLedger(ledgerEntryRepository, accountSnapshotRepository, 0);
+        transferEngine = new LedgerTransferEngine(accountRepository, paymentTransactionRepository, accountLedger,
+                new FxRates(mock(JdbcTemplate.class), new SimpleMeterRegistry(), null, 600_000, Clock.systemUTC()), 0);
+        compactor = new LedgerCompactor(accountRepository, ledgerEntryRepository, accountSnapshotRepository,
+                TransactionOperations.withoutTransaction(), meterRegistry, 3, 0);
+
+        // Opening balances
+        account1 = new Account(Money.of("100.00"));
+        account1.setId(1L);
+        Account account2 = new Account(Money.of("0.00"));
+        account2.setId(2L);
+        when(accountRepository.findByIdForUpdate(1L)).thenReturn(Optional.of(account1));
+        when(accountRepository.findByIdForUpdate(2L)).thenReturn(Optional.of(account2));
+        when(accountRepository.findById(1L)).thenReturn(Optional.of(account1));
+        when(accountRepository.findById(2L)).thenReturn(Optional.of(account2));
+        when(accountRepository.findCurrencyById(1L)).thenReturn(Optional.of(Money.DEFAULT_CURRENCY));
+        when(accountRepository.findCurrencyById(2L)).thenReturn(Optional.of(Money.DEFAULT_CURRENCY));
+        when(paymentTransactionRepository.save(any(PaymentTransaction.class))).thenAnswer(i -> {
+            PaymentTransaction transaction = i.getArgument(0);
+            transaction.setId(1000L + entries.size());
+            return transaction;
+        });
+
+        when(ledgerEntryRepository.saveAll(anyList())).thenAnswer(i -> {
+            List<LedgerEntry> saved = i.getArgument(0);
+            saved.forEach(this::append);
+            return saved;
+        });
+        when(ledgerEntryRepository.save(any(LedgerEntry.class))).thenAnswer(i -> append(i.getArgument(0)));
+        when(ledgerEntryRepository.sumBetween(anyLong(), anyLong(), anyLong())).thenAnswer(i -> entries.stream()
+                .filter(e -> e.getAccountId().equals(i.getArgument(0))
+                        && e.getId() > (Long) i.getArgument(1) && e.getId() <= (Long) i.getArgument(2))
+                .map(LedgerEntry::getAmount)
+                .reduce(Money.ZERO, Money::plus)
+                .toBigDecimal());
+        when(ledgerEntryRepository.findLastSettledId(anyLong(), anyLong(), any())).thenAnswer(i -> entries.stream()
+                .filter(e -> e.getAccountId().equals(i.getArgument(0)) && e.getId() > (Long) i.getArgument(1))
+                .map(LedgerEntry::getId)
+                .max(Long::compare)
+                .orElse(null));
+        when(ledgerEntryRepository.findAccountsToCompact(any(), anyLong())).thenAnswer(i -> List.of(1L, 2L).stream()
+                .filter(id -> entries.stream()
+                        .filter(e -> e.getAccountId().equals(id) && e.getId() > snapshots.stream()
+                                .filter(s -> s.getAccountId().equals(id))
+                                .mapToLong(AccountSnapshot::getLastEntryId).max().orElse(0))
+                        .count() >= (Long) i.getArgument(1))
+                .toList());
+        when(accountSnapshotRepository.save(any(AccountSnapshot.class))).thenAnswer(i -> {
+            AccountSnapshot snapshot = i.getArgument(0);
+            snapshot.setId((long) snapshots.size() + 1);
+            snapshots.add(snapshot);
+            return snapshot;
+        });
+        when(accountSnapshotRepository.findFirstByAccountIdOrderByLastEntryIdDesc(anyLong())).thenAnswer(i -> snapshots.stream()
+                .filter(s -> s.getAccountId().equals(i.getArgument(0)))
+                .max(Comparator.comparing(AccountSnapshot::getLastEntryId)));
+        when(accountSnapshotRepository.findCurrentSnapshots()).thenAnswer(i -> List.of(1L, 2L).stream()
+                .flatMap(id -> accountSnapshotRepository.findFirstByAccountIdOrderByLastEntryIdDesc(id).stream())
+                .toList());
+    }
+
+    /**
+     * A payment appends a debit and a credit and leaves both account rows untouched.
+     */
+    @Test
+    void testTransferAppendsEntries() {
+        PaymentTransaction transaction = transferEngine.transfer(1L, 2L, Money.of("30.00"));
+
+        assertEquals(2, entries.size());
+        assertEquals(Money.of("-30.00"), entries.get(0).getAmount());
+        assertEquals(transaction.getId(), entries.get(1).getTransactionId());
+        assertEquals(Money.of("70.00"), accountLedger.balanceOf(account1));
+        assertEquals(Money.of("100.00"), account1.getBalance());
+        verify(accountRepository, never()).save(any());
+        // Only the debited account is locked
+        verify(accountRepository, never()).findByIdForUpdate(2L);
+    }
+
+    @Test
+    void testInsufficientLedgerBalance() {
+        transferEngine.transfer(1L, 2L, Money.of("80.00"));
+
+        InvalidRequestException ex = assertThrows(InvalidRequestException.class, () ->
+                transferEngine.transfer(1L, 2L, Money.of("30.00")));
+        assertEquals("Insufficient balance", ex.getMessage());
+        assertEquals(2, entries.size());
+    }
+
+    @Test
+    void testAccountNotFound() {
+        EntityNotFoundException ex = assertThrows(EntityNotFoundException.class, () ->
+                transferEngine.transfer(1L, 3L, Money.of("1.00")));
+        assertEquals("To Account not found", ex.getMessage());
+        assertTrue(entries.isEmpty());
+    }
+
+    /**
+     * Snapshots do not change the balance, and only the entries after the current one are summed.
+     */
+    @Test
+    void testCompactionKeepsBalances() {
+        for (int i = 0; i < 4; i++) {
+            transferEngine.transfer(1L, 2L, Money.of("10.00"));
+        }
+        accountLedger.deposit(1L, Money.of("5.00"));
+
+        compactor.compact();
+
+        assertEquals(2, snapshots.size());
+        AccountSnapshot snapshot = accountSnapshotRepository.findFirstByAccountIdOrderByLastEntryIdDesc(1L).orElseThrow();
+        assertEquals(Money.of("65.00"), snapshot.getBalance());
+        assertEquals(9L, snapshot.getLastEntryId());
+
+        transferEngine.transfer(1L, 2L, Money.of("15.00"));
+        assertEquals(Money.of("50.00"), accountLedger.balanceOf(account1));
+        verify(ledgerEntryRepository, atLeastOnce()).sumBetween(1L, 9L, Long.MAX_VALUE);
+        assertEquals(0, compactor.reconcileSnapshots());
+        assertEquals(2, meterRegistry.counter("payment.ledger.reconciliation", "result", "match").count());
+    }
+
+    @Test
+    void testReconciliationDetectsMismatch() {
+        for (int i = 0; i < 3; i++) {
+            transferEngine.transfer(1L, 2L, Money.of("10.00"));
+        }
+        compactor.compact(1L, LocalDateTime.now());
+        snapshots.get(0).setBalance(Money.of("71.00"));
+
+        assertEquals(1, compactor.reconcileSnapshots());
+        assertEquals(1, meterRegistry.counter("payment.ledger.reconciliation", "result", "mismatch").count());
+    }
+
+    /**
+     * A snapshot taken after the reconciliation is checked from the reconciled one, not from the first entry.
+     */
+    @Test
+    void testReconciliationIsIncremental() {
+        for (int i = 0; i < 3; i++) {
+            transferEngine.transfer(1L, 2L, Money.of("10.00"));
+        }
+        compactor.compact();
+        assertEquals(0, compactor.reconcileSnapshots());
+        for (int i = 0; i < 3; i++) {
+            transferEngine.transfer(1L, 2L, Money.of("10.00"));
+        }
+        compactor.compact();
+
+        assertEquals(0, compactor.reconcileSnapshots());
+        assertEquals(0, compactor.reconcileSnapshots());
+
+        // Once by the compaction, once by the first reconciliation that sees the snapshot
+        verify(ledgerEntryRepository, times(2)).sumBetween(1L, 0L, 5L);
+        verify(ledgerEntryRepository, times(2)).sumBetween(1L, 5L, 11L);
+        verify(ledgerEntryRepository, never()).sumBetween(1L, 0L, 11L);
+        assertEquals(4, meterRegistry.counter("payment.ledger.reconciliation", "result", "match").count());
+    }
+
+    /**
+     * A transaction that would commit its entries after half of the settle delay is rolled back, as a snapshot may
+     * already cover later entries.
+     */
+    @Test
+    void testLateCommitIsRolledBack() throws InterruptedException {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            new AccountLedger(ledgerEntryRepository, accountSnapshotRepository, 60_000).deposit(1L, Money.of("5.00"));
+            transferEngine.transfer(1L, 2L, Money.of("10.00"));
+            List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+            Thread.sleep(2);
+
+            assertDoesNotThrow(() -> synchronizations.get(0).beforeCommit(false));
+            assertThrows(TransactionTimedOutException.class, () -> synchronizations.get(1).beforeCommit(false));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private LedgerEntry append(LedgerEntry entry) {
+        entry.setId((long) entries.size() + 1);
+        entries.add(entry);
+        return entry;
+    }
+}
@@ -0,0 +1,86 @@
+package com.tamaspinter.instantpaymentapi;
+
+import com.tamaspinter.instantpaymentapi.OpenLoopLoadGenerator.Operation;
+import com.tamaspinter.instantpaymentapi.OpenLoopLoadGenerator.OperationReport;
+import com.tamaspinter.instantpaymentapi.OpenLoopLoadGenerator.OperationStats;
+import com.tamaspinter.instantpaymentapi.OpenLoopLoadGenerator.Report;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a fixed number of clients busy: each client sends its next request as soon as its previous one is answered.
+ * The load adapts to the server, so this measures the most the server completes at that concurrency, and the
+ * latencies are measured from the time a request was sent. Use {@link OpenLoopLoadGenerator} for latencies at a
+ * given arrival rate.
+ */
+class ClosedLoopLoadGenerator {
+
+    private final HttpClient httpClient;
+    private final int clients;
+    private final Duration duration;
+
+    ClosedLoopLoadGenerator(HttpClient httpClient, int clients, Duration duration) {
+        this.httpClient = httpClient;
+        this.clients = clients;
+        this.duration = duration;
+    }
+
+    /**
+     * Runs the workload until the configured duration is over and waits for the requests still in flight.
+     *
+     * @param workload Called once per request, from the client's threads, one call at a time.
+     */
+    Report run(Supplier<Operation> workload) {
+        Map<String, OperationStats> stats = new ConcurrentHashMap<>();
+        AtomicLong requests = new AtomicLong();
+        long start = System.nanoTime();
+        long deadline = start + duration.toNanos();
+
+        CompletableFuture<?>[] done = new CompletableFuture<?>[clients];
+        for (int i = 0; i < clients; i++) {
+            CompletableFuture<Void> clientDone = new CompletableFuture<>();
+            done[i] = clientDone;
+            sendNext(workload, stats, requests, deadline, clientDone);
+        }
+        CompletableFuture.allOf(done).join();
+        long elapsedNanos = System.nanoTime() - start;
+
+        Map<String, OperationReport> operations = new TreeMap<>();
+        stats.forEach((name, operationStats) -> operations.put(name, operationStats.report(elapsedNanos)));
+        return new Report(Double.NaN, elapsedNanos / 1e9, requests.get() * 1e9 / elapsedNanos, operations);
+    }
+
+    /**
+     * Sends the client's next request, or completes the client once the time is up.
+     */
+    private void sendNext(Supplier<Operation> workload, Map<String, OperationStats> stats, AtomicLong requests,
+                          long deadline, CompletableFuture<Void> clientDone) {
+        if (System.nanoTime() >= deadline) {
+            clientDone.complete(null);
+            return;
+        }
+        Operation operation;
+        synchronized (workload) {
+            operation = workload.get();
+        }
+        OperationStats operationStats = stats.computeIfAbsent(operation.name(), name -> new OperationStats());
+        long sent = System.nanoTime();
+        requests.incrementAndGet();
+        httpClient.sendAsync(operation.request(), HttpResponse.BodyHandlers.ofString())
+                .whenComplete((response, failure) -> {
+                    operationStats.record(System.nanoTime() - sent, response == null ? -1 : response.statusCode());
+                    if (response != null) {
+                        operation.onResponse().accept(response);
+                    }
+                    sendNext(workload, stats, requests, deadline, clientDone);
+                });
+    }
+}
@@ -0,0 +1,213 @@
+package com.tamaspinter.instantpaymentapi;
+
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.service.fx.FxRateSnapshot;
+import com.tamaspinter.instantpaymentapi.service.fx.FxRateSnapshot.Rate;
+import com.tamaspinter.instantpaymentapi.service.fx.FxRates;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Currency;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class FxRatesTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+    private static final Currency HUF = Currency.getInstance("HUF");
+    private static final Currency JPY = Currency.getInstance("JPY");
+    private static final Currency USD = Currency.getInstance("USD");
+
+    @TempDir
+    private Path tempDir;
+
+    /**
+     * Conversions round the exact product once, half to even, to the minor units of the target currency.
+     */
+    @Test
+    void testConvertRoundsHalfToEven() {
+        long oneAndAHalf = 150_000_000L;
+        long jpyPerEur = 16_050_000_000L;
+
+        assertEquals(Money.ofMinor(2, HUF), FxRateSnapshot.convert(Money.ofMinor(1), oneAndAHalf, HUF));
+        assertEquals(Money.ofMinor(4, HUF), FxRateSnapshot.convert(Money.ofMinor(3), oneAndAHalf, HUF));
+        assertEquals(Money.ofMinor(-4, HUF), FxRateSnapshot.convert(Money.ofMinor(-3), oneAndAHalf, HUF));
+        assertEquals(Money.ofMinor(160, JPY), FxRateSnapshot.convert(Money.of("1.00"), jpyPerEur, JPY));
+        assertEquals(Money.ofMinor(482, JPY), FxRateSnapshot.convert(Money.of("3.00"), jpyPerEur, JPY));
+        assertEquals(Money.of("0.01"), FxRateSnapshot.convert(Money.ofMinor(2, JPY), 626_000L, EUR));
+    }
+
+    /**
+     * Products that overflow a {@code long} take the {@code BigDecimal} path and round the same way.
+     */
+    @Test
+    void testConvertMatchesBigDecimal() {
+        long[] rates = {1L, 626_000L, 39_512_345_678L, 150_000_000L, 99_999_999_999L};
+        long[] amounts = {1L, 5L, 12_345L, 999_999_999L, 10_000_000_000_000L, Long.MAX_VALUE / 1_000_000};
+        for (long rate : rates) {
+            for (long amount : amounts) {
+                for (Currency to : List.of(HUF, JPY)) {
+                    BigDecimal exact = BigDecimal.valueOf(amount, 2).multiply(BigDecimal.valueOf(rate, FxRateSnapshot.RATE_SCALE));
+                    BigDecimal rounded = exact.setScale(to.getDefaultFractionDigits(), RoundingMode.HALF_EVEN);
+                    Money expected;
+                    try {
+                        expected = Money.of(rounded, to);
+                    } catch (ArithmeticException e) {
+                        assertThrows(ArithmeticException.class, () -> FxRateSnapshot.convert(Money.ofMinor(amount), rate, to));
+                        continue;
+                    }
+                    assertEquals(expected, FxRateSnapshot.convert(Money.ofMinor(amount), rate, to), amount + " at " + rate);
+                }
+            }
+        }
+    }
+
+    /**
+     * Only the loaded pairs have a rate: the inverse is not derived.
+     */
+    @Test
+    void testMissingPair() throws IOException {
+        FxRates fxRates = fromFile("EUR/HUF=395.12\n", Clock.systemUTC());
+
+        assertEquals(39_512_000_000L, fxRates.rate(EUR, HUF));
+        Exception inverse = assertThrows(InvalidRequestException.class, () -> fxRates.rate(HUF, EUR));
+        assertEquals("No exchange rate from HUF to EUR", inverse.getMessage());
+        assertThrows(InvalidRequestException.class, () -> fxRates.rate(EUR, USD));
+    }
+
+    /**
+     * A payment within one currency is not converted; a cross-currency one records the applied rate.
+     */
+    @Test
+    void testCredit() throws IOException {
+        FxRates fxRates = fromFile("EUR/HUF=395.12\n", Clock.systemUTC());
+        PaymentTransaction domestic = new PaymentTransaction(1L, 2L, Money.of("10.00"));
+        PaymentTransaction crossBorder = new PaymentTransaction(1L, 3L, Money.of("10.00"));
+
+        assertEquals(Money.of("10.00"), fxRates.credit(domestic, EUR));
+        assertNull(domestic.getFxRate());
+        assertEquals(Money.of(new BigDecimal("3951.20"), HUF), fxRates.credit(crossBorder, HUF));
+        assertEquals(new BigDecimal("395.12000000"), crossBorder.getFxRate());
+        assertEquals(crossBorder.getCreditAmount(), crossBorder.creditedAmount());
+    }
+
+    /**
+     * An amount that fits a {@code long} in its own currency but not once converted is rejected, not a server error.
+     */
+    @Test
+    void testCreditOutOfRange() throws IOException {
+        FxRates fxRates = fromFile("EUR/HUF=395.12\n", Clock.systemUTC());
+        PaymentTransaction huge = new PaymentTransaction(1L, 3L, Money.ofMinor(Long.MAX_VALUE / 100));
+
+        Exception outOfRange = assertThrows(InvalidRequestException.class, () -> fxRates.credit(huge, HUF));
+        assertEquals("Amount 922337203685477.58 EUR is out of range in HUF", outOfRange.getMessage());
+        assertNull(huge.getFxRate());
+    }
+
+    @Test
+    void testReadsTable() {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class)))
+                .thenReturn(List.of(new Rate(EUR, HUF, new BigDecimal("395.12")), new Rate(HUF, EUR, new BigDecimal("0.00253"))));
+        FxRates fxRates = new FxRates(jdbcTemplate, new SimpleMeterRegistry(), null, 600_000, Clock.systemUTC());
+
+        fxRates.refresh();
+
+        assertEquals(253_000L, fxRates.rate(HUF, EUR));
+    }
+
+    /**
+     * Invalid rates are not loaded; the previous rates stay in use until a reload finds them too old.
+     */
+    @Test
+    void testInvalidRatesKeepPreviousRates() throws IOException {
+        MutableClock clock = new MutableClock();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        Path ratesFile = Files.writeString(tempDir.resolve("fx-rates.properties"), "EUR/HUF=395.12\n");
+        FxRates fxRates = new FxRates(mock(JdbcTemplate.class), meterRegistry, ratesFile, 60_000, clock);
+        fxRates.refresh();
+
+        for (String invalid : List.of("EUR/HUF=-1\n", "EUR/HUF=0.123456789\n", "EUR/EUR=1\n", "EUR/BHD=0.41\n", "EUR=1\n")) {
+            Files.writeString(ratesFile, invalid);
+            clock.advance(10_000);
+            fxRates.refresh();
+            assertEquals(39_512_000_000L, fxRates.rate(EUR, HUF), invalid);
+        }
+        assertEquals(50.0, meterRegistry.get("payment.fx.rates.age").gauge().value());
+
+        clock.advance(10_001);
+        assertEquals(39_512_000_000L, fxRates.rate(EUR, HUF));
+        fxRates.refresh();
+        Exception stale = assertThrows(IllegalStateException.class, () -> fxRates.rate(EUR, HUF));
+        assertEquals("Exchange rates are out of date", stale.getMessage());
+
+        Files.writeString(ratesFile, "EUR/HUF=396\n");
+        fxRates.refresh();
+        assertEquals(39_600_000_000L, fxRates.rate(EUR, HUF));
+    }
+
+    /**
+     * Nothing loaded yet: cross-currency payments are refused, payments within one currency still go through.
+     */
+    @Test
+    void testNotLoaded() {
+        FxRates fxRates = new FxRates(mock(JdbcTemplate.class), new SimpleMeterRegistry(), null, 600_000, Clock.systemUTC());
+
+        assertThrows(IllegalStateException.class, () -> fxRates.rate(EUR, HUF));
+        assertEquals(Money.of("1.00"), fxRates.credit(new PaymentTransaction(1L, 2L, Money.of("1.00")), EUR));
+    }
+
+    private FxRates fromFile(String rates, Clock clock) throws IOException {
+        Path ratesFile = Files.writeString(tempDir.resolve("fx-rates.properties"), rates);
+        FxRates fxRates = new FxRates(mock(JdbcTemplate.class), new SimpleMeterRegistry(), ratesFile, 600_000, clock);
+        fxRates.refresh();
+        return fxRates;
+    }
+
+    private static class MutableClock extends Clock {
+
+        private long millis = 1_700_000_000_000L;
+
+        void advance(long deltaMillis) {
+            millis += deltaMillis;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.tamaspinter.instantpaymentapi;
+
+import com.tamaspinter.instantpaymentapi.dto.PaymentRequest;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.repository.PaymentTransactionRepository;
+import com.tamaspinter.instantpaymentapi.service.IdempotencyStore;
+import com.tamaspinter.instantpaymentapi.service.transfer.DuplicateIdempotencyKeyException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class IdempotencyStoreTest {
+
+    private static final String KEY = "3f1c2a9e-6d4b-4f7e-9a51-0c8e7b2d1f60";
+
+    @Mock
+    private PaymentTransactionRepository paymentTransactionRepository;
+
+    private SimpleMeterRegistry meterRegistry;
+    private IdempotencyStore idempotencyStore;
+
+    private final PaymentRequest request = new PaymentRequest(1L, 2L, Money.of("25.00"));
+    private final AtomicInteger payments = new AtomicInteger();
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        idempotencyStore = new IdempotencyStore(paymentTransactionRepository, meterRegistry, 100, 60_000);
+        when(paymentTransactionRepository.findByIdempotencyKey(anyString())).thenReturn(Optional.empty());
+    }
+
+    /**
+     * A retry storm of one key pays once and answers every repeat from memory.
+     */
+    @Test
+    void testRepeatsAreAnsweredFromMemory() {
+        PaymentTransaction first = idempotencyStore.execute(KEY, request, this::pay);
+        for (int i = 0; i < 10_000; i++) {
+            assertSame(first, idempotencyStore.execute(KEY, request, this::pay));
+        }
+
+        assertEquals(1, payments.get());
+        verify(paymentTransactionRepository, times(1)).findByIdempotencyKey(KEY);
+        assertEquals(10_000, lookups("memory_hit"));
+        assertEquals(1, lookups("miss"));
+    }
+
+    /**
+     * A key no longer in memory, e.g. sent to another replica, is found by the unique index.
+     */
+    @Test
+    void testRepeatFoundInDatabase() {
+        PaymentTransaction stored = transaction(7L);
+        when(paymentTransactionRepository.findByIdempotencyKey(KEY)).thenReturn(Optional.of(stored));
+
+        assertSame(stored, idempotencyStore.execute(KEY, request, this::pay));
+        assertSame(stored, idempotencyStore.execute(KEY, request, this::pay));
+
+        assertEquals(0, payments.get());
+        assertEquals(1, lookups("database_hit"));
+        assertEquals(1, lookups("memory_hit"));
+    }
+
+    /**
+     * Of two concurrent first requests, the one losing on the unique index returns the winner's transaction.
+     */
+    @Test
+    void testConcurrentDuplicateReturnsWinner() {
+        PaymentTransaction winner = transaction(8L);
+        when(paymentTransactionRepository.findByIdempotencyKey(KEY))
+                .thenReturn(Optional.empty())
+                .thenReturn(Optional.of(winner));
+        Supplier<PaymentTransaction> losingPayment = () -> {
+            throw new DataAccessResourceFailureException("Failed to process payment",
+                    new DataIntegrityViolationException("duplicate key value violates unique constraint"));
+        };
+
+        assertSame(winner, idempotencyStore.execute(KEY, request, losingPayment));
+        assertEquals(1, lookups("concurrent_duplicate"));
+    }
+
+    /**
+     * An engine that detects the duplicate itself hands over the winner, which may not be in the database yet.
+     */
+    @Test
+    void testDuplicateDetectedByEngineReturnsWinner() {
+        PaymentTransaction winner = transaction(9L);
+        winner.setIdempotencyKey(KEY);
+        Supplier<PaymentTransaction> losingPayment = () -> {
+            throw new DuplicateIdempotencyKeyException(winner);
+        };
+
+        assertSame(winner, idempotencyStore.execute(KEY, request, losingPayment));
+        verify(paymentTransactionRepository, times(1)).findByIdempotencyKey(KEY);
+        assertEquals(1, lookups("concurrent_duplicate"));
+    }
+
+    @Test
+    void testOtherFailuresArePropagated() {
+        Supplier<PaymentTransaction> failingPayment = () -> {
+            throw new InvalidRequestException("Insufficient balance");
+        };
+
+        assertThrows(InvalidRequestException.class, () -> idempotencyStore.execute(KEY, request, failingPayment));
+
+        // The key is not remembered, so the client can retry once the balance allows it
+        idempotencyStore.execute(KEY, request, this::pay);
+        assertEquals(1, payments.get());
+    }
+
+    @Test
+    void testInvalidKeyUsage() {
+        idempotencyStore.execute(KEY, request, this::pay);
+
+        InvalidRequestException reused = assertThrows(InvalidRequestException.class, () ->
+                idempotencyStore.execute(KEY, new PaymentRequest(1L, 2L, Money.of("26.00")), this::pay));
+        assertEquals("Idempotency key was already used for a different payment", reused.getMessage());
+        assertThrows(InvalidRequestException.class, () -> idempotencyStore.execute(" ", request, this::pay));
+        assertThrows(InvalidRequestException.class, () -> idempotencyStore.execute("k".repeat(256), request, this::pay));
+        assertEquals(1, payments.get());
+    }
+
+    private PaymentTransaction pay() {
+        return transaction((long) payments.incrementAndGet());
+    }
+
+    private PaymentTransaction transaction(Long id) {
+        PaymentTransaction transaction = new PaymentTransaction(request.fromAccountId(), request.toAccountId(), request.amount());
+        transaction.setId(id);
+        transaction.setIdempotencyKey(KEY);
+        return transaction;
+    }
+
+    private double lookups(String result) {
+        return meterRegistry.counter("payment.idempotency.lookup", "result", result).count();
+    }
+}
@@ -0,0 +1,93 @@
+package com.tamaspinter.instantpaymentapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.InvalidFormatException;
+import com.tamaspinter.instantpaymentapi.dto.PaymentRequest;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.MoneyConverter;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MoneyTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void testExactConversion() {
+        assertEquals(1050L, Money.of("10.5").minorUnits());
+        assertEquals(1050L, Money.of("10.500").minorUnits());
+        assertEquals(-1L, Money.of("-0.01").minorUnits());
+        assertEquals(new BigDecimal("10.50"), Money.ofMinor(1050).toBigDecimal());
+        assertEquals("10.50 EUR", Money.ofMinor(1050).toString());
+
+        Exception scale = assertThrows(ArithmeticException.class, () -> Money.of("1.001"));
+        assertEquals("Amount 1.001 has more than 2 decimal places", scale.getMessage());
+        assertThrows(ArithmeticException.class, () -> Money.of("92233720368547758.08"));
+    }
+
+    @Test
+    void testArithmeticIsOverflowChecked() {
+        Money max = Money.ofMinor(Long.MAX_VALUE);
+
+        assertEquals(Money.of("12.35"), Money.of("10.00").plus(Money.of("2.35")));
+        assertEquals(Money.of("-2.35"), Money.of("10.00").minus(Money.of("12.35")));
+        assertThrows(ArithmeticException.class, () -> max.plus(Money.of("0.01")));
+        assertThrows(ArithmeticException.class, () -> Money.ofMinor(Long.MIN_VALUE).minus(Money.of("0.01")));
+        assertThrows(ArithmeticException.class, () -> Money.ofMinor(Long.MIN_VALUE).negate());
+        assertTrue(Money.of("0.01").isPositive());
+        assertFalse(Money.ZERO.isPositive());
+        assertTrue(Money.of("9.99").isLessThan(Money.of("10.00")));
+    }
+
+    /**
+     * Amounts are plain decimal numbers in JSON, and are never rounded on the way in.
+     */
+    @Test
+    void testJson() throws Exception {
+        PaymentRequest request = objectMapper.readValue(
+                "{\"fromAccountId\": 1, \"toAccountId\": 2, \"amount\": 0.5}", PaymentRequest.class);
+
+        assertEquals(Money.of("0.50"), request.amount());
+        assertEquals("{\"fromAccountId\":1,\"toAccountId\":2,\"amount\":0.50,\"currency\":\"EUR\"}",
+                objectMapper.writeValueAsString(request));
+        PaymentRequest forint = objectMapper.readValue(
+                "{\"fromAccountId\": 1, \"toAccountId\": 2, \"amount\": 500, \"currency\": \"HUF\"}", PaymentRequest.class);
+        assertEquals(Money.of(new BigDecimal("500.00"), Currency.getInstance("HUF")), forint.amount());
+        assertEquals(Money.of("10.25"), objectMapper.readValue("\"10.25\"", Money.class));
+        assertThrows(InvalidFormatException.class, () -> objectMapper.readValue("10.255", Money.class));
+        assertThrows(InvalidFormatException.class, () -> objectMapper.readValue("1e30", Money.class));
+        assertThrows(InvalidFormatException.class, () -> objectMapper.readValue("\"ten\"", Money.class));
+        // A payment request beyond the long range of minor units never reaches PaymentService.validate
+        assertThrows(InvalidFormatException.class, () -> objectMapper.readValue(
+                "{\"fromAccountId\": 1, \"toAccountId\": 2, \"amount\": 92233720368547758.08}", PaymentRequest.class));
+    }
+
+    /**
+     * Tagging an amount with its currency keeps the number, and never rounds it.
+     */
+    @Test
+    void testWithCurrency() {
+        Currency huf = Currency.getInstance("HUF");
+        Currency yen = Currency.getInstance("JPY");
+
+        assertEquals(Money.ofMinor(1050, huf), Money.of("10.50").withCurrency(huf));
+        assertEquals(Money.ofMinor(10, yen), Money.of("10.00").withCurrency(yen));
+        assertThrows(ArithmeticException.class, () -> Money.of("10.50").withCurrency(yen));
+        assertThrows(IllegalArgumentException.class, () -> Money.of("1.00").plus(Money.ofMinor(100, huf)));
+        assertFalse(Money.isSupported(Currency.getInstance("BHD")));
+    }
+
+    @Test
+    void testConverter() {
+        MoneyConverter converter = new MoneyConverter();
+
+        assertEquals(new BigDecimal("25.00"), converter.convertToDatabaseColumn(Money.of("25")));
+        assertEquals(Money.of("25.00"), converter.convertToEntityAttribute(new BigDecimal("25.00")));
+        assertNull(converter.convertToDatabaseColumn(null));
+        assertNull(converter.convertToEntityAttribute(null));
+    }
+}
@@ -0,0 +1,142 @@
+package com.tamaspinter.instantpaymentapi;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Sends requests at a fixed rate, whether or not the earlier ones have been answered, the way independent
+ * clients arrive at a real service. A slow server does not slow down the load, it queues up and shows in the
+ * latencies, which are measured from the time a request was due, not from the time it was actually sent.
+ */
+class OpenLoopLoadGenerator {
+
+    /**
+     * A request of the workload. {@code onResponse} is called with every response, from the client's threads.
+     */
+    record Operation(String name, HttpRequest request, Consumer<HttpResponse<String>> onResponse) {
+    }
+
+    private final HttpClient httpClient;
+    private final double ratePerSecond;
+    private final Duration duration;
+
+    OpenLoopLoadGenerator(HttpClient httpClient, double ratePerSecond, Duration duration) {
+        this.httpClient = httpClient;
+        this.ratePerSecond = ratePerSecond;
+        this.duration = duration;
+    }
+
+    /**
+     * Runs the workload for the configured duration and waits until every request has been answered or failed.
+     *
+     * @param workload Called once per request, from a single thread.
+     */
+    Report run(Supplier<Operation> workload) {
+        long intervalNanos = (long) (1_000_000_000 / ratePerSecond);
+        long requests = (long) (duration.toNanos() / (double) intervalNanos);
+        Map<String, OperationStats> stats = new ConcurrentHashMap<>();
+        List<CompletableFuture<?>> responses = new ArrayList<>();
+
+        long start = System.nanoTime();
+        for (long i = 0; i < requests; i++) {
+            long due = start + i * intervalNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Operation operation = workload.get();
+            OperationStats operationStats = stats.computeIfAbsent(operation.name(), name -> new OperationStats());
+            responses.add(httpClient.sendAsync(operation.request(), HttpResponse.BodyHandlers.ofString())
+                    .whenComplete((response, failure) -> {
+                        operationStats.record(System.nanoTime() - due, response == null ? -1 : response.statusCode());
+                        if (response != null) {
+                            operation.onResponse().accept(response);
+                        }
+                    }));
+        }
+        CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new))
+                .exceptionally(failure -> null)
+                .join();
+        long elapsedNanos = System.nanoTime() - start;
+
+        Map<String, OperationReport> operations = new TreeMap<>();
+        stats.forEach((name, operationStats) -> operations.put(name, operationStats.report(elapsedNanos)));
+        return new Report(ratePerSecond, elapsedNanos / 1e9, requests * 1e9 / elapsedNanos, operations);
+    }
+
+    /**
+     * The outcome of a run.
+     *
+     * @param targetRate     Requests per second the generator was set to send, {@code NaN} for a closed loop.
+     * @param elapsedSeconds From the first request until the last response.
+     * @param throughput     Completed requests per second.
+     * @param operations     The results per operation name.
+     */
+    record Report(double targetRate, double elapsedSeconds, double throughput, Map<String, OperationReport> operations) {
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder(Double.isNaN(targetRate)
+                    ? String.format("closed loop, achieved %.1f req/s in %.1f s%n", throughput, elapsedSeconds)
+                    : String.format("target %.0f req/s, achieved %.1f req/s in %.1f s%n", targetRate, throughput, elapsedSeconds));
+            report.append(String.format("%-10s %8s %10s %10s %9s %9s %9s %9s  %s%n", "operation", "count", "req/s",
+                    "goodput/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "statuses (-1: no response)"));
+            operations.forEach((name, operation) -> report.append(String.format("%-10s %8d %10.1f %10.1f %9.2f %9.2f %9.2f %9.2f  %s%n",
+                    name, operation.count(), operation.throughput(), operation.goodput(), operation.p50Ms(), operation.p99Ms(),
+                    operation.p999Ms(), operation.maxMs(), operation.statuses())));
+            return report.toString();
+        }
+    }
+
+    /**
+     * @param goodput Successful (2xx) requests per second.
+     */
+    record OperationReport(long count, double throughput, double goodput, double p50Ms, double p99Ms, double p999Ms,
+                           double maxMs, Map<Integer, Long> statuses) {
+    }
+
+    static class OperationStats {
+
+        // Up to a minute with three significant digits
+        private final Histogram latencies = new ConcurrentHistogram(60_000_000_000L, 3);
+        private final Map<Integer, AtomicLong> statuses = new ConcurrentHashMap<>();
+
+        void record(long latencyNanos, int status) {
+            latencies.recordValue(Math.min(latencyNanos, latencies.getHighestTrackableValue()));
+            statuses.computeIfAbsent(status, s -> new AtomicLong()).incrementAndGet();
+        }
+
+        OperationReport report(long elapsedNanos) {
+            Map<Integer, Long> statusCounts = new TreeMap<>();
+            statuses.forEach((status, count) -> statusCounts.put(status, count.get()));
+            long succeeded = statusCounts.entrySet().stream()
+                    .filter(status -> status.getKey() >= 200 && status.getKey() < 300)
+                    .mapToLong(Map.Entry::getValue)
+                    .sum();
+            return new OperationReport(
+                    latencies.getTotalCount(),
+                    latencies.getTotalCount() * 1e9 / elapsedNanos,
+                    succeeded * 1e9 / elapsedNanos,
+                    latencies.getValueAtPercentile(50) / 1e6,
+                    latencies.getValueAtPercentile(99) / 1e6,
+                    latencies.getValueAtPercentile(99.9) / 1e6,
+                    latencies.getMaxValue() / 1e6,
+                    statusCounts);
+        }
+    }
+}
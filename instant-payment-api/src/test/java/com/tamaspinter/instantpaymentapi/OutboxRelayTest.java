@@ -0,0 +1,161 @@
+package com.tamaspinter.instantpaymentapi;
+
+import com.tamaspinter.instantpaymentapi.entity.OutboxEvent;
+import com.tamaspinter.instantpaymentapi.repository.OutboxEventRepository;
+import com.tamaspinter.instantpaymentapi.service.notification.KafkaSendMonitor;
+import com.tamaspinter.instantpaymentapi.service.notification.OutboxRelay;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.domain.Limit;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * Uses Kafka's in-memory {@link MockProducer} as the broker.
+ */
+public class OutboxRelayTest {
+
+    @Mock
+    private OutboxEventRepository outboxEventRepository;
+
+    private MockProducer<String, byte[]> producer;
+    private SimpleMeterRegistry meterRegistry;
+    private OutboxRelay relay;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+        producer = broker(true);
+        meterRegistry = new SimpleMeterRegistry();
+        relay = relay();
+    }
+
+    @Test
+    void testPublishesAndMarksBatch() {
+        when(outboxEventRepository.lockClaimable(any(), eq(Limit.of(2))))
+                .thenReturn(List.of(event(1L, "first"), event(2L, "second")))
+                .thenReturn(List.of(event(3L, "third")));
+
+        relay.relay();
+
+        // A full batch is followed by another run straight away
+        assertEquals(List.of("first", "second", "third"),
+                producer.history().stream().map(r -> new String(r.value(), StandardCharsets.UTF_8)).toList());
+        assertEquals("transaction_notifications", producer.history().get(0).topic());
+        assertEquals("1", producer.history().get(0).key());
+        verify(outboxEventRepository).claim(eq(List.of(1L, 2L)), any());
+        verify(outboxEventRepository).markPublished(eq(List.of(1L, 2L)), any());
+        verify(outboxEventRepository).markPublished(eq(List.of(3L)), any());
+        assertEquals(3, meterRegistry.timer("payment.notification.send", "outcome", "success").count());
+    }
+
+    @Test
+    void testNothingToPublish() {
+        when(outboxEventRepository.lockClaimable(any(), any())).thenReturn(List.of());
+
+        assertEquals(0, relay.relayBatch());
+
+        assertTrue(producer.history().isEmpty());
+        verify(outboxEventRepository, never()).claim(anyList(), any());
+        verify(outboxEventRepository, never()).markPublished(anyList(), any());
+    }
+
+    /**
+     * Events stay unpublished and their claim is given up when the broker rejects a send, so the next run sends
+     * them again.
+     */
+    @Test
+    void testFailedSendIsNotMarked() {
+        producer = broker(false);
+        relay = relay();
+        when(outboxEventRepository.lockClaimable(any(), any())).thenReturn(List.of(event(1L, "first")));
+
+        Thread broker = new Thread(() -> {
+            while (!producer.errorNext(new RuntimeException("Simulated broker error"))) {
+                Thread.onSpinWait();
+            }
+        });
+        broker.start();
+
+        assertThrows(KafkaException.class, () -> relay.relayBatch());
+        verify(outboxEventRepository, never()).markPublished(anyList(), any());
+        verify(outboxEventRepository).releaseClaims(List.of(1L));
+        assertEquals(1, meterRegistry.timer("payment.notification.send", "outcome", "failure").count());
+    }
+
+    /**
+     * A send that fails before it reaches the producer is recorded and handled like a rejected one.
+     */
+    @Test
+    void testSynchronousSendFailure() {
+        producer.sendException = new RuntimeException("Simulated serialization error");
+        when(outboxEventRepository.lockClaimable(any(), any())).thenReturn(List.of(event(1L, "first")));
+
+        assertThrows(KafkaException.class, () -> relay.relayBatch());
+        verify(outboxEventRepository, never()).markPublished(anyList(), any());
+        verify(outboxEventRepository).releaseClaims(List.of(1L));
+        assertEquals(1, meterRegistry.timer("payment.notification.send", "outcome", "failure").count());
+        assertEquals(0.0, meterRegistry.get("payment.notification.send.pending").gauge().value());
+    }
+
+    /**
+     * Published events are deleted in batches until a batch is not full.
+     */
+    @Test
+    void testPrunesPublishedEvents() {
+        when(outboxEventRepository.deletePublishedBefore(any(), eq(2))).thenReturn(2, 1);
+
+        relay.prune();
+
+        verify(outboxEventRepository, times(2)).deletePublishedBefore(
+                argThat(before -> before.isBefore(LocalDateTime.now().minusHours(23))), eq(2));
+    }
+
+    private OutboxRelay relay() {
+        return new OutboxRelay(outboxEventRepository, new KafkaTemplate<>(() -> producer),
+                new KafkaSendMonitor(meterRegistry), TransactionOperations.withoutTransaction(), 2, 1000, 86_400_000);
+    }
+
+    /**
+     * The template closes its producer after every send, which a shared MockProducer must survive.
+     * Without auto-completion, sends stay pending until the test completes them, even across a flush.
+     */
+    private static MockProducer<String, byte[]> broker(boolean autoComplete) {
+        return new MockProducer<>(autoComplete, new StringSerializer(), new ByteArraySerializer()) {
+            @Override
+            public void close(Duration timeout) {
+            }
+
+            @Override
+            public synchronized void flush() {
+                if (autoComplete) {
+                    super.flush();
+                }
+            }
+        };
+    }
+
+    private static OutboxEvent event(Long id, String payload) {
+        OutboxEvent event = new OutboxEvent("transaction_notifications", "1", payload.getBytes(StandardCharsets.UTF_8));
+        event.setId(id);
+        return event;
+    }
+}
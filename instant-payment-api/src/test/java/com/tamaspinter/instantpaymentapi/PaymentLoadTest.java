@@ -0,0 +1,713 @@
+package com.tamaspinter.instantpaymentapi;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tamaspinter.instantpaymentapi.OpenLoopLoadGenerator.Operation;
+import com.tamaspinter.instantpaymentapi.OpenLoopLoadGenerator.Report;
+import com.tamaspinter.instantpaymentapi.dto.BalanceSlotsRequest;
+import com.tamaspinter.instantpaymentapi.dto.DepositRequest;
+import com.tamaspinter.instantpaymentapi.dto.PaymentRequest;
+import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
+import com.tamaspinter.instantpaymentapi.repository.PaymentTransactionRepository;
+import com.tamaspinter.instantpaymentapi.service.ShardedBalances;
+import com.tamaspinter.instantpaymentapi.service.cache.AccountCache;
+import com.tamaspinter.instantpaymentapi.service.ledger.AccountLedger;
+import com.tamaspinter.instantpaymentapi.service.memory.AccountBook;
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionEvent;
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionEventDeserializer;
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionNotifier;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+/**
+ * Load tests of the payment API through its HTTP endpoints, against H2 in PostgreSQL mode and an embedded Kafka
+ * broker. Each scenario drives an open-loop workload (see {@link OpenLoopLoadGenerator}) against fresh accounts,
+ * reports throughput and latency percentiles per operation, and then checks that no money was created or lost.
+ * <p>
+ * Only run with {@code mvn test -Pload-test}. The load is set with the {@code load.rate} (requests per second),
+ * {@code load.duration-s}, {@code load.accounts} and {@code load.zipf-exponent} system properties; the reports are
+ * also written to {@code target/load-tests/<engine>/}. The transfer engine is chosen like in the application, e.g.
+ * {@code -Dpayment.transfer.engine=sql}, so the engines are compared by running the suite once per engine.
+ * H2 is not PostgreSQL, so compare the numbers between runs of this suite, not with production. The {@code sql}
+ * engine's statement needs PostgreSQL: on H2 the suite is skipped for it, point {@code spring.datasource.url} at a
+ * PostgreSQL database to run it.
+ * <p>
+ * {@link #testIdempotentRetryStorm} repeats every payment {@code load.retries} times on average with its
+ * {@code Idempotency-Key}.
+ * <p>
+ * {@link #testBatchVersusSinglePayments} runs closed-loop instead (see {@link ClosedLoopLoadGenerator}), with
+ * {@code load.clients} clients and batches of {@code load.batch-size} payments.
+ * <p>
+ * {@link #testHistoryDepth} reads one account's history of {@code load.history-depth} transactions in pages of
+ * {@code load.history-page-size}.
+ * <p>
+ * {@link #testConcurrentClients} runs closed-loop once per client count in {@code load.concurrent-clients}. Run it
+ * with {@code -Dspring.threads.virtual.enabled=true} on Java 21 or later to compare virtual with platform threads.
+ * <p>
+ * With {@code load.instances} above 1, further instances of the application are started in the same JVM against the
+ * same database and broker, and the requests are spread over all of them round-robin, e.g. to run the
+ * {@code reservation} engine's holds and sweepers on several replicas.
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("load-test")
+@EmbeddedKafka(kraft = true, partitions = 1,
+        topics = {TransactionNotifier.TOPIC_TRANSACTION_NOTIFICATION, AccountCache.TOPIC_ACCOUNT_INVALIDATION})
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class PaymentLoadTest {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentLoadTest.class);
+
+    private static final Money INITIAL_BALANCE = Money.of("1000.00");
+    private static final Duration NOTIFICATION_TIMEOUT = Duration.ofSeconds(30);
+    private static final int RETRY_WINDOW = 16;
+    private static final int HISTORY_SEED_CHUNK = 5000;
+    private static final int HISTORY_WALK_PAGE_SIZE = 200;
+    private static final double HISTORY_DEPTH_TOLERANCE = 2.0;
+
+    private final double rate = Double.parseDouble(System.getProperty("load.rate", "100"));
+    private final Duration duration = Duration.ofSeconds(Long.getLong("load.duration-s", 10));
+    private final int accountCount = Integer.getInteger("load.accounts", 1000);
+    private final double zipfExponent = Double.parseDouble(System.getProperty("load.zipf-exponent", "1.1"));
+    private final int instances = Integer.getInteger("load.instances", 1);
+    private final int clients = Integer.getInteger("load.clients", 8);
+    private final int batchSize = Integer.getInteger("load.batch-size", 500);
+    private final int retries = Integer.getInteger("load.retries", 4);
+    private final int hotAccountSlots = Integer.getInteger("load.hot-account-slots", 0);
+    private final int historyDepth = Integer.getInteger("load.history-depth", 100_000);
+    private final int historyPageSize = Integer.getInteger("load.history-page-size", 50);
+    private final List<Integer> concurrentClients = Arrays.stream(System.getProperty("load.concurrent-clients", "1000,10000").split(","))
+            .map(String::trim)
+            .map(Integer::valueOf)
+            .toList();
+
+    @LocalServerPort
+    private int port;
+
+    @Value("${payment.transfer.engine}")
+    private String engine;
+
+    @Value("${spring.datasource.url}")
+    private String datasourceUrl;
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private PaymentTransactionRepository paymentTransactionRepository;
+
+    @Autowired
+    private ObjectProvider<AccountBook> accountBook;
+
+    @Autowired
+    private ObjectProvider<AccountLedger> accountLedger;
+
+    @Autowired
+    private ShardedBalances shardedBalances;
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafka;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final List<ConfigurableApplicationContext> replicas = new ArrayList<>();
+    private final List<Integer> ports = new ArrayList<>();
+    private int nextPort;
+
+    private ExecutorService clientExecutor;
+    private HttpClient httpClient;
+    private ZipfSampler zipf;
+    private SplittableRandom random;
+    private List<Long> accountIds;
+    private Bookkeeping bookkeeping;
+
+    @BeforeAll
+    void startClient() {
+        assumeFalse(engine.equals("sql") && datasourceUrl.startsWith("jdbc:h2:"),
+                "The sql engine's data-modifying CTE does not run on H2");
+        assumeFalse(engine.equals("memory") && instances > 1, "Only one instance of the memory engine may run");
+        ports.add(port);
+        for (int i = 1; i < instances; i++) {
+            ConfigurableApplicationContext replica = new SpringApplicationBuilder(InstantPaymentApiApplication.class)
+                    .profiles("load-test")
+                    .run("--server.port=0", "--spring.embedded.kafka.brokers=" + embeddedKafka.getBrokersAsString());
+            replicas.add(replica);
+            ports.add(((WebServerApplicationContext) replica).getWebServer().getPort());
+        }
+        clientExecutor = Executors.newCachedThreadPool();
+        httpClient = HttpClient.newBuilder()
+                .executor(clientExecutor)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        zipf = new ZipfSampler(accountCount, zipfExponent);
+    }
+
+    @AfterAll
+    void stopClient() {
+        if (clientExecutor != null) {
+            clientExecutor.shutdownNow();
+        }
+        replicas.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @BeforeEach
+    void createAccounts() {
+        List<Account> accounts = new ArrayList<>(accountCount);
+        for (int i = 0; i < accountCount; i++) {
+            Account account = new Account(INITIAL_BALANCE);
+            account.setOwnerName("Load Test " + i);
+            accounts.add(account);
+        }
+        accountIds = accountRepository.saveAll(accounts).stream().map(Account::getId).toList();
+        // The memory engine loaded its balances on startup and does not know accounts saved since
+        accountBook.ifAvailable(book -> accountIds.forEach(id -> {
+            book.open(id);
+            book.deposit(id, INITIAL_BALANCE);
+        }));
+        random = new SplittableRandom(42);
+        bookkeeping = new Bookkeeping();
+    }
+
+    /**
+     * Payments only, both accounts picked from a Zipf distribution, so a few accounts take part in most payments
+     * and their updates conflict.
+     */
+    @Test
+    void testHotAccountPayments() throws Exception {
+        Report report = run("hot-account-payments", this::payment);
+
+        assertAnswered(report, "payment");
+        verifyInvariants();
+    }
+
+    /**
+     * Payments from random accounts all to the first account, like customers paying one merchant: every payment
+     * updates the same row. Compare the goodput and the p99 latency of the engines, e.g. {@code jpa} (optimistic
+     * locking with retries) against {@code pessimistic}. With {@code load.hot-account-slots} above 0, the merchant's
+     * credits are spread over that many balance slots; comparing runs with 0, 4 and 16 slots shows how much of the
+     * contention sharding removes.
+     */
+    @Test
+    void testSingleHotAccount() throws Exception {
+        assumeFalse(hotAccountSlots > 0 && (engine.equals("ledger") || engine.equals("memory")),
+                "Balance slots are not supported by the " + engine + " engine");
+        long merchant = accountIds.get(0);
+        if (hotAccountSlots > 0) {
+            HttpRequest reshard = HttpRequest.newBuilder(uri("/api/accounts/" + merchant + "/balance-slots"))
+                    .header("Content-Type", "application/json")
+                    .PUT(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(new BalanceSlotsRequest(hotAccountSlots))))
+                    .build();
+            assertEquals(200, httpClient.send(reshard, HttpResponse.BodyHandlers.ofString()).statusCode());
+        }
+        Report report = run(hotAccountSlots > 0 ? "single-hot-account-" + hotAccountSlots + "-slots" : "single-hot-account", () -> {
+            long from = accountIds.get(1 + random.nextInt(accountCount - 1));
+            return payment(from, merchant);
+        });
+
+        assertAnswered(report, "payment");
+        verifyInvariants();
+    }
+
+    /**
+     * Clients that time out and resend: every request repeats one of the last {@value #RETRY_WINDOW} payments with
+     * its {@code Idempotency-Key}, or starts a new one, so each payment is sent {@code 1 + load.retries} times on
+     * average, partly while the first attempt is still running. Every key must commit exactly one transaction, and
+     * all answers for a key must carry it.
+     */
+    @Test
+    void testIdempotentRetryStorm() throws Exception {
+        List<IdempotentPayment> recent = new ArrayList<>();
+        Map<String, Long> committed = new ConcurrentHashMap<>();
+        List<String> divergent = Collections.synchronizedList(new ArrayList<>());
+        Report report = run("idempotent-retry-storm", () -> {
+            if (recent.isEmpty() || random.nextInt(retries + 1) == 0) {
+                PaymentRequest payment = uniformPayment();
+                recent.add(new IdempotentPayment(UUID.randomUUID().toString(), payment));
+                if (recent.size() > RETRY_WINDOW) {
+                    recent.remove(0);
+                }
+                return idempotentPayment(recent.get(recent.size() - 1), committed, divergent);
+            }
+            return idempotentPayment(recent.get(random.nextInt(recent.size())), committed, divergent);
+        });
+
+        long answered = report.operations().get("payment").statuses().getOrDefault(200, 0L);
+        log.info("Idempotent retry storm on the {} engine: {} payments committed, {} of {} successful answers were replays",
+                engine, committed.size(), answered - committed.size(), answered);
+        assertFalse(committed.isEmpty(), "No payment committed");
+        assertEquals(List.of(), divergent, "Keys answered with more than one transaction");
+        assertAnswered(report, "payment");
+        verifyInvariants();
+    }
+
+    /**
+     * The batch endpoint against single payments, with the same clients sending back to back: first single payments,
+     * then batches, between uniformly picked accounts. Logs the payments committed per second of both.
+     */
+    @Test
+    void testBatchVersusSinglePayments() throws Exception {
+        Report singles = runClosedLoop("single-payments", () -> {
+            PaymentRequest payment = uniformPayment();
+            return payment(payment.fromAccountId(), payment.toAccountId());
+        });
+        int singlesCommitted = bookkeeping.transactionIds.size();
+        Report batches = runClosedLoop("batch-payments", this::batch);
+        int batchedCommitted = bookkeeping.transactionIds.size() - singlesCommitted;
+
+        double singleRate = singlesCommitted / singles.elapsedSeconds();
+        double batchRate = batchedCommitted / batches.elapsedSeconds();
+        log.info("Payments committed per second on the {} engine with {} clients: {} one by one, {} in batches of {} ({}x)",
+                engine, clients, String.format("%.1f", singleRate), String.format("%.1f", batchRate), batchSize,
+                String.format("%.1f", batchRate / singleRate));
+
+        assertAnswered(singles, "payment");
+        assertAnswered(batches, "batch");
+        verifyInvariants();
+    }
+
+    /**
+     * Many clients sending back to back, half of them payments between uniformly picked accounts and half balance
+     * reads of the hot accounts, once with each of the {@code load.concurrent-clients} client counts. The reports are
+     * named after the client count and whether Tomcat serves the requests on virtual or platform threads, so the
+     * throughput and the latencies of both thread models can be compared at the same concurrency.
+     */
+    @Test
+    void testConcurrentClients() throws Exception {
+        String threads = virtualThreads ? "virtual" : "platform";
+        for (int clientCount : concurrentClients) {
+            Report report = runClosedLoop("concurrent-clients-" + clientCount + "-" + threads + "-threads", clientCount, () -> {
+                if (random.nextBoolean()) {
+                    return read();
+                }
+                PaymentRequest payment = uniformPayment();
+                return payment(payment.fromAccountId(), payment.toAccountId());
+            });
+
+            assertAnswered(report, "payment");
+            assertAnswered(report, "read");
+        }
+        verifyInvariants();
+    }
+
+    /**
+     * Every third request is a deposit, the rest are payments.
+     */
+    @Test
+    void testDepositsInterleavedWithPayments() throws Exception {
+        Report report = run("deposits-and-payments", () -> random.nextInt(3) == 0 ? deposit() : payment());
+
+        assertAnswered(report, "payment");
+        assertEquals(0, report.operations().get("deposit").statuses().getOrDefault(-1, 0L));
+        verifyInvariants();
+    }
+
+    /**
+     * Nine balance reads of the hot accounts for every payment, like clients polling for their payments.
+     */
+    @Test
+    void testReadHeavyPolling() throws Exception {
+        Report report = run("read-heavy-polling", () -> random.nextInt(10) == 0 ? payment() : read());
+
+        assertAnswered(report, "payment");
+        assertEquals(Map.of(200, report.operations().get("read").count()), report.operations().get("read").statuses());
+        verifyInvariants();
+    }
+
+    /**
+     * The first page of an account's transaction history against a page {@code load.history-depth} * 0.9 transactions
+     * deep, requested alternately. Keyset pagination seeks to the cursor, so the deep page's p50 latency must not be
+     * more than {@value #HISTORY_DEPTH_TOLERANCE} times the first one's; an offset or a scan from the newest row grows
+     * with depth. The p99 latencies are only logged, as a few pauses decide them at the rates of the suite.
+     * The history is written straight to the table, so the scenario checks no balances.
+     */
+    @Test
+    void testHistoryDepth() throws Exception {
+        assumeFalse(engine.equals("memory") && datasourceUrl.startsWith("jdbc:h2:"),
+                "Without setval the memory engine's transaction IDs may collide with the seeded history");
+        long account = seedHistory();
+        String deepCursor = null;
+        for (int walked = 0; walked < historyDepth * 9 / 10; walked += HISTORY_WALK_PAGE_SIZE) {
+            HttpRequest request = HttpRequest.newBuilder(uri(historyPath(account, deepCursor, HISTORY_WALK_PAGE_SIZE))).GET().build();
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode(), response.body());
+            deepCursor = readTree(response).get("nextCursor").asText();
+        }
+        String cursor = deepCursor;
+
+        Report report = run("history-depth-" + historyDepth, () -> random.nextBoolean()
+                ? historyPage("first-page", account, null)
+                : historyPage("deep-page", account, cursor));
+
+        OpenLoopLoadGenerator.OperationReport first = report.operations().get("first-page");
+        OpenLoopLoadGenerator.OperationReport deep = report.operations().get("deep-page");
+        assertEquals(Map.of(200, first.count()), first.statuses());
+        assertEquals(Map.of(200, deep.count()), deep.statuses());
+        log.info("History of {} transactions on the {} engine: p50/p99 {}/{} ms on the first page, {}/{} ms {} transactions deep",
+                historyDepth, engine, first.p50Ms(), first.p99Ms(), deep.p50Ms(), deep.p99Ms(), historyDepth * 9 / 10);
+        assertTrue(deep.p50Ms() <= HISTORY_DEPTH_TOLERANCE * first.p50Ms(),
+                "Deep page p50 " + deep.p50Ms() + " ms against " + first.p50Ms() + " ms on the first page");
+    }
+
+    private Report run(String scenario, Supplier<Operation> workload) throws IOException {
+        return report(scenario, new OpenLoopLoadGenerator(httpClient, rate, duration).run(workload));
+    }
+
+    private Report runClosedLoop(String scenario, Supplier<Operation> workload) throws IOException {
+        return runClosedLoop(scenario, clients, workload);
+    }
+
+    private Report runClosedLoop(String scenario, int clientCount, Supplier<Operation> workload) throws IOException {
+        return report(scenario, new ClosedLoopLoadGenerator(httpClient, clientCount, duration).run(workload));
+    }
+
+    private Report report(String scenario, Report report) throws IOException {
+        log.info("Load test {} on the {} engine, {} instance(s), {} accounts, Zipf exponent {}:\n{}",
+                scenario, engine, instances, accountCount, zipfExponent, report);
+        Path file = Path.of("target", "load-tests", instances > 1 ? engine + "-x" + instances : engine, scenario + ".json");
+        Files.createDirectories(file.getParent());
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), report);
+        return report;
+    }
+
+    /**
+     * Every request of the operation got an answer other than a server error, so a run that only failed does not pass
+     * the invariants trivially. Rejections and conflicts are expected under contention.
+     */
+    private static void assertAnswered(Report report, String operation) {
+        report.operations().get(operation).statuses().forEach((status, count) ->
+                assertTrue(status > 0 && status < 500, count + " " + operation + " requests answered " + status));
+    }
+
+    /**
+     * Checks the database and the notifications against the answers the clients got:
+     * <ul>
+     *     <li>the total balance is the initial balance plus the deposits,</li>
+     *     <li>no balance is negative,</li>
+     *     <li>every balance is its initial balance plus its deposits and its stored payments,</li>
+     *     <li>exactly the answered payments are stored, and all of them are announced on Kafka.</li>
+     * </ul>
+     */
+    private void verifyInvariants() throws InterruptedException {
+        awaitPersisted();
+        Map<Long, Money> expected = new HashMap<>();
+        accountIds.forEach(id -> expected.put(id, INITIAL_BALANCE));
+        bookkeeping.deposits.forEach((id, amount) -> expected.merge(id, amount, Money::plus));
+
+        Set<Long> storedTransactionIds = new HashSet<>();
+        for (PaymentTransaction transaction : paymentTransactionRepository.findAll()) {
+            if (expected.containsKey(transaction.getFromAccountId())) {
+                storedTransactionIds.add(transaction.getId());
+                expected.merge(transaction.getFromAccountId(), transaction.getAmount().negate(), Money::plus);
+                expected.merge(transaction.getToAccountId(), transaction.getAmount(), Money::plus);
+            }
+        }
+        assertEquals(bookkeeping.transactionIds.keySet(), storedTransactionIds, "Stored payments differ from the answered ones");
+
+        Money expectedTotal = Money.ofMinor(INITIAL_BALANCE.minorUnits() * accountCount)
+                .plus(bookkeeping.deposits.values().stream().reduce(Money.ZERO, Money::plus));
+        Money total = Money.ZERO;
+        AccountLedger ledger = accountLedger.getIfAvailable();
+        for (Account account : accountRepository.findAllById(accountIds)) {
+            // In the ledger mode, account.balance is only the opening balance; a sharded account also has its slots
+            Money balance = ledger != null ? ledger.balanceOf(account) : shardedBalances.balanceOf(account);
+            total = total.plus(balance);
+            assertTrue(balance.signum() >= 0, "Negative balance of account " + account.getId());
+            assertEquals(expected.get(account.getId()), balance, "Balance of account " + account.getId());
+        }
+        assertEquals(expectedTotal, total, "Total balance " + total + " instead of " + expectedTotal);
+
+        assertEquals(Set.of(), awaitNotifications(bookkeeping.transactionIds.keySet()), "Payments without a notification");
+    }
+
+    /**
+     * The memory engine writes its journal to the database behind its answers: waits until the answered payments and
+     * the resulting total balance are stored, or the timeout expires.
+     */
+    private void awaitPersisted() throws InterruptedException {
+        if (accountBook.getIfAvailable() == null) {
+            return;
+        }
+        Money expectedTotal = Money.ofMinor(INITIAL_BALANCE.minorUnits() * accountCount)
+                .plus(bookkeeping.deposits.values().stream().reduce(Money.ZERO, Money::plus));
+        long deadline = System.nanoTime() + NOTIFICATION_TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline) {
+            boolean paymentsStored = paymentTransactionRepository.findAllById(bookkeeping.transactionIds.keySet()).size()
+                    == bookkeeping.transactionIds.size();
+            Money total = accountRepository.findAllById(accountIds).stream()
+                    .map(Account::getBalance)
+                    .reduce(Money.ZERO, Money::plus);
+            if (paymentsStored && total.equals(expectedTotal)) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * Reads the notification topic until every payment has been announced or the timeout expires.
+     *
+     * @return The payments that were not announced.
+     */
+    private Set<Long> awaitNotifications(Set<Long> transactionIds) {
+        Set<Long> missing = new HashSet<>(transactionIds);
+        Map<String, Object> props = KafkaTestUtils.consumerProps("load-test-" + System.nanoTime(), "false", embeddedKafka);
+        try (Consumer<String, TransactionEvent> consumer = new DefaultKafkaConsumerFactory<>(props,
+                new StringDeserializer(), new TransactionEventDeserializer()).createConsumer()) {
+            embeddedKafka.consumeFromAnEmbeddedTopic(consumer, TransactionNotifier.TOPIC_TRANSACTION_NOTIFICATION);
+            long deadline = System.nanoTime() + NOTIFICATION_TIMEOUT.toNanos();
+            while (!missing.isEmpty() && System.nanoTime() < deadline) {
+                for (ConsumerRecord<String, TransactionEvent> notification : consumer.poll(Duration.ofMillis(500))) {
+                    missing.remove(notification.value().transactionId());
+                }
+            }
+        }
+        return missing;
+    }
+
+    private Operation payment() {
+        long from = hotAccount();
+        long to = hotAccount();
+        while (to == from) {
+            to = hotAccount();
+        }
+        return payment(from, to);
+    }
+
+    private Operation payment(long from, long to) {
+        PaymentRequest payment = new PaymentRequest(from, to, amount());
+        return new Operation("payment", post("/api/payments", payment), response -> {
+            if (response.statusCode() == 200) {
+                bookkeeping.transactionIds.put(readId(response), Boolean.TRUE);
+            }
+        });
+    }
+
+    /**
+     * Sends the payment with its key. A successful answer must carry the same transaction as every earlier one
+     * for the key, otherwise the key is recorded as divergent.
+     */
+    private Operation idempotentPayment(IdempotentPayment payment, Map<String, Long> committed, List<String> divergent) {
+        HttpRequest request = HttpRequest.newBuilder(uri("/api/payments"))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .header("Idempotency-Key", payment.key())
+                .POST(HttpRequest.BodyPublishers.ofString(payment.body(objectMapper)))
+                .build();
+        return new Operation("payment", request, response -> {
+            if (response.statusCode() == 200) {
+                long id = readId(response);
+                bookkeeping.transactionIds.put(id, Boolean.TRUE);
+                Long first = committed.putIfAbsent(payment.key(), id);
+                if (first != null && first != id) {
+                    divergent.add(payment.key() + ": " + first + " and " + id);
+                }
+            }
+        });
+    }
+
+    /**
+     * A batch of {@code load.batch-size} payments between uniformly picked accounts.
+     */
+    private Operation batch() {
+        List<PaymentRequest> payments = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            payments.add(uniformPayment());
+        }
+        return new Operation("batch", post("/api/payments/batch", payments), response -> {
+            if (response.statusCode() == 200) {
+                for (JsonNode result : readTree(response)) {
+                    if (result.get("status").asText().equals("SUCCEEDED")) {
+                        bookkeeping.transactionIds.put(result.get("transactionId").asLong(), Boolean.TRUE);
+                    }
+                }
+            }
+        });
+    }
+
+    private Operation deposit() {
+        DepositRequest deposit = new DepositRequest(accountIds.get(random.nextInt(accountCount)), amount());
+        return new Operation("deposit", post("/api/accounts/deposit", deposit), response -> {
+            if (response.statusCode() == 200) {
+                bookkeeping.deposits.merge(deposit.accountId(), deposit.amount(), Money::plus);
+            }
+        });
+    }
+
+    private Operation read() {
+        HttpRequest request = HttpRequest.newBuilder(uri("/api/accounts/" + hotAccount()))
+                .timeout(Duration.ofSeconds(30))
+                .GET()
+                .build();
+        return new Operation("read", request, response -> {
+        });
+    }
+
+    private Operation historyPage(String operation, long account, String cursor) {
+        HttpRequest request = HttpRequest.newBuilder(uri(historyPath(account, cursor, historyPageSize)))
+                .timeout(Duration.ofSeconds(30))
+                .GET()
+                .build();
+        return new Operation(operation, request, response -> {
+        });
+    }
+
+    private static String historyPath(long account, String cursor, int size) {
+        return "/api/accounts/" + account + "/transactions?size=" + size + (cursor == null ? "" : "&cursor=" + cursor);
+    }
+
+    /**
+     * Writes {@code load.history-depth} transactions of a new account, one second apart and alternately sent and
+     * received, in JDBC batches.
+     *
+     * @return The ID of the account.
+     */
+    private long seedHistory() {
+        Account account = new Account(INITIAL_BALANCE);
+        account.setOwnerName("Load Test history");
+        Account counterpart = new Account(INITIAL_BALANCE);
+        counterpart.setOwnerName("Load Test history counterpart");
+        List<Long> ids = accountRepository.saveAll(List.of(account, counterpart)).stream().map(Account::getId).toList();
+
+        LocalDateTime newest = LocalDateTime.now();
+        List<PaymentTransaction> chunk = new ArrayList<>(HISTORY_SEED_CHUNK);
+        for (int i = 0; i < historyDepth; i++) {
+            boolean sent = i % 2 == 0;
+            PaymentTransaction transaction = new PaymentTransaction(ids.get(sent ? 0 : 1), ids.get(sent ? 1 : 0), Money.ofMinor(1));
+            transaction.setCreatedAt(newest.minusSeconds(i));
+            chunk.add(transaction);
+            if (chunk.size() == HISTORY_SEED_CHUNK || i == historyDepth - 1) {
+                paymentTransactionRepository.insertAll(chunk);
+                chunk = new ArrayList<>(HISTORY_SEED_CHUNK);
+            }
+        }
+        return ids.get(0);
+    }
+
+    private long hotAccount() {
+        return accountIds.get(zipf.next(random));
+    }
+
+    private PaymentRequest uniformPayment() {
+        long from = accountIds.get(random.nextInt(accountCount));
+        long to = accountIds.get(random.nextInt(accountCount));
+        while (to == from) {
+            to = accountIds.get(random.nextInt(accountCount));
+        }
+        return new PaymentRequest(from, to, amount());
+    }
+
+    /**
+     * Between 0.01 and 10.00.
+     */
+    private Money amount() {
+        return Money.ofMinor(random.nextLong(1, 1001));
+    }
+
+    private HttpRequest post(String path, Object body) {
+        try {
+            return HttpRequest.newBuilder(uri(path))
+                    .timeout(Duration.ofSeconds(30))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body)))
+                    .build();
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * The next instance in turn. Only called from the generator's thread.
+     */
+    private URI uri(String path) {
+        int instancePort = ports.get(nextPort++ % ports.size());
+        return URI.create("http://localhost:" + instancePort + path);
+    }
+
+    private long readId(HttpResponse<String> response) {
+        return readTree(response).get("id").asLong();
+    }
+
+    private JsonNode readTree(HttpResponse<String> response) {
+        try {
+            return objectMapper.readTree(response.body());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unexpected payment response " + response.body(), e);
+        }
+    }
+
+    private record IdempotentPayment(String key, PaymentRequest request) {
+
+        String body(ObjectMapper objectMapper) {
+            try {
+                return objectMapper.writeValueAsString(request);
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+
+    /**
+     * What the clients were told: the committed payments and the deposited amount per account.
+     */
+    private static class Bookkeeping {
+        final Map<Long, Boolean> transactionIds = new ConcurrentHashMap<>();
+        final Map<Long, Money> deposits = new ConcurrentHashMap<>();
+    }
+}
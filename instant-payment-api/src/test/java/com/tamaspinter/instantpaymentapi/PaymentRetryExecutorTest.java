@@ -0,0 +1,130 @@
+package com.tamaspinter.instantpaymentapi;
+
+import com.tamaspinter.instantpaymentapi.service.PaymentRetryExecutor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.OptimisticLockException;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PaymentRetryExecutorTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private PaymentRetryExecutor retryExecutor;
+
+    @BeforeEach
+    void setup() {
+        meterRegistry = new SimpleMeterRegistry();
+        retryExecutor = new PaymentRetryExecutor(meterRegistry, 3, 1, 5);
+    }
+
+    @Test
+    void testFirstTrySuccess() {
+        assertEquals("ok", retryExecutor.execute(() -> "ok"));
+
+        assertEquals(1, outcome("first_try_success"));
+        assertEquals(0, outcome("retried_success"));
+        assertEquals(0, meterRegistry.counter("payment.retry.attempts").count());
+    }
+
+    /**
+     * The whole operation is run again after a conflict.
+     */
+    @Test
+    void testRetriedSuccess() {
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = retryExecutor.execute(() -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new ObjectOptimisticLockingFailureException("Account", 1L);
+            }
+            return "ok";
+        });
+
+        assertEquals("ok", result);
+        assertEquals(3, calls.get());
+        assertEquals(1, outcome("retried_success"));
+        assertEquals(2, meterRegistry.counter("payment.retry.attempts").count());
+        assertEquals(2, meterRegistry.counter("payment.retry.conflicts").count());
+    }
+
+    @Test
+    void testExhausted() {
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThrows(ObjectOptimisticLockingFailureException.class, () -> retryExecutor.execute(() -> {
+            calls.incrementAndGet();
+            throw new ObjectOptimisticLockingFailureException("Account", 1L);
+        }));
+
+        assertEquals(3, calls.get());
+        assertEquals(1, outcome("exhausted"));
+        assertEquals(3, meterRegistry.counter("payment.retry.conflicts").count());
+    }
+
+    /**
+     * A conflict wrapped by the transfer engine is still recognized.
+     */
+    @Test
+    void testWrappedConflictIsRetried() {
+        AtomicInteger calls = new AtomicInteger();
+
+        retryExecutor.execute(() -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new DataAccessResourceFailureException("Failed to process payment",
+                        new ObjectOptimisticLockingFailureException("Account", 1L));
+            }
+            return "ok";
+        });
+
+        assertEquals(2, calls.get());
+    }
+
+    /**
+     * Once the attempts are exhausted the conflict is rethrown without its wrapper, so it maps to a 409.
+     */
+    @Test
+    void testWrappedConflictExhaustedIsUnwrapped() {
+        ObjectOptimisticLockingFailureException conflict = new ObjectOptimisticLockingFailureException("Account", 1L);
+
+        Exception thrown = assertThrows(OptimisticLockingFailureException.class, () -> retryExecutor.execute(() -> {
+            throw new DataAccessResourceFailureException("Failed to process payment", conflict);
+        }));
+
+        assertSame(conflict, thrown);
+        assertEquals(1, outcome("exhausted"));
+    }
+
+    @Test
+    void testJakartaConflictExhaustedIsTranslated() {
+        Exception thrown = assertThrows(OptimisticLockingFailureException.class, () -> retryExecutor.execute(() -> {
+            throw new DataAccessResourceFailureException("Failed to process payment", new OptimisticLockException("Row was updated"));
+        }));
+
+        assertInstanceOf(OptimisticLockException.class, thrown.getCause());
+    }
+
+    @Test
+    void testOtherFailuresAreNotRetried() {
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThrows(InvalidRequestException.class, () -> retryExecutor.execute(() -> {
+            calls.incrementAndGet();
+            throw new InvalidRequestException("Insufficient balance");
+        }));
+
+        assertEquals(1, calls.get());
+        assertEquals(0, outcome("exhausted"));
+    }
+
+    private double outcome(String outcome) {
+        return meterRegistry.counter("payment.retry.outcome", "outcome", outcome).count();
+    }
+}
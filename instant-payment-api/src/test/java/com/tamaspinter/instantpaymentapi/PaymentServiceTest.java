@@ -1,22 +1,56 @@
 package com.tamaspinter.instantpaymentapi;
 
+import com.tamaspinter.instantpaymentapi.dto.PaymentBatchItemResult;
+import com.tamaspinter.instantpaymentapi.dto.PaymentBatchItemResult.Status;
 import com.tamaspinter.instantpaymentapi.dto.PaymentRequest;
 import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.entity.AccountBalanceSlot;
+import com.tamaspinter.instantpaymentapi.entity.Money;
 import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.repository.AccountBalanceSlotRepository;
 import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
 import com.tamaspinter.instantpaymentapi.repository.PaymentTransactionRepository;
+import com.tamaspinter.instantpaymentapi.service.PaymentMetrics;
+import com.tamaspinter.instantpaymentapi.service.PaymentRetryExecutor;
 import com.tamaspinter.instantpaymentapi.service.PaymentService;
+import com.tamaspinter.instantpaymentapi.service.ShardedBalances;
+import com.tamaspinter.instantpaymentapi.service.cache.AccountCache;
+import com.tamaspinter.instantpaymentapi.service.fx.FxRates;
+import com.tamaspinter.instantpaymentapi.service.notification.KafkaSendMonitor;
+import com.tamaspinter.instantpaymentapi.service.notification.KafkaTransactionNotifier;
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionEvent;
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionNotifier;
+import com.tamaspinter.instantpaymentapi.service.transfer.JpaTransferEngine;
+import com.tamaspinter.instantpaymentapi.service.transfer.TransferEngine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.persistence.EntityNotFoundException;
 import org.apache.kafka.common.errors.InvalidRequestException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -28,6 +62,8 @@ import static org.mockito.Mockito.*;
 
 public class PaymentServiceTest {
 
+    private static final Currency HUF = Currency.getInstance("HUF");
+
     @Mock
     private AccountRepository accountRepository;
 
@@ -35,17 +71,46 @@ public class PaymentServiceTest {
     private PaymentTransactionRepository paymentTransactionRepository;
 
     @Mock
-    private KafkaTemplate<String, String> kafkaTemplate;
+    private AccountBalanceSlotRepository balanceSlotRepository;
+
+    @Mock
+    private KafkaTemplate<String, TransactionEvent> kafkaTemplate;
+
+    @Mock
+    private AccountCache accountCache;
+
+    private ShardedBalances shardedBalances;
+
+    private SimpleMeterRegistry meterRegistry;
 
     private PaymentService paymentService;
 
+    @TempDir
+    private Path tempDir;
+
     @BeforeEach
-    void setup() {
+    void setup() throws IOException {
         MockitoAnnotations.openMocks(this);
+        shardedBalances = new ShardedBalances(accountRepository, balanceSlotRepository, 64);
+        Path ratesFile = Files.writeString(tempDir.resolve("fx-rates.properties"), "EUR/HUF=395.12345678\n");
+        FxRates fxRates = new FxRates(mock(JdbcTemplate.class), new SimpleMeterRegistry(), ratesFile, 600_000, Clock.systemUTC());
+        fxRates.refresh();
+        meterRegistry = new SimpleMeterRegistry();
+        PaymentMetrics paymentMetrics = new PaymentMetrics(meterRegistry);
+        when(kafkaTemplate.send(anyString(), anyString(), any(TransactionEvent.class))).thenReturn(new CompletableFuture<>());
         paymentService = new PaymentService(
+                new JpaTransferEngine(accountRepository, paymentTransactionRepository, shardedBalances, fxRates, paymentMetrics),
                 accountRepository,
                 paymentTransactionRepository,
-                kafkaTemplate
+                new KafkaTransactionNotifier(kafkaTemplate, new KafkaSendMonitor(new SimpleMeterRegistry())),
+                accountCache,
+                shardedBalances,
+                fxRates,
+                TransactionOperations.withoutTransaction(),
+                new PaymentRetryExecutor(new SimpleMeterRegistry(), 1, 0, 0),
+                paymentMetrics,
+                2,
+                10
         );
     }
 
@@ -54,9 +119,9 @@ public class PaymentServiceTest {
      */
     @Test
     void testProcessPaymentSuccess() {
-        Account fromAccount = new Account(new BigDecimal("100.00"));
+        Account fromAccount = new Account(Money.of("100.00"));
         fromAccount.setId(1L);
-        Account toAccount = new Account(new BigDecimal("50.00"));
+        Account toAccount = new Account(Money.of("50.00"));
         toAccount.setId(2L);
 
         when(accountRepository.findById(1L)).thenReturn(Optional.of(fromAccount));
@@ -64,16 +129,108 @@ public class PaymentServiceTest {
         when(accountRepository.save(any(Account.class)))
                 .thenAnswer(i -> i.getArguments()[0]);
         when(paymentTransactionRepository.save(any(PaymentTransaction.class)))
-                .thenAnswer(i -> i.getArguments()[0]);
+                .thenAnswer(i -> withId(i.getArgument(0)));
 
-        PaymentRequest request = new PaymentRequest(1L, 2L, new BigDecimal("25.00"));
+        PaymentRequest request = new PaymentRequest(1L, 2L, Money.of("25.00"));
 
         PaymentTransaction result = paymentService.processPayment(request);
 
         assertNotNull(result);
-        assertEquals(new BigDecimal("75.00"), fromAccount.getBalance());
-        assertEquals(new BigDecimal("75.00"), toAccount.getBalance());
-        verify(kafkaTemplate, times(1)).send(anyString(), anyString());
+        assertEquals(Money.of("75.00"), fromAccount.getBalance());
+        assertEquals(Money.of("75.00"), toAccount.getBalance());
+        verify(kafkaTemplate, times(1)).send(anyString(), anyString(), any(TransactionEvent.class));
+        verify(accountCache).evictAfterCommit(List.of(1L, 2L));
+        for (String phase : List.of("validation", "account_load", "balance_update", "ledger_insert", "notification")) {
+            assertEquals(1, meterRegistry.get("payment.phase").tag("phase", phase).timer().count(), phase);
+        }
+        // Without a transaction there is no commit to time
+        assertEquals(0, meterRegistry.get("payment.phase").tag("phase", "commit").timer().count());
+    }
+
+    /**
+     * A payment to a sharded account credits one of its balance slots instead of its row, and a payment from it
+     * that exceeds the row's balance first drains the slots into the row.
+     */
+    @Test
+    void testProcessPaymentWithShardedAccounts() {
+        Account fromAccount = new Account(Money.of("10.00"));
+        fromAccount.setId(1L);
+        fromAccount.setBalanceSlots(4);
+        Account toAccount = new Account(Money.of("50.00"));
+        toAccount.setId(2L);
+        toAccount.setBalanceSlots(4);
+
+        when(accountRepository.findById(1L)).thenReturn(Optional.of(fromAccount));
+        when(accountRepository.findById(2L)).thenReturn(Optional.of(toAccount));
+        when(accountRepository.save(any(Account.class)))
+                .thenAnswer(i -> i.getArguments()[0]);
+        when(paymentTransactionRepository.save(any(PaymentTransaction.class)))
+                .thenAnswer(i -> withId(i.getArgument(0)));
+        AccountBalanceSlot slot = new AccountBalanceSlot(1L, 0);
+        slot.setBalance(Money.of("20.00"));
+        when(balanceSlotRepository.findAllForUpdate(1L)).thenReturn(List.of(slot));
+        when(balanceSlotRepository.credit(eq(2L), anyInt(), any())).thenReturn(1);
+
+        paymentService.processPayment(new PaymentRequest(1L, 2L, Money.of("25.00")));
+
+        assertEquals(Money.of("5.00"), fromAccount.getBalance());
+        assertEquals(Money.of("50.00"), toAccount.getBalance());
+        verify(balanceSlotRepository).clearAll(1L);
+        verify(balanceSlotRepository).credit(eq(2L), intThat(i -> i >= 0 && i < 4), eq(Money.of("25.00")));
+        verify(accountRepository, never()).save(toAccount);
+    }
+
+    /**
+     * A payment to an account in another currency credits the amount converted at the loaded rate, rounded half to
+     * even, and records the conversion on the transaction.
+     */
+    @Test
+    void testProcessPaymentAcrossCurrencies() {
+        Account fromAccount = new Account(Money.of("100.00"));
+        fromAccount.setId(1L);
+        Account toAccount = new Account(Money.ZERO.withCurrency(HUF));
+        toAccount.setId(2L);
+
+        when(accountRepository.findById(1L)).thenReturn(Optional.of(fromAccount));
+        when(accountRepository.findById(2L)).thenReturn(Optional.of(toAccount));
+        when(accountRepository.save(any(Account.class)))
+                .thenAnswer(i -> i.getArguments()[0]);
+        when(paymentTransactionRepository.save(any(PaymentTransaction.class)))
+                .thenAnswer(i -> withId(i.getArgument(0)));
+
+        PaymentTransaction result = paymentService.processPayment(new PaymentRequest(1L, 2L, Money.of("10.01")));
+
+        // 10.01 * 395.12345678 = 3955.1858023678
+        Money credit = Money.of(new BigDecimal("3955.19"), HUF);
+        assertEquals(Money.of("89.99"), fromAccount.getBalance());
+        assertEquals(credit, toAccount.getBalance());
+        assertEquals(Money.DEFAULT_CURRENCY, result.getCurrency());
+        assertEquals(credit, result.getCreditAmount());
+        assertEquals(HUF, result.getCreditCurrency());
+        assertEquals(new BigDecimal("395.12345678"), result.getFxRate());
+    }
+
+    /**
+     * A payment is made in the currency of its source account.
+     */
+    @Test
+    void testProcessPaymentInAnotherCurrency() {
+        Account fromAccount = new Account(Money.of("100.00"));
+        fromAccount.setId(1L);
+        Account toAccount = new Account(Money.ZERO.withCurrency(HUF));
+        toAccount.setId(2L);
+
+        when(accountRepository.findById(1L)).thenReturn(Optional.of(fromAccount));
+        when(accountRepository.findById(2L)).thenReturn(Optional.of(toAccount));
+
+        PaymentRequest request = new PaymentRequest(1L, 2L, Money.of("25.00"), HUF);
+
+        Exception ex = assertThrows(InvalidRequestException.class, () ->
+                paymentService.processPayment(request)
+        );
+        assertEquals("Amount must be in the currency of the source account, EUR", ex.getMessage());
+        assertEquals(Money.of("100.00"), fromAccount.getBalance());
+        verify(paymentTransactionRepository, never()).save(any(PaymentTransaction.class));
     }
 
     /**
@@ -82,15 +239,15 @@ public class PaymentServiceTest {
      */
     @Test
     void testProcessPaymentInsufficientFunds() {
-        Account fromAccount = new Account(new BigDecimal("10.00"));
+        Account fromAccount = new Account(Money.of("10.00"));
         fromAccount.setId(1L);
-        Account toAccount = new Account(new BigDecimal("50.00"));
+        Account toAccount = new Account(Money.of("50.00"));
         toAccount.setId(2L);
 
         when(accountRepository.findById(1L)).thenReturn(Optional.of(fromAccount));
         when(accountRepository.findById(2L)).thenReturn(Optional.of(toAccount));
 
-        PaymentRequest request = new PaymentRequest(1L, 2L, new BigDecimal("25.00"));
+        PaymentRequest request = new PaymentRequest(1L, 2L, Money.of("25.00"));
 
         Exception ex = assertThrows(InvalidRequestException.class, () ->
                 paymentService.processPayment(request)
@@ -99,7 +256,7 @@ public class PaymentServiceTest {
 
         // Verify no transaction was saved and no Kafka message was sent
         verify(paymentTransactionRepository, never()).save(any(PaymentTransaction.class));
-        verify(kafkaTemplate, never()).send(anyString(), anyString());
+        verify(kafkaTemplate, never()).send(anyString(), anyString(), any(TransactionEvent.class));
     }
 
     /**
@@ -110,7 +267,7 @@ public class PaymentServiceTest {
         when(accountRepository.findById(1L)).thenReturn(Optional.empty());
         when(accountRepository.findById(2L)).thenReturn(Optional.of(new Account()));
 
-        PaymentRequest request = new PaymentRequest(1L, 2L, new BigDecimal("25.00"));
+        PaymentRequest request = new PaymentRequest(1L, 2L, Money.of("25.00"));
 
         Exception ex = assertThrows(EntityNotFoundException.class, () ->
                 paymentService.processPayment(request)
@@ -120,7 +277,7 @@ public class PaymentServiceTest {
         // Verify nothing else happened
         verify(accountRepository, never()).save(any(Account.class));
         verify(paymentTransactionRepository, never()).save(any(PaymentTransaction.class));
-        verify(kafkaTemplate, never()).send(anyString(), anyString());
+        verify(kafkaTemplate, never()).send(anyString(), anyString(), any(TransactionEvent.class));
     }
 
     /**
@@ -128,13 +285,13 @@ public class PaymentServiceTest {
      */
     @Test
     void testProcessPaymentToAccountNotFound() {
-        Account fromAccount = new Account(new BigDecimal("100.00"));
+        Account fromAccount = new Account(Money.of("100.00"));
         fromAccount.setId(1L);
 
         when(accountRepository.findById(1L)).thenReturn(Optional.of(fromAccount));
         when(accountRepository.findById(2L)).thenReturn(Optional.empty());
 
-        PaymentRequest request = new PaymentRequest(1L, 2L, new BigDecimal("25.00"));
+        PaymentRequest request = new PaymentRequest(1L, 2L, Money.of("25.00"));
 
         Exception ex = assertThrows(EntityNotFoundException.class, () ->
                 paymentService.processPayment(request)
@@ -142,7 +299,7 @@ public class PaymentServiceTest {
         assertEquals("To Account not found", ex.getMessage());
 
         verify(paymentTransactionRepository, never()).save(any(PaymentTransaction.class));
-        verify(kafkaTemplate, never()).send(anyString(), anyString());
+        verify(kafkaTemplate, never()).send(anyString(), anyString(), any(TransactionEvent.class));
     }
 
     /**
@@ -150,16 +307,16 @@ public class PaymentServiceTest {
      */
     @Test
     void testProcessPaymentZeroAmount() {
-        Account fromAccount = new Account(new BigDecimal("100.00"));
+        Account fromAccount = new Account(Money.of("100.00"));
         fromAccount.setId(1L);
-        Account toAccount = new Account(new BigDecimal("50.00"));
+        Account toAccount = new Account(Money.of("50.00"));
         toAccount.setId(2L);
 
         when(accountRepository.findById(1L)).thenReturn(Optional.of(fromAccount));
         when(accountRepository.findById(2L)).thenReturn(Optional.of(toAccount));
 
-        PaymentRequest zeroAmountRequest = new PaymentRequest(1L, 2L, BigDecimal.ZERO);
-        PaymentRequest negativeAmountRequest = new PaymentRequest(1L, 2L, BigDecimal.valueOf(-100.00));
+        PaymentRequest zeroAmountRequest = new PaymentRequest(1L, 2L, Money.ZERO);
+        PaymentRequest negativeAmountRequest = new PaymentRequest(1L, 2L, Money.of("-100.00"));
 
         Exception zeroAmountException = assertThrows(RuntimeException.class, () ->
                 paymentService.processPayment(zeroAmountRequest)
@@ -170,22 +327,22 @@ public class PaymentServiceTest {
         );
 
         // Balances unchanged
-        assertEquals(new BigDecimal("100.00"), fromAccount.getBalance());
-        assertEquals(new BigDecimal("50.00"), toAccount.getBalance());
+        assertEquals(Money.of("100.00"), fromAccount.getBalance());
+        assertEquals(Money.of("50.00"), toAccount.getBalance());
 
         assertEquals("Amount must be positive", zeroAmountException.getMessage());
         assertEquals("Amount must be positive", negativeAmountException.getMessage());
-        verify(kafkaTemplate, never()).send(anyString(), anyString());
+        verify(kafkaTemplate, never()).send(anyString(), anyString(), any(TransactionEvent.class));
     }
 
     /**
-     * Large amount (BigDecimal allows for arbitrary precision so overflow is not a concern)
+     * Large amount: balances are exact up to the largest long of minor units
      */
     @Test
     void testProcessPaymentLargeAmount() {
-        Account fromAccount = new Account(new BigDecimal("9999999999999999999999999999999.99"));
+        Account fromAccount = new Account(Money.of("92233720368547758.07"));
         fromAccount.setId(1L);
-        Account toAccount = new Account(new BigDecimal("50.00"));
+        Account toAccount = new Account(Money.of("50.00"));
         toAccount.setId(2L);
 
         when(accountRepository.findById(1L)).thenReturn(Optional.of(fromAccount));
@@ -193,18 +350,44 @@ public class PaymentServiceTest {
         when(accountRepository.save(any(Account.class)))
                 .thenAnswer(i -> i.getArguments()[0]);
         when(paymentTransactionRepository.save(any(PaymentTransaction.class)))
-                .thenAnswer(i -> i.getArguments()[0]);
+                .thenAnswer(i -> withId(i.getArgument(0)));
 
-        PaymentRequest request = new PaymentRequest(1L, 2L, new BigDecimal("5000000000000000000000000000000.00"));
+        PaymentRequest request = new PaymentRequest(1L, 2L, Money.of("50000000000000000.00"));
 
         PaymentTransaction result = paymentService.processPayment(request);
 
-        assertEquals(new BigDecimal("4999999999999999999999999999999.99"), fromAccount.getBalance());
-        assertEquals(new BigDecimal("5000000000000000000000000000050.00"), toAccount.getBalance());
+        assertEquals(Money.of("42233720368547758.07"), fromAccount.getBalance());
+        assertEquals(Money.of("50000000000000050.00"), toAccount.getBalance());
 
         assertNotNull(result);
-        assertEquals(new BigDecimal("5000000000000000000000000000000.00"), result.getAmount());
-        verify(kafkaTemplate, times(1)).send(anyString(), anyString());
+        assertEquals(Money.of("50000000000000000.00"), result.getAmount());
+        verify(kafkaTemplate, times(1)).send(anyString(), anyString(), any(TransactionEvent.class));
+    }
+
+    /**
+     * A credit that would overflow the target balance fails the payment instead of wrapping around
+     */
+    @Test
+    void testProcessPaymentBalanceOverflow() {
+        Account fromAccount = new Account(Money.of("100.00"));
+        fromAccount.setId(1L);
+        Account toAccount = new Account(Money.ofMinor(Long.MAX_VALUE));
+        toAccount.setId(2L);
+
+        when(accountRepository.findById(1L)).thenReturn(Optional.of(fromAccount));
+        when(accountRepository.findById(2L)).thenReturn(Optional.of(toAccount));
+        when(accountRepository.save(any(Account.class)))
+                .thenAnswer(i -> i.getArguments()[0]);
+
+        PaymentRequest request = new PaymentRequest(1L, 2L, Money.of("0.01"));
+
+        DataAccessResourceFailureException exception = assertThrows(DataAccessResourceFailureException.class,
+                () -> paymentService.processPayment(request));
+
+        assertInstanceOf(ArithmeticException.class, exception.getCause());
+        assertEquals(Money.ofMinor(Long.MAX_VALUE), toAccount.getBalance());
+        verify(paymentTransactionRepository, never()).save(any(PaymentTransaction.class));
+        verify(kafkaTemplate, never()).send(anyString(), anyString(), any(TransactionEvent.class));
     }
 
     /**
@@ -212,12 +395,12 @@ public class PaymentServiceTest {
      */
     @Test
     void testProcessPaymentSameAccount() {
-        Account sameAccount = new Account(new BigDecimal("100.00"));
+        Account sameAccount = new Account(Money.of("100.00"));
         sameAccount.setId(1L);
 
         when(accountRepository.findById(1L)).thenReturn(Optional.of(sameAccount));
 
-        PaymentRequest request = new PaymentRequest(1L, 1L, new BigDecimal("10.00"));
+        PaymentRequest request = new PaymentRequest(1L, 1L, Money.of("10.00"));
 
         Exception ex = assertThrows(InvalidRequestException.class, () ->
                 paymentService.processPayment(request)
@@ -225,7 +408,7 @@ public class PaymentServiceTest {
         assertEquals("Cannot transfer to the same account", ex.getMessage());
 
         verify(paymentTransactionRepository, never()).save(any(PaymentTransaction.class));
-        verify(kafkaTemplate, never()).send(anyString(), anyString());
+        verify(kafkaTemplate, never()).send(anyString(), anyString(), any(TransactionEvent.class));
     }
 
     /**
@@ -233,25 +416,27 @@ public class PaymentServiceTest {
      */
     @Test
     void testProcessPaymentKafkaMessageContent() {
-        Account fromAccount = new Account(new BigDecimal("200.00"));
+        Account fromAccount = new Account(Money.of("200.00"));
         fromAccount.setId(1L);
-        Account toAccount = new Account(new BigDecimal("300.00"));
+        Account toAccount = new Account(Money.of("300.00"));
         toAccount.setId(2L);
 
         when(accountRepository.findById(1L)).thenReturn(Optional.of(fromAccount));
         when(accountRepository.findById(2L)).thenReturn(Optional.of(toAccount));
         when(accountRepository.save(any(Account.class))).thenAnswer(i -> i.getArguments()[0]);
         when(paymentTransactionRepository.save(any(PaymentTransaction.class)))
-                .thenAnswer(i -> i.getArguments()[0]);
+                .thenAnswer(i -> withId(i.getArgument(0)));
 
-        PaymentRequest request = new PaymentRequest(1L, 2L, new BigDecimal("50.00"));
+        PaymentRequest request = new PaymentRequest(1L, 2L, Money.of("50.00"));
 
         paymentService.processPayment(request);
 
-        verify(kafkaTemplate, times(1)).send(anyString(), argThat((String msg) ->
-                msg.contains("Payment of 50.00") &&
-                        msg.contains("from account 1") &&
-                        msg.contains("to account 2 succeeded.")
+        // Keyed by the source account, with the payment in the binary event
+        verify(kafkaTemplate, times(1)).send(eq("transaction_notifications"), eq("1"), argThat((TransactionEvent event) ->
+                event.transactionId() == 1L &&
+                        event.fromAccountId() == 1L &&
+                        event.toAccountId() == 2L &&
+                        event.amount().equals(Money.of("50.00"))
         ));
     }
 
@@ -261,25 +446,25 @@ public class PaymentServiceTest {
      */
     @Test
     void testProcessPaymentExactBalance() {
-        Account fromAccount = new Account(new BigDecimal("25.00"));
+        Account fromAccount = new Account(Money.of("25.00"));
         fromAccount.setId(1L);
-        Account toAccount = new Account(new BigDecimal("100.00"));
+        Account toAccount = new Account(Money.of("100.00"));
         toAccount.setId(2L);
 
         when(accountRepository.findById(1L)).thenReturn(Optional.of(fromAccount));
         when(accountRepository.findById(2L)).thenReturn(Optional.of(toAccount));
         when(accountRepository.save(any(Account.class))).thenAnswer(i -> i.getArguments()[0]);
         when(paymentTransactionRepository.save(any(PaymentTransaction.class)))
-                .thenAnswer(i -> i.getArguments()[0]);
+                .thenAnswer(i -> withId(i.getArgument(0)));
 
-        PaymentRequest request = new PaymentRequest(1L, 2L, new BigDecimal("25.00"));
+        PaymentRequest request = new PaymentRequest(1L, 2L, Money.of("25.00"));
 
         PaymentTransaction result = paymentService.processPayment(request);
 
         assertNotNull(result);
-        assertEquals(new BigDecimal("0.00"), fromAccount.getBalance());
-        assertEquals(new BigDecimal("125.00"), toAccount.getBalance());
-        verify(kafkaTemplate, times(1)).send(anyString(), anyString());
+        assertEquals(Money.of("0.00"), fromAccount.getBalance());
+        assertEquals(Money.of("125.00"), toAccount.getBalance());
+        verify(kafkaTemplate, times(1)).send(anyString(), anyString(), any(TransactionEvent.class));
     }
 
     @Test
@@ -301,7 +486,7 @@ public class PaymentServiceTest {
      */
     @Test
     void testProcessPaymentRollbackOnUnexpectedError_fromAccount() {
-        final BigDecimal starterBalance = new BigDecimal("100.00");
+        final Money starterBalance = Money.of("100.00");
         Account fromAccount = new Account(starterBalance);
         fromAccount.setId(1L);
         Account toAccount = new Account(starterBalance);
@@ -314,23 +499,23 @@ public class PaymentServiceTest {
                 .thenReturn(Optional.of(toAccount));
 
         assertThrows(RuntimeException.class, () -> paymentService.processPayment(
-                new PaymentRequest(fromAccount.getId(), toAccount.getId(), BigDecimal.valueOf(25))
+                new PaymentRequest(fromAccount.getId(), toAccount.getId(), Money.of("25.00"))
         ));
 
         Account fromAccountAfter = accountRepository.findById(fromAccount.getId()).orElseThrow();
         Account toAccountAfter = accountRepository.findById(toAccount.getId()).orElseThrow();
 
-        assertEquals(starterBalance.multiply(BigDecimal.valueOf(2)), fromAccountAfter.getBalance().add(toAccountAfter.getBalance()));
+        assertEquals(starterBalance.plus(starterBalance), fromAccountAfter.getBalance().plus(toAccountAfter.getBalance()));
         assertEquals(starterBalance, fromAccountAfter.getBalance());
         assertEquals(starterBalance, toAccountAfter.getBalance());
 
         verify(paymentTransactionRepository, org.mockito.Mockito.never()).save(any(PaymentTransaction.class));
-        verify(kafkaTemplate, never()).send(anyString(), anyString());
+        verify(kafkaTemplate, never()).send(anyString(), anyString(), any(TransactionEvent.class));
     }
 
     @Test
     void testProcessPaymentRollbackOnUnexpectedError_toAccount() {
-        final BigDecimal starterBalance = new BigDecimal("100.00");
+        final Money starterBalance = Money.of("100.00");
         Account fromAccount = new Account(starterBalance);
         fromAccount.setId(1L);
         Account toAccount = new Account(starterBalance);
@@ -342,36 +527,36 @@ public class PaymentServiceTest {
                 .thenReturn(Optional.of(toAccount));
 
         assertThrows(RuntimeException.class, () -> paymentService.processPayment(
-                new PaymentRequest(fromAccount.getId(), toAccount.getId(), BigDecimal.valueOf(25))
+                new PaymentRequest(fromAccount.getId(), toAccount.getId(), Money.of("25.00"))
         ));
 
         Account fromAccountAfter = accountRepository.findById(fromAccount.getId()).orElseThrow();
         Account toAccountAfter = accountRepository.findById(toAccount.getId()).orElseThrow();
 
-        assertEquals(starterBalance.multiply(BigDecimal.valueOf(2)), fromAccountAfter.getBalance().add(toAccountAfter.getBalance()));
+        assertEquals(starterBalance.plus(starterBalance), fromAccountAfter.getBalance().plus(toAccountAfter.getBalance()));
         assertEquals(starterBalance, fromAccountAfter.getBalance());
         assertEquals(starterBalance, toAccountAfter.getBalance());
 
         verify(paymentTransactionRepository, org.mockito.Mockito.never()).save(any(PaymentTransaction.class));
-        verify(kafkaTemplate, never()).send(anyString(), anyString());
+        verify(kafkaTemplate, never()).send(anyString(), anyString(), any(TransactionEvent.class));
     }
 
     @Test
     void testDoubleSpendingConcurrently() throws Exception {
-        Account fromAccount = new Account(new BigDecimal("100.00"));
+        Account fromAccount = new Account(Money.of("100.00"));
         fromAccount.setId(1L);
-        Account toAccount = new Account(new BigDecimal("0.00"));
+        Account toAccount = new Account(Money.of("0.00"));
         toAccount.setId(2L);
 
         when(accountRepository.findById(1L)).thenReturn(Optional.of(fromAccount));
         when(accountRepository.findById(2L)).thenReturn(Optional.of(toAccount));
         when(accountRepository.save(any(Account.class))).thenAnswer(i -> i.getArguments()[0]);
         when(paymentTransactionRepository.save(any(PaymentTransaction.class)))
-                .thenAnswer(i -> i.getArguments()[0]);
+                .thenAnswer(i -> withId(i.getArgument(0)));
 
-        PaymentRequest request1 = new PaymentRequest(1L, 2L, new BigDecimal("9.00"));
-        PaymentRequest request2 = new PaymentRequest(1L, 2L, new BigDecimal("51.00"));
-        PaymentRequest request3 = new PaymentRequest(1L, 2L, new BigDecimal("51.00"));
+        PaymentRequest request1 = new PaymentRequest(1L, 2L, Money.of("9.00"));
+        PaymentRequest request2 = new PaymentRequest(1L, 2L, Money.of("51.00"));
+        PaymentRequest request3 = new PaymentRequest(1L, 2L, Money.of("51.00"));
 
         Runnable task1 = () -> paymentService.processPayment(request1);
         Runnable task2 = () -> paymentService.processPayment(request2);
@@ -400,9 +585,249 @@ public class PaymentServiceTest {
         }
         executor.shutdown();
 
-        assertEquals(new BigDecimal("40.00"), fromAccount.getBalance());
-        assertEquals(new BigDecimal("60.00"), toAccount.getBalance());
+        assertEquals(Money.of("40.00"), fromAccount.getBalance());
+        assertEquals(Money.of("60.00"), toAccount.getBalance());
         assertTrue(ex1 == null && (ex2 != null || ex3 != null), "At least one transaction should have failed");
-        verify(kafkaTemplate, times(2)).send(anyString(), anyString());
+        verify(kafkaTemplate, times(2)).send(anyString(), anyString(), any(TransactionEvent.class));
+    }
+
+    /**
+     * Batch with valid, invalid, unknown-account and insufficient-balance payments.
+     * Invalid payments are rejected up front, the others are applied in order across chunks of 2.
+     */
+    @Test
+    void testProcessBatchPerItemResults() {
+        Account account1 = new Account(Money.of("100.00"));
+        account1.setId(1L);
+        Account account2 = new Account(Money.of("0.00"));
+        account2.setId(2L);
+
+        when(accountRepository.findAllById(any())).thenReturn(List.of(account1, account2));
+        doAnswer(i -> {
+            List<PaymentTransaction> transactions = i.getArgument(0);
+            long id = 100;
+            for (PaymentTransaction transaction : transactions) {
+                transaction.setId(id++);
+            }
+            return null;
+        }).when(paymentTransactionRepository).insertAll(anyList());
+
+        List<PaymentBatchItemResult> results = paymentService.processBatch(Arrays.asList(
+                new PaymentRequest(1L, 2L, Money.of("60.00")),
+                new PaymentRequest(1L, 1L, Money.of("1.00")),
+                new PaymentRequest(1L, 2L, Money.of("60.00")),
+                new PaymentRequest(2L, 3L, Money.of("10.00")),
+                new PaymentRequest(2L, 1L, Money.ZERO)
+        ));
+
+        assertEquals(5, results.size());
+        assertEquals(Status.SUCCEEDED, results.get(0).status());
+        assertEquals(100L, results.get(0).transactionId());
+        assertEquals(Status.REJECTED, results.get(1).status());
+        assertEquals("Cannot transfer to the same account", results.get(1).error());
+        assertEquals(Status.REJECTED, results.get(2).status());
+        assertEquals("Insufficient balance", results.get(2).error());
+        assertEquals(Status.NOT_FOUND, results.get(3).status());
+        assertEquals("To Account not found", results.get(3).error());
+        assertEquals(Status.REJECTED, results.get(4).status());
+        assertEquals("Amount must be positive", results.get(4).error());
+
+        assertEquals(Money.of("40.00"), account1.getBalance());
+        assertEquals(Money.of("60.00"), account2.getBalance());
+        // Three valid payments in chunks of two
+        verify(accountRepository, times(2)).findAllById(any());
+        verify(paymentTransactionRepository, never()).save(any(PaymentTransaction.class));
+        verify(kafkaTemplate, times(1)).send(anyString(), anyString(), any(TransactionEvent.class));
+    }
+
+    /**
+     * A database error fails only the payments of the affected chunk.
+     */
+    @Test
+    void testProcessBatchChunkFailure() {
+        Account account1 = new Account(Money.of("100.00"));
+        account1.setId(1L);
+        Account account2 = new Account(Money.of("0.00"));
+        account2.setId(2L);
+
+        when(accountRepository.findAllById(any())).thenReturn(List.of(account1, account2));
+        doThrow(new DataAccessResourceFailureException("Simulated DB error"))
+                .doAnswer(i -> {
+                    List<PaymentTransaction> transactions = i.getArgument(0);
+                    transactions.forEach(PaymentServiceTest::withId);
+                    return null;
+                })
+                .when(paymentTransactionRepository).insertAll(anyList());
+
+        List<PaymentBatchItemResult> results = paymentService.processBatch(Arrays.asList(
+                new PaymentRequest(1L, 2L, Money.of("10.00")),
+                new PaymentRequest(1L, 2L, Money.of("10.00")),
+                new PaymentRequest(1L, 2L, Money.of("10.00"))
+        ));
+
+        assertEquals(Status.FAILED, results.get(0).status());
+        assertEquals("Database error", results.get(0).error());
+        assertEquals(Status.FAILED, results.get(1).status());
+        assertEquals(Status.SUCCEEDED, results.get(2).status());
+        verify(kafkaTemplate, times(1)).send(anyString(), anyString(), any(TransactionEvent.class));
+    }
+
+    /**
+     * An engine that wrote part of a payment before rejecting it, like the {@code sql} engine's debit before the target
+     * account is checked, must not have that write committed with the rest of the chunk.
+     */
+    @Test
+    void testRejectedChunkPaymentLeavesNoPartialWrite() {
+        EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .build();
+        try {
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+            jdbcTemplate.execute("CREATE TABLE account (id BIGINT PRIMARY KEY, balance NUMERIC(38, 2) NOT NULL)");
+            jdbcTemplate.update("INSERT INTO account (id, balance) VALUES (1, 100.00), (2, 0.00)");
+            TransferEngine debitingFirstEngine = new TransferEngine() {
+                @Override
+                public PaymentTransaction transfer(Long fromAccountId, Long toAccountId, Money amount, String idempotencyKey) {
+                    jdbcTemplate.update("UPDATE account SET balance = balance - ? WHERE id = ?", amount.toBigDecimal(), fromAccountId);
+                    if (jdbcTemplate.update("UPDATE account SET balance = balance + ? WHERE id = ?", amount.toBigDecimal(), toAccountId) == 0) {
+                        throw new EntityNotFoundException("To Account not found");
+                    }
+                    return withId(new PaymentTransaction(fromAccountId, toAccountId, amount));
+                }
+            };
+            paymentService = new PaymentService(
+                    debitingFirstEngine,
+                    accountRepository,
+                    paymentTransactionRepository,
+                    mock(TransactionNotifier.class),
+                    accountCache,
+                    shardedBalances,
+                    mock(FxRates.class),
+                    new TransactionTemplate(new DataSourceTransactionManager(database)),
+                    new PaymentRetryExecutor(new SimpleMeterRegistry(), 1, 0, 0),
+                    new PaymentMetrics(meterRegistry),
+                    10,
+                    10
+            );
+
+            List<PaymentBatchItemResult> results = paymentService.processBatch(Arrays.asList(
+                    new PaymentRequest(1L, 2L, Money.of("10.00")),
+                    new PaymentRequest(1L, 3L, Money.of("20.00")),
+                    new PaymentRequest(1L, 2L, Money.of("30.00"))
+            ));
+
+            assertEquals(List.of(Status.SUCCEEDED, Status.NOT_FOUND, Status.SUCCEEDED),
+                    results.stream().map(PaymentBatchItemResult::status).toList());
+            assertEquals(0, new BigDecimal("60.00").compareTo(
+                    jdbcTemplate.queryForObject("SELECT balance FROM account WHERE id = 1", BigDecimal.class)));
+            assertEquals(0, new BigDecimal("40.00").compareTo(
+                    jdbcTemplate.queryForObject("SELECT balance FROM account WHERE id = 2", BigDecimal.class)));
+        } finally {
+            database.shutdown();
+        }
+    }
+
+    /**
+     * With an engine that commits on return a payment has succeeded once transferred: storing its notification
+     * failing afterwards does not fail it, and a failing payment of a batch only fails itself.
+     */
+    @Test
+    void testCommittedPaymentsSurviveNotificationFailure() {
+        TransactionNotifier failingNotifier = mock(TransactionNotifier.class);
+        doThrow(new DataAccessResourceFailureException("Simulated outbox error")).when(failingNotifier).publishAll(anyList());
+        TransferEngine committingEngine = mock(TransferEngine.class);
+        when(committingEngine.commitsOnReturn()).thenReturn(true);
+        when(committingEngine.transfer(anyLong(), anyLong(), any(Money.class), any()))
+                .thenAnswer(i -> withId(new PaymentTransaction(i.getArgument(0), i.getArgument(1), i.getArgument(2))));
+        when(committingEngine.transfer(anyLong(), anyLong(), any(Money.class)))
+                .thenAnswer(i -> withId(new PaymentTransaction(i.getArgument(0), i.getArgument(1), i.getArgument(2))))
+                .thenThrow(new DataAccessResourceFailureException("Simulated journal error"))
+                .thenAnswer(i -> withId(new PaymentTransaction(i.getArgument(0), i.getArgument(1), i.getArgument(2))));
+        paymentService = new PaymentService(
+                committingEngine,
+                accountRepository,
+                paymentTransactionRepository,
+                failingNotifier,
+                accountCache,
+                shardedBalances,
+                mock(FxRates.class),
+                TransactionOperations.withoutTransaction(),
+                new PaymentRetryExecutor(new SimpleMeterRegistry(), 1, 0, 0),
+                new PaymentMetrics(meterRegistry),
+                10,
+                10
+        );
+
+        PaymentTransaction transaction = paymentService.processPayment(new PaymentRequest(1L, 2L, Money.of("10.00")), "key-1");
+        assertNotNull(transaction.getId());
+
+        List<PaymentBatchItemResult> results = paymentService.processBatch(Arrays.asList(
+                new PaymentRequest(1L, 2L, Money.of("10.00")),
+                new PaymentRequest(1L, 2L, Money.of("10.00")),
+                new PaymentRequest(1L, 2L, Money.of("10.00"))
+        ));
+
+        assertEquals(Status.SUCCEEDED, results.get(0).status());
+        assertEquals(Status.FAILED, results.get(1).status());
+        assertEquals("Database error", results.get(1).error());
+        assertEquals(Status.SUCCEEDED, results.get(2).status());
+        verify(failingNotifier, times(2)).publishAll(anyList());
+        verify(accountCache, never()).evictAfterCommit(any());
+    }
+
+    /**
+     * Batch payments are converted like single ones; a pair without a rate and an amount in the wrong currency are
+     * rejected per item.
+     */
+    @Test
+    void testProcessBatchAcrossCurrencies() {
+        Account account1 = new Account(Money.of("100.00"));
+        account1.setId(1L);
+        Account account2 = new Account(Money.ZERO.withCurrency(HUF));
+        account2.setId(2L);
+        Account account3 = new Account(Money.ZERO.withCurrency(Currency.getInstance("USD")));
+        account3.setId(3L);
+
+        when(accountRepository.findAllById(any())).thenReturn(List.of(account1, account2, account3));
+        doAnswer(i -> {
+            List<PaymentTransaction> transactions = i.getArgument(0);
+            transactions.forEach(PaymentServiceTest::withId);
+            return null;
+        }).when(paymentTransactionRepository).insertAll(anyList());
+
+        List<PaymentBatchItemResult> results = paymentService.processBatch(Arrays.asList(
+                new PaymentRequest(1L, 2L, Money.of("10.00")),
+                new PaymentRequest(1L, 3L, Money.of("10.00")),
+                new PaymentRequest(1L, 2L, Money.of("10.00"), HUF)
+        ));
+
+        assertEquals(Status.SUCCEEDED, results.get(0).status());
+        assertEquals(Status.REJECTED, results.get(1).status());
+        assertEquals("No exchange rate from EUR to USD", results.get(1).error());
+        assertEquals(Status.REJECTED, results.get(2).status());
+        assertEquals("Amount must be in the currency of the source account, EUR", results.get(2).error());
+        assertEquals(Money.of("90.00"), account1.getBalance());
+        assertEquals(Money.of(new BigDecimal("3951.23"), HUF), account2.getBalance());
+        assertTrue(account3.getBalance().isZero());
+    }
+
+    @Test
+    void testProcessBatchEmptyOrTooLarge() {
+        Exception empty = assertThrows(InvalidRequestException.class, () ->
+                paymentService.processBatch(List.of())
+        );
+        assertEquals("Payment batch cannot be empty", empty.getMessage());
+
+        PaymentRequest request = new PaymentRequest(1L, 2L, Money.of("1.00"));
+        assertThrows(InvalidRequestException.class, () ->
+                paymentService.processBatch(Collections.nCopies(11, request))
+        );
+        verify(accountRepository, never()).findAllById(any());
+    }
+
+    private static PaymentTransaction withId(PaymentTransaction transaction) {
+        transaction.setId(1L);
+        return transaction;
     }
 }
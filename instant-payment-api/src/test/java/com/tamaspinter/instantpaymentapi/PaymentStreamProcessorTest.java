@@ -0,0 +1,228 @@
+package com.tamaspinter.instantpaymentapi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tamaspinter.instantpaymentapi.dto.PaymentBatchItemResult;
+import com.tamaspinter.instantpaymentapi.dto.PaymentRequest;
+import com.tamaspinter.instantpaymentapi.service.PaymentService;
+import com.tamaspinter.instantpaymentapi.service.PaymentStreamProcessor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+public class PaymentStreamProcessorTest {
+
+    @Mock
+    private PaymentService paymentService;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private PaymentStreamProcessor streamProcessor;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+        streamProcessor = new PaymentStreamProcessor(paymentService, objectMapper, new SimpleAsyncTaskExecutor(), 2, 1, 64);
+
+        // Every payment succeeds, with its stream position as the transaction ID
+        when(paymentService.processBatch(anyList(), anyInt())).thenAnswer(i -> {
+            List<PaymentRequest> requests = i.getArgument(0);
+            int firstIndex = i.getArgument(1);
+            List<PaymentBatchItemResult> results = new ArrayList<>();
+            for (int n = 0; n < requests.size(); n++) {
+                results.add(PaymentBatchItemResult.succeeded(firstIndex + n, (long) firstIndex + n));
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Payments are committed in chunks and answered in order, malformed lines are rejected individually.
+     */
+    @Test
+    void testStreamInChunks() throws IOException {
+        String body = """
+                {"fromAccountId":1,"toAccountId":2,"amount":10.00}
+                {"fromAccountId":1,"toAccountId":2,"amount":11.00}
+
+                not json
+                {"fromAccountId":2,"toAccountId":1,"amount":12.00}
+                {"fromAccountId":2,"toAccountId":1,"amount":13.00}
+                """;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long processed = streamProcessor.process(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), out);
+
+        assertEquals(5, processed);
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(5, lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            PaymentBatchItemResult result = objectMapper.readValue(lines[i], PaymentBatchItemResult.class);
+            assertEquals(i, result.index());
+            if (i == 2) {
+                assertEquals(PaymentBatchItemResult.Status.REJECTED, result.status());
+                assertEquals("Malformed payment request", result.error());
+            } else {
+                assertEquals(PaymentBatchItemResult.Status.SUCCEEDED, result.status());
+            }
+        }
+        verify(paymentService).processBatch(anyList(), eq(0));
+        verify(paymentService).processBatch(anyList(), eq(2));
+        verify(paymentService).processBatch(anyList(), eq(4));
+        verify(paymentService, never()).processBatch(anyList());
+    }
+
+    /**
+     * A line longer than the limit is rejected like a malformed one, without being kept; the rest of the stream,
+     * with Windows line endings too, is processed.
+     */
+    @Test
+    void testOverlongLineIsMalformed() throws IOException {
+        String body = "{\"fromAccountId\":1,\"toAccountId\":2,\"amount\":10.00}\r\n"
+                + "x".repeat(100_000) + "\r\n"
+                + "{\"fromAccountId\":2,\"toAccountId\":1,\"amount\":12.00}";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(3, streamProcessor.process(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), out));
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(PaymentBatchItemResult.Status.SUCCEEDED, objectMapper.readValue(lines[0], PaymentBatchItemResult.class).status());
+        PaymentBatchItemResult overlong = objectMapper.readValue(lines[1], PaymentBatchItemResult.class);
+        assertEquals(PaymentBatchItemResult.Status.REJECTED, overlong.status());
+        assertEquals("Malformed payment request", overlong.error());
+        assertEquals(PaymentBatchItemResult.Status.SUCCEEDED, objectMapper.readValue(lines[2], PaymentBatchItemResult.class).status());
+    }
+
+    /**
+     * An unexpected error of the parser reaches the calling thread instead of leaving it waiting for the next chunk.
+     */
+    @Test
+    void testParserErrorIsReported() {
+        InputStream body = new InputStream() {
+            @Override
+            public int read() {
+                throw new IllegalStateException("Decoder bug");
+            }
+        };
+
+        IllegalStateException e = assertTimeoutPreemptively(Duration.ofSeconds(5), () ->
+                assertThrows(IllegalStateException.class, () -> streamProcessor.process(body, new ByteArrayOutputStream())));
+        assertEquals("Decoder bug", e.getCause().getMessage());
+        verifyNoInteractions(paymentService);
+    }
+
+    @Test
+    void testEmptyStream() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(0, streamProcessor.process(new ByteArrayInputStream(new byte[0]), out));
+        assertEquals(0, out.size());
+        verifyNoInteractions(paymentService);
+    }
+
+    /**
+     * A large generated stream that never exists in memory as a whole is processed chunk by chunk.
+     */
+    @Test
+    void testLargeStreamIsNotMaterialized() throws IOException {
+        int payments = 100_000;
+        byte[] line = "{\"fromAccountId\":1,\"toAccountId\":2,\"amount\":1.00}\n".getBytes(StandardCharsets.UTF_8);
+        InputStream body = new InputStream() {
+            private long position;
+
+            @Override
+            public int read() {
+                if (position >= (long) payments * line.length) {
+                    return -1;
+                }
+                return line[(int) (position++ % line.length)];
+            }
+        };
+        streamProcessor = new PaymentStreamProcessor(paymentService, objectMapper, new SimpleAsyncTaskExecutor(), 500, 2, 4096);
+        CountingOutputStream out = new CountingOutputStream();
+
+        assertEquals(payments, streamProcessor.process(body, out));
+        assertEquals(payments, out.lines);
+        verify(paymentService, times(payments / 500)).processBatch(anyList(), anyInt());
+    }
+
+    /**
+     * When a commit fails, the body is closed, so a parser waiting for a slow client gives its thread back.
+     */
+    @Test
+    void testFailureClosesBody() throws InterruptedException {
+        CountDownLatch closed = new CountDownLatch(1);
+        byte[] first = "{\"fromAccountId\":1,\"toAccountId\":2,\"amount\":1.00}\n".repeat(2).getBytes(StandardCharsets.UTF_8);
+        InputStream body = new InputStream() {
+            private int position;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0];
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (position < first.length) {
+                    int n = Math.min(len, first.length - position);
+                    System.arraycopy(first, position, b, off, n);
+                    position += n;
+                    return n;
+                }
+                try {
+                    // A client that stops sending after the first chunk
+                    closed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("Stream closed");
+            }
+
+            @Override
+            public void close() {
+                closed.countDown();
+            }
+        };
+        when(paymentService.processBatch(anyList(), anyInt())).thenThrow(new IllegalStateException("Database error"));
+
+        assertThrows(IllegalStateException.class, () -> streamProcessor.process(body, new ByteArrayOutputStream()));
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long lines;
+
+        @Override
+        public void write(int b) {
+            if (b == '\n') {
+                lines++;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+    }
+}
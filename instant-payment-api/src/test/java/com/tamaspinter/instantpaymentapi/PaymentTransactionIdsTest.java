@@ -0,0 +1,33 @@
+package com.tamaspinter.instantpaymentapi;
+
+import com.tamaspinter.instantpaymentapi.entity.IdAllocation;
+import com.tamaspinter.instantpaymentapi.repository.PaymentTransactionIds;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class PaymentTransactionIdsTest {
+
+    /**
+     * One {@code nextval} serves a whole block, and the next block starts wherever the sequence says.
+     */
+    @Test
+    void testTakesOneSequenceValuePerBlock() {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.queryForObject(anyString(), eq(Long.class))).thenReturn(101L, 1001L);
+        PaymentTransactionIds ids = new PaymentTransactionIds(jdbcTemplate);
+
+        for (int i = 0; i < IdAllocation.BLOCK_SIZE; i++) {
+            assertEquals(101L + i, ids.next());
+        }
+        verify(jdbcTemplate, times(1)).queryForObject(anyString(), eq(Long.class));
+
+        assertEquals(1001L, ids.next());
+        assertEquals(1002L, ids.next());
+        verify(jdbcTemplate, times(2)).queryForObject(anyString(), eq(Long.class));
+    }
+}
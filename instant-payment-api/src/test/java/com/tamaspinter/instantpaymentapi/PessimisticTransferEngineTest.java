@@ -0,0 +1,152 @@
+package com.tamaspinter.instantpaymentapi;
+
+import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.repository.AccountBalanceSlotRepository;
+import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
+import com.tamaspinter.instantpaymentapi.repository.PaymentTransactionRepository;
+import com.tamaspinter.instantpaymentapi.service.PaymentMetrics;
+import com.tamaspinter.instantpaymentapi.service.ShardedBalances;
+import com.tamaspinter.instantpaymentapi.service.fx.FxRates;
+import com.tamaspinter.instantpaymentapi.service.transfer.PessimisticTransferEngine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityNotFoundException;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Clock;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+public class PessimisticTransferEngineTest {
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Mock
+    private PaymentTransactionRepository paymentTransactionRepository;
+
+    @Mock
+    private AccountBalanceSlotRepository balanceSlotRepository;
+
+    private ShardedBalances shardedBalances;
+
+    private FxRates fxRates;
+
+    private PessimisticTransferEngine transferEngine;
+
+    private Account account1;
+    private Account account2;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+        shardedBalances = new ShardedBalances(accountRepository, balanceSlotRepository, 64);
+        fxRates = new FxRates(mock(JdbcTemplate.class), new SimpleMeterRegistry(), null, 600_000, Clock.systemUTC());
+        transferEngine = new PessimisticTransferEngine(accountRepository, paymentTransactionRepository, shardedBalances,
+                fxRates, new PaymentMetrics(new SimpleMeterRegistry()), 1500);
+
+        account1 = new Account(Money.of("100.00"));
+        account1.setId(1L);
+        account2 = new Account(Money.of("100.00"));
+        account2.setId(2L);
+
+        when(accountRepository.findByIdForUpdate(1L)).thenReturn(Optional.of(account1));
+        when(accountRepository.findByIdForUpdate(2L)).thenReturn(Optional.of(account2));
+        when(accountRepository.save(any(Account.class))).thenAnswer(i -> i.getArguments()[0]);
+        when(paymentTransactionRepository.save(any(PaymentTransaction.class)))
+                .thenAnswer(i -> i.getArguments()[0]);
+    }
+
+    /**
+     * The lock timeout is applied first, then the lower ID is locked before the higher one.
+     */
+    @Test
+    void testLocksInAscendingOrderForForwardTransfer() {
+        transferEngine.transfer(1L, 2L, Money.of("10.00"));
+
+        InOrder inOrder = inOrder(accountRepository);
+        inOrder.verify(accountRepository).setLocalLockTimeout("1500ms");
+        inOrder.verify(accountRepository).findByIdForUpdate(1L);
+        inOrder.verify(accountRepository).findByIdForUpdate(2L);
+        verify(accountRepository, never()).findById(any());
+    }
+
+    /**
+     * A transfer in the opposite direction must take the locks in the same order.
+     */
+    @Test
+    void testLocksInAscendingOrderForReverseTransfer() {
+        transferEngine.transfer(2L, 1L, Money.of("10.00"));
+
+        InOrder inOrder = inOrder(accountRepository);
+        inOrder.verify(accountRepository).findByIdForUpdate(1L);
+        inOrder.verify(accountRepository).findByIdForUpdate(2L);
+
+        assertEquals(Money.of("110.00"), account1.getBalance());
+        assertEquals(Money.of("90.00"), account2.getBalance());
+    }
+
+    /**
+     * Only the source is locked when the target is sharded; the target's credit goes to a balance slot.
+     */
+    @Test
+    void testShardedTargetIsNotLocked() {
+        account1.setBalanceSlots(8);
+        when(accountRepository.findBalanceSlotsById(1L)).thenReturn(Optional.of(8));
+        when(accountRepository.findById(1L)).thenReturn(Optional.of(account1));
+        when(balanceSlotRepository.credit(eq(1L), anyInt(), any())).thenReturn(1);
+
+        transferEngine.transfer(2L, 1L, Money.of("10.00"));
+
+        verify(accountRepository).findByIdForUpdate(2L);
+        verify(accountRepository, never()).findByIdForUpdate(1L);
+        verify(balanceSlotRepository).credit(eq(1L), anyInt(), eq(Money.of("10.00")));
+        assertEquals(Money.of("100.00"), account1.getBalance());
+        assertEquals(Money.of("90.00"), account2.getBalance());
+    }
+
+    @Test
+    void testNoLockTimeoutWhenDisabled() {
+        transferEngine = new PessimisticTransferEngine(accountRepository, paymentTransactionRepository, shardedBalances,
+                fxRates, new PaymentMetrics(new SimpleMeterRegistry()), 0);
+
+        transferEngine.transfer(1L, 2L, Money.of("10.00"));
+
+        verify(accountRepository, never()).setLocalLockTimeout(any());
+    }
+
+    @Test
+    void testMissingAccountsKeepTheirErrorMessages() {
+        when(accountRepository.findByIdForUpdate(2L)).thenReturn(Optional.empty());
+
+        Exception fromEx = assertThrows(EntityNotFoundException.class, () ->
+                transferEngine.transfer(2L, 1L, Money.of("10.00"))
+        );
+        assertEquals("From Account not found", fromEx.getMessage());
+
+        Exception toEx = assertThrows(EntityNotFoundException.class, () ->
+                transferEngine.transfer(1L, 2L, Money.of("10.00"))
+        );
+        assertEquals("To Account not found", toEx.getMessage());
+    }
+
+    @Test
+    void testInsufficientBalanceUnderLock() {
+        Exception ex = assertThrows(InvalidRequestException.class, () ->
+                transferEngine.transfer(2L, 1L, Money.of("100.01"))
+        );
+        assertEquals("Insufficient balance", ex.getMessage());
+        verify(paymentTransactionRepository, never()).save(any(PaymentTransaction.class));
+    }
+}
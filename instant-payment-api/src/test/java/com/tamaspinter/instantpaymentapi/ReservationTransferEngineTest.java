@@ -0,0 +1,259 @@
+package com.tamaspinter.instantpaymentapi;
+
+import com.tamaspinter.instantpaymentapi.dto.PaymentBatchItemResult;
+import com.tamaspinter.instantpaymentapi.dto.PaymentBatchItemResult.Status;
+import com.tamaspinter.instantpaymentapi.dto.PaymentRequest;
+import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentHold;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.repository.AccountBalanceSlotRepository;
+import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
+import com.tamaspinter.instantpaymentapi.repository.PaymentHoldRepository;
+import com.tamaspinter.instantpaymentapi.repository.PaymentTransactionRepository;
+import com.tamaspinter.instantpaymentapi.service.PaymentMetrics;
+import com.tamaspinter.instantpaymentapi.service.PaymentRetryExecutor;
+import com.tamaspinter.instantpaymentapi.service.PaymentService;
+import com.tamaspinter.instantpaymentapi.service.ShardedBalances;
+import com.tamaspinter.instantpaymentapi.service.cache.AccountCache;
+import com.tamaspinter.instantpaymentapi.service.fx.FxRates;
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionNotifier;
+import com.tamaspinter.instantpaymentapi.service.transfer.PaymentHoldSweeper;
+import com.tamaspinter.instantpaymentapi.service.transfer.ReservationTransferEngine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityNotFoundException;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class ReservationTransferEngineTest {
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Mock
+    private PaymentTransactionRepository paymentTransactionRepository;
+
+    @Mock
+    private PaymentHoldRepository paymentHoldRepository;
+
+    @Mock
+    private AccountBalanceSlotRepository balanceSlotRepository;
+
+    @Mock
+    private TransactionNotifier transactionNotifier;
+
+    @Mock
+    private AccountCache accountCache;
+
+    private ReservationTransferEngine transferEngine;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+        transferEngine = new ReservationTransferEngine(accountRepository, paymentTransactionRepository, paymentHoldRepository,
+                new ShardedBalances(accountRepository, balanceSlotRepository, 64), TransactionOperations.withoutTransaction(), 30000);
+        when(paymentHoldRepository.save(any(PaymentHold.class))).thenAnswer(i -> {
+            PaymentHold hold = i.getArgument(0);
+            hold.setId(7L);
+            return hold;
+        });
+        when(paymentTransactionRepository.save(any(PaymentTransaction.class))).thenAnswer(i -> {
+            PaymentTransaction transaction = i.getArgument(0);
+            transaction.setId(42L);
+            return transaction;
+        });
+    }
+
+    /**
+     * The hold only touches the source account: it is debited with a balance-checked update.
+     */
+    @Test
+    void testReserveDebitsSourceIntoHold() {
+        when(accountRepository.findCurrencyById(2L)).thenReturn(Optional.of(Money.DEFAULT_CURRENCY));
+        when(accountRepository.debitIfCovered(1L, Money.of("25.00"), Money.DEFAULT_CURRENCY)).thenReturn(1);
+
+        PaymentHold hold = transferEngine.reserve(1L, 2L, Money.of("25.00"));
+
+        assertEquals(7L, hold.getId());
+        assertEquals(PaymentHold.Status.HELD, hold.getStatus());
+        assertEquals(Money.of("25.00"), hold.getAmount());
+        assertTrue(hold.getExpiresAt().isAfter(LocalDateTime.now()));
+        verify(accountRepository, never()).addToBalance(anyLong(), any());
+        verify(accountRepository, never()).findByIdForUpdate(anyLong());
+    }
+
+    @Test
+    void testReserveRejectsInsufficientBalance() {
+        when(accountRepository.findCurrencyById(anyLong())).thenReturn(Optional.of(Money.DEFAULT_CURRENCY));
+        when(accountRepository.debitIfCovered(anyLong(), any(), any())).thenReturn(0);
+        when(accountRepository.findBalanceSlotsById(1L)).thenReturn(Optional.of(0));
+
+        Exception ex = assertThrows(InvalidRequestException.class, () ->
+                transferEngine.reserve(1L, 2L, Money.of("25.00")));
+
+        assertEquals("Insufficient balance", ex.getMessage());
+        verify(paymentHoldRepository, never()).save(any());
+    }
+
+    @Test
+    void testSettleCreditsTargetAndSettlesHold() {
+        PaymentHold hold = hold();
+        Account toAccount = new Account(Money.of("50.00"));
+        toAccount.setId(2L);
+        when(paymentHoldRepository.settle(7L, 42L)).thenReturn(1);
+        when(accountRepository.findById(2L)).thenReturn(Optional.of(toAccount));
+
+        PaymentTransaction transaction = transferEngine.settle(hold, "key-1");
+
+        assertEquals(42L, transaction.getId());
+        assertEquals("key-1", transaction.getIdempotencyKey());
+        verify(accountRepository).addToBalance(2L, Money.of("25.00"));
+        verify(accountRepository, never()).debitIfCovered(anyLong(), any(), any());
+    }
+
+    /**
+     * A hold the sweeper released in the meantime cannot be settled, so the amount is never both returned and credited.
+     */
+    @Test
+    void testSettleFailsIfHoldWasReleased() {
+        when(paymentHoldRepository.settle(7L, 42L)).thenReturn(0);
+
+        assertThrows(DataAccessResourceFailureException.class, () -> transferEngine.settle(hold(), null));
+
+        verify(accountRepository, never()).addToBalance(anyLong(), any());
+    }
+
+    /**
+     * The target account disappears between the phases: the payment fails and its hold goes back to the source.
+     */
+    @Test
+    void testFailedPaymentReleasesHold() {
+        PaymentService paymentService = paymentService();
+        when(accountRepository.findCurrencyById(2L)).thenReturn(Optional.of(Money.DEFAULT_CURRENCY));
+        when(accountRepository.debitIfCovered(1L, Money.of("25.00"), Money.DEFAULT_CURRENCY)).thenReturn(1);
+        when(paymentHoldRepository.settle(7L, 42L)).thenReturn(1);
+        when(accountRepository.findById(2L)).thenReturn(Optional.empty());
+        when(paymentHoldRepository.release(7L)).thenReturn(1);
+
+        assertThrows(EntityNotFoundException.class, () ->
+                paymentService.processPayment(new PaymentRequest(1L, 2L, Money.of("25.00"))));
+
+        verify(accountRepository).addToBalance(1L, Money.of("25.00"));
+        verify(transactionNotifier, never()).publish(any());
+    }
+
+    /**
+     * A batch moves every payment through both phases on its own, without loading the accounts as entities.
+     * A rejected hold does not affect the rest of the chunk.
+     */
+    @Test
+    void testBatchReservesAndSettlesEachPayment() {
+        Account toAccount = new Account(Money.of("0.00"));
+        toAccount.setId(2L);
+        when(accountRepository.findCurrencyById(anyLong())).thenReturn(Optional.of(Money.DEFAULT_CURRENCY));
+        when(accountRepository.debitIfCovered(eq(1L), any(), any())).thenReturn(1);
+        when(accountRepository.debitIfCovered(eq(3L), any(), any())).thenReturn(0);
+        when(accountRepository.findBalanceSlotsById(3L)).thenReturn(Optional.of(0));
+        when(paymentHoldRepository.settle(7L, 42L)).thenReturn(1);
+        when(accountRepository.findById(2L)).thenReturn(Optional.of(toAccount));
+
+        List<PaymentBatchItemResult> results = paymentService().processBatch(List.of(
+                new PaymentRequest(1L, 2L, Money.of("25.00")),
+                new PaymentRequest(3L, 2L, Money.of("5.00"))));
+
+        assertEquals(Status.SUCCEEDED, results.get(0).status());
+        assertEquals(42L, results.get(0).transactionId());
+        assertEquals(Status.REJECTED, results.get(1).status());
+        assertEquals("Insufficient balance", results.get(1).error());
+        verify(accountRepository).addToBalance(2L, Money.of("25.00"));
+        verify(accountRepository, never()).findAllById(any());
+        verify(transactionNotifier).publish(argThat(transaction -> transaction.getId() == 42L));
+    }
+
+    /**
+     * A payment of a batch that cannot be settled fails on its own and its hold goes back to the source account.
+     */
+    @Test
+    void testBatchSettleFailureReleasesHold() {
+        when(accountRepository.findCurrencyById(anyLong())).thenReturn(Optional.of(Money.DEFAULT_CURRENCY));
+        when(accountRepository.debitIfCovered(eq(1L), any(), any())).thenReturn(1);
+        when(paymentHoldRepository.settle(7L, 42L)).thenReturn(0);
+        when(paymentHoldRepository.release(7L)).thenReturn(1);
+
+        List<PaymentBatchItemResult> results = paymentService().processBatch(List.of(
+                new PaymentRequest(1L, 2L, Money.of("25.00"))));
+
+        assertEquals(Status.FAILED, results.get(0).status());
+        verify(accountRepository).addToBalance(1L, Money.of("25.00"));
+        verify(transactionNotifier, never()).publish(any());
+    }
+
+    /**
+     * Expired holds are returned to their source account, except for those settled since they were found.
+     */
+    @Test
+    void testSweeperReleasesExpiredHolds() {
+        PaymentHold expired = hold();
+        PaymentHold settledMeanwhile = new PaymentHold(3L, 4L, Money.of("5.00"), LocalDateTime.now().minusSeconds(1));
+        settledMeanwhile.setId(8L);
+        when(paymentHoldRepository.findExpired(any(), any())).thenReturn(List.of(expired, settledMeanwhile));
+        when(paymentHoldRepository.release(7L)).thenReturn(1);
+        when(paymentHoldRepository.release(8L)).thenReturn(0);
+
+        int found = sweeper().sweepBatch();
+
+        assertEquals(2, found);
+        verify(accountRepository).addToBalance(1L, Money.of("25.00"));
+        verify(accountRepository, never()).addToBalance(eq(3L), any());
+    }
+
+    /**
+     * Finished holds are deleted once they are past the retention, measured from their expiry.
+     */
+    @Test
+    void testSweeperPrunesFinishedHolds() {
+        when(paymentHoldRepository.deleteFinishedBefore(any(), eq(500))).thenReturn(500, 12);
+
+        sweeper().sweep();
+
+        ArgumentCaptor<LocalDateTime> before = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(paymentHoldRepository, times(2)).deleteFinishedBefore(before.capture(), eq(500));
+        assertTrue(before.getValue().isBefore(LocalDateTime.now().minusMinutes(59)));
+        assertTrue(before.getValue().isAfter(LocalDateTime.now().minusMinutes(61)));
+    }
+
+    private PaymentService paymentService() {
+        return new PaymentService(transferEngine, accountRepository, paymentTransactionRepository,
+                transactionNotifier, accountCache, new ShardedBalances(accountRepository, balanceSlotRepository, 64),
+                new FxRates(mock(JdbcTemplate.class), new SimpleMeterRegistry(), null, 600_000, Clock.systemUTC()),
+                TransactionOperations.withoutTransaction(), new PaymentRetryExecutor(new SimpleMeterRegistry(), 1, 0, 0),
+                new PaymentMetrics(new SimpleMeterRegistry()), 2, 10);
+    }
+
+    private PaymentHoldSweeper sweeper() {
+        return new PaymentHoldSweeper(paymentHoldRepository, transferEngine, TransactionOperations.withoutTransaction(),
+                500, 3_600_000);
+    }
+
+    private static PaymentHold hold() {
+        PaymentHold hold = new PaymentHold(1L, 2L, Money.of("25.00"), LocalDateTime.now().plusSeconds(30));
+        hold.setId(7L);
+        return hold;
+    }
+}
@@ -0,0 +1,110 @@
+package com.tamaspinter.instantpaymentapi;
+
+import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.entity.AccountBalanceSlot;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.repository.AccountBalanceSlotRepository;
+import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
+import com.tamaspinter.instantpaymentapi.service.ShardedBalances;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class ShardedBalancesTest {
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Mock
+    private AccountBalanceSlotRepository slotRepository;
+
+    private ShardedBalances shardedBalances;
+
+    private Account account;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+        shardedBalances = new ShardedBalances(accountRepository, slotRepository, 16);
+
+        account = new Account(Money.of("100.00"));
+        account.setId(1L);
+    }
+
+    /**
+     * Resharding moves the old slots into the account's own balance and creates the new, empty slots.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void testReshardKeepsBalance() {
+        account.setBalanceSlots(2);
+        AccountBalanceSlot slot0 = new AccountBalanceSlot(1L, 0);
+        slot0.setBalance(Money.of("15.00"));
+        AccountBalanceSlot slot1 = new AccountBalanceSlot(1L, 1);
+        slot1.setBalance(Money.of("5.00"));
+        when(slotRepository.findAllForUpdate(1L)).thenReturn(List.of(slot0, slot1));
+
+        shardedBalances.reshard(account, 4);
+
+        assertEquals(Money.of("120.00"), account.getBalance());
+        assertEquals(4, account.getBalanceSlots());
+        verify(slotRepository).deleteAllOf(1L);
+        ArgumentCaptor<List<AccountBalanceSlot>> captor = ArgumentCaptor.forClass(List.class);
+        verify(slotRepository).saveAll(captor.capture());
+        assertEquals(List.of(0, 1, 2, 3), captor.getValue().stream().map(AccountBalanceSlot::getSlot).toList());
+        assertTrue(captor.getValue().stream().allMatch(s -> s.getBalance().signum() == 0));
+    }
+
+    @Test
+    void testCreditGoesToSlot() {
+        account.setBalanceSlots(4);
+        when(slotRepository.credit(eq(1L), anyInt(), any())).thenReturn(1);
+
+        shardedBalances.credit(account, Money.of("10.00"));
+
+        verify(slotRepository).credit(eq(1L), intThat(i -> i >= 0 && i < 4), eq(Money.of("10.00")));
+        verifyNoInteractions(accountRepository);
+    }
+
+    /**
+     * An account loaded with 4 slots and resharded to none before the credit: the credit goes to its own balance.
+     */
+    @Test
+    void testCreditAfterReshardGoesToAccount() {
+        account.setBalanceSlots(4);
+        when(slotRepository.credit(eq(1L), anyInt(), any())).thenReturn(0);
+        when(accountRepository.addToBalance(1L, Money.of("10.00"))).thenReturn(1);
+
+        shardedBalances.credit(account, Money.of("10.00"));
+
+        verify(accountRepository).addToBalance(1L, Money.of("10.00"));
+    }
+
+    @Test
+    void testBalanceIncludesSlotsOfShardedAccount() {
+        when(slotRepository.sumBalance(1L)).thenReturn(new BigDecimal("42.00"));
+
+        assertEquals(Money.of("100.00"), shardedBalances.balanceOf(account));
+        verify(slotRepository, never()).sumBalance(anyLong());
+
+        account.setBalanceSlots(4);
+        assertEquals(Money.of("142.00"), shardedBalances.balanceOf(account));
+    }
+
+    @Test
+    void testInvalidNumberOfSlots() {
+        Exception ex = assertThrows(InvalidRequestException.class, () -> shardedBalances.reshard(account, 17));
+        assertEquals("Number of balance slots must be between 0 and 16", ex.getMessage());
+        verifyNoInteractions(slotRepository);
+    }
+}
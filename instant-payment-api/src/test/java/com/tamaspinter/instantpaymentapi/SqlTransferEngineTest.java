@@ -0,0 +1,140 @@
+package com.tamaspinter.instantpaymentapi;
+
+import com.tamaspinter.instantpaymentapi.entity.AccountBalanceSlot;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.repository.AccountBalanceSlotRepository;
+import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
+import com.tamaspinter.instantpaymentapi.repository.PaymentTransactionIds;
+import com.tamaspinter.instantpaymentapi.repository.PaymentTransactionRepository;
+import com.tamaspinter.instantpaymentapi.service.ShardedBalances;
+import com.tamaspinter.instantpaymentapi.service.transfer.SqlTransferEngine;
+import jakarta.persistence.EntityNotFoundException;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+public class SqlTransferEngineTest {
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Mock
+    private PaymentTransactionRepository paymentTransactionRepository;
+
+    @Mock
+    private PaymentTransactionIds paymentTransactionIds;
+
+    @Mock
+    private AccountBalanceSlotRepository balanceSlotRepository;
+
+    private ShardedBalances shardedBalances;
+
+    private SqlTransferEngine transferEngine;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+        shardedBalances = new ShardedBalances(accountRepository, balanceSlotRepository, 64);
+        when(paymentTransactionIds.next()).thenReturn(42L);
+        transferEngine = new SqlTransferEngine(accountRepository, paymentTransactionRepository, paymentTransactionIds, shardedBalances);
+    }
+
+    /**
+     * The statement inserted a row, so no entity is loaded and no rejection lookup happens.
+     */
+    @Test
+    void testTransferSuccess() {
+        when(paymentTransactionRepository.transferAtomically(eq(42L), eq(1L), eq(2L), eq(new BigDecimal("25.00")), eq("EUR"), any(), isNull()))
+                .thenReturn(Optional.of(42L));
+
+        PaymentTransaction result = transferEngine.transfer(1L, 2L, Money.of("25.00"));
+
+        assertEquals(42L, result.getId());
+        assertEquals(1L, result.getFromAccountId());
+        assertEquals(2L, result.getToAccountId());
+        assertEquals(Money.of("25.00"), result.getAmount());
+        verify(accountRepository, never()).findById(anyLong());
+        verify(accountRepository, never()).findCurrencyById(anyLong());
+    }
+
+    @Test
+    void testTransferInsufficientFunds() {
+        when(paymentTransactionRepository.transferAtomically(any(), any(), any(), any(), any(), any(), any())).thenReturn(Optional.empty());
+        when(accountRepository.findCurrencyById(1L)).thenReturn(Optional.of(Money.DEFAULT_CURRENCY));
+        when(accountRepository.findCurrencyById(2L)).thenReturn(Optional.of(Money.DEFAULT_CURRENCY));
+
+        Exception ex = assertThrows(InvalidRequestException.class, () ->
+                transferEngine.transfer(1L, 2L, Money.of("25.00"))
+        );
+        assertEquals("Insufficient balance", ex.getMessage());
+    }
+
+    /**
+     * A sharded source account is drained into its row and the statement is retried once.
+     */
+    @Test
+    void testTransferRetriesAfterDrainingShardedAccount() {
+        when(paymentTransactionRepository.transferAtomically(any(), any(), any(), any(), any(), any(), any()))
+                .thenReturn(Optional.empty(), Optional.of(42L));
+        when(accountRepository.findBalanceSlotsById(1L)).thenReturn(Optional.of(4));
+        AccountBalanceSlot slot = new AccountBalanceSlot(1L, 3);
+        slot.setBalance(Money.of("30.00"));
+        when(balanceSlotRepository.findAllForUpdate(1L)).thenReturn(List.of(slot));
+
+        PaymentTransaction result = transferEngine.transfer(1L, 2L, Money.of("25.00"));
+
+        assertEquals(42L, result.getId());
+        verify(balanceSlotRepository).clearAll(1L);
+        verify(accountRepository).addToBalance(1L, Money.of("30.00"));
+        verify(paymentTransactionRepository, times(2)).transferAtomically(eq(42L), any(), any(), any(), any(), any(), any());
+        verify(paymentTransactionIds).next();
+    }
+
+    @Test
+    void testTransferFromAccountNotFound() {
+        when(paymentTransactionRepository.transferAtomically(any(), any(), any(), any(), any(), any(), any())).thenReturn(Optional.empty());
+        when(accountRepository.findCurrencyById(1L)).thenReturn(Optional.empty());
+
+        Exception ex = assertThrows(EntityNotFoundException.class, () ->
+                transferEngine.transfer(1L, 2L, Money.of("25.00"))
+        );
+        assertEquals("From Account not found", ex.getMessage());
+    }
+
+    @Test
+    void testTransferToAccountNotFound() {
+        when(paymentTransactionRepository.transferAtomically(any(), any(), any(), any(), any(), any(), any())).thenReturn(Optional.empty());
+        when(accountRepository.findCurrencyById(1L)).thenReturn(Optional.of(Money.DEFAULT_CURRENCY));
+        when(accountRepository.findCurrencyById(2L)).thenReturn(Optional.empty());
+
+        Exception ex = assertThrows(EntityNotFoundException.class, () ->
+                transferEngine.transfer(1L, 2L, Money.of("25.00"))
+        );
+        assertEquals("To Account not found", ex.getMessage());
+    }
+
+    @Test
+    void testTransferDatabaseError() {
+        when(paymentTransactionRepository.transferAtomically(any(), any(), any(), any(), any(), any(), any()))
+                .thenThrow(new RuntimeException("Simulated DB error"));
+
+        assertThrows(DataAccessResourceFailureException.class, () ->
+                transferEngine.transfer(1L, 2L, Money.of("25.00"))
+        );
+        verify(accountRepository, never()).findCurrencyById(anyLong());
+    }
+}
@@ -0,0 +1,80 @@
+package com.tamaspinter.instantpaymentapi;
+
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionEvent;
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionEventDeserializer;
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionEventSerializer;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Currency;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransactionEventSerializerTest {
+
+    private static final String TOPIC = "transaction_notifications";
+
+    private final TransactionEventSerializer serializer = new TransactionEventSerializer();
+    private final TransactionEventDeserializer deserializer = new TransactionEventDeserializer();
+
+    @Test
+    void testRoundTrip() {
+        TransactionEvent event = new TransactionEvent(42L, 1L, 2L, Money.of("50.00"),
+                Instant.parse("2025-02-01T10:15:30.123456Z"));
+
+        byte[] data = serializer.serialize(TOPIC, event);
+
+        assertEquals(TransactionEvent.SIZE, data.length);
+        assertEquals(TransactionEvent.VERSION, data[0]);
+        assertEquals(event, deserializer.deserialize(TOPIC, data));
+
+        TransactionEvent forint = new TransactionEvent(43L, 1L, 2L, Money.of(new BigDecimal("19755.62"), Currency.getInstance("HUF")),
+                Instant.parse("2025-02-01T10:15:30.123456Z"));
+        assertEquals(forint, deserializer.deserialize(TOPIC, serializer.serialize(TOPIC, forint)));
+    }
+
+    /**
+     * Events written before the currency was added are read in the default currency.
+     */
+    @Test
+    void testVersion1() {
+        TransactionEvent event = new TransactionEvent(42L, 1L, 2L, Money.of("50.00"),
+                Instant.parse("2025-02-01T10:15:30.123456Z"));
+        byte[] data = Arrays.copyOf(serializer.serialize(TOPIC, event), 42);
+        data[0] = 1;
+
+        assertEquals(event, deserializer.deserialize(TOPIC, data));
+    }
+
+    /**
+     * The event is built from the stored transaction and is smaller than the former text message.
+     */
+    @Test
+    void testFromTransaction() {
+        PaymentTransaction transaction = new PaymentTransaction(1L, 2L, Money.of("1234567.89"));
+        transaction.setId(1_000_000L);
+
+        TransactionEvent event = TransactionEvent.of(transaction);
+        byte[] data = serializer.serialize(TOPIC, event);
+
+        assertEquals("1", event.key());
+        assertEquals(Money.of("1234567.89"), deserializer.deserialize(TOPIC, data).amount());
+        String message = "Payment of 1234567.89 from account 1 to account 2 succeeded.";
+        assertTrue(data.length < message.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    void testUnsupportedVersion() {
+        byte[] data = serializer.serialize(TOPIC, new TransactionEvent(1L, 1L, 2L, Money.of("1.00"), Instant.EPOCH));
+        data[0] = 3;
+
+        assertThrows(SerializationException.class, () -> deserializer.deserialize(TOPIC, data));
+        assertThrows(SerializationException.class, () -> deserializer.deserialize(TOPIC, new byte[]{1, 2, 3}));
+    }
+}
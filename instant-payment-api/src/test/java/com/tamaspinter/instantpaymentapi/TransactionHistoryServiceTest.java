@@ -0,0 +1,123 @@
+package com.tamaspinter.instantpaymentapi;
+
+import com.tamaspinter.instantpaymentapi.dto.TransactionHistoryItem;
+import com.tamaspinter.instantpaymentapi.dto.TransactionHistoryPage;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
+import com.tamaspinter.instantpaymentapi.repository.PaymentTransactionRepository;
+import com.tamaspinter.instantpaymentapi.service.TransactionHistoryService;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.domain.Limit;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import javax.security.auth.login.AccountNotFoundException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * The repository is replaced by an in-memory history that applies the keyset conditions of the queries.
+ */
+public class TransactionHistoryServiceTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2025, 3, 7, 12, 0);
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Mock
+    private PaymentTransactionRepository paymentTransactionRepository;
+
+    private final List<TransactionHistoryItem> history = new ArrayList<>();
+
+    private TransactionHistoryService historyService;
+
+    @BeforeEach
+    void setup() throws Exception {
+        MockitoAnnotations.openMocks(this);
+        historyService = new TransactionHistoryService(accountRepository, paymentTransactionRepository, 100);
+
+        when(accountRepository.existsById(1L)).thenReturn(true);
+        when(paymentTransactionRepository.findSentBefore(anyLong(), any(), anyLong(), any())).thenAnswer(i ->
+                seek(i.getArgument(1), i.getArgument(2), i.getArgument(3), true));
+        when(paymentTransactionRepository.findReceivedBefore(anyLong(), any(), anyLong(), any())).thenAnswer(i ->
+                seek(i.getArgument(1), i.getArgument(2), i.getArgument(3), false));
+
+        // Sent and received payments of account 1, some sharing a timestamp
+        for (long id = 1; id <= 25; id++) {
+            boolean sent = id % 3 != 0;
+            history.add(new TransactionHistoryItem(id, sent ? 1L : 2L, sent ? 2L : 1L,
+                    Money.of("10.00"), Money.DEFAULT_CURRENCY, null, null, null, START.plusSeconds(id / 2)));
+        }
+    }
+
+    /**
+     * Following the cursors returns every transaction exactly once, newest first.
+     */
+    @Test
+    void testPagesCoverHistoryInOrder() throws Exception {
+        List<Long> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            TransactionHistoryPage page = historyService.getHistory(1L, cursor, 10);
+            page.transactions().forEach(t -> seen.add(t.id()));
+            cursor = page.nextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        List<Long> expected = history.stream()
+                .sorted(Comparator.comparing(TransactionHistoryItem::createdAt)
+                        .thenComparing(TransactionHistoryItem::id).reversed())
+                .map(TransactionHistoryItem::id)
+                .toList();
+        assertEquals(expected, seen);
+        // Each query reads at most one page plus one row
+        verify(paymentTransactionRepository, times(3)).findSentBefore(eq(1L), any(), anyLong(), eq(Limit.of(11)));
+    }
+
+    @Test
+    void testExactlyFullLastPage() throws Exception {
+        TransactionHistoryPage page = historyService.getHistory(1L, null, 25);
+
+        assertEquals(25, page.transactions().size());
+        assertNull(page.nextCursor());
+    }
+
+    @Test
+    void testAccountNotFound() {
+        assertThrows(AccountNotFoundException.class, () -> historyService.getHistory(9L, null, 10));
+    }
+
+    @Test
+    void testInvalidRequest() {
+        InvalidRequestException cursor = assertThrows(InvalidRequestException.class, () ->
+                historyService.getHistory(1L, "not-a-cursor", 10));
+        assertEquals("Invalid cursor", cursor.getMessage());
+
+        assertThrows(InvalidRequestException.class, () -> historyService.getHistory(1L, null, 0));
+        assertThrows(InvalidRequestException.class, () -> historyService.getHistory(1L, null, 101));
+        verify(paymentTransactionRepository, never()).findSentBefore(anyLong(), any(), anyLong(), any());
+    }
+
+    private List<TransactionHistoryItem> seek(LocalDateTime beforeCreatedAt, Long beforeId, Limit limit, boolean sent) {
+        return history.stream()
+                .filter(t -> (sent ? t.fromAccountId() : t.toAccountId()) == 1L)
+                .filter(t -> t.createdAt().isBefore(beforeCreatedAt)
+                        || (t.createdAt().equals(beforeCreatedAt) && t.id() < beforeId))
+                .sorted(Comparator.comparing(TransactionHistoryItem::createdAt)
+                        .thenComparing(TransactionHistoryItem::id).reversed())
+                .limit(limit.max())
+                .toList();
+    }
+}
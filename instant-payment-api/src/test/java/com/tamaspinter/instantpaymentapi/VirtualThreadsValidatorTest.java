@@ -0,0 +1,53 @@
+package com.tamaspinter.instantpaymentapi;
+
+import com.tamaspinter.instantpaymentapi.config.VirtualThreadsValidator;
+import com.zaxxer.hikari.HikariConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VirtualThreadsValidatorTest {
+
+    private final VirtualThreadsValidator validator = new VirtualThreadsValidator(null, 45, 2000);
+
+    /**
+     * The pool of the virtual-threads profile.
+     */
+    @Test
+    void testFixedPoolWithShortWaitIsAccepted() {
+        assertEquals(List.of(), validator.problems(21, pool(40, 40, 2000)));
+    }
+
+    @Test
+    void testJava17IsRejected() {
+        List<String> problems = validator.problems(17, pool(40, 40, 2000));
+
+        assertEquals(List.of("they need Java 21 or later, running on Java 17"), problems);
+    }
+
+    /**
+     * HikariCP defaults: a wait of 30 seconds for one of 10 connections.
+     */
+    @Test
+    void testDefaultPoolIsRejected() {
+        HikariConfig pool = new HikariConfig();
+        pool.setMaximumPoolSize(100);
+
+        List<String> problems = validator.problems(21, pool);
+
+        assertEquals(3, problems.size());
+        assertTrue(problems.get(0).startsWith("spring.datasource.hikari.maximum-pool-size is 100"));
+        assertTrue(problems.get(1).startsWith("spring.datasource.hikari.minimum-idle must equal"));
+        assertTrue(problems.get(2).startsWith("spring.datasource.hikari.connection-timeout is 30000 ms"));
+    }
+
+    private static HikariConfig pool(int maximumPoolSize, int minimumIdle, long connectionTimeoutMs) {
+        HikariConfig pool = new HikariConfig();
+        pool.setMaximumPoolSize(maximumPoolSize);
+        pool.setMinimumIdle(minimumIdle);
+        pool.setConnectionTimeout(connectionTimeoutMs);
+        return pool;
+    }
+}
@@ -0,0 +1,30 @@
+package com.tamaspinter.instantpaymentapi;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Picks ranks {@code 0..n-1} with probability proportional to {@code 1 / (rank + 1)^exponent}, so a few
+ * ranks receive most of the picks, like the hot accounts of a payment system.
+ */
+class ZipfSampler {
+
+    private final double[] cumulative;
+
+    ZipfSampler(int n, double exponent) {
+        cumulative = new double[n];
+        double total = 0;
+        for (int rank = 0; rank < n; rank++) {
+            total += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = total;
+        }
+        for (int rank = 0; rank < n; rank++) {
+            cumulative[rank] /= total;
+        }
+    }
+
+    int next(SplittableRandom random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(index < 0 ? -index - 1 : index, cumulative.length - 1);
+    }
+}
@@ -0,0 +1,114 @@
+package com.tamaspinter.paymentbenchmarks;
+
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.service.fx.FxRateSnapshot;
+import com.tamaspinter.instantpaymentapi.service.fx.FxRates;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The exchange rate lookup and conversion of a cross-currency payment: the {@link FxRates} snapshot, with
+ * {@code long} rates indexed by currency, versus a map of {@link BigDecimal} rates keyed by the pair's name, as a
+ * cache of the {@code fx_rate} rows would hold them. Run with {@code -prof gc} to see the allocations per payment.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FxRateBenchmark {
+
+    private static final int PAYMENTS = 1024;
+    private static final List<Currency> CURRENCIES = List.of("EUR", "HUF", "USD", "GBP", "CHF", "PLN", "CZK", "SEK",
+            "NOK", "DKK", "RON", "JPY").stream().map(Currency::getInstance).toList();
+
+    private final Currency[] from = new Currency[PAYMENTS];
+    private final Currency[] to = new Currency[PAYMENTS];
+    private final Money[] amounts = new Money[PAYMENTS];
+    private final long[] rates = new long[PAYMENTS];
+    private final Map<String, BigDecimal> rateMap = new HashMap<>();
+
+    private FxRates fxRates;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < CURRENCIES.size(); i++) {
+            for (int j = 0; j < CURRENCIES.size(); j++) {
+                if (i != j) {
+                    BigDecimal rate = BigDecimal.valueOf(123_456_789L * (i + 1) / (j + 1), FxRateSnapshot.RATE_SCALE);
+                    String pair = CURRENCIES.get(i).getCurrencyCode() + "/" + CURRENCIES.get(j).getCurrencyCode();
+                    lines.append(pair).append('=').append(rate.toPlainString()).append('\n');
+                    rateMap.put(pair, rate);
+                }
+            }
+        }
+        Path ratesFile = Files.createTempFile("fx-rates", ".properties");
+        Files.writeString(ratesFile, lines);
+        fxRates = new FxRates(new JdbcTemplate(), new SimpleMeterRegistry(), ratesFile, Long.MAX_VALUE, Clock.systemUTC());
+        fxRates.refresh();
+        Files.delete(ratesFile);
+
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < PAYMENTS; i++) {
+            // Source currencies with two decimal places, so every amount is valid in the map benchmark too
+            from[i] = CURRENCIES.get(random.nextInt(CURRENCIES.size() - 1));
+            do {
+                to[i] = CURRENCIES.get(random.nextInt(CURRENCIES.size()));
+            } while (to[i] == from[i]);
+            amounts[i] = Money.ofMinor(random.nextLong(1, 1_000_000), from[i]);
+            rates[i] = fxRates.rate(from[i], to[i]);
+        }
+    }
+
+    @Benchmark
+    public long lookupRate() {
+        int i = next++ & (PAYMENTS - 1);
+        return fxRates.rate(from[i], to[i]);
+    }
+
+    @Benchmark
+    public BigDecimal lookupRateMap() {
+        int i = next++ & (PAYMENTS - 1);
+        return rateMap.get(from[i].getCurrencyCode() + "/" + to[i].getCurrencyCode());
+    }
+
+    @Benchmark
+    public Money convert() {
+        int i = next++ & (PAYMENTS - 1);
+        return FxRateSnapshot.convert(amounts[i], rates[i], to[i]);
+    }
+
+    @Benchmark
+    public Money convertBigDecimal() {
+        int i = next++ & (PAYMENTS - 1);
+        BigDecimal rate = BigDecimal.valueOf(rates[i], FxRateSnapshot.RATE_SCALE);
+        BigDecimal converted = amounts[i].toBigDecimal().multiply(rate);
+        return Money.of(converted.setScale(to[i].getDefaultFractionDigits(), RoundingMode.HALF_EVEN), to[i]);
+    }
+}
@@ -0,0 +1,150 @@
+package com.tamaspinter.paymentbenchmarks;
+
+import com.tamaspinter.instantpaymentapi.entity.IdAllocation;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.MoneyConverter;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Inserting {@code rows} payment transactions in one Hibernate transaction, with the ids of the
+ * {@link PaymentTransaction} mapping, taken from blocks of a sequence ({@link IdAllocation}), against the same row
+ * with an identity id, which Hibernate only learns by executing each insert on its own.
+ * <p>
+ * Runs against H2 in memory, where a statement costs no network round-trip, so the gap to PostgreSQL over
+ * the network is larger than measured here.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class IdAllocationBenchmark {
+
+    private static final Money AMOUNT = Money.of("12.34");
+
+    @Param({"1", "50", "500"})
+    private int rows;
+
+    private SessionFactory sessionFactory;
+
+    @Setup
+    public void setup() {
+        sessionFactory = new Configuration()
+                .addAnnotatedClass(PaymentTransaction.class)
+                .addAttributeConverter(MoneyConverter.class)
+                .addAnnotatedClass(IdentityPaymentTransaction.class)
+                .setProperty(AvailableSettings.JAKARTA_JDBC_URL, "jdbc:h2:mem:id-allocation;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE")
+                .setProperty(AvailableSettings.HBM2DDL_AUTO, "create-drop")
+                .setProperty(AvailableSettings.STATEMENT_BATCH_SIZE, "50")
+                .setProperty(AvailableSettings.ORDER_INSERTS, "true")
+                .setProperty(AvailableSettings.PREFERRED_POOLED_OPTIMIZER, "pooled-lo")
+                .buildSessionFactory();
+    }
+
+    /**
+     * Empties the tables, so that every iteration inserts into the same small indexes.
+     */
+    @Setup(Level.Iteration)
+    public void truncate() {
+        sessionFactory.inTransaction(session -> {
+            session.createNativeMutationQuery("TRUNCATE TABLE payment_transaction").executeUpdate();
+            session.createNativeMutationQuery("TRUNCATE TABLE identity_payment_transaction").executeUpdate();
+        });
+    }
+
+    @TearDown
+    public void tearDown() {
+        sessionFactory.close();
+    }
+
+    @Benchmark
+    public int pooledSequence() {
+        return insert(() -> new PaymentTransaction(1L, 2L, AMOUNT));
+    }
+
+    @Benchmark
+    public int identity() {
+        return insert(() -> new IdentityPaymentTransaction(1L, 2L, AMOUNT));
+    }
+
+    private int insert(Supplier<Object> row) {
+        try (Session session = sessionFactory.openSession()) {
+            Transaction transaction = session.beginTransaction();
+            for (int i = 0; i < rows; i++) {
+                session.persist(row.get());
+            }
+            transaction.commit();
+        }
+        return rows;
+    }
+
+    /**
+     * {@link PaymentTransaction} as it was mapped before, with an identity id, and with the same indexes.
+     */
+    @Entity
+    @Table(name = "identity_payment_transaction", indexes = {
+            @Index(name = "idx_identity_payment_transaction_from_account", columnList = "from_account_id, created_at, id"),
+            @Index(name = "idx_identity_payment_transaction_to_account", columnList = "to_account_id, created_at, id"),
+            @Index(name = "uk_identity_payment_transaction_idempotency_key", columnList = "idempotency_key", unique = true)
+    })
+    public static class IdentityPaymentTransaction {
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.IDENTITY)
+        private Long id;
+
+        @Column(name = "from_account_id", nullable = false)
+        private Long fromAccountId;
+
+        @Column(name = "to_account_id", nullable = false)
+        private Long toAccountId;
+
+        @Column(nullable = false)
+        private Money amount;
+
+        @Column(name = "created_at", nullable = false)
+        private LocalDateTime createdAt = LocalDateTime.now();
+
+        @Column(name = "idempotency_key")
+        private String idempotencyKey;
+
+        protected IdentityPaymentTransaction() {
+        }
+
+        IdentityPaymentTransaction(Long fromAccountId, Long toAccountId, Money amount) {
+            this.fromAccountId = fromAccountId;
+            this.toAccountId = toAccountId;
+            this.amount = amount;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.tamaspinter.paymentbenchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.tamaspinter.instantpaymentapi.dto.PaymentRequest;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the body of {@code POST /api/payments} and writing its response, with an {@link ObjectMapper}
+ * configured the way Spring MVC builds its own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class JsonBenchmark {
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private PaymentRequest request;
+    private PaymentTransaction transaction;
+    private byte[] requestJson;
+    private byte[] transactionJson;
+
+    @Setup
+    public void setup() throws JsonProcessingException {
+        request = new PaymentRequest(1L, 2L, Money.of("12.34"));
+        transaction = new PaymentTransaction(1L, 2L, Money.of("12.34"));
+        transaction.setId(42L);
+        requestJson = objectMapper.writeValueAsBytes(request);
+        transactionJson = objectMapper.writeValueAsBytes(transaction);
+    }
+
+    @Benchmark
+    public PaymentRequest readPaymentRequest() throws IOException {
+        return objectMapper.readValue(requestJson, PaymentRequest.class);
+    }
+
+    @Benchmark
+    public byte[] writePaymentRequest() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(request);
+    }
+
+    @Benchmark
+    public PaymentTransaction readPaymentTransaction() throws IOException {
+        return objectMapper.readValue(transactionJson, PaymentTransaction.class);
+    }
+
+    @Benchmark
+    public byte[] writePaymentTransaction() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(transaction);
+    }
+}
@@ -0,0 +1,117 @@
+package com.tamaspinter.paymentbenchmarks;
+
+import com.tamaspinter.instantpaymentapi.config.KafkaProducerConfig;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.service.notification.KafkaSendMonitor;
+import com.tamaspinter.instantpaymentapi.service.notification.KafkaTransactionNotifier;
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionEvent;
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionEventSerializer;
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionNotifier;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.EmbeddedKafkaKraftBroker;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Notifications sent to a Kafka broker running in the benchmark's JVM, with each producer profile of
+ * {@link KafkaProducerConfig} and the linger and batch size of {@code application.properties}: how many notifications
+ * the producer accepts per second, and how long one takes until the broker acknowledges it.
+ * <p>
+ * The broker is local, so the records never cross a network and the acknowledgements come sooner than from a
+ * cluster; compare the profiles with each other, not with production.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KafkaBrokerSendBenchmark {
+
+    private static final String COMPRESSION_TYPE = "zstd";
+    private static final int LINGER_MS = 20;
+    private static final int BATCH_SIZE = 131072;
+
+    @Param({KafkaProducerConfig.PROFILE_DEFAULT, KafkaProducerConfig.PROFILE_HIGH_THROUGHPUT})
+    private String profile;
+
+    private EmbeddedKafkaBroker broker;
+    private DefaultKafkaProducerFactory<String, TransactionEvent> producerFactory;
+    private KafkaTemplate<String, TransactionEvent> kafkaTemplate;
+    private KafkaTransactionNotifier notifier;
+    private PaymentTransaction transaction;
+    private TransactionEvent event;
+
+    @Setup
+    public void setup() {
+        broker = new EmbeddedKafkaKraftBroker(1, 1, TransactionNotifier.TOPIC_TRANSACTION_NOTIFICATION);
+        broker.afterPropertiesSet();
+
+        Map<String, Object> props = new HashMap<>();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString());
+        props.putAll(KafkaProducerConfig.profileConfigs(profile, COMPRESSION_TYPE, LINGER_MS, BATCH_SIZE));
+        producerFactory = new DefaultKafkaProducerFactory<>(props, new StringSerializer(), new TransactionEventSerializer());
+        kafkaTemplate = new KafkaTemplate<>(producerFactory);
+        notifier = new KafkaTransactionNotifier(kafkaTemplate, new KafkaSendMonitor(new SimpleMeterRegistry()));
+
+        transaction = new PaymentTransaction(1L, 2L, Money.of("12.34"));
+        transaction.setId(42L);
+        event = TransactionEvent.of(transaction);
+    }
+
+    /**
+     * Sends what the producer still holds, so that no iteration is measured while the previous one's records drain.
+     */
+    @TearDown(Level.Iteration)
+    public void flush() {
+        kafkaTemplate.flush();
+    }
+
+    @TearDown
+    public void tearDown() {
+        producerFactory.destroy();
+        broker.destroy();
+    }
+
+    /**
+     * Notifications handed to the producer, as the payment path does; the producer only blocks once its buffer is full.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void publish() {
+        notifier.publish(transaction);
+    }
+
+    /**
+     * One notification at a time until the broker acknowledges it. The sampled percentiles include the linger of
+     * the {@code high-throughput} profile.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public SendResult<String, TransactionEvent> publishAndAwait() throws ExecutionException, InterruptedException {
+        return kafkaTemplate.send(TransactionNotifier.TOPIC_TRANSACTION_NOTIFICATION, event.key(), event).get();
+    }
+}
@@ -0,0 +1,63 @@
+package com.tamaspinter.paymentbenchmarks;
+
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.service.notification.KafkaSendMonitor;
+import com.tamaspinter.instantpaymentapi.service.notification.KafkaTransactionNotifier;
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionEvent;
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionEventSerializer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The producer side of a notification through {@link KafkaTransactionNotifier}: building the event, the
+ * {@code KafkaTemplate}, serialization and the send monitoring, against a local producer that acknowledges every record
+ * immediately. The network and the broker are not part of the measurement; {@link KafkaBrokerSendBenchmark} sends to a
+ * broker with each producer profile.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class KafkaSendBenchmark {
+
+    private MockProducer<String, TransactionEvent> producer;
+    private KafkaTransactionNotifier notifier;
+    private PaymentTransaction transaction;
+
+    @Setup
+    public void setup() {
+        producer = Stubs.producer(new TransactionEventSerializer());
+        notifier = new KafkaTransactionNotifier(Stubs.kafkaTemplate(producer), new KafkaSendMonitor(new SimpleMeterRegistry()));
+        transaction = new PaymentTransaction(1L, 2L, Money.of("12.34"));
+        transaction.setId(42L);
+    }
+
+    /**
+     * Drops the records the producer kept, so that its history does not grow across iterations.
+     */
+    @Setup(Level.Iteration)
+    public void reset() {
+        producer.clear();
+    }
+
+    @Benchmark
+    public void publish() {
+        notifier.publish(transaction);
+    }
+}
@@ -0,0 +1,168 @@
+package com.tamaspinter.paymentbenchmarks;
+
+import com.tamaspinter.instantpaymentapi.dto.PaymentRequest;
+import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.repository.AccountBalanceSlotRepository;
+import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
+import com.tamaspinter.instantpaymentapi.repository.PaymentTransactionRepository;
+import com.tamaspinter.instantpaymentapi.service.PaymentMetrics;
+import com.tamaspinter.instantpaymentapi.service.PaymentRetryExecutor;
+import com.tamaspinter.instantpaymentapi.service.PaymentService;
+import com.tamaspinter.instantpaymentapi.service.ShardedBalances;
+import com.tamaspinter.instantpaymentapi.service.cache.AccountCache;
+import com.tamaspinter.instantpaymentapi.service.fx.FxRates;
+import com.tamaspinter.instantpaymentapi.service.memory.AccountBook;
+import com.tamaspinter.instantpaymentapi.service.memory.JournalPersister;
+import com.tamaspinter.instantpaymentapi.service.memory.JournalRecord;
+import com.tamaspinter.instantpaymentapi.service.transfer.MemoryTransferEngine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * {@link PaymentService#processPayment(PaymentRequest)} with the {@link MemoryTransferEngine}, and the
+ * {@link AccountBook} transfer under it, sampled one payment at a time so the report has the p99 the engine aims at
+ * in microseconds. The journal is written to tmpfs ({@code /dev/shm} where it exists), so with {@code force} the
+ * flush costs an {@code msync} of memory but no disk; on a real disk, add its flush latency. The database writes
+ * behind the answers are stubbed out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class MemoryEngineBenchmark {
+
+    private static final Money INITIAL_BALANCE = Money.of("1000000000000.00");
+    private static final Money AMOUNT = Money.of("12.34");
+
+    @Param({"true", "false"})
+    private boolean force;
+
+    private final PaymentRequest payment = new PaymentRequest(1L, 2L, AMOUNT);
+
+    private Path journalDir;
+    private AccountBook accountBook;
+    private MockProducer<String, String> invalidationProducer;
+    private PaymentService paymentService;
+
+    @Setup
+    public void setup() throws IOException {
+        Path shm = Path.of("/dev/shm");
+        journalDir = Files.isDirectory(shm) ? Files.createTempDirectory(shm, "journal") : Files.createTempDirectory("journal");
+
+        List<Account> accounts = List.of(account(1L), account(2L));
+        AccountRepository accountRepository = Stubs.repository(AccountRepository.class, Map.of(
+                "findAll", args -> accounts));
+        accountBook = new AccountBook(accountRepository, new DiscardingPersister(), journalDir, 64, force,
+                65536, false, 5000, 1000, 100_000);
+        accountBook.start();
+
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        invalidationProducer = Stubs.producer(new StringSerializer());
+        PaymentMetrics paymentMetrics = new PaymentMetrics(meterRegistry);
+        paymentService = new PaymentService(
+                new MemoryTransferEngine(accountBook),
+                accountRepository,
+                Stubs.repository(PaymentTransactionRepository.class, Map.of()),
+                transaction -> {
+                },
+                new AccountCache(Stubs.kafkaTemplate(invalidationProducer), meterRegistry, 10_000, 1000),
+                new ShardedBalances(accountRepository, Stubs.repository(AccountBalanceSlotRepository.class, Map.of()), 64),
+                new FxRates(new JdbcTemplate(), meterRegistry, null, 600_000, Clock.systemUTC()),
+                TransactionOperations.withoutTransaction(),
+                new PaymentRetryExecutor(meterRegistry, 3, 10, 200),
+                paymentMetrics,
+                500,
+                50_000);
+    }
+
+    /**
+     * Drops the recorded invalidations, so that the mock producer's history does not grow across iterations.
+     */
+    @Setup(Level.Iteration)
+    public void reset() {
+        invalidationProducer.clear();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        accountBook.stop();
+        try (Stream<Path> files = Files.walk(journalDir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public PaymentTransaction processPayment() {
+        return paymentService.processPayment(payment);
+    }
+
+    @Benchmark
+    public PaymentTransaction transfer() {
+        return accountBook.transfer(1L, 2L, AMOUNT, null);
+    }
+
+    private static Account account(long id) {
+        Account account = new Account(INITIAL_BALANCE);
+        account.setId(id);
+        account.setOwnerName("Benchmark " + id);
+        return account;
+    }
+
+    /**
+     * Starts from an empty database and acknowledges the journal records without writing them.
+     */
+    private static class DiscardingPersister extends JournalPersister {
+
+        DiscardingPersister() {
+            super(new JdbcTemplate(), TransactionOperations.withoutTransaction(), new SimpleMeterRegistry(), false);
+        }
+
+        @Override
+        public long checkpoint() {
+            return 0;
+        }
+
+        @Override
+        public long lastTransactionId() {
+            return 0;
+        }
+
+        @Override
+        public void persist(List<JournalRecord> records, Map<Long, Long> balances) {
+        }
+    }
+}
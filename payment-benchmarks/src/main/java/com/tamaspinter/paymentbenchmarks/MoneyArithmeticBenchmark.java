@@ -0,0 +1,145 @@
+package com.tamaspinter.paymentbenchmarks;
+
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The balance arithmetic of a transfer with {@link BigDecimal} amounts, as the entities used to hold them, versus
+ * {@link Money}, which wraps a {@code long} of minor units (cents), versus bare {@code long}s, as kept by the
+ * in-memory engine. Also measures the conversion between decimals and minor units and summing many balances,
+ * as done when draining balance slots.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MoneyArithmeticBenchmark {
+
+    private static final int AMOUNTS = 1024;
+    // Large enough not to run out during an iteration, small enough to keep the BigDecimal in its compact form
+    private static final long INITIAL_BALANCE_MINOR = Long.MAX_VALUE / 4;
+    private static final BigDecimal INITIAL_BALANCE = BigDecimal.valueOf(INITIAL_BALANCE_MINOR, 2);
+
+    private final BigDecimal[] amounts = new BigDecimal[AMOUNTS];
+    private final long[] minorAmounts = new long[AMOUNTS];
+    private final Money[] moneyAmounts = new Money[AMOUNTS];
+
+    private BigDecimal fromBalance;
+    private BigDecimal toBalance;
+    private long fromBalanceMinor;
+    private long toBalanceMinor;
+    private Money fromBalanceMoney;
+    private Money toBalanceMoney;
+    private int next;
+
+    @Setup
+    public void setup() {
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < AMOUNTS; i++) {
+            minorAmounts[i] = random.nextLong(1, 1_000_000);
+            amounts[i] = BigDecimal.valueOf(minorAmounts[i], 2);
+            moneyAmounts[i] = Money.ofMinor(minorAmounts[i]);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        fromBalance = INITIAL_BALANCE;
+        toBalance = INITIAL_BALANCE;
+        fromBalanceMinor = INITIAL_BALANCE_MINOR;
+        toBalanceMinor = INITIAL_BALANCE_MINOR;
+        fromBalanceMoney = Money.ofMinor(INITIAL_BALANCE_MINOR);
+        toBalanceMoney = Money.ofMinor(INITIAL_BALANCE_MINOR);
+    }
+
+    @Benchmark
+    public BigDecimal transferBigDecimal() {
+        BigDecimal amount = amounts[next++ & (AMOUNTS - 1)];
+        if (fromBalance.compareTo(amount) < 0) {
+            throw new IllegalStateException("Insufficient balance");
+        }
+        fromBalance = fromBalance.subtract(amount);
+        toBalance = toBalance.add(amount);
+        return toBalance;
+    }
+
+    @Benchmark
+    public long transferMinorUnits() {
+        long amount = minorAmounts[next++ & (AMOUNTS - 1)];
+        if (fromBalanceMinor < amount) {
+            throw new IllegalStateException("Insufficient balance");
+        }
+        fromBalanceMinor = Math.subtractExact(fromBalanceMinor, amount);
+        toBalanceMinor = Math.addExact(toBalanceMinor, amount);
+        return toBalanceMinor;
+    }
+
+    @Benchmark
+    public Money transferMoney() {
+        Money amount = moneyAmounts[next++ & (AMOUNTS - 1)];
+        if (fromBalanceMoney.isLessThan(amount)) {
+            throw new IllegalStateException("Insufficient balance");
+        }
+        fromBalanceMoney = fromBalanceMoney.minus(amount);
+        toBalanceMoney = toBalanceMoney.plus(amount);
+        return toBalanceMoney;
+    }
+
+    @Benchmark
+    public long toMinorUnits() {
+        return amounts[next++ & (AMOUNTS - 1)].movePointRight(2).longValueExact();
+    }
+
+    @Benchmark
+    public BigDecimal fromMinorUnits() {
+        return BigDecimal.valueOf(minorAmounts[next++ & (AMOUNTS - 1)], 2);
+    }
+
+    @Benchmark
+    public BigDecimal sumBigDecimal() {
+        BigDecimal total = BigDecimal.ZERO;
+        for (BigDecimal amount : amounts) {
+            total = total.add(amount);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public Money toMoney() {
+        return Money.of(amounts[next++ & (AMOUNTS - 1)]);
+    }
+
+    @Benchmark
+    public Money sumMoney() {
+        Money total = Money.ZERO;
+        for (Money amount : moneyAmounts) {
+            total = total.plus(amount);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long sumMinorUnits() {
+        long total = 0;
+        for (long amount : minorAmounts) {
+            total = Math.addExact(total, amount);
+        }
+        return total;
+    }
+}
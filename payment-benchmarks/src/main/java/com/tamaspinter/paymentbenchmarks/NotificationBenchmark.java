@@ -0,0 +1,88 @@
+package com.tamaspinter.paymentbenchmarks;
+
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionEvent;
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionEventDeserializer;
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionEventSerializer;
+import com.tamaspinter.instantpaymentapi.service.notification.TransactionNotifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the notification of a payment: the {@link TransactionEvent} and its binary encoding, against the sentence
+ * the notifier sent before.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class NotificationBenchmark {
+
+    private final TransactionEventSerializer serializer = new TransactionEventSerializer();
+    private final TransactionEventDeserializer deserializer = new TransactionEventDeserializer();
+
+    private PaymentTransaction transaction;
+    private TransactionEvent event;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() {
+        transaction = new PaymentTransaction(1L, 2L, Money.of("12.34"));
+        transaction.setId(42L);
+        event = TransactionEvent.of(transaction);
+        encoded = serializer.serialize(TransactionNotifier.TOPIC_TRANSACTION_NOTIFICATION, event);
+    }
+
+    @Benchmark
+    public TransactionEvent buildEvent() {
+        return TransactionEvent.of(transaction);
+    }
+
+    @Benchmark
+    public byte[] serializeEvent() {
+        return serializer.serialize(TransactionNotifier.TOPIC_TRANSACTION_NOTIFICATION, event);
+    }
+
+    @Benchmark
+    public TransactionEvent deserializeEvent() {
+        return deserializer.deserialize(TransactionNotifier.TOPIC_TRANSACTION_NOTIFICATION, encoded);
+    }
+
+    /**
+     * The whole message as the notifier produces it: the event, its key and its value.
+     */
+    @Benchmark
+    public void buildMessage(Blackhole blackhole) {
+        TransactionEvent message = TransactionEvent.of(transaction);
+        blackhole.consume(message.key());
+        blackhole.consume(serializer.serialize(TransactionNotifier.TOPIC_TRANSACTION_NOTIFICATION, message));
+    }
+
+    /**
+     * The message the notifier sent before the binary events, to compare with {@link #buildMessage}: a sentence built
+     * with {@code String.format}, without a key, encoded to UTF-8 by Kafka's {@code StringSerializer}.
+     */
+    @Benchmark
+    public byte[] buildStringMessage() {
+        String message = String.format(
+                "Payment of %s from account %d to account %d succeeded.",
+                transaction.getAmount().toBigDecimal(), transaction.getFromAccountId(), transaction.getToAccountId()
+        );
+        return message.getBytes(StandardCharsets.UTF_8);
+    }
+}
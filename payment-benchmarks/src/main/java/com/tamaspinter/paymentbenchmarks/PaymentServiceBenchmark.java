@@ -0,0 +1,145 @@
+package com.tamaspinter.paymentbenchmarks;
+
+import com.tamaspinter.instantpaymentapi.dto.PaymentRequest;
+import com.tamaspinter.instantpaymentapi.entity.Account;
+import com.tamaspinter.instantpaymentapi.entity.Money;
+import com.tamaspinter.instantpaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.instantpaymentapi.repository.AccountBalanceSlotRepository;
+import com.tamaspinter.instantpaymentapi.repository.AccountRepository;
+import com.tamaspinter.instantpaymentapi.repository.PaymentTransactionRepository;
+import com.tamaspinter.instantpaymentapi.service.PaymentMetrics;
+import com.tamaspinter.instantpaymentapi.service.PaymentRetryExecutor;
+import com.tamaspinter.instantpaymentapi.service.PaymentService;
+import com.tamaspinter.instantpaymentapi.service.ShardedBalances;
+import com.tamaspinter.instantpaymentapi.service.cache.AccountCache;
+import com.tamaspinter.instantpaymentapi.service.fx.FxRates;
+import com.tamaspinter.instantpaymentapi.service.transfer.JpaTransferEngine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PaymentService#processPayment(PaymentRequest)} with the default {@link JpaTransferEngine}, against
+ * in-memory repositories and without a database transaction: request validation, the balance check and
+ * arithmetic, building the transaction and the cache invalidation. Notifications are discarded, their cost
+ * is measured by {@link NotificationBenchmark} and {@link KafkaSendBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PaymentServiceBenchmark {
+
+    private static final Money INITIAL_BALANCE = Money.of("1000000000000.00");
+
+    private final PaymentRequest payment = new PaymentRequest(1L, 2L, Money.of("12.34"));
+    private final PaymentRequest overdraft = new PaymentRequest(1L, 2L, Money.of("9999999999999.99"));
+    private final PaymentRequest sameAccount = new PaymentRequest(1L, 1L, Money.of("12.34"));
+
+    private Account fromAccount;
+    private Account toAccount;
+    private MockProducer<String, String> invalidationProducer;
+    private PaymentService paymentService;
+    private long lastTransactionId;
+
+    @Setup
+    public void setup() {
+        fromAccount = account(1L);
+        toAccount = account(2L);
+        Map<Long, Account> accounts = Map.of(1L, fromAccount, 2L, toAccount);
+
+        AccountRepository accountRepository = Stubs.repository(AccountRepository.class, Map.of(
+                "findById", args -> Optional.ofNullable(accounts.get((Long) args[0])),
+                "save", args -> args[0]));
+        PaymentTransactionRepository paymentTransactionRepository = Stubs.repository(PaymentTransactionRepository.class, Map.of(
+                "save", args -> {
+                    PaymentTransaction transaction = (PaymentTransaction) args[0];
+                    transaction.setId(++lastTransactionId);
+                    return transaction;
+                }));
+        ShardedBalances shardedBalances = new ShardedBalances(accountRepository,
+                Stubs.repository(AccountBalanceSlotRepository.class, Map.of()), 64);
+
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        invalidationProducer = Stubs.producer(new StringSerializer());
+        PaymentMetrics paymentMetrics = new PaymentMetrics(meterRegistry);
+        // Both accounts are in the same currency, so no rates are needed
+        FxRates fxRates = new FxRates(new JdbcTemplate(), meterRegistry, null, 600_000, Clock.systemUTC());
+        paymentService = new PaymentService(
+                new JpaTransferEngine(accountRepository, paymentTransactionRepository, shardedBalances, fxRates, paymentMetrics),
+                accountRepository,
+                paymentTransactionRepository,
+                transaction -> {
+                },
+                new AccountCache(Stubs.kafkaTemplate(invalidationProducer), meterRegistry, 10_000, 1000),
+                shardedBalances,
+                fxRates,
+                TransactionOperations.withoutTransaction(),
+                new PaymentRetryExecutor(meterRegistry, 3, 10, 200),
+                paymentMetrics,
+                500,
+                50_000);
+    }
+
+    /**
+     * Restores the balances and drops the recorded invalidations, so that every iteration starts from the same state.
+     */
+    @Setup(Level.Iteration)
+    public void reset() {
+        fromAccount.setBalance(INITIAL_BALANCE);
+        toAccount.setBalance(INITIAL_BALANCE);
+        invalidationProducer.clear();
+    }
+
+    @Benchmark
+    public PaymentTransaction processPayment() {
+        return paymentService.processPayment(payment);
+    }
+
+    @Benchmark
+    public Object rejectInsufficientBalance() {
+        return reject(overdraft);
+    }
+
+    @Benchmark
+    public Object rejectInvalidRequest() {
+        return reject(sameAccount);
+    }
+
+    private Object reject(PaymentRequest request) {
+        try {
+            return paymentService.processPayment(request);
+        } catch (InvalidRequestException e) {
+            return e;
+        }
+    }
+
+    private static Account account(long id) {
+        Account account = new Account(INITIAL_BALANCE);
+        account.setId(id);
+        account.setOwnerName("Benchmark " + id);
+        return account;
+    }
+}
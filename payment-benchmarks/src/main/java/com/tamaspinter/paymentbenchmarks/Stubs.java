@@ -0,0 +1,63 @@
+package com.tamaspinter.paymentbenchmarks;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.mock.MockProducerFactory;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Local stand-ins for the database and the Kafka broker, so the benchmarks measure the application code
+ * and not the I/O around it.
+ */
+final class Stubs {
+
+    private Stubs() {
+    }
+
+    /**
+     * Implements a repository interface with the given methods, by name. Any other method throws
+     * {@link UnsupportedOperationException}, so a benchmark cannot silently run a path it did not stub.
+     */
+    static <T> T repository(Class<T> type, Map<String, Function<Object[], Object>> methods) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Function<Object[], Object> implementation = methods.get(method.getName());
+            if (implementation != null) {
+                return implementation.apply(args);
+            }
+            if (method.getDeclaringClass() == Object.class) {
+                return switch (method.getName()) {
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> type.getSimpleName() + " stub";
+                };
+            }
+            throw new UnsupportedOperationException(type.getSimpleName() + "." + method.getName() + " is not stubbed");
+        }));
+    }
+
+    /**
+     * A Kafka producer that acknowledges every record immediately. Records are kept until {@link MockProducer#clear()}.
+     * Closing it does nothing, as {@code KafkaTemplate} closes its producer after every send.
+     */
+    static <V> MockProducer<String, V> producer(Serializer<V> valueSerializer) {
+        return new MockProducer<>(true, new StringSerializer(), valueSerializer) {
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public void close(Duration timeout) {
+            }
+        };
+    }
+
+    static <V> KafkaTemplate<String, V> kafkaTemplate(MockProducer<String, V> producer) {
+        return new KafkaTemplate<>(new MockProducerFactory<>(() -> producer));
+    }
+}
@@ -0,0 +1,11 @@
+package com.tamaspinter.reactivepaymentapi;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+@SpringBootApplication
+public class ReactivePaymentApiApplication {
+    public static void main(String[] args) {
+        SpringApplication.run(ReactivePaymentApiApplication.class, args);
+    }
+}
@@ -0,0 +1,49 @@
+package com.tamaspinter.reactivepaymentapi.config;
+
+import com.tamaspinter.reactivepaymentapi.notification.TransactionEvent;
+import com.tamaspinter.reactivepaymentapi.notification.TransactionEventSerializer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.kafka.sender.KafkaSender;
+import reactor.kafka.sender.SenderOptions;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The producer settings of the {@code high-throughput} profile of {@code instant-payment-api}.
+ */
+@Configuration
+public class KafkaSenderConfig {
+
+    @Value("${spring.kafka.bootstrap-servers}")
+    private String bootstrapServers;
+
+    @Value("${payment.kafka.producer.compression-type:zstd}")
+    private String compressionType;
+
+    @Value("${payment.kafka.producer.linger-ms:20}")
+    private int lingerMs;
+
+    @Value("${payment.kafka.producer.batch-size:131072}")
+    private int batchSize;
+
+    @Bean(destroyMethod = "close")
+    public KafkaSender<String, TransactionEvent> transactionEventKafkaSender() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        // The idempotent producer needs acks=all
+        props.put(ProducerConfig.ACKS_CONFIG, "all");
+        props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType);
+        props.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        props.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+        SenderOptions<String, TransactionEvent> options = SenderOptions.<String, TransactionEvent>create(props)
+                .withKeySerializer(new StringSerializer())
+                .withValueSerializer(new TransactionEventSerializer());
+        return KafkaSender.create(options);
+    }
+}
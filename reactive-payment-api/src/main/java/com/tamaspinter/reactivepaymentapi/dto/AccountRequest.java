@@ -0,0 +1,6 @@
+package com.tamaspinter.reactivepaymentapi.dto;
+
+public record AccountRequest(
+        String accountName,
+        String ownerName) {
+}
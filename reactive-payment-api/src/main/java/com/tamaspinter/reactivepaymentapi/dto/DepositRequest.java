@@ -0,0 +1,25 @@
+package com.tamaspinter.reactivepaymentapi.dto;
+
+import com.tamaspinter.reactivepaymentapi.entity.Account;
+
+import java.math.BigDecimal;
+
+/**
+ * @param currency The ISO 4217 code of the amount's currency, which must be the account's; the
+ *                 {@link Account#DEFAULT_CURRENCY} if omitted.
+ */
+public record DepositRequest(
+        Long accountId,
+        BigDecimal amount,
+        String currency) {
+
+    public DepositRequest {
+        if (currency == null) {
+            currency = Account.DEFAULT_CURRENCY;
+        }
+    }
+
+    public DepositRequest(Long accountId, BigDecimal amount) {
+        this(accountId, amount, null);
+    }
+}
@@ -0,0 +1,26 @@
+package com.tamaspinter.reactivepaymentapi.dto;
+
+import com.tamaspinter.reactivepaymentapi.entity.Account;
+
+import java.math.BigDecimal;
+
+/**
+ * @param currency The ISO 4217 code of the amount's currency, which must be that of both accounts; the
+ *                 {@link Account#DEFAULT_CURRENCY} if omitted.
+ */
+public record PaymentRequest(
+        Long fromAccountId,
+        Long toAccountId,
+        BigDecimal amount,
+        String currency) {
+
+    public PaymentRequest {
+        if (currency == null) {
+            currency = Account.DEFAULT_CURRENCY;
+        }
+    }
+
+    public PaymentRequest(Long fromAccountId, Long toAccountId, BigDecimal amount) {
+        this(fromAccountId, toAccountId, amount, null);
+    }
+}
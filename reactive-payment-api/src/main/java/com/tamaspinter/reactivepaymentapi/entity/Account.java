@@ -0,0 +1,52 @@
+package com.tamaspinter.reactivepaymentapi.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.math.BigDecimal;
+
+/**
+ * The {@code account} row, with the same JSON representation as in {@code instant-payment-api}.
+ */
+@Data
+@NoArgsConstructor
+@Table("account")
+public class Account {
+
+    /**
+     * The currency of accounts opened here, and of amounts sent without one.
+     */
+    public static final String DEFAULT_CURRENCY = "EUR";
+
+    @Id
+    private Long id;
+
+    private BigDecimal balance;
+
+    private String accountName;
+
+    private String ownerName;
+
+    private int balanceSlots;
+
+    /**
+     * The ISO 4217 code of the balance's currency, which every payment from the account is made in.
+     */
+    private String currency = DEFAULT_CURRENCY;
+
+    @Version
+    private Long version;
+
+    public Account(BigDecimal balance) {
+        this.balance = balance;
+    }
+
+    @JsonIgnore
+    public boolean isSharded() {
+        return balanceSlots > 0;
+    }
+}
@@ -0,0 +1,49 @@
+package com.tamaspinter.reactivepaymentapi.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@Table("payment_transaction")
+public class PaymentTransaction {
+
+    @Id
+    private Long id;
+
+    private Long fromAccountId;
+
+    private Long toAccountId;
+
+    private BigDecimal amount;
+
+    /**
+     * The ISO 4217 code of the amount's currency, that of both accounts.
+     */
+    private String currency = Account.DEFAULT_CURRENCY;
+
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    /**
+     * The {@code Idempotency-Key} the client sent the payment with, if any.
+     */
+    @JsonIgnore
+    private String idempotencyKey;
+
+    public PaymentTransaction(Long fromAccountId, Long toAccountId, BigDecimal amount) {
+        this.fromAccountId = fromAccountId;
+        this.toAccountId = toAccountId;
+        this.amount = amount;
+    }
+
+    public PaymentTransaction(Long fromAccountId, Long toAccountId, BigDecimal amount, String currency) {
+        this(fromAccountId, toAccountId, amount);
+        this.currency = currency;
+    }
+}
@@ -0,0 +1,57 @@
+package com.tamaspinter.reactivepaymentapi.handler;
+
+import com.tamaspinter.reactivepaymentapi.dto.AccountRequest;
+import com.tamaspinter.reactivepaymentapi.dto.DepositRequest;
+import com.tamaspinter.reactivepaymentapi.service.AccountService;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import javax.security.auth.login.AccountNotFoundException;
+
+/**
+ * The account endpoints, with the same responses as the {@code AccountController} of {@code instant-payment-api}.
+ */
+@Component
+public class AccountHandler {
+
+    private final AccountService accountService;
+
+    public AccountHandler(AccountService accountService) {
+        this.accountService = accountService;
+    }
+
+    public Mono<ServerResponse> createAccount(ServerRequest request) {
+        return request.bodyToMono(AccountRequest.class)
+                .flatMap(accountService::createAccount)
+                .flatMap(account -> ServerResponse.ok().bodyValue(account));
+    }
+
+    public Mono<ServerResponse> getAccount(ServerRequest request) {
+        Long accountId;
+        try {
+            accountId = Long.valueOf(request.pathVariable("accountId"));
+        } catch (NumberFormatException e) {
+            return ServerResponse.badRequest().build();
+        }
+        return accountService.getAccountById(accountId)
+                .flatMap(account -> ServerResponse.ok().bodyValue(account))
+                .onErrorResume(AccountNotFoundException.class, e -> ServerResponse.status(HttpStatus.NOT_FOUND)
+                        .bodyValue("Account with ID " + accountId + " not found"))
+                .onErrorResume(RuntimeException.class, e -> ServerResponse.status(HttpStatus.INTERNAL_SERVER_ERROR).build());
+    }
+
+    public Mono<ServerResponse> deposit(ServerRequest request) {
+        return request.bodyToMono(DepositRequest.class).flatMap(depositRequest -> accountService.deposit(depositRequest)
+                .flatMap(account -> ServerResponse.ok().bodyValue(account))
+                .onErrorResume(AccountNotFoundException.class, e -> ServerResponse.status(HttpStatus.NOT_FOUND)
+                        .bodyValue("Account with ID " + depositRequest.accountId() + " not found"))
+                .onErrorResume(IllegalArgumentException.class, e -> ServerResponse.badRequest()
+                        .bodyValue("Invalid deposit amount"))
+                .onErrorResume(InvalidRequestException.class, e -> ServerResponse.badRequest().bodyValue(e.getMessage()))
+                .onErrorResume(RuntimeException.class, e -> ServerResponse.status(HttpStatus.INTERNAL_SERVER_ERROR).build()));
+    }
+}
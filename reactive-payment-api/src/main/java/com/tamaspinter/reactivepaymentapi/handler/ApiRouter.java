@@ -0,0 +1,22 @@
+package com.tamaspinter.reactivepaymentapi.handler;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+@Configuration
+public class ApiRouter {
+
+    @Bean
+    public RouterFunction<ServerResponse> apiRoutes(AccountHandler accountHandler, PaymentHandler paymentHandler) {
+        return route()
+                .POST("/api/accounts", accountHandler::createAccount)
+                .POST("/api/accounts/deposit", accountHandler::deposit)
+                .GET("/api/accounts/{accountId}", accountHandler::getAccount)
+                .POST("/api/payments", paymentHandler::sendPayment)
+                .build();
+    }
+}
@@ -0,0 +1,38 @@
+package com.tamaspinter.reactivepaymentapi.handler;
+
+import com.tamaspinter.reactivepaymentapi.dto.PaymentRequest;
+import com.tamaspinter.reactivepaymentapi.service.PaymentService;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Mono;
+
+import javax.security.auth.login.AccountNotFoundException;
+
+/**
+ * The payment endpoint, with the same responses as {@code POST /api/payments} of {@code instant-payment-api}.
+ */
+@Component
+public class PaymentHandler {
+
+    private final PaymentService paymentService;
+
+    public PaymentHandler(PaymentService paymentService) {
+        this.paymentService = paymentService;
+    }
+
+    public Mono<ServerResponse> sendPayment(ServerRequest request) {
+        String idempotencyKey = request.headers().firstHeader("Idempotency-Key");
+        return request.bodyToMono(PaymentRequest.class)
+                .flatMap(paymentRequest -> paymentService.processPayment(paymentRequest, idempotencyKey))
+                .flatMap(transaction -> ServerResponse.ok().bodyValue(transaction))
+                .onErrorResume(InvalidRequestException.class, e -> ServerResponse.badRequest().bodyValue(e.getMessage()))
+                .onErrorResume(AccountNotFoundException.class, e -> ServerResponse.notFound().build())
+                .onErrorResume(DataAccessResourceFailureException.class, e -> ServerResponse.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                        .bodyValue("Database error"))
+                .onErrorResume(RuntimeException.class, e -> ServerResponse.status(HttpStatus.INTERNAL_SERVER_ERROR).build());
+    }
+}
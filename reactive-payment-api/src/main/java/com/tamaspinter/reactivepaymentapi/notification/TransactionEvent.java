@@ -0,0 +1,56 @@
+package com.tamaspinter.reactivepaymentapi.notification;
+
+import com.tamaspinter.reactivepaymentapi.entity.PaymentTransaction;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneId;
+
+/**
+ * The notification of a completed payment, as published on the
+ * {@value TransactionNotifier#TOPIC_TRANSACTION_NOTIFICATION} topic. It is keyed by the source account, so all payments
+ * from one account land on the same partition in order.
+ * <p>
+ * Encoded by {@link TransactionEventSerializer} into a fixed, big-endian layout of {@value #SIZE} bytes:
+ * <pre>
+ * offset  size  field
+ *      0     1  layout version ({@value #VERSION})
+ *      1     8  transaction ID
+ *      9     8  source account ID
+ *     17     8  target account ID
+ *     25     8  amount, unscaled value
+ *     33     1  amount, scale
+ *     34     8  created at, microseconds since the epoch (UTC)
+ *     42     3  amount, ISO 4217 currency code (ASCII)
+ * </pre>
+ */
+public record TransactionEvent(
+        long transactionId,
+        long fromAccountId,
+        long toAccountId,
+        BigDecimal amount,
+        String currency,
+        Instant createdAt) {
+
+    public static final byte VERSION = 2;
+
+    public static final int SIZE = 45;
+
+    public static TransactionEvent of(PaymentTransaction transaction) {
+        return new TransactionEvent(
+                transaction.getId(),
+                transaction.getFromAccountId(),
+                transaction.getToAccountId(),
+                transaction.getAmount(),
+                transaction.getCurrency(),
+                transaction.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant()
+        );
+    }
+
+    /**
+     * The record key: the source account ID.
+     */
+    public String key() {
+        return Long.toString(fromAccountId);
+    }
+}
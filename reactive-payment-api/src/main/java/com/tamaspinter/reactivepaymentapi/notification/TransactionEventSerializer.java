@@ -0,0 +1,39 @@
+package com.tamaspinter.reactivepaymentapi.notification;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Writes a {@link TransactionEvent} in its fixed binary layout.
+ */
+public class TransactionEventSerializer implements Serializer<TransactionEvent> {
+
+    @Override
+    public byte[] serialize(String topic, TransactionEvent event) {
+        if (event == null) {
+            return null;
+        }
+        if (event.currency().length() != 3) {
+            throw new SerializationException("Currency " + event.currency() + " is not an ISO 4217 code");
+        }
+        try {
+            return ByteBuffer.allocate(TransactionEvent.SIZE)
+                    .put(TransactionEvent.VERSION)
+                    .putLong(event.transactionId())
+                    .putLong(event.fromAccountId())
+                    .putLong(event.toAccountId())
+                    .putLong(event.amount().unscaledValue().longValueExact())
+                    .put((byte) event.amount().scale())
+                    .putLong(ChronoUnit.MICROS.between(Instant.EPOCH, event.createdAt()))
+                    .put(event.currency().getBytes(StandardCharsets.US_ASCII))
+                    .array();
+        } catch (ArithmeticException e) {
+            throw new SerializationException("Amount " + event.amount() + " does not fit the transaction event", e);
+        }
+    }
+}
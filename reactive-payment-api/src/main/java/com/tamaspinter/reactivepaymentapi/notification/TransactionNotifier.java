@@ -0,0 +1,39 @@
+package com.tamaspinter.reactivepaymentapi.notification;
+
+import com.tamaspinter.reactivepaymentapi.entity.PaymentTransaction;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.kafka.sender.KafkaSender;
+import reactor.kafka.sender.SenderRecord;
+
+/**
+ * Announces completed payments on the {@value #TOPIC_TRANSACTION_NOTIFICATION} topic in the same binary layout
+ * as {@code instant-payment-api}, like its {@code direct} delivery: the payment is answered without waiting for
+ * Kafka, and a message is lost if the application stops before the broker acknowledges it.
+ */
+@Component
+public class TransactionNotifier {
+
+    public static final String TOPIC_TRANSACTION_NOTIFICATION = "transaction_notifications";
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionNotifier.class);
+
+    private final KafkaSender<String, TransactionEvent> kafkaSender;
+
+    public TransactionNotifier(KafkaSender<String, TransactionEvent> kafkaSender) {
+        this.kafkaSender = kafkaSender;
+    }
+
+    public void publish(PaymentTransaction transaction) {
+        TransactionEvent event = TransactionEvent.of(transaction);
+        ProducerRecord<String, TransactionEvent> record =
+                new ProducerRecord<>(TOPIC_TRANSACTION_NOTIFICATION, event.key(), event);
+        kafkaSender.send(Mono.just(SenderRecord.create(record, event.transactionId())))
+                .subscribe(
+                        result -> { },
+                        e -> log.warn("Failed to send the notification of transaction {}", event.transactionId(), e));
+    }
+}
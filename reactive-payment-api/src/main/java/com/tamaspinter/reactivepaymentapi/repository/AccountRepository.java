@@ -0,0 +1,32 @@
+package com.tamaspinter.reactivepaymentapi.repository;
+
+import com.tamaspinter.reactivepaymentapi.entity.Account;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+
+@Repository
+public interface AccountRepository extends R2dbcRepository<Account, Long> {
+
+    /**
+     * Adds the amount to the balance of an account in place, if the account is in the given currency.
+     *
+     * @return The updated account, empty if it does not exist or is in another currency.
+     */
+    @Query("""
+            UPDATE account SET balance = balance + :amount, version = version + 1
+            WHERE id = :id AND currency = :currency
+            RETURNING *
+            """)
+    Mono<Account> addToBalance(@Param("id") Long id, @Param("amount") BigDecimal amount, @Param("currency") String currency);
+
+    /**
+     * @return The ISO 4217 code of the account's currency, empty if it does not exist.
+     */
+    @Query("SELECT currency FROM account WHERE id = :id")
+    Mono<String> findCurrencyById(@Param("id") Long id);
+}
@@ -0,0 +1,47 @@
+package com.tamaspinter.reactivepaymentapi.repository;
+
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Hands out payment transaction ids in blocks, like {@code PaymentTransactionIds} of {@code instant-payment-api}:
+ * {@code payment_transaction_seq} increments by the block size, so one {@code nextval} reserves {@link #BLOCK_SIZE}
+ * ids and an insert that left the id to the column default would take a whole block for one row.
+ * <p>
+ * The block is fetched without holding the lock. Callers that find it used up together each fetch a block of their
+ * own and take its first id; the last block fetched serves the next callers and the rest of the others are skipped.
+ */
+@Component
+public class PaymentTransactionIds {
+
+    /**
+     * The increment of {@code payment_transaction_seq}, set by the {@code V2} migration of {@code instant-payment-api}.
+     */
+    public static final int BLOCK_SIZE = 50;
+
+    private final PaymentTransactionRepository paymentTransactionRepository;
+
+    private long next;
+    private long blockEnd;
+
+    public PaymentTransactionIds(PaymentTransactionRepository paymentTransactionRepository) {
+        this.paymentTransactionRepository = paymentTransactionRepository;
+    }
+
+    public Mono<Long> next() {
+        return Mono.defer(() -> {
+            synchronized (this) {
+                if (next < blockEnd) {
+                    return Mono.just(next++);
+                }
+            }
+            return paymentTransactionRepository.nextIdBlock().map(this::startBlock);
+        });
+    }
+
+    private synchronized long startBlock(long first) {
+        next = first + 1;
+        blockEnd = first + BLOCK_SIZE;
+        return first;
+    }
+}
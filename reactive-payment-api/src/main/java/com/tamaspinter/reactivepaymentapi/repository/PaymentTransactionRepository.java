@@ -0,0 +1,55 @@
+package com.tamaspinter.reactivepaymentapi.repository;
+
+import com.tamaspinter.reactivepaymentapi.entity.PaymentTransaction;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Repository
+public interface PaymentTransactionRepository extends R2dbcRepository<PaymentTransaction, Long> {
+
+    /**
+     * Debits the source account if it has enough balance, credits the target account and inserts the transaction row
+     * with the given ID in one PostgreSQL statement, like the {@code sql} engine of {@code instant-payment-api}. Both
+     * accounts must be in the given currency. The statement runs on its own, so the debit only happens if the target
+     * account exists in that currency: otherwise a rejected payment would commit a debit without its credit.
+     *
+     * @return The ID of the inserted transaction, or empty if an account is missing or in another currency, or the
+     * balance is insufficient.
+     */
+    @Query("""
+            WITH debit AS (
+                UPDATE account SET balance = balance - :amount, version = version + 1
+                WHERE id = :fromAccountId AND currency = :currency AND balance >= :amount
+                  AND EXISTS (SELECT 1 FROM account WHERE id = :toAccountId AND currency = :currency)
+                RETURNING id
+            ), credit AS (
+                UPDATE account SET balance = balance + :amount, version = version + 1
+                WHERE id = :toAccountId AND currency = :currency AND EXISTS (SELECT 1 FROM debit)
+                RETURNING id
+            )
+            INSERT INTO payment_transaction (id, from_account_id, to_account_id, amount, currency, created_at, idempotency_key)
+            SELECT :id, debit.id, credit.id, :amount, :currency, :createdAt, :idempotencyKey FROM debit, credit
+            RETURNING id
+            """)
+    Mono<Long> transferAtomically(@Param("id") Long id,
+                                  @Param("fromAccountId") Long fromAccountId,
+                                  @Param("toAccountId") Long toAccountId,
+                                  @Param("amount") BigDecimal amount,
+                                  @Param("currency") String currency,
+                                  @Param("createdAt") LocalDateTime createdAt,
+                                  @Param("idempotencyKey") String idempotencyKey);
+
+    Mono<PaymentTransaction> findByIdempotencyKey(String idempotencyKey);
+
+    /**
+     * Reserves the next block of {@link PaymentTransactionIds#BLOCK_SIZE} IDs and returns its first one.
+     */
+    @Query("SELECT nextval('payment_transaction_seq')")
+    Mono<Long> nextIdBlock();
+}
@@ -0,0 +1,64 @@
+package com.tamaspinter.reactivepaymentapi.service;
+
+import com.tamaspinter.reactivepaymentapi.dto.AccountRequest;
+import com.tamaspinter.reactivepaymentapi.dto.DepositRequest;
+import com.tamaspinter.reactivepaymentapi.entity.Account;
+import com.tamaspinter.reactivepaymentapi.repository.AccountRepository;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import javax.security.auth.login.AccountNotFoundException;
+import java.math.BigDecimal;
+
+@Service
+public class AccountService {
+
+    private static final String DEFAULT_ACCOUNT_NAME = "Default Account";
+
+    private final AccountRepository accountRepository;
+
+    public AccountService(AccountRepository accountRepository) {
+        this.accountRepository = accountRepository;
+    }
+
+    public Mono<Account> createAccount(AccountRequest request) {
+        Account newAccount = new Account(BigDecimal.ZERO);
+        newAccount.setAccountName(request.accountName() == null ? DEFAULT_ACCOUNT_NAME : request.accountName());
+        newAccount.setOwnerName(request.ownerName());
+        return accountRepository.save(newAccount);
+    }
+
+    /**
+     * Returns the account, or fails with {@link AccountNotFoundException}.
+     */
+    public Mono<Account> getAccountById(Long id) {
+        return accountRepository.findById(id)
+                .switchIfEmpty(Mono.error(() -> new AccountNotFoundException("Account not found")));
+    }
+
+    /**
+     * Adds the amount to the balance in place. An amount with more decimal places than its currency has is rejected
+     * first, like {@code instant-payment-api} rejects it while reading the request; then a missing account is reported
+     * before a non-positive amount, and an amount in another currency than the account's is rejected with
+     * {@link InvalidRequestException}.
+     */
+    public Mono<Account> deposit(DepositRequest request) {
+        if (request.amount() == null) {
+            return Mono.error(new IllegalArgumentException("Amount is required"));
+        }
+        try {
+            Amounts.checkDecimalPlaces(request.amount(), request.currency());
+        } catch (InvalidRequestException e) {
+            return Mono.error(e);
+        }
+        if (request.amount().signum() <= 0) {
+            return getAccountById(request.accountId())
+                    .then(Mono.error(() -> new IllegalArgumentException("Amount must be positive")));
+        }
+        return accountRepository.addToBalance(request.accountId(), request.amount(), request.currency())
+                .switchIfEmpty(Mono.defer(() -> getAccountById(request.accountId())
+                        .flatMap(account -> Mono.error(new InvalidRequestException(
+                                "Amount must be in the currency of the account, " + account.getCurrency())))));
+    }
+}
@@ -0,0 +1,37 @@
+package com.tamaspinter.reactivepaymentapi.service;
+
+import org.apache.kafka.common.errors.InvalidRequestException;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+
+/**
+ * The amount rules of {@code instant-payment-api}'s {@code Money}: an amount has at most as many decimal places as its
+ * currency has minor units, and the amount columns hold two. PostgreSQL would otherwise round every column an amount
+ * is bound to on its own, so a debit and a credit could differ by a cent.
+ */
+final class Amounts {
+
+    private static final int MAX_DECIMAL_PLACES = 2;
+
+    private Amounts() {
+    }
+
+    /**
+     * @throws InvalidRequestException if the currency is not supported or the amount has too many decimal places.
+     */
+    static void checkDecimalPlaces(BigDecimal amount, String currency) {
+        int decimalPlaces;
+        try {
+            decimalPlaces = Currency.getInstance(currency).getDefaultFractionDigits();
+        } catch (IllegalArgumentException e) {
+            throw new InvalidRequestException("Currency " + currency + " is not supported");
+        }
+        if (decimalPlaces < 0 || decimalPlaces > MAX_DECIMAL_PLACES) {
+            throw new InvalidRequestException("Currency " + currency + " is not supported");
+        }
+        if (amount.stripTrailingZeros().scale() > decimalPlaces) {
+            throw new InvalidRequestException("Amount " + amount.toPlainString() + " has more than " + decimalPlaces + " decimal places");
+        }
+    }
+}
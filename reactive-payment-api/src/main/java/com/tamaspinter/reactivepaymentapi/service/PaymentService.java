@@ -0,0 +1,143 @@
+package com.tamaspinter.reactivepaymentapi.service;
+
+import com.tamaspinter.reactivepaymentapi.dto.PaymentRequest;
+import com.tamaspinter.reactivepaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.reactivepaymentapi.notification.TransactionNotifier;
+import com.tamaspinter.reactivepaymentapi.repository.AccountRepository;
+import com.tamaspinter.reactivepaymentapi.repository.PaymentTransactionIds;
+import com.tamaspinter.reactivepaymentapi.repository.PaymentTransactionRepository;
+import org.apache.kafka.common.errors.InvalidRequestException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import javax.security.auth.login.AccountNotFoundException;
+import java.math.BigDecimal;
+
+/**
+ * Processes payments with the single conditional statement of {@link PaymentTransactionRepository#transferAtomically},
+ * so a payment is one database round-trip, never waits on a thread and cannot overdraw an account.
+ * <p>
+ * Repeated {@code Idempotency-Key}s return the stored transaction, as in {@code instant-payment-api}; of two
+ * concurrent payments with a new key, the later one fails on the unique index and returns the first one's transaction.
+ */
+@Service
+public class PaymentService {
+
+    public static final int MAX_KEY_LENGTH = 255;
+
+    private final AccountRepository accountRepository;
+    private final PaymentTransactionRepository paymentTransactionRepository;
+    private final PaymentTransactionIds paymentTransactionIds;
+    private final TransactionNotifier transactionNotifier;
+
+    public PaymentService(AccountRepository accountRepository,
+                          PaymentTransactionRepository paymentTransactionRepository,
+                          PaymentTransactionIds paymentTransactionIds,
+                          TransactionNotifier transactionNotifier) {
+        this.accountRepository = accountRepository;
+        this.paymentTransactionRepository = paymentTransactionRepository;
+        this.paymentTransactionIds = paymentTransactionIds;
+        this.transactionNotifier = transactionNotifier;
+    }
+
+    /**
+     * Processes a payment, storing the client's idempotency key with its transaction.
+     *
+     * @param idempotencyKey The client's key, or {@code null}.
+     */
+    public Mono<PaymentTransaction> processPayment(PaymentRequest request, String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return transfer(request, null);
+        }
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+            return Mono.error(new InvalidRequestException("Idempotency key must be 1 to " + MAX_KEY_LENGTH + " characters"));
+        }
+        return paymentTransactionRepository.findByIdempotencyKey(idempotencyKey)
+                .switchIfEmpty(Mono.defer(() -> transfer(request, idempotencyKey)
+                        .onErrorResume(PaymentService::isUniqueViolation, e ->
+                                paymentTransactionRepository.findByIdempotencyKey(idempotencyKey)
+                                        .switchIfEmpty(Mono.error(e)))))
+                .map(transaction -> replay(transaction, request));
+    }
+
+    private Mono<PaymentTransaction> transfer(PaymentRequest request, String idempotencyKey) {
+        return Mono.defer(() -> {
+            validate(request);
+            PaymentTransaction transaction = new PaymentTransaction(request.fromAccountId(), request.toAccountId(), request.amount(),
+                    request.currency());
+            transaction.setIdempotencyKey(idempotencyKey);
+            return paymentTransactionIds.next()
+                    .flatMap(id -> paymentTransactionRepository.transferAtomically(id, transaction.getFromAccountId(),
+                            transaction.getToAccountId(), transaction.getAmount(), transaction.getCurrency(), transaction.getCreatedAt(),
+                            transaction.getIdempotencyKey()))
+                    .onErrorMap(e -> new DataAccessResourceFailureException("Failed to process payment", e))
+                    .switchIfEmpty(Mono.defer(() -> rejection(request)))
+                    .map(id -> {
+                        transaction.setId(id);
+                        transactionNotifier.publish(transaction);
+                        return transaction;
+                    });
+        });
+    }
+
+    /**
+     * Nothing was inserted: finds out why, in the order of the {@code sql} engine of {@code instant-payment-api}.
+     * The statement does not convert currencies, so both accounts must be in the currency of the amount.
+     */
+    private Mono<Long> rejection(PaymentRequest request) {
+        return accountRepository.findCurrencyById(request.fromAccountId())
+                .switchIfEmpty(Mono.error(() -> new AccountNotFoundException("From Account not found")))
+                .flatMap(fromCurrency -> accountRepository.findCurrencyById(request.toAccountId())
+                        .switchIfEmpty(Mono.error(() -> new AccountNotFoundException("To Account not found")))
+                        .flatMap(toCurrency -> {
+                            if (!fromCurrency.equals(request.currency())) {
+                                return Mono.error(new InvalidRequestException(
+                                        "Amount must be in the currency of the source account, " + fromCurrency));
+                            }
+                            if (!toCurrency.equals(request.currency())) {
+                                return Mono.error(new InvalidRequestException(
+                                        "The reactive payment API does not convert " + fromCurrency + " to " + toCurrency));
+                            }
+                            return Mono.error(new InvalidRequestException("Insufficient balance"));
+                        }));
+    }
+
+    private static PaymentTransaction replay(PaymentTransaction stored, PaymentRequest request) {
+        boolean samePayment = stored.getFromAccountId().equals(request.fromAccountId())
+                && stored.getToAccountId().equals(request.toAccountId())
+                && stored.getCurrency().equals(request.currency())
+                && request.amount() != null
+                && stored.getAmount().compareTo(request.amount()) == 0;
+        if (!samePayment) {
+            throw new InvalidRequestException("Idempotency key was already used for a different payment");
+        }
+        return stored;
+    }
+
+    private static boolean isUniqueViolation(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DataIntegrityViolationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void validate(PaymentRequest request) {
+        if (request == null) {
+            throw new IllegalArgumentException("Payment request cannot be null");
+        }
+        if (request.fromAccountId() == null || request.toAccountId() == null || request.amount() == null) {
+            throw new InvalidRequestException("Account IDs and amount are required");
+        }
+        if (request.fromAccountId().equals(request.toAccountId())) {
+            throw new InvalidRequestException("Cannot transfer to the same account");
+        }
+        if (request.amount().compareTo(BigDecimal.ZERO) <= 0) {
+            throw new InvalidRequestException("Amount must be positive");
+        }
+        Amounts.checkDecimalPlaces(request.amount(), request.currency());
+    }
+}
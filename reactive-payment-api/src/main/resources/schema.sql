@@ -0,0 +1,34 @@
+-- The tables of instant-payment-api used by the account and payment endpoints, as its Flyway migrations leave them.
+-- Against the database the servlet version has migrated these statements change nothing.
+CREATE SEQUENCE IF NOT EXISTS account_seq INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS payment_transaction_seq INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS account (
+    id            BIGINT DEFAULT nextval('account_seq') PRIMARY KEY,
+    balance       NUMERIC(38, 2) NOT NULL,
+    account_name  VARCHAR(255),
+    owner_name    VARCHAR(255)   NOT NULL,
+    balance_slots INTEGER        NOT NULL DEFAULT 0,
+    version       BIGINT,
+    currency      VARCHAR(3)     NOT NULL DEFAULT 'EUR'
+);
+
+CREATE TABLE IF NOT EXISTS payment_transaction (
+    id              BIGINT DEFAULT nextval('payment_transaction_seq') PRIMARY KEY,
+    from_account_id BIGINT         NOT NULL,
+    to_account_id   BIGINT         NOT NULL,
+    amount          NUMERIC(38, 2) NOT NULL,
+    created_at      TIMESTAMP(6)   NOT NULL,
+    idempotency_key VARCHAR(255),
+    currency        VARCHAR(3)     NOT NULL DEFAULT 'EUR',
+    credit_amount   NUMERIC(38, 2),
+    credit_currency VARCHAR(3),
+    fx_rate         NUMERIC(19, 8)
+);
+
+CREATE INDEX IF NOT EXISTS idx_payment_transaction_from_account_created_at_id
+    ON payment_transaction (from_account_id, created_at, id);
+CREATE INDEX IF NOT EXISTS idx_payment_transaction_to_account_created_at_id
+    ON payment_transaction (to_account_id, created_at, id);
+CREATE UNIQUE INDEX IF NOT EXISTS uk_payment_transaction_idempotency_key
+    ON payment_transaction (idempotency_key);
@@ -0,0 +1,103 @@
+package com.tamaspinter.reactivepaymentapi;
+
+import com.tamaspinter.reactivepaymentapi.entity.Account;
+import com.tamaspinter.reactivepaymentapi.handler.AccountHandler;
+import com.tamaspinter.reactivepaymentapi.handler.ApiRouter;
+import com.tamaspinter.reactivepaymentapi.handler.PaymentHandler;
+import com.tamaspinter.reactivepaymentapi.repository.AccountRepository;
+import com.tamaspinter.reactivepaymentapi.service.AccountService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class AccountHandlerTest {
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Mock
+    private PaymentHandler paymentHandler;
+
+    private WebTestClient client;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+        client = WebTestClient.bindToRouterFunction(new ApiRouter().apiRoutes(
+                new AccountHandler(new AccountService(accountRepository)), paymentHandler)).build();
+    }
+
+    @Test
+    void testGetAccount() {
+        Account account = new Account(new BigDecimal("162.00"));
+        account.setId(1L);
+        account.setOwnerName("Tamas Pinter");
+        when(accountRepository.findById(1L)).thenReturn(Mono.just(account));
+        when(accountRepository.findById(2L)).thenReturn(Mono.empty());
+
+        client.get().uri("/api/accounts/1").exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.balance").isEqualTo(162.00)
+                .jsonPath("$.ownerName").isEqualTo("Tamas Pinter")
+                .jsonPath("$.sharded").doesNotExist();
+        client.get().uri("/api/accounts/2").exchange()
+                .expectStatus().isNotFound()
+                .expectBody(String.class).isEqualTo("Account with ID 2 not found");
+    }
+
+    /**
+     * The deposit is a single in-place update; a missing account is reported before an invalid amount, and an amount
+     * in another currency than the account's is rejected.
+     */
+    @Test
+    void testDeposit() {
+        Account account = new Account(new BigDecimal("110.00"));
+        account.setId(1L);
+        when(accountRepository.addToBalance(1L, new BigDecimal("10.00"), "EUR")).thenReturn(Mono.just(account));
+        when(accountRepository.addToBalance(1L, new BigDecimal("10.00"), "HUF")).thenReturn(Mono.empty());
+        when(accountRepository.addToBalance(2L, new BigDecimal("10.00"), "EUR")).thenReturn(Mono.empty());
+        when(accountRepository.findById(1L)).thenReturn(Mono.just(account));
+        when(accountRepository.findById(2L)).thenReturn(Mono.empty());
+
+        deposit("{ \"accountId\": 1, \"amount\": 10.00 }").expectStatus().isOk()
+                .expectBody().jsonPath("$.balance").isEqualTo(110.00);
+        deposit("{ \"accountId\": 1, \"amount\": -5 }").expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Invalid deposit amount");
+        deposit("{ \"accountId\": 2, \"amount\": -5 }").expectStatus().isNotFound();
+        deposit("{ \"accountId\": 1, \"amount\": 10.00, \"currency\": \"HUF\" }").expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Amount must be in the currency of the account, EUR");
+        deposit("{ \"accountId\": 2, \"amount\": 10.00 }").expectStatus().isNotFound();
+        verify(accountRepository, times(3)).addToBalance(anyLong(), any(), any());
+    }
+
+    /**
+     * Fractions of a unit are deposited as they are, not truncated to whole units; an amount finer than the currency's
+     * minor units is rejected.
+     */
+    @Test
+    void testFractionalDeposit() {
+        Account account = new Account(new BigDecimal("100.50"));
+        account.setId(1L);
+        when(accountRepository.addToBalance(1L, new BigDecimal("0.50"), "EUR")).thenReturn(Mono.just(account));
+
+        deposit("{ \"accountId\": 1, \"amount\": 0.50 }").expectStatus().isOk()
+                .expectBody().jsonPath("$.balance").isEqualTo(100.50);
+        deposit("{ \"accountId\": 1, \"amount\": 0.005 }").expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Amount 0.005 has more than 2 decimal places");
+        verify(accountRepository, times(1)).addToBalance(anyLong(), any(), any());
+    }
+
+    private WebTestClient.ResponseSpec deposit(String body) {
+        return client.post().uri("/api/accounts/deposit").contentType(MediaType.APPLICATION_JSON).bodyValue(body).exchange();
+    }
+}
@@ -0,0 +1,173 @@
+package com.tamaspinter.reactivepaymentapi;
+
+import com.tamaspinter.reactivepaymentapi.entity.PaymentTransaction;
+import com.tamaspinter.reactivepaymentapi.handler.AccountHandler;
+import com.tamaspinter.reactivepaymentapi.handler.ApiRouter;
+import com.tamaspinter.reactivepaymentapi.handler.PaymentHandler;
+import com.tamaspinter.reactivepaymentapi.notification.TransactionNotifier;
+import com.tamaspinter.reactivepaymentapi.repository.AccountRepository;
+import com.tamaspinter.reactivepaymentapi.repository.PaymentTransactionIds;
+import com.tamaspinter.reactivepaymentapi.repository.PaymentTransactionRepository;
+import com.tamaspinter.reactivepaymentapi.service.AccountService;
+import com.tamaspinter.reactivepaymentapi.service.PaymentService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class PaymentHandlerTest {
+
+    private static final String PAYMENT = "{ \"fromAccountId\": 1, \"toAccountId\": 2, \"amount\": 25.00 }";
+
+    @Mock
+    private AccountRepository accountRepository;
+
+    @Mock
+    private PaymentTransactionRepository paymentTransactionRepository;
+
+    @Mock
+    private TransactionNotifier transactionNotifier;
+
+    private WebTestClient client;
+
+    @BeforeEach
+    void setup() {
+        MockitoAnnotations.openMocks(this);
+        when(paymentTransactionRepository.nextIdBlock()).thenReturn(Mono.just(42L));
+        PaymentService paymentService = new PaymentService(accountRepository, paymentTransactionRepository,
+                new PaymentTransactionIds(paymentTransactionRepository), transactionNotifier);
+        client = WebTestClient.bindToRouterFunction(new ApiRouter().apiRoutes(
+                new AccountHandler(new AccountService(accountRepository)), new PaymentHandler(paymentService))).build();
+    }
+
+    /**
+     * The conditional statement inserted the transaction: no rejection lookup, and the notification is sent.
+     */
+    @Test
+    void testPaymentSuccess() {
+        when(paymentTransactionRepository.transferAtomically(eq(42L), eq(1L), eq(2L), eq(new BigDecimal("25.00")), eq("EUR"), any(), isNull()))
+                .thenReturn(Mono.just(42L));
+
+        post(PAYMENT).expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.id").isEqualTo(42)
+                .jsonPath("$.fromAccountId").isEqualTo(1)
+                .jsonPath("$.amount").isEqualTo(25.00)
+                .jsonPath("$.currency").isEqualTo("EUR")
+                .jsonPath("$.idempotencyKey").doesNotExist();
+
+        verify(accountRepository, never()).findCurrencyById(anyLong());
+        verify(transactionNotifier).publish(argThat(transaction -> transaction.getId() == 42L));
+    }
+
+    @Test
+    void testPaymentRejections() {
+        when(paymentTransactionRepository.transferAtomically(any(), any(), any(), any(), any(), any(), any())).thenReturn(Mono.empty());
+        when(accountRepository.findCurrencyById(1L)).thenReturn(Mono.just("EUR"));
+        when(accountRepository.findCurrencyById(2L)).thenReturn(Mono.just("EUR"));
+
+        post(PAYMENT).expectStatus().isBadRequest().expectBody(String.class).isEqualTo("Insufficient balance");
+
+        when(accountRepository.findCurrencyById(2L)).thenReturn(Mono.empty());
+        post(PAYMENT).expectStatus().isNotFound();
+
+        post("{ \"fromAccountId\": 1, \"toAccountId\": 1, \"amount\": 25.00 }")
+                .expectStatus().isBadRequest().expectBody(String.class).isEqualTo("Cannot transfer to the same account");
+        verify(transactionNotifier, never()).publish(any());
+    }
+
+    /**
+     * The statement only moves money between accounts in the currency of the amount; the rejection says which
+     * account is in another one.
+     */
+    @Test
+    void testPaymentCurrencyRejections() {
+        when(paymentTransactionRepository.transferAtomically(any(), any(), any(), any(), any(), any(), any())).thenReturn(Mono.empty());
+        when(accountRepository.findCurrencyById(1L)).thenReturn(Mono.just("EUR"));
+        when(accountRepository.findCurrencyById(2L)).thenReturn(Mono.just("HUF"));
+
+        post("{ \"fromAccountId\": 1, \"toAccountId\": 2, \"amount\": 25.00, \"currency\": \"HUF\" }")
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Amount must be in the currency of the source account, EUR");
+        post(PAYMENT).expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("The reactive payment API does not convert EUR to HUF");
+        verify(paymentTransactionRepository).transferAtomically(anyLong(), eq(1L), eq(2L), any(), eq("HUF"), any(), isNull());
+        verify(transactionNotifier, never()).publish(any());
+    }
+
+    /**
+     * Fractions of a unit are paid as they are; an amount finer than the currency's minor units is rejected before it
+     * reaches the statement, where each column would round it on its own.
+     */
+    @Test
+    void testFractionalAmounts() {
+        when(paymentTransactionRepository.transferAtomically(anyLong(), eq(1L), eq(2L), eq(new BigDecimal("0.5")), eq("EUR"), any(), isNull()))
+                .thenReturn(Mono.just(43L));
+
+        post("{ \"fromAccountId\": 1, \"toAccountId\": 2, \"amount\": 0.5 }").expectStatus().isOk()
+                .expectBody().jsonPath("$.amount").isEqualTo(0.5);
+        post("{ \"fromAccountId\": 1, \"toAccountId\": 2, \"amount\": 0.005 }").expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Amount 0.005 has more than 2 decimal places");
+        post("{ \"fromAccountId\": 1, \"toAccountId\": 2, \"amount\": 10.5, \"currency\": \"JPY\" }").expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Amount 10.5 has more than 0 decimal places");
+        verify(paymentTransactionRepository, times(1)).transferAtomically(any(), any(), any(), any(), any(), any(), any());
+    }
+
+    /**
+     * One sequence value serves a block of IDs, so the column default never spends a block on a single row.
+     */
+    @Test
+    void testPaymentIdsComeFromOneBlock() {
+        when(paymentTransactionRepository.transferAtomically(any(), any(), any(), any(), any(), any(), any()))
+                .thenAnswer(invocation -> Mono.just(invocation.<Long>getArgument(0)));
+
+        post(PAYMENT).expectStatus().isOk().expectBody().jsonPath("$.id").isEqualTo(42);
+        post(PAYMENT).expectStatus().isOk().expectBody().jsonPath("$.id").isEqualTo(43);
+        verify(paymentTransactionRepository, times(1)).nextIdBlock();
+    }
+
+    @Test
+    void testDatabaseFailure() {
+        when(paymentTransactionRepository.transferAtomically(any(), any(), any(), any(), any(), any(), any()))
+                .thenReturn(Mono.error(new IllegalStateException("Connection closed")));
+
+        post(PAYMENT).expectStatus().is5xxServerError().expectBody(String.class).isEqualTo("Database error");
+    }
+
+    /**
+     * A concurrent payment stored the key first: the unique index rejects this one, which returns the stored
+     * transaction.
+     */
+    @Test
+    void testConcurrentIdempotencyKeyReturnsStoredTransaction() {
+        PaymentTransaction stored = new PaymentTransaction(1L, 2L, new BigDecimal("25.00"));
+        stored.setId(41L);
+        when(paymentTransactionRepository.findByIdempotencyKey("key-1")).thenReturn(Mono.empty(), Mono.just(stored));
+        when(paymentTransactionRepository.transferAtomically(any(), any(), any(), any(), any(), any(), eq("key-1")))
+                .thenReturn(Mono.error(new DataIntegrityViolationException("uk_payment_transaction_idempotency_key")));
+
+        client.post().uri("/api/payments").header("Idempotency-Key", "key-1")
+                .contentType(MediaType.APPLICATION_JSON).bodyValue(PAYMENT)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.id").isEqualTo(41);
+
+        client.post().uri("/api/payments").header("Idempotency-Key", "key-1")
+                .contentType(MediaType.APPLICATION_JSON).bodyValue("{ \"fromAccountId\": 1, \"toAccountId\": 2, \"amount\": 30.00 }")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    private WebTestClient.ResponseSpec post(String body) {
+        return client.post().uri("/api/payments").contentType(MediaType.APPLICATION_JSON).bodyValue(body).exchange();
+    }
+}